@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+/*
+ * Times the interval scheduling packer against the previous bucket packer on 1,000,000 simulated 100 bp reads,
+ * after a few warm up rounds,  and checks that no row of the new packer has overlapping alignments.
+ * Not part of the IGV jar,  build with "ant bench" and run with e.g.
+ * java -Xmx2g -cp tmp:tmp-bench org.broad.igv.sam.AlignmentPackerBenchmark [nReads] [intervalLength]
+ */
+package org.broad.igv.sam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.broad.igv.sam.AlignmentInterval.Row;
+
+public class AlignmentPackerBenchmark {
+
+    static final int READ_LENGTH = 100;
+    static final int WARM_UP = 3;
+    static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+
+        int nReads = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int intervalLength = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        List<Alignment> alignments = simulate(nReads, intervalLength);
+        AlignmentPacker packer = new AlignmentPacker();
+
+        long bucketTime = 0;
+        long heapTime = 0;
+        int bucketRows = 0;
+        int heapRows = 0;
+        for (int i = 0; i < WARM_UP + ROUNDS; i++) {
+
+            List<Row> rows = new ArrayList();
+            long t0 = System.nanoTime();
+            packByBuckets(alignments.iterator(), intervalLength, rows);
+            long dt = System.nanoTime() - t0;
+            if (i >= WARM_UP) bucketTime += dt;
+            bucketRows = rows.size();
+
+            t0 = System.nanoTime();
+            rows = packer.packAlignments(alignments.iterator(), intervalLength, false, null, Integer.MAX_VALUE);
+            dt = System.nanoTime() - t0;
+            if (i >= WARM_UP) heapTime += dt;
+            heapRows = rows.size();
+            verify(rows, nReads);
+        }
+
+        System.out.println(nReads + " reads over " + intervalLength + " bp");
+        System.out.println("bucket packer:              " + (bucketTime / ROUNDS / 1000000) + " ms,  " +
+                bucketRows + " rows");
+        System.out.println("interval scheduling packer: " + (heapTime / ROUNDS / 1000000) + " ms,  " +
+                heapRows + " rows");
+    }
+
+    static List<Alignment> simulate(int nReads, int intervalLength) {
+        Random random = new Random(1);
+        int[] starts = new int[nReads];
+        for (int i = 0; i < nReads; i++) {
+            starts[i] = random.nextInt(intervalLength - READ_LENGTH);
+        }
+        Arrays.sort(starts);
+        List<Alignment> alignments = new ArrayList(nReads);
+        for (int i = 0; i < nReads; i++) {
+            int length = READ_LENGTH - random.nextInt(20);
+            alignments.add(new DotAlignedAlignment("chr1", starts[i], starts[i] + length, random.nextBoolean(),
+                    "read" + i));
+        }
+        return alignments;
+    }
+
+    static void verify(List<Row> rows, int nReads) {
+        int count = 0;
+        for (Row row : rows) {
+            int lastEnd = Integer.MIN_VALUE;
+            for (Alignment a : row.alignments) {
+                if (a.getStart() < lastEnd + AlignmentPacker.MIN_ALIGNMENT_SPACING) {
+                    throw new IllegalStateException("Overlapping alignments in row at " + a.getStart());
+                }
+                lastEnd = a.getEnd();
+                count++;
+            }
+        }
+        if (count != nReads) {
+            throw new IllegalStateException("Packed " + count + " of " + nReads + " alignments");
+        }
+    }
+
+    static final Comparator<Alignment> LENGTH_COMPARATOR = new Comparator<Alignment>() {
+        public int compare(Alignment row1, Alignment row2) {
+            return (row2.getEnd() - row2.getStart()) -
+                    (row1.getEnd() - row2.getStart());
+
+        }
+    };
+
+    /**
+     * The previous packer,  without pairing.  Alignments are placed in one bucket per base of the interval and rows
+     * are filled by scanning the buckets,  so the cost grows with the interval length times the depth.
+     */
+    static void packByBuckets(Iterator<Alignment> iter, int end, List<Row> alignmentRows) {
+
+        if (!iter.hasNext()) {
+            return;
+        }
+
+        Alignment firstAlignment = iter.next();
+        int start = firstAlignment.getStart();
+        int bucketCount = end - start + 1;
+
+        // Create buckets.  We use priority queues to keep the buckets sorted by alignment length.
+        PriorityQueue[] bucketArray = new PriorityQueue[bucketCount];
+        PriorityQueue firstBucket = new PriorityQueue(5, LENGTH_COMPARATOR);
+        bucketArray[0] = firstBucket;
+        firstBucket.add(firstAlignment);
+        int totalCount = 1;
+
+        //  Allocate alignments to buckets based on position
+        while (iter.hasNext()) {
+            Alignment alignment = iter.next();
+            if (alignment.isMapped()) {
+                int bucketNumber = Math.max(0, alignment.getStart() - start);
+                if (bucketNumber < bucketCount) {
+                    PriorityQueue bucket = bucketArray[bucketNumber];
+                    if (bucket == null) {
+                        bucket = new PriorityQueue<Alignment>(5, LENGTH_COMPARATOR);
+                        bucketArray[bucketNumber] = bucket;
+                    }
+                    bucket.add(alignment);
+                    totalCount++;
+                }
+            }
+        }
+
+        // Allocate alignments to rows
+        int allocatedCount = 0;
+        int nextStart = start;
+        Row currentRow = new Row();
+        while (allocatedCount < totalCount) {
+
+            // Loop through alignments until we reach the end of the interval
+            while (nextStart <= end) {
+                PriorityQueue<Alignment> bucket = null;
+
+                // Advance to next occupied bucket
+                while (bucket == null && nextStart <= end) {
+                    int bucketNumber = nextStart - start;
+                    bucket = bucketArray[bucketNumber];
+                    if (bucket == null) {
+                        nextStart++;
+                    }
+                }
+
+                // Pull the next alignment out of the bucket and add to the current row
+                if (bucket != null) {
+                    Alignment alignment = bucket.remove();
+                    if (bucket.isEmpty()) {
+                        bucketArray[nextStart - start] = null;
+                    }
+                    currentRow.addAlignment(alignment);
+                    nextStart = currentRow.getLastEnd() + AlignmentPacker.MIN_ALIGNMENT_SPACING;
+                    allocatedCount++;
+                }
+            }
+
+            // We've reached the end of the interval,  start a new row
+            if (currentRow.alignments.size() > 0) {
+                alignmentRows.add(currentRow);
+            }
+            currentRow = new Row();
+            nextStart = start;
+        }
+    }
+}
@@ -71,6 +71,7 @@ public class PreferenceManager implements PropertyManager {
     public static final String CHART_COLOR_TRACK_NAME = "CHART.COLOR_TRACK_NAME";
     public static final String CHART_AUTOSCALE = "CHART.AUTOSCALE";
     public static final String CHART_SHOW_DATA_RANGE = "CHART.SHOW_DATA_RANGE";
+    public static final String TDF_TILE_CACHE_MB = "TDF.TILE_CACHE_MB";
 
     public static final String SAM_ALLELE_THRESHOLD = "SAM.ALLELE_THRESHOLD";
     public static final String SAM_QUALITY_THRESHOLD = "SAM.QUALITY_THRESHOLD";
@@ -103,6 +104,10 @@ public class PreferenceManager implements PropertyManager {
     public static final String SAM_SHOW_JUNCTION_TRACK = "SAM.SHOW_JUNCTION_TRACK";
     public static final String SAM_JUNCTION_MIN_FLANKING_WIDTH = "SAM.JUNCTION_MIN_FLANKING_WIDTH";
     public static final String SAM_JUNCTION_MIN_COVERAGE = "SAM.JUNCTION_MIN_COVERAGE";
+    public static final String SAM_PREFETCH_TILES = "SAM.PREFETCH_TILES";
+    public static final String SAM_TILE_CACHE_MB = "SAM.TILE_CACHE_MB";
+    public static final String SAM_DISK_CACHE = "SAM.DISK_CACHE";
+    public static final String SAM_DISK_CACHE_MB = "SAM.DISK_CACHE_MB";
 
 
     public static final String EXPAND_FEAUTRE_TRACKS = "EXPAND_FEATURE_TRACKS";
@@ -170,6 +175,7 @@ public class PreferenceManager implements PropertyManager {
 
     public static final String SHOW_SEQUENCE_TRANSLATION = "SHOW_SEQUENCE_TRANSLATION";
     public static final String MAX_SEQUENCE_RESOLUTION = "MAX_SEQUENCE_RESOLUTION";
+    public static final String SEQUENCE_PACKED_CHROMOSOME = "SEQUENCE.PACKED_CHROMOSOME";
 
     public static final String AUTO_UPDATE_GENOMES = "AUTO_UPDATE_GENOMES";
 
@@ -1017,6 +1023,7 @@ public class PreferenceManager implements PropertyManager {
         defaultValues.put(CHART_COLOR_TRACK_NAME, "true");
         defaultValues.put(CHART_TRACK_HEIGHT_KEY, "40");
         defaultValues.put(CHART_SHOW_ALL_HEATMAP, "false");
+        defaultValues.put(TDF_TILE_CACHE_MB, "64");
 
         defaultValues.put(SAM_SHOW_DUPLICATES, "false");
         defaultValues.put(SAM_SHOW_SOFT_CLIPPED, "false");
@@ -1049,6 +1056,10 @@ public class PreferenceManager implements PropertyManager {
         defaultValues.put(SAM_SHOW_JUNCTION_TRACK, "false");
         defaultValues.put(SAM_JUNCTION_MIN_FLANKING_WIDTH, "0");
         defaultValues.put(SAM_JUNCTION_MIN_COVERAGE, "1");
+        defaultValues.put(SAM_PREFETCH_TILES, "true");
+        defaultValues.put(SAM_TILE_CACHE_MB, "128");
+        defaultValues.put(SAM_DISK_CACHE, "false");
+        defaultValues.put(SAM_DISK_CACHE_MB, "2000");
 
         defaultValues.put(NORMALIZE_COVERAGE, "false");
 
@@ -1075,6 +1086,7 @@ public class PreferenceManager implements PropertyManager {
 
         defaultValues.put(SHOW_SEQUENCE_TRANSLATION, "false");
         defaultValues.put(MAX_SEQUENCE_RESOLUTION, "2");
+        defaultValues.put(SEQUENCE_PACKED_CHROMOSOME, "false");
 
         defaultValues.put(AUTO_UPDATE_GENOMES, "true");
 
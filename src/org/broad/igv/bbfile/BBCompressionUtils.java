@@ -18,6 +18,9 @@
 package org.broad.igv.bbfile;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
@@ -40,6 +43,9 @@ public class BBCompressionUtils {
 
     private static Logger log = Logger.getLogger(BBCompressionUtils.class);
 
+    private static final int MAX_POOLED_INFLATERS = 32;
+    private static ArrayBlockingQueue<Inflater> inflaterPool = new ArrayBlockingQueue(MAX_POOLED_INFLATERS);
+
     /*
     * Decompress ZLIB commpressed data into a buffer
     *
@@ -53,54 +59,67 @@ public class BBCompressionUtils {
     *   buffer of uncompressed byte data
     * */
     public static byte[] decompress(byte[] data, int uncompressBufSize) {
+        return decompress(data, 0, data.length, uncompressBufSize);
+    }
 
-        // mpd: new code
-        byte [] inbuf = data;   // input is first assigned to full data
-        int rem = data.length;
-        int count = 0;
-        int off = 0;
-
-        // Create an expandable byte array to hold the decompressed data
-        ByteArrayOutputStream bos = new ByteArrayOutputStream((int) (1.5 * inbuf.length));
-
-        // Decompress the data
-        byte[] outbuf = new byte[uncompressBufSize];
-
-        while (rem > 0) {
+    /*
+    * Decompress ZLIB commpressed data, which may be several concatenated ZLIB streams.
+    * Inflaters are taken from a pool and returned to it, so this may be called from
+    * several threads.
+    *
+    * Parameters:
+    *   data - data buffer
+    *   offset - position of the compressed data in the buffer
+    *   length - number of compressed bytes
+    *   uncompressBufSize - expected maximum size of the uncompressed data
+    *
+    * Return:
+    *   buffer of uncompressed byte data
+    * */
+    public static byte[] decompress(byte[] data, int offset, int length, int uncompressBufSize) {
 
-            // Create the decompressor and give it the data to compress
-            Inflater decompressor = new Inflater();
-            decompressor.setInput(inbuf);
+        Inflater inflater = inflaterPool.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
 
-            try {
-                //byte[] outbuf = new byte[uncompressBufSize];
-                uncompressBufSize = outbuf.length;
-                count = decompressor.inflate(outbuf, 0, uncompressBufSize);
+        byte[] outbuf = new byte[Math.max(uncompressBufSize, 1024)];
+        int count = 0;
+        int off = offset;
+        int end = offset + length;
 
-                rem = decompressor.getRemaining();
-                if (rem > 0) {
-                    off += inbuf.length - rem;
-                    inbuf = new byte[rem];
-                    System.arraycopy(data, off, inbuf, 0, rem);
-                    uncompressBufSize -= count;
+        try {
+            while (off < end) {
+                inflater.reset();
+                inflater.setInput(data, off, end - off);
+                while (!inflater.finished()) {
+                    if (count == outbuf.length) {
+                        outbuf = Arrays.copyOf(outbuf, 2 * outbuf.length);
+                    }
+                    int n = inflater.inflate(outbuf, count, outbuf.length - count);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    count += n;
                 }
-
-                bos.write(outbuf, 0, count);
-
-            //} catch (DataFormatException e) {
-            } catch (Exception e) {
-                log.error(e.getMessage());
+                if (!inflater.finished()) {
+                    log.error("Truncated compressed data");
+                    break;
+                }
+                off = end - inflater.getRemaining();
+            }
+        } catch (DataFormatException e) {
+            log.error(e.getMessage());
+        } finally {
+            inflater.reset();
+            if (!inflaterPool.offer(inflater)) {
+                inflater.end();
             }
         }
 
-        try {
-            bos.close();
-        } catch (IOException e) {
-        }
-
-        // Get the decompressed data
-        return bos.toByteArray();
+        return count == outbuf.length ? outbuf : Arrays.copyOf(outbuf, count);
     }
+
     /*
     * */
     public static byte[] compress(byte[] data, int compressBufSize) {
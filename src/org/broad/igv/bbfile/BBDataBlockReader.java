@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.bbfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.broad.tribble.util.SeekableStream;
+
+/*
+*   Reads the data blocks of a list of R+ tree leaf hits, a batch of hits at a time.
+*
+*   The blocks of a batch are sorted by file offset and neighbouring blocks are fetched with a
+*   single read, which is a single range request for a remote file.  Compressed blocks are then
+*   inflated in parallel.
+* */
+public class BBDataBlockReader {
+
+    private static Logger log = Logger.getLogger(BBDataBlockReader.class);
+
+    static final int MAX_BATCH_BYTES = 4000000;  // compressed bytes read per batch
+    static final int MAX_GAP = 8192;             // unused bytes read to merge two ranges
+
+    private static ExecutorService inflateExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BBBlockInflater");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private SeekableStream fis;
+    private List<RPTreeLeafNodeItem> leafHitList;
+    private int uncompressBufSize;
+
+    private int batchStart = 0;   // index of first leaf item of the loaded batch
+    private byte[][] blocks = new byte[0][];   // uncompressed data blocks of the loaded batch
+
+    /*
+    *   Constructor for a block reader over a leaf hit list.
+    *
+    *   Parameters:
+    *       fis - file input stream handle
+    *       leafHitList - R+ tree leaf hit items containing data block file locations
+    *       uncompressBufSize - byte size for decompression buffer; else 0 for uncompressed
+    * */
+    public BBDataBlockReader(SeekableStream fis, List<RPTreeLeafNodeItem> leafHitList, int uncompressBufSize) {
+        this.fis = fis;
+        this.leafHitList = leafHitList;
+        this.uncompressBufSize = uncompressBufSize;
+    }
+
+    /*
+    *   Method returns the uncompressed data block of a leaf hit, loading the batch starting
+    *   with that hit if it is not loaded.
+    *
+    *   Parameters:
+    *       leafItemIndex - index of the leaf item in the hit list
+    *
+    *   Returns:
+    *       uncompressed data block
+    * */
+    public byte[] getBlock(int leafItemIndex) {
+        if (leafItemIndex < batchStart || leafItemIndex >= batchStart + blocks.length) {
+            loadBatch(leafItemIndex);
+        }
+        return blocks[leafItemIndex - batchStart];
+    }
+
+    private void loadBatch(int start) {
+
+        // Take hits until the batch size is reached,  but at least one
+        int end = start;
+        long batchBytes = 0;
+        while (end < leafHitList.size()) {
+            long size = leafHitList.get(end).geDataSize();
+            if (end > start && batchBytes + size > MAX_BATCH_BYTES) {
+                break;
+            }
+            batchBytes += size;
+            end++;
+        }
+
+        Integer[] order = new Integer[end - start];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = start + i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                long o1 = leafHitList.get(i1).getDataOffset();
+                long o2 = leafHitList.get(i2).getDataOffset();
+                return o1 < o2 ? -1 : (o1 == o2 ? 0 : 1);
+            }
+        });
+
+        final byte[][] buffers = new byte[order.length][];
+        try {
+            int i = 0;
+            while (i < order.length) {
+
+                // Merge ranges separated by at most MAX_GAP bytes into one read
+                long rangeStart = leafHitList.get(order[i]).getDataOffset();
+                long rangeEnd = rangeStart + leafHitList.get(order[i]).geDataSize();
+                int j = i + 1;
+                while (j < order.length) {
+                    RPTreeLeafNodeItem item = leafHitList.get(order[j]);
+                    if (item.getDataOffset() > rangeEnd + MAX_GAP) {
+                        break;
+                    }
+                    rangeEnd = Math.max(rangeEnd, item.getDataOffset() + item.geDataSize());
+                    j++;
+                }
+
+                byte[] range = new byte[(int) (rangeEnd - rangeStart)];
+                fis.seek(rangeStart);
+                fis.readFully(range);
+
+                for (int k = i; k < j; k++) {
+                    RPTreeLeafNodeItem item = leafHitList.get(order[k]);
+                    int offset = (int) (item.getDataOffset() - rangeStart);
+                    if (j - i == 1) {
+                        buffers[order[k] - start] = range;
+                    } else {
+                        buffers[order[k] - start] = Arrays.copyOfRange(range, offset, offset + (int) item.geDataSize());
+                    }
+                }
+                i = j;
+            }
+        } catch (IOException ex) {
+            log.error("Error reading data blocks", ex);
+            throw new RuntimeException("Error reading data blocks", ex);
+        }
+
+        if (uncompressBufSize > 0) {
+            inflate(buffers);
+        }
+
+        batchStart = start;
+        blocks = buffers;
+    }
+
+    /*
+    *   Decompress the buffers in place, in parallel when there is more than one.
+    * */
+    private void inflate(final byte[][] buffers) {
+
+        if (buffers.length == 1) {
+            buffers[0] = BBCompressionUtils.decompress(buffers[0], uncompressBufSize);
+            return;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList(buffers.length);
+        for (int i = 0; i < buffers.length; i++) {
+            final int index = i;
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    buffers[index] = BBCompressionUtils.decompress(buffers[index], uncompressBufSize);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : inflateExecutor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted decompressing data blocks", ex);
+        } catch (ExecutionException ex) {
+            log.error("Error decompressing data blocks", ex.getCause());
+            throw new RuntimeException("Error decompressing data blocks", ex.getCause());
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import org.apache.log4j.Logger;
+import org.broad.igv.util.FileUtils;
 import org.broad.tribble.util.LittleEndianInputStream;
 import org.broad.tribble.util.SeekableFileStream;
 import org.broad.tribble.util.SeekableStream;
@@ -92,6 +93,12 @@ public class BBFileReader {
 
     public static final long BBFILE_HEADER_OFFSET = 0;
 
+    // Local files up to this size have their full R+ data index read in when opened; otherwise,  and always for
+    // remote files where each node read is a separate request,  chromosome level index nodes are read on demand
+    // into a bounded cache.
+    public static final long FULL_INDEX_LOAD_MAX_FILE_SIZE = 100000000;
+    public static final int MAX_CACHED_INDEX_ITEMS = 250000;
+
     private static Logger log = Logger.getLogger(BBFileReader.class);
 
     // Defines the Big Binary File (BBFile) access
@@ -124,6 +131,7 @@ public class BBFileReader {
     // R+ tree
     private long chromDataTreeOffset;  // file offset to mChromosome data R+ tree
     private RPTree chromosomeDataTree;     // Container for the mChromosome data R+ tree
+    private RPTreeNodeCache indexNodeCache;  // R+ tree nodes read on demand; null if fully loaded
 
 
     public BBFileReader(String path) throws IOException {
@@ -132,6 +140,20 @@ public class BBFileReader {
     }
 
     public BBFileReader(String path, SeekableStream stream) {
+        this(path, stream, !FileUtils.isRemote(path) &&
+                stream.length() > 0 && stream.length() <= FULL_INDEX_LOAD_MAX_FILE_SIZE);
+    }
+
+    /*
+    *   Constructor for a BBFile reader.
+    *
+    *   Parameters:
+    *       path - BBFile source pathname
+    *       stream - seekable stream for the BBFile
+    *       loadFullIndex - if true, the R+ data index is read in completely; else
+    *           chromosome level index nodes are read on demand and cached
+    * */
+    public BBFileReader(String path, SeekableStream stream, boolean loadFullIndex) {
 
 
         log.debug("Opening BBFile source  " + path);
@@ -197,8 +219,12 @@ public class BBFileReader {
         chromDataTreeOffset = fileHeader.getFullIndexOffset();
         if (chromDataTreeOffset != 0) {
             fileOffset = chromDataTreeOffset;
-            boolean forceDescend = false;
-            chromosomeDataTree = new RPTree(fis, fileOffset, isLowToHigh, uncompressBufSize, forceDescend);
+            boolean forceDescend = loadFullIndex;
+            if (!loadFullIndex) {
+                indexNodeCache = new RPTreeNodeCache(MAX_CACHED_INDEX_ITEMS);
+            }
+            chromosomeDataTree = new RPTree(fis, fileOffset, isLowToHigh, uncompressBufSize, forceDescend,
+                    indexNodeCache);
         }
 
 
@@ -364,6 +390,17 @@ public class BBFileReader {
         return chromosomeDataTree;
     }
 
+    /*
+    *   Method returns the cache of R+ data index nodes read on demand.
+    *
+    *   Returns:
+    *       R+ tree node cache; or null if the full index was read in when the file was opened
+    * */
+
+    public RPTreeNodeCache getIndexNodeCache() {
+        return indexNodeCache;
+    }
+
     /*
     *   Method returns number of zoom level data is included in the file.
     *
@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -194,6 +195,14 @@ public class BPTree {
 
 
     Map<String, String> chromosomeKeyCache = new HashMap();
+
+    // The tree is fully read in, so lookups by key and by ID range are remembered
+    // rather than walking the nodes again for each data block.
+    static final int MAX_CACHED_ID_MAPS = 1000;
+    Map<String, Integer> chromosomeIDCache = Collections.synchronizedMap(new HashMap<String, Integer>());
+    Map<Long, HashMap<Integer, String>> chromosomeIDMapCache =
+            Collections.synchronizedMap(new HashMap<Long, HashMap<Integer, String>>());
+
     /*
     *   Returns a search key for the mChromosome region  which  can
     *   be used to search for a corresponding section in the B+ tree.
@@ -225,12 +234,15 @@ public class BPTree {
     *
     * */
     public int getChromosomeID(String chromKey) {
-         int chromosomeID;
+         Integer chromosomeID = chromosomeIDCache.get(chromKey);
 
         // Search the B+ tree to extract the Chromosome ID.
-        BPTreeNode thisNode = rootNode;
+        if(chromosomeID == null) {
+            BPTreeNode thisNode = rootNode;
 
-        chromosomeID = findChromosomeID(thisNode, chromKey);
+            chromosomeID = findChromosomeID(thisNode, chromKey);
+            chromosomeIDCache.put(chromKey, chromosomeID);
+        }
 
         return chromosomeID;
     }
@@ -289,13 +301,22 @@ public class BPTree {
     * */
     public HashMap<Integer, String> getChromosomeIDMap(int startChromID, int endChromID){
 
+        // Iterators request the map for every data block, nearly always for the same range
+        long rangeKey = ((long) startChromID << 32) | (endChromID & 0xffffffffL);
+        HashMap<Integer, String> chromosomeIDMap = chromosomeIDMapCache.get(rangeKey);
+        if(chromosomeIDMap != null)
+            return new HashMap<Integer, String>(chromosomeIDMap);
+
         // Search the B+ tree to extract the chromosome ID.
         BPTreeNode thisNode = rootNode;
 
-        HashMap<Integer, String> chromosomeIDMap = new HashMap<Integer, String>();
+        chromosomeIDMap = new HashMap<Integer, String>();
 
         findChromosomeMap(thisNode, startChromID, endChromID, chromosomeIDMap);
 
+        if(chromosomeIDMapCache.size() < MAX_CACHED_ID_MAPS)
+            chromosomeIDMapCache.put(rangeKey, new HashMap<Integer, String>(chromosomeIDMap));
+
         return chromosomeIDMap;
     }
 
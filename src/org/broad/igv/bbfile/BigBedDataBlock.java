@@ -118,6 +118,35 @@ public class BigBedDataBlock {
         // use methods getBedData or getNextFeature to extract block data
     }
 
+    /*
+    *   Constructor for Bed data block reader over a block already read and decompressed
+    *   by a BBDataBlockReader.
+    *
+    *   Parameters:
+    *       bedBuffer - uncompressed data block
+    *       leafHitItem - R+ tree leaf item containing chromosome region and file data location
+    *       chromosomeMap - map of chromosome ID's and corresponding names
+    *       isLowToHigh - byte order is low to high if true; else high to low
+    * */
+    public BigBedDataBlock(byte[] bedBuffer, RPTreeLeafNodeItem leafHitItem,
+            HashMap<Integer, String> chromosomeMap, boolean isLowToHigh){
+        this.leafHitItem = leafHitItem;
+        this.chromosomeMap = chromosomeMap;
+        this.isLowToHigh = isLowToHigh;
+
+        dataBlockSize = this.leafHitItem.geDataSize();
+        fileOffset = this.leafHitItem.getDataOffset();
+        this.bedBuffer = bedBuffer;
+
+        // wrap the bed buffer as an input stream
+        if(this.isLowToHigh)
+            lbdis = new LittleEndianInputStream(new ByteArrayInputStream(bedBuffer));
+        else
+            dis = new DataInputStream(new ByteArrayInputStream(bedBuffer));
+
+        remDataSize = bedBuffer.length;
+    }
+
     /*
     *   Method returns all Bed features within the decompressed block buffer
     *
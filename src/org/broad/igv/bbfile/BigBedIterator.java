@@ -48,6 +48,7 @@ public class BigBedIterator implements Iterator<BedFeature> {
 
     // chromosome region extraction items
     private ArrayList<RPTreeLeafNodeItem> leafHitList; // array of leaf hits for selection region items
+    private BBDataBlockReader blockReader;  // reads and decompresses the leaf hit data blocks
     private HashMap<Integer, String> chromosomeMap;  // map of chromosome ID's and corresponding names
     private int leafItemIndex;  // index of current leaf item being processed from leaf hit list
     RPTreeLeafNodeItem leafHitItem;   // leaf item being processed by next
@@ -322,6 +323,7 @@ public class BigBedIterator implements Iterator<BedFeature> {
 
         // hit list for hit region; subject to mMaxLeafHits limitation
          leafHitList = chromDataTree.getChromosomeDataHits(hitRegion, contained);
+         blockReader = new BBDataBlockReader(fis, leafHitList, chromDataTree.getUncompressBuffSize());
 
         // check if any leaf items were selected
         int nHits = leafHitList.size();
@@ -366,11 +368,10 @@ public class BigBedIterator implements Iterator<BedFeature> {
         chromosomeMap = chromIDTree.getChromosomeIDMap(startChromID, endChromID);
 
         boolean isLowToHigh = chromDataTree.isIsLowToHigh();
-        int uncompressBufSize = chromDataTree.getUncompressBuffSize();
 
-        // decompress leaf item data block for feature extraction
-        bedDataBlock = new BigBedDataBlock(fis, leafHitItem, chromosomeMap, isLowToHigh,
-                uncompressBufSize);
+        // decompressed leaf item data block for feature extraction
+        bedDataBlock = new BigBedDataBlock(blockReader.getBlock(leafItemIndex), leafHitItem, chromosomeMap,
+                isLowToHigh);
 
         // get data block Bed feature list and set next index to first item
         bedFeatureList =  bedDataBlock.getBedData(selectionRegion, contained);
@@ -101,6 +101,28 @@ public class BigWigDataBlock {
         // use getWigData to extract data block items
     }
 
+    /*
+    *   Constructor for Wig data block reader over a block already read and decompressed
+    *   by a BBDataBlockReader.
+    *
+    *   Parameters:
+    *       wigBuffer - uncompressed data block
+    *       leafHitItem - R+ tree leaf hit item containing data block file location and hit status
+    *       chromosomeMap - map of chromosome ID's and corresponding names
+    *       isLowToHigh - byte order is low to high if true; else high to low
+    * */
+    public BigWigDataBlock(byte[] wigBuffer, RPTreeLeafNodeItem leafHitItem,
+            HashMap<Integer, String> chromosomeMap, boolean isLowToHigh){
+        this.leafHitItem = leafHitItem;
+        this.chromosomeMap = chromosomeMap;
+        this.isLowToHigh = isLowToHigh;
+
+        fileOffset = this.leafHitItem.getDataOffset();
+        leafDataSize = this.leafHitItem.geDataSize();
+        this.wigBuffer = wigBuffer;
+        remDataSize = wigBuffer.length;
+    }
+
     /*
     *   Method reads all Wig data sections within the decompressed block buffer
     *   and returns those items in the chromosome selection region.
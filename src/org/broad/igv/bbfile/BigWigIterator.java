@@ -49,6 +49,7 @@ public class BigWigIterator implements Iterator<WigItem> {
 
     // chromosome region extraction items
     private ArrayList<RPTreeLeafNodeItem> leafHitList; // array of leaf hits for selection region items
+    private BBDataBlockReader blockReader;  // reads and decompresses the leaf hit data blocks
     private HashMap<Integer, String> chromosomeMap;  // map of chromosome ID's and corresponding names
     private int leafItemIndex;   // index of current leaf item being processed from leaf hit list
     RPTreeLeafNodeItem leafHitItem;   // leaf item being processed by next
@@ -323,6 +324,7 @@ public class BigWigIterator implements Iterator<WigItem> {
 
         // hit list for hit region; subject to mMaxLeafHits limitation
         leafHitList = chromDataTree.getChromosomeDataHits(hitRegion, contained);
+        blockReader = new BBDataBlockReader(fis, leafHitList, chromDataTree.getUncompressBuffSize());
 
         // check if any leaf items were selected
         int nHits = leafHitList.size();
@@ -368,10 +370,10 @@ public class BigWigIterator implements Iterator<WigItem> {
         chromosomeMap = chromIDTree.getChromosomeIDMap(startChromID, endChromID);
 
         boolean isLowToHigh = chromDataTree.isIsLowToHigh();
-        int uncompressBufSize = chromDataTree.getUncompressBuffSize();
 
-        // decompress leaf item data block for feature extraction
-        wigDataBlock = new BigWigDataBlock(fis, leafHitItem, chromosomeMap, isLowToHigh, uncompressBufSize);
+        // decompressed leaf item data block for feature extraction
+        wigDataBlock = new BigWigDataBlock(blockReader.getBlock(leafItemIndex), leafHitItem, chromosomeMap,
+                isLowToHigh);
 
         // get section Wig item list and set next index to first item
         wigItemList = wigDataBlock.getWigData(selectionRegion, isContained);
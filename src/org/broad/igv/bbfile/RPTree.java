@@ -98,6 +98,18 @@ public class RPTree {
     * */
 
     public RPTree(SeekableStream fis, long fileOffset, boolean isLowToHigh, int uncompressBuffSize, boolean forceDescend) {
+        this(fis, fileOffset, isLowToHigh, uncompressBuffSize, forceDescend, null);
+    }
+
+    /*
+    *   Constructor for reading in an R+ tree whose chromosome level nodes, unless
+    *   forceDescend is set, are read on demand and held in the node cache.
+    *
+    *   Parameters:
+    *       nodeCache - bounded cache for nodes read on demand; or null to keep them once read
+    * */
+    public RPTree(SeekableStream fis, long fileOffset, boolean isLowToHigh, int uncompressBuffSize,
+                  boolean forceDescend, RPTreeNodeCache nodeCache) {
 
         // save the seekable file handle  and B+ Tree file offset
         // Note: the offset is the file position just after the B+ Tree Header
@@ -126,7 +138,7 @@ public class RPTree {
         RPTreeNode parentNode = null;      // parent node of the root is itself, or null
 
         // start constructing the R+ tree - get the root node
-        rootNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend);
+        rootNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend, nodeCache);
     }
 
     /*
@@ -541,6 +553,11 @@ public class RPTree {
     * */
 
     static RPTreeNode readRPTreeNode(SeekableStream fis, long fileOffset, boolean isLowToHigh, boolean forceDescend) {
+        return readRPTreeNode(fis, fileOffset, isLowToHigh, forceDescend, null);
+    }
+
+    static RPTreeNode readRPTreeNode(SeekableStream fis, long fileOffset, boolean isLowToHigh, boolean forceDescend,
+                                     RPTreeNodeCache nodeCache) {
 
         LittleEndianInputStream lbdis = null; // low o high byte stream reader
         DataInputStream bdis = null;    // high to low byte stream reader
@@ -643,9 +660,9 @@ public class RPTree {
                     // individual chromosome.  These are loaded later on demand.
                     RPTreeNode childNode;
                     if (startChromID != endChromID || forceDescend) {
-                        childNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend);
+                        childNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend, nodeCache);
                     } else {
-                        childNode = new RPTreeNodeProxy(fis, nodeOffset, isLowToHigh, startChromID);
+                        childNode = new RPTreeNodeProxy(fis, nodeOffset, isLowToHigh, startChromID, nodeCache);
                     }
 
 
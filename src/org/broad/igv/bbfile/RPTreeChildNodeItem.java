@@ -74,14 +74,24 @@ public class RPTreeChildNodeItem implements RPTreeNodeItem {
 
     public RPTreeNode getChildNode() {
 
+        // proxy nodes are read on demand, and may be held in a bounded node cache
         if (childNode instanceof RPTreeNodeProxy) {
-            RPTreeNodeProxy proxy = (RPTreeNodeProxy) childNode;
-             childNode = RPTree.readRPTreeNode(proxy.fis, proxy.fileOffset, proxy.isLowToHigh, true);
+            return ((RPTreeNodeProxy) childNode).getNode();
         }
 
         return childNode;
     }
 
+    /*
+    *   Method returns the child node without reading it from the file.
+    *
+    *   Returns:
+    *       child node; or null if the child node has not been read in
+    * */
+    RPTreeNode getLoadedChildNode() {
+        return childNode instanceof RPTreeNodeProxy ? null : childNode;
+    }
+
     public int compareRegions(RPChromosomeRegion chromosomeRegion) {
 
         int value = chromosomeBounds.compareRegions(chromosomeRegion);
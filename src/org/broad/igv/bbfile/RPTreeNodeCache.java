@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.bbfile;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/*
+*   Container class for R+ tree nodes which are read on demand from the BBFile.
+*
+*   Nodes are keyed by their file offset.  The cache is bounded by the total
+*   number of node items held, including the items of descendant nodes;
+*   least recently used nodes are discarded first and re-read when needed.
+* */
+public class RPTreeNodeCache {
+
+    private static Logger log = Logger.getLogger(RPTreeNodeCache.class);
+
+    private int maxItemCount;      // maximum number of node items cached
+    private int itemCount;         // current number of node items cached
+    private long hitCount;
+    private long missCount;
+    private LinkedHashMap<Long, RPTreeNode> nodes = new LinkedHashMap<Long, RPTreeNode>(16, 0.75f, true);
+    private HashMap<Long, Integer> nodeItemCounts = new HashMap<Long, Integer>();
+
+    /*
+    *   Constructor for a node cache.
+    *
+    *   Parameters:
+    *       maxItemCount - maximum number of R+ tree node items to be cached
+    * */
+    public RPTreeNodeCache(int maxItemCount) {
+        this.maxItemCount = maxItemCount;
+    }
+
+    /*
+    *   Method returns the cached node read from a file offset.
+    *
+    *   Parameters:
+    *       fileOffset - file location of the node
+    *
+    *   Returns:
+    *       R+ tree node; or null if the node is not cached
+    * */
+    public synchronized RPTreeNode get(long fileOffset) {
+        RPTreeNode node = nodes.get(fileOffset);
+        if (node == null)
+            missCount++;
+        else
+            hitCount++;
+        return node;
+    }
+
+    /*
+    *   Method caches a node, discarding least recently used nodes as needed.
+    *
+    *   Parameters:
+    *       fileOffset - file location of the node
+    *       node - R+ tree node read from the file location, with all its descendants
+    * */
+    public synchronized void put(long fileOffset, RPTreeNode node) {
+
+        int nodeItemCount = countItems(node);
+        Integer oldItemCount = nodeItemCounts.put(fileOffset, nodeItemCount);
+        if (oldItemCount != null)
+            itemCount -= oldItemCount;
+        nodes.put(fileOffset, node);
+        itemCount += nodeItemCount;
+
+        // the node just added is never discarded
+        Iterator<Map.Entry<Long, RPTreeNode>> iter = nodes.entrySet().iterator();
+        while (itemCount > maxItemCount && iter.hasNext()) {
+            Map.Entry<Long, RPTreeNode> entry = iter.next();
+            if (entry.getKey() == fileOffset)
+                continue;
+            itemCount -= nodeItemCounts.remove(entry.getKey());
+            iter.remove();
+            if (log.isDebugEnabled())
+                log.debug("Discarded R+ tree node at " + entry.getKey() + ", cached items = " + itemCount);
+        }
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        nodeItemCounts.clear();
+        itemCount = 0;
+    }
+
+    public synchronized int getItemCount() {
+        return itemCount;
+    }
+
+    public synchronized int getMaxItemCount() {
+        return maxItemCount;
+    }
+
+    public synchronized String getStatistics() {
+        long requests = hitCount + missCount;
+        return hitCount + " hits of " + requests + " requests,  " + nodes.size() + " nodes,  " +
+                itemCount + " of " + maxItemCount + " items";
+    }
+
+    /*
+    *   Method returns the number of items in a node and all its descendant nodes.
+    * */
+    static int countItems(RPTreeNode node) {
+
+        int count = node.getItemCount();
+        if (!node.isLeaf()) {
+            for (int index = 0; index < node.getItemCount(); ++index) {
+                RPTreeNode childNode = ((RPTreeChildNodeItem) node.getItem(index)).getLoadedChildNode();
+                if (childNode != null)
+                    count += countItems(childNode);
+            }
+        }
+        return count;
+    }
+}
@@ -33,11 +33,41 @@ public class RPTreeNodeProxy implements RPTreeNode {
     // For debugging
     int chromId;
 
+    // Node cache shared by the tree, or null to keep the node once read
+    private RPTreeNodeCache nodeCache;
+    private RPTreeNode node;
+
     public RPTreeNodeProxy(SeekableStream fis, long fileOffset, boolean lowToHigh, int chromId) {
+        this(fis, fileOffset, lowToHigh, chromId, null);
+    }
+
+    public RPTreeNodeProxy(SeekableStream fis, long fileOffset, boolean lowToHigh, int chromId,
+                           RPTreeNodeCache nodeCache) {
         this.fis = fis;
         this.fileOffset = fileOffset;
         isLowToHigh = lowToHigh;
         this.chromId = chromId;
+        this.nodeCache = nodeCache;
+    }
+
+    /**
+     * Return the node this proxy stands for,  with all its descendants,  reading it from the file if it is not
+     * already loaded.
+     */
+    public RPTreeNode getNode() {
+        if (nodeCache == null) {
+            if (node == null) {
+                node = RPTree.readRPTreeNode(fis, fileOffset, isLowToHigh, true);
+            }
+            return node;
+        }
+
+        RPTreeNode cachedNode = nodeCache.get(fileOffset);
+        if (cachedNode == null) {
+            cachedNode = RPTree.readRPTreeNode(fis, fileOffset, isLowToHigh, true);
+            nodeCache.put(fileOffset, cachedNode);
+        }
+        return cachedNode;
     }
 
     public boolean isLeaf() {
@@ -117,6 +117,38 @@ public class ZoomDataBlock {
         // use method getZoomData to extract block data
     }
 
+    /*
+    *   Constructor for zoom data block reader over a block already read and decompressed
+    *   by a BBDataBlockReader.
+    *
+    *   Parameters:
+    *       zoomLevel - zoom level for data block
+    *       zoomBuffer - uncompressed data block
+    *       leafItem - R+ tree leaf item containing block data file location
+    *       chromosomeMap - map of chromosome ID's and corresponding names
+    *       isLowToHigh - byte order is low to high if true; else high to low
+    * */
+    public ZoomDataBlock(int zoomLevel, byte[] zoomBuffer, RPTreeLeafNodeItem leafHitItem,
+                         HashMap<Integer, String> chromosomeMap, boolean isLowToHigh) {
+
+        this.zoomLevel = zoomLevel;
+        this.leafHitItem = leafHitItem;
+        this.chromosomeMap = chromosomeMap;
+        this.isLowToHigh = isLowToHigh;
+
+        fileOffset = this.leafHitItem.getDataOffset();
+        dataBlockSize = this.leafHitItem.geDataSize();
+        this.zoomBuffer = zoomBuffer;
+
+        // wrap the zoom buffer as an input stream
+        if (this.isLowToHigh)
+            lbdis = new LittleEndianInputStream(new ByteArrayInputStream(zoomBuffer));
+        else
+            dis = new DataInputStream(new ByteArrayInputStream(zoomBuffer));
+
+        remDataSize = zoomBuffer.length;
+    }
+
     /*
     *   Method returns all zoom level data within the decompressed block buffer
     *
@@ -53,6 +53,7 @@ public class ZoomLevelIterator {
 
     // chromosome region extraction items
     private ArrayList<RPTreeLeafNodeItem> leafHitList; // array of leaf hits for selection region items
+    private BBDataBlockReader blockReader;  // reads and decompresses the leaf hit data blocks
     private HashMap<Integer, String> chromosomeMap;  // map of chromosome ID's and corresponding names
     private int leafItemIndex;   // index of current leaf item being processed from leaf hit list
     RPTreeLeafNodeItem leafHitItem;   // leaf item being processed by next
@@ -341,6 +342,7 @@ public class ZoomLevelIterator {
 
         // hit list for hit region; subject to mMaxLeafHits limitation
         leafHitList = zoomDataTree.getChromosomeDataHits(hitRegion, contained);
+        blockReader = new BBDataBlockReader(fis, leafHitList, zoomDataTree.getUncompressBuffSize());
 
         // check if any leaf items were selected
         int nHits = leafHitList.size();
@@ -386,11 +388,10 @@ public class ZoomLevelIterator {
         chromosomeMap = chromIDTree.getChromosomeIDMap(startChromID, endChromID);
 
         boolean isLowToHigh = zoomDataTree.isIsLowToHigh();
-        int uncompressBufSize = zoomDataTree.getUncompressBuffSize();
 
-        // decompress leaf item data block for feature extraction
-        zoomDataBlock = new ZoomDataBlock(zoomLevel, fis, leafHitItem, chromosomeMap,
-                isLowToHigh, uncompressBufSize);
+        // decompressed leaf item data block for feature extraction
+        zoomDataBlock = new ZoomDataBlock(zoomLevel, blockReader.getBlock(leafItemIndex), leafHitItem,
+                chromosomeMap, isLowToHigh);
 
         // get data block zoom data record list and set next index to first item
         zoomRecordList = zoomDataBlock.getZoomData(selectionRegion, isContained);
@@ -26,6 +26,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
 
 import org.broad.igv.Globals;
 import org.broad.igv.bbfile.BBFileReader;
@@ -37,8 +45,8 @@ import org.broad.igv.bbfile.WigItem;
 import org.broad.igv.bbfile.ZoomDataRecord;
 import org.broad.igv.bbfile.ZoomLevelIterator;
 import org.broad.igv.data.AbstractDataSource;
-import org.broad.igv.data.BasicScore;
 import org.broad.igv.data.DataTile;
+import org.broad.igv.data.SummaryScores;
 import org.broad.igv.feature.BasicFeature;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.Exon;
@@ -49,10 +57,13 @@ import org.broad.igv.track.FeatureSource;
 import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.ColorUtilities;
+import org.broad.igv.util.LRUCache;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.collections.FloatArrayList;
 import org.broad.igv.util.collections.IntArrayList;
 import org.broad.tribble.Feature;
+import org.broad.tribble.util.SeekableBufferedStream;
+import org.broad.tribble.util.SeekableStreamFactory;
 
 /**
  * A hybrid source, implements both DataSource and FeatureSource.   Way of the future?
@@ -62,7 +73,24 @@ import org.broad.tribble.Feature;
  */
 public class BigWigDataSource extends AbstractDataSource implements FeatureSource {
 
-    final int screenWidth = 1000; // TODO use actual screen width
+    private static Logger log = Logger.getLogger(BigWigDataSource.class);
+
+    final static int screenWidth = 1000; // TODO use actual screen width
+
+    /**
+     * Whole genome summaries by file and genome,  shared by all sources of a file.  They are computed in the
+     * background when a source is created.
+     */
+    static LRUCache<String, FutureTask<WholeGenomeSummary>> wholeGenomeSummaries =
+            new LRUCache(BigWigDataSource.class, 100);
+
+    static ExecutorService wholeGenomeExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BigWigWholeGenome");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
 
     Collection<WindowFunction> availableWindowFunctions =
@@ -74,7 +102,6 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
     // Feature visibility window (for bigBed)
     int featureVisiblityWindow = -1;
-    private List<LocusScore> wholeGenomeScores;
 
     // Lookup table to support chromosome aliasing.  TODO -- move this up to a higher level, to share
     private Map<String, String> chrNameMap = new HashMap();
@@ -101,6 +128,11 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
                     chrNameMap.put(igvChr, chr);
                 }
             }
+
+            // Start computing the whole genome view
+            if (hasWholeGenomeView()) {
+                getWholeGenomeSummaryTask();
+            }
         }
 
     }
@@ -119,9 +151,7 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     }
 
     public void setWindowFunction(WindowFunction statType) {
-        // Invalidate caches
-        wholeGenomeScores = null;
-
+        // The whole genome summary holds all window functions,  and is kept
         this.windowFunction = statType;
     }
 
@@ -164,7 +194,10 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
      * @return
      */
     private BBZoomLevelHeader getZoomLevelForScale(double resolution) {
-        final ArrayList<BBZoomLevelHeader> headers = levels.getZoomLevelHeaders();
+        return getZoomLevelForScale(levels.getZoomLevelHeaders(), resolution);
+    }
+
+    static BBZoomLevelHeader getZoomLevelForScale(List<BBZoomLevelHeader> headers, double resolution) {
 
         BBZoomLevelHeader lastLevel = null;
         for (BBZoomLevelHeader zlHeader : headers) {
@@ -203,15 +236,14 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
         String querySeq = tmp == null ? chr : tmp;
 
         if (reader.isBigBedFile() || bbLevel > 1 || (bbLevel == 1 && (reductionLevel / scale) < 2)) {
-            ArrayList<LocusScore> scores = new ArrayList(1000);
+            SummaryScores scores = new SummaryScores(1000);
             ZoomLevelIterator zlIter = reader.getZoomLevelIterator(bbLevel, querySeq, start, querySeq, end, false);
             while (zlIter.hasNext()) {
                 ZoomDataRecord rec = zlIter.next();
 
                 float v = getValue(rec);
 
-                BasicScore bs = new BasicScore(rec.getChromStart(), rec.getChromEnd(), v);
-                scores.add(bs);
+                scores.add(rec.getChromStart(), rec.getChromEnd(), v);
             }
             return scores;
 
@@ -276,47 +308,147 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     }
 
 
+    private boolean hasWholeGenomeView() {
+        return genome.getHomeChromosome().equals(Globals.CHR_ALL) && levels.getZoomHeaderCount() > 0;
+    }
+
     private List<LocusScore> getWholeGenomeScores() {
 
+        if (hasWholeGenomeView()) {
+            FutureTask<WholeGenomeSummary> task = getWholeGenomeSummaryTask();
+            try {
+                return task.get().getScores(windowFunction);
+            } catch (InterruptedException e) {
+                return null;
+            } catch (ExecutionException e) {
+                // Drop the failed task,  so the summary is computed again on the next request
+                wholeGenomeSummaries.remove(getWholeGenomeKey());
+                log.error("Error computing whole genome view of " + reader.getBBFilePath(), e.getCause());
+                return null;
+            }
+        } else {
+            return null;
+        }
 
-        if (genome.getHomeChromosome().equals(Globals.CHR_ALL)) {
-            if (wholeGenomeScores == null) {
-                double scale = genome.getLength() / screenWidth;
-                wholeGenomeScores = new ArrayList<LocusScore>();
-                for (Chromosome chr : genome.getChromosomes()) {
+    }
 
+    private String getWholeGenomeKey() {
+        return reader.getBBFilePath() + "_" + genome.getId();
+    }
 
-                    BBZoomLevelHeader lowestResHeader = this.getZoomLevelForScale(scale);
+    /**
+     * Return the task computing the whole genome summary of this file,  starting it if needed.
+     */
+    private FutureTask<WholeGenomeSummary> getWholeGenomeSummaryTask() {
+        String key = getWholeGenomeKey();
+        synchronized (wholeGenomeSummaries) {
+            FutureTask<WholeGenomeSummary> task = wholeGenomeSummaries.get(key);
+            if (task == null) {
+                final String path = reader.getBBFilePath();
+                final Genome genome = this.genome;
+                final Map<String, String> chrNameMap = this.chrNameMap;
+                task = new FutureTask<WholeGenomeSummary>(new Callable<WholeGenomeSummary>() {
+                    public WholeGenomeSummary call() throws IOException {
+                        return computeWholeGenomeSummary(path, genome, chrNameMap);
+                    }
+                });
+                wholeGenomeSummaries.put(key, task);
+                wholeGenomeExecutor.execute(task);
+            }
+            return task;
+        }
+    }
 
-                    int lastGenomeEnd = -1;
-                    String chrName = chr.getName();
-                    int end = chr.getLength();
+    /**
+     * Compute the whole genome summary from the zoom level closest to the resolution of the genome view.  The
+     * zoom level is read in one pass over the whole file,  records are routed to their chromosome by ID and then
+     * added in genome order,  so assemblies with many scaffolds don't cost one query per scaffold.  The file is read
+     * with its own reader,  as readers are not thread safe.
+     */
+    static WholeGenomeSummary computeWholeGenomeSummary(String path, Genome genome, Map<String, String> chrNameMap)
+            throws IOException {
+
+        long t0 = System.currentTimeMillis();
+        BBFileReader reader = new BBFileReader(path,
+                new SeekableBufferedStream(SeekableStreamFactory.getStreamFor(path), 64000));
+        try {
+            double scale = genome.getLength() / screenWidth;
+            BBZoomLevelHeader lowestResHeader =
+                    getZoomLevelForScale(reader.getZoomLevels().getZoomLevelHeaders(), scale);
+
+            // Read the records in file order,  which is sorted by chromosome ID,  noting the range of each chromosome
+            ZoomRecords records = new ZoomRecords();
+            Map<String, int[]> rangesByName = new HashMap();
+            int lastChromId = -1;
+            int[] range = null;
+            ZoomLevelIterator zlIter = reader.getZoomLevelIterator(lowestResHeader.getZoomLevel());
+            while (zlIter.hasNext()) {
+                ZoomDataRecord rec = zlIter.next();
+                if (rec.getChromId() != lastChromId) {
+                    lastChromId = rec.getChromId();
+                    range = new int[]{records.size(), records.size()};
+                    rangesByName.put(rec.getChromName(), range);
+                }
+                records.add(rec);
+                range[1] = records.size();
+            }
 
-                    String tmp = chrNameMap.get(chrName);
-                    String querySeq = tmp == null ? chrName : tmp;
+            // Add them in genome order
+            WholeGenomeSummary summary = new WholeGenomeSummary();
+            for (Chromosome chr : genome.getChromosomes()) {
 
-                    ZoomLevelIterator zlIter = reader.getZoomLevelIterator(
-                            lowestResHeader.getZoomLevel(), querySeq, 0, querySeq, end, false);
-                    while (zlIter.hasNext()) {
-                        ZoomDataRecord rec = zlIter.next();
-                        int genomeStart = genome.getGenomeCoordinate(chrName, rec.getChromStart());
-                        if (genomeStart < lastGenomeEnd) {
-                            continue;
-                        }
+                String chrName = chr.getName();
+                String tmp = chrNameMap.get(chrName);
+                range = rangesByName.get(tmp == null ? chrName : tmp);
+                if (range == null) {
+                    continue;
+                }
 
-                        int genomeEnd = genome.getGenomeCoordinate(chrName, rec.getChromEnd());
-                        float value = getValue(rec);
-                        wholeGenomeScores.add(new BasicScore(genomeStart, genomeEnd, value));
-                        lastGenomeEnd = genomeEnd;
+                int lastGenomeEnd = -1;
+                for (int i = range[0]; i < range[1]; i++) {
+                    int genomeStart = genome.getGenomeCoordinate(chrName, records.starts.get(i));
+                    if (genomeStart < lastGenomeEnd) {
+                        continue;
                     }
-                }
 
+                    int genomeEnd = genome.getGenomeCoordinate(chrName, records.ends.get(i));
+                    summary.add(genomeStart, genomeEnd, records.minValues.get(i), records.meanValues.get(i),
+                            records.maxValues.get(i));
+                    lastGenomeEnd = genomeEnd;
+                }
             }
-            return wholeGenomeScores;
-        } else {
-            return null;
+            summary.trim();
+            if (log.isDebugEnabled()) {
+                log.debug("Whole genome view of " + path + ": " + summary.size + " bins in " +
+                        (System.currentTimeMillis() - t0) + " ms");
+            }
+            return summary;
+        } finally {
+            reader.getBBFis().close();
+        }
+    }
+
+    /**
+     * Zoom records read for the whole genome summary,  stored by column
+     */
+    static class ZoomRecords {
+        IntArrayList starts = new IntArrayList(10000);
+        IntArrayList ends = new IntArrayList(10000);
+        FloatArrayList minValues = new FloatArrayList(10000);
+        FloatArrayList meanValues = new FloatArrayList(10000);
+        FloatArrayList maxValues = new FloatArrayList(10000);
+
+        void add(ZoomDataRecord rec) {
+            starts.add(rec.getChromStart());
+            ends.add(rec.getChromEnd());
+            minValues.add(rec.getMinVal());
+            meanValues.add(rec.getMeanVal());
+            maxValues.add(rec.getMaxVal());
         }
 
+        int size() {
+            return starts.size();
+        }
     }
 
 
@@ -379,6 +511,57 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
     //  End FeatureSource interface ----------------------------------------------------------------------
 
+    /**
+     * Whole genome scores for all window functions,  as primitive arrays.
+     */
+    static class WholeGenomeSummary {
+        int size = 0;
+        int[] starts = new int[10000];
+        int[] ends = new int[10000];
+        float[] minValues = new float[10000];
+        float[] meanValues = new float[10000];
+        float[] maxValues = new float[10000];
+
+        void add(int start, int end, float min, float mean, float max) {
+            if (size == starts.length) {
+                resize(2 * size);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            minValues[size] = min;
+            meanValues[size] = mean;
+            maxValues[size] = max;
+            size++;
+        }
+
+        void trim() {
+            resize(size);
+        }
+
+        private void resize(int capacity) {
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            minValues = Arrays.copyOf(minValues, capacity);
+            meanValues = Arrays.copyOf(meanValues, capacity);
+            maxValues = Arrays.copyOf(maxValues, capacity);
+        }
+
+        SummaryScores getScores(WindowFunction windowFunction) {
+            float[] values;
+            switch (windowFunction) {
+                case min:
+                    values = minValues;
+                    break;
+                case max:
+                    values = maxValues;
+                    break;
+                default:
+                    values = meanValues;
+            }
+            return new SummaryScores(starts, ends, values, size);
+        }
+    }
+
     static class RawDataInterval {
         String chr;
         int start;
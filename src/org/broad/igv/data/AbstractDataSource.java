@@ -135,6 +135,22 @@ public abstract class AbstractDataSource implements DataSource {
 
         List<SummaryTile> tiles = getSummaryTilesForRange(chr, startLocation, endLocation, zoom);
 
+        // Tiles computed for a genetic map keep score objects (with start and end fractions) in a plain list
+        boolean columnar = true;
+        for (SummaryTile tile : tiles) {
+            columnar &= tile == null || tile.getScores() instanceof SummaryScores;
+        }
+
+        if (columnar) {
+            SummaryScores summaryScores = new SummaryScores(tiles.size() * 700);
+            for (SummaryTile tile : tiles) {
+                if (tile != null) {
+                    summaryScores.addAll(tile.getScores(), 0, tile.getSize());
+                }
+            }
+            return summaryScores;
+        }
+
         scores = new ArrayList(tiles.size() * 700);
 
         for (SummaryTile tile : tiles) {
@@ -290,7 +306,7 @@ public abstract class AbstractDataSource implements DataSource {
             double[] startFractions = rawTile.getStartFractions();
             double[] endFractions = rawTile.getEndFractions();
 
-            tile = new SummaryTile();
+            tile = new SummaryTile(new SummaryScores());
 
             if (windowFunction == WindowFunction.none) {
 
@@ -315,7 +331,7 @@ public abstract class AbstractDataSource implements DataSource {
 
             } else {
                 float normalizationFactor = 1.0f;
-                List<LocusScore> scores = new ArrayList(nBins);
+                SummaryScores scores = new SummaryScores(nBins);
                 double scale = (double) (endLocation - startLocation) / nBins;
 
                 Accumulator accumulator = new Accumulator(windowFunction, 5);
@@ -374,7 +390,7 @@ public abstract class AbstractDataSource implements DataSource {
                     scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
                 }
 
-                tile.addAllScores(scores);
+                tile = new SummaryTile(scores);
             }
 
         }
@@ -22,20 +22,20 @@
  */
 package org.broad.igv.data;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.genome.Genome;
-import org.broad.igv.tdf.Accumulator;
-import org.broad.igv.track.WindowFunction;
-import org.broad.igv.util.collections.FloatArrayList;
-import org.broad.igv.util.collections.IntArrayList;
 
 /**
+ * Summarizes data for the whole genome view.  Values are averaged into a fixed number of pseudo-bins spanning the
+ * genome,  so the memory used and the number of points produced do not depend on the number of chromosomes.  Many
+ * small scaffolds falling within one bin are aggregated together.
+ *
  * @author jrobinso
  */
 public class GenomeSummaryData {
@@ -46,7 +46,7 @@ public class GenomeSummaryData {
     private static final double locationUnit = 1000.0;
 
     /**
-     * Number of virtual pixels
+     * Number of virtual pixels,  i.e. pseudo-bins
      */
     int nPixels = 1000;
 
@@ -54,9 +54,16 @@ public class GenomeSummaryData {
 
     String[] samples;
 
-    Map<String, Map<String, FloatArrayList>> dataMap = new HashMap();
+    /**
+     * Per bin,  the first genome location (KB) with data,  or Integer.MAX_VALUE if the bin is empty
+     */
+    int[] binLocations;
 
-    Map<String, IntArrayList> locationMap;
+    /**
+     * Per sample,  the sum and count of values in each bin
+     */
+    Map<String, double[]> binSums = new HashMap();
+    Map<String, int[]> binCounts = new HashMap();
 
     int[] locations;
 
@@ -75,25 +82,20 @@ public class GenomeSummaryData {
     public GenomeSummaryData(Genome genome, String[] samples) {
         this.genome = genome;
         this.samples = samples;
-        scale = (genome.getLength() / locationUnit) / nPixels;
-
-        List<String> chrNames = genome.getChromosomeNames();
-        locationMap = new HashMap();
-        dataMap = new HashMap();
-        for (String chr : chrNames) {
-            locationMap.put(chr, new IntArrayList(nPixels / 10));
-            dataMap.put(chr, new HashMap());
-            for (String s : samples) {
-                dataMap.get(chr).put(s, new FloatArrayList(nPixels / 10));
-            }
+        scale = Math.max(1, (genome.getLength() / locationUnit) / nPixels);
+
+        binLocations = new int[nPixels + 1];
+        Arrays.fill(binLocations, Integer.MAX_VALUE);
+        for (String s : samples) {
+            binSums.put(s, new double[binLocations.length]);
+            binCounts.put(s, new int[binLocations.length]);
         }
     }
 
 
-    public void addData(String chr, int[] locs, Map<String, float[]> sampleData) {
+    public synchronized void addData(String chr, int[] locs, Map<String, float[]> sampleData) {
 
-        IntArrayList locations = locationMap.get(chr);
-        if (locations == null) {
+        if (genome.getChromosomeIndex(chr) < 0) {
             if (!skippedChromosomes.contains(chr)) {
                 skippedChromosomes.add(chr);
                 log.info("Skipping data for: " + chr);
@@ -101,43 +103,27 @@ public class GenomeSummaryData {
             return;
         }
 
-        int lastPixel = -1;
-        Map<String, Accumulator> dataPoints = new HashMap();
-
+        long offset = genome.getCumulativeOffset(chr);
         for (int i = 0; i < locs.length; i++) {
 
-            int genomeLocation = genome.getGenomeCoordinate(chr, locs[i]);
-            int pixel = (int) (genomeLocation / scale);
-            if (i > 0 && pixel != lastPixel) {
-                nDataPts++;
-
-                locations.add(genomeLocation);
-                for (String s : dataMap.get(chr).keySet()) {
-                    Accumulator dp = dataPoints.get(s);
-                    dp.finish();
-                    dataMap.get(chr).get(s).add(dp.getValue());
-                }
-                dataPoints.clear();
+            int genomeLocation = (int) ((offset + locs[i]) / 1000);
+            int bin = Math.min(binLocations.length - 1, (int) (genomeLocation / scale));
+            if (genomeLocation < binLocations[bin]) {
+                binLocations[bin] = genomeLocation;
             }
 
             for (String s : samples) {
-                float[] data = sampleData.get(s);
-                Accumulator dp = dataPoints.get(s);
-                if (dp == null) {
-                    dp = new Accumulator(WindowFunction.mean);
-                    dataPoints.put(s, dp);
-                }
-                try {
-                    dp.add(1, data[i], null);
-                } catch (Exception e) {
-                    e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+                float[] values = sampleData.get(s);
+                if (values != null && !Float.isNaN(values[i])) {
+                    binSums.get(s)[bin] += values[i];
+                    binCounts.get(s)[bin]++;
                 }
             }
-
-            lastPixel = pixel;
         }
+        locations = null;
     }
 
+
     public int[] getLocations() {
         if (locations == null) {
             createDataArrays();
@@ -148,7 +134,7 @@ public class GenomeSummaryData {
 
 
     public float[] getData(String sample) {
-        if (!data.containsKey(sample)) {
+        if (locations == null) {
             createDataArrays();
         }
         return data.get(sample);
@@ -156,29 +142,38 @@ public class GenomeSummaryData {
     }
 
     private synchronized void createDataArrays() {
-        locations = new int[nDataPts];
-        int offset = 0;
-        List<String> chrNames = genome.getChromosomeNames();
-        for (String chr : chrNames) {
-            int[] chrLocs = locationMap.get(chr).toArray();
-            System.arraycopy(chrLocs, 0, locations, offset, chrLocs.length);
-            offset += chrLocs.length;
+        if (locations != null) {
+            return;
         }
 
-        data = new HashMap();
+        nDataPts = 0;
+        for (int loc : binLocations) {
+            if (loc != Integer.MAX_VALUE) {
+                nDataPts++;
+            }
+        }
+
+        int[] locs = new int[nDataPts];
+        Map<String, float[]> values = new HashMap();
         for (String s : samples) {
-            float[] sampleData = new float[nDataPts];
-            offset = 0;
-            for (String chr : chrNames) {
-                float[] chrData = dataMap.get(chr).get(s).toArray();
-                System.arraycopy(chrData, 0, sampleData, offset, chrData.length);
-                offset += chrData.length;
+            values.put(s, new float[nDataPts]);
+        }
+
+        int idx = 0;
+        for (int bin = 0; bin < binLocations.length; bin++) {
+            if (binLocations[bin] == Integer.MAX_VALUE) {
+                continue;
+            }
+            locs[idx] = binLocations[bin];
+            for (String s : samples) {
+                int count = binCounts.get(s)[bin];
+                values.get(s)[idx] = count == 0 ? Float.NaN : (float) (binSums.get(s)[bin] / count);
             }
-            data.put(s, sampleData);
+            idx++;
         }
 
-        locationMap.clear();
-        dataMap.clear();
+        data = values;
+        locations = locs;
     }
 
 }
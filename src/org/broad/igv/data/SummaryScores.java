@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.data;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.broad.igv.feature.LocusScore;
+
+/**
+ * A list of summary scores stored by column -- start, end, and value arrays -- rather than as one object per bin.
+ * Renderers and autoscaling read the columns directly through {@link #getStart(int)}, {@link #getEnd(int)},  and
+ * {@link #getValue(int)}.  Callers that use the list interface get a {@link BasicScore} created on demand.
+ * <p/>
+ * Bins that need more than start, end, and value (e.g. the probe names of a {@link NamedScore} or the contributing
+ * values of a {@link CompositeScore},  used for popup text) keep the original object,  which is returned by
+ * {@link #get(int)}.  Its start, end, and value are also copied into the columns.
+ * <p/>
+ * Lists are filled once and then shared (e.g. through caches),  so views created by {@link #subList(int, int)}
+ * are read only.
+ */
+public class SummaryScores extends AbstractList<LocusScore> implements RandomAccess {
+
+    private int[] starts;
+    private int[] ends;
+    private float[] values;
+    private LocusScore[] details;
+    private int offset;
+    private int size;
+    private boolean readOnly;
+
+    public SummaryScores() {
+        this(1000);
+    }
+
+    public SummaryScores(int initialCapacity) {
+        starts = new int[initialCapacity];
+        ends = new int[initialCapacity];
+        values = new float[initialCapacity];
+    }
+
+    /**
+     * A read only list over columns filled elsewhere,  e.g. a precomputed summary shared by several sources.
+     */
+    public SummaryScores(int[] starts, int[] ends, float[] values, int size) {
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+        this.size = size;
+        this.readOnly = true;
+    }
+
+    private SummaryScores(SummaryScores parent, int offset, int size) {
+        this.starts = parent.starts;
+        this.ends = parent.ends;
+        this.values = parent.values;
+        this.details = parent.details;
+        this.offset = offset;
+        this.size = size;
+        this.readOnly = true;
+    }
+
+    public void add(int start, int end, float value) {
+        ensureCapacity(size + 1);
+        starts[size] = start;
+        ends[size] = end;
+        values[size] = value;
+        size++;
+    }
+
+    @Override
+    public boolean add(LocusScore score) {
+        int idx = size;
+        add(score.getStart(), score.getEnd(), score.getScore());
+        if (score.getClass() != BasicScore.class || ((BasicScore) score).getStartFraction() != 0 ||
+                ((BasicScore) score).getEndFraction() != 0) {
+            if (details == null) {
+                details = new LocusScore[starts.length];
+            }
+            details[idx] = score;
+        }
+        return true;
+    }
+
+    /**
+     * Append the scores in [from, to) of another list.
+     */
+    public void addAll(List<LocusScore> scores, int from, int to) {
+        if (scores instanceof SummaryScores) {
+            SummaryScores src = (SummaryScores) scores;
+            int n = to - from;
+            ensureCapacity(size + n);
+            System.arraycopy(src.starts, src.offset + from, starts, size, n);
+            System.arraycopy(src.ends, src.offset + from, ends, size, n);
+            System.arraycopy(src.values, src.offset + from, values, size, n);
+            if (src.details != null) {
+                if (details == null) {
+                    details = new LocusScore[starts.length];
+                }
+                System.arraycopy(src.details, src.offset + from, details, size, n);
+            }
+            size += n;
+        } else {
+            for (int i = from; i < to; i++) {
+                add(scores.get(i));
+            }
+        }
+    }
+
+    public int getStart(int i) {
+        return starts[offset + i];
+    }
+
+    public int getEnd(int i) {
+        return ends[offset + i];
+    }
+
+    public float getValue(int i) {
+        return values[offset + i];
+    }
+
+    /**
+     * Return the original score object retained for bin i,  or null if the bin is fully described by its columns.
+     */
+    public LocusScore getDetail(int i) {
+        return details == null ? null : details[offset + i];
+    }
+
+    @Override
+    public LocusScore get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        int idx = offset + i;
+        if (details != null && details[idx] != null) {
+            return details[idx];
+        }
+        return new BasicScore(starts[idx], ends[idx], values[idx]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public List<LocusScore> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex);
+        }
+        return new SummaryScores(this, offset + fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * Trim the columns to the number of scores,  e.g. before a filled list is cached.
+     */
+    public void trimToSize() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Summary score views are read only");
+        }
+        if (size < starts.length) {
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            values = Arrays.copyOf(values, size);
+            if (details != null) {
+                details = Arrays.copyOf(details, size);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Summary score views are read only");
+        }
+        if (capacity > starts.length) {
+            int newCapacity = Math.max(capacity, starts.length * 2);
+            starts = Arrays.copyOf(starts, newCapacity);
+            ends = Arrays.copyOf(ends, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            if (details != null) {
+                details = Arrays.copyOf(details, newCapacity);
+            }
+        }
+    }
+}
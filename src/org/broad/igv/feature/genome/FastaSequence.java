@@ -18,31 +18,55 @@
 
 package org.broad.igv.feature.genome;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 
+import org.apache.log4j.Logger;
+import org.broad.igv.util.FileUtils;
+import org.broad.igv.util.MappedFile;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.tribble.util.SeekableStream;
 import org.broad.tribble.util.SeekableStreamFactory;
 
 /**
  * Implementation of Sequence backed by an index fasta file
+ * <p/>
+ * Reads are safe to issue from several threads at once.  Local files are memory mapped once and bases are copied
+ * directly from the mapping;  other files are read through a small pool of open streams.  The pooled streams stay
+ * open until {@link #close()},  for a genome's sequence that is the lifetime of the genome.
  *
  * @author jrobinso
  * @date 8/7/11
  */
 public class FastaSequence implements Sequence {
 
+    private static Logger log = Logger.getLogger(FastaSequence.class);
+
+    static final int MAX_POOLED_STREAMS = 4;
+
     FastaSequenceIndex index;
     String path;
     long contentLength;
+    private MappedFile mappedFile = null;
+    private ArrayBlockingQueue<SeekableStream> streamPool =
+            new ArrayBlockingQueue<SeekableStream>(MAX_POOLED_STREAMS);
+    private volatile boolean closed = false;
 
     public FastaSequence(String path) throws IOException {
 
         this.path = path;
 
-        contentLength = ParsingUtils.getContentLength(path);
+        if (!FileUtils.isRemote(path)) {
+            File file = new File(path);
+            contentLength = file.length();
+            mappedFile = map(file);
+        } else {
+            contentLength = ParsingUtils.getContentLength(path);
+        }
 
         // TODO -- check for existence path & index
         String indexPath = path + ".fai";
@@ -105,32 +129,28 @@ public class FastaSequence implements Sequence {
                 return null;
             }
 
-            // Read all the bytes in the range.  This will include endline characters
-            byte[] allBytes = readBytes(startByte, endByte);
-
-            // Create the array for the sequence -- this will be "allBytes" without the endline characters.
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(end - start);
+            // Without a mapping read all the bytes in the range.  This will include endline characters
+            MappedFile mappedFile = this.mappedFile;
+            byte[] allBytes = mappedFile == null ? readBytes(startByte, endByte) : null;
 
-            int srcPos = 0;
+            // Copy the bases of each line,  skipping the endline characters
+            byte[] bases = new byte[end - start];
             int desPos = 0;
-            // Copy first line
-            final int allBytesLength = allBytes.length;
-            if (offset > 0) {
-                int nBases = Math.min(end - start, basesPerLine - offset);
-                bos.write(allBytes, srcPos, nBases);
-                srcPos += (nBases + nEndBytes);
-                desPos += nBases;
-            }
-
-            while (srcPos < allBytesLength) {
-                int nBases = Math.min(basesPerLine, allBytesLength - srcPos);
-                bos.write(allBytes, srcPos, nBases);
+            long srcPos = startByte;
+            int lineBases = basesPerLine - offset;
+            while (srcPos < endByte && desPos < bases.length) {
+                int nBases = (int) Math.min(Math.min(lineBases, endByte - srcPos), bases.length - desPos);
+                if (allBytes != null) {
+                    System.arraycopy(allBytes, (int) (srcPos - startByte), bases, desPos, nBases);
+                } else {
+                    mappedFile.get(srcPos, bases, desPos, nBases);
+                }
                 srcPos += (nBases + nEndBytes);
                 desPos += nBases;
+                lineBases = basesPerLine;
             }
 
-
-            return bos.toByteArray();
+            return desPos == bases.length ? bases : Arrays.copyOf(bases, desPos);
 
         } catch (IOException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
@@ -141,19 +161,62 @@ public class FastaSequence implements Sequence {
 
     }
 
+    private MappedFile map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return MappedFile.map(raf.getChannel());
+        } catch (IOException e) {
+            // Most likely out of address space (32-bit VM).  Pooled streams still work.
+            log.info("Could not memory map " + path + ",  using stream reads: " + e.getMessage());
+            return null;
+        } finally {
+            // The mapping remains valid after the channel is closed
+            raf.close();
+        }
+    }
+
     private byte[] readBytes(long posStart, long posEnd) throws IOException {
 
-        SeekableStream ss = null;
-        try {
+        // Take an idle stream from the pool,  or open a new one
+        SeekableStream ss = streamPool.poll();
+        if (ss == null) {
             ss = SeekableStreamFactory.getStreamFor(path);
+        }
+        boolean ok = false;
+        try {
             int nBytes = (int) (posEnd - posStart);
             byte[] bytes = new byte[nBytes];
             ss.seek(posStart);
             ss.readFully(bytes);
+            ok = true;
             return bytes;
         } finally {
-            if (ss != null) {
+            // Return the stream for reuse,  unless it failed or the pool is full
+            if (!ok || !streamPool.offer(ss)) {
+                ss.close();
+            }
+            // A stream returned while closing must not be left open
+            if (closed) {
+                closeStreams();
+            }
+        }
+    }
+
+    /**
+     * Close the pooled streams of a remote file.  Reads after closing still work,  opening new streams.
+     */
+    public void close() {
+        closed = true;
+        closeStreams();
+    }
+
+    private void closeStreams() {
+        SeekableStream ss;
+        while ((ss = streamPool.poll()) != null) {
+            try {
                 ss.close();
+            } catch (IOException e) {
+                log.error("Error closing " + path, e);
             }
         }
     }
@@ -39,7 +39,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -53,18 +52,22 @@ import org.broad.igv.ui.util.MessageUtils;
 /**
  * Simple model of a genome.  Keeps an ordered list of Chromosomes, an alias table, and genome position offsets
  * for each chromosome to support a whole-genome view.
+ * <p/>
+ * The offsets are a prefix sum of chromosome lengths,  built once,  so conversions between chromosome and genome
+ * coordinates cost a hash lookup or a binary search regardless of the number of chromosomes (draft assemblies
+ * can have hundreds of thousands of scaffolds).
  */
 public class Genome {
 
     private static Logger log = Logger.getLogger(Genome.class);
-    public static final int MAX_WHOLE_GENOME = 10000;
 
     private String id;
     private String displayName;
     private List<String> chromosomeNames;
     private LinkedHashMap<String, Chromosome> chromosomeMap;
     private long length = -1;
-    private Map<String, Long> cumulativeOffsets = new HashMap();
+    private volatile Map<String, Integer> chromosomeIndexes;
+    private volatile long[] cumulativeOffsets;     // cumulativeOffsets[i] = total length of chromosomes 0 .. i-1
     private Map<String, String> chrAliasTable;
     private Properties properties;
     
@@ -161,7 +164,9 @@ public class Genome {
 
     public void setChromosomeMap(LinkedHashMap<String, Chromosome> chromosomeMap, boolean chromosomesAreOrdered) {
         this.chromosomeMap = chromosomeMap;
-        this.chromosomeNames = new LinkedList<String>(chromosomeMap.keySet());
+        this.chromosomeNames = new ArrayList<String>(chromosomeMap.keySet());
+        this.length = -1;
+        this.cumulativeOffsets = null;
         if (!chromosomesAreOrdered) {
             Collections.sort(chromosomeNames, new ChromosomeComparator());
         }
@@ -217,7 +222,7 @@ public class Genome {
 
 
     public String getHomeChromosome() {
-        if (getChromosomeNames().size() == 1 || chromosomeNames.size() > MAX_WHOLE_GENOME) {
+        if (getChromosomeNames().size() == 1) {
             return getChromosomeNames().get(0);
         } else {
             return Globals.CHR_ALL;
@@ -250,22 +255,51 @@ public class Genome {
         return length;
     }
 
-
-    public long getCumulativeOffset(String chr) {
-
-        Long cumOffset = cumulativeOffsets.get(chr);
-        if (cumOffset == null) {
-            long offset = 0;
-            for (String c : getChromosomeNames()) {
-                if (chr.equals(c)) {
-                    break;
+    /**
+     * Build the chromosome index and offset tables if needed.
+     */
+    private void createOffsetTable() {
+        if (cumulativeOffsets == null) {
+            synchronized (this) {
+                if (cumulativeOffsets == null) {
+                    buildOffsetTable();
                 }
-                offset += getChromosome(c).getLength();
             }
-            cumOffset = new Long(offset);
-            cumulativeOffsets.put(chr, cumOffset);
         }
-        return cumOffset.longValue();
+    }
+
+    private void buildOffsetTable() {
+        List<String> names = getChromosomeNames();
+        Map<String, Integer> indexes = new HashMap<String, Integer>(names.size() * 2);
+        long[] offsets = new long[names.size() + 1];
+        int i = 0;
+        for (String c : names) {
+            indexes.put(c, i);
+            offsets[i + 1] = offsets[i] + getChromosome(c).getLength();
+            i++;
+        }
+        chromosomeIndexes = indexes;
+        cumulativeOffsets = offsets;
+    }
+
+    /**
+     * Return the position of chr in the chromosome list,  or -1 if it is not a chromosome of this genome.
+     */
+    public int getChromosomeIndex(String chr) {
+        createOffsetTable();
+        Integer idx = chromosomeIndexes.get(chr);
+        if (idx == null) {
+            idx = chromosomeIndexes.get(getChromosomeAlias(chr));
+        }
+        return idx == null ? -1 : idx.intValue();
+    }
+
+    /**
+     * Return the genome offset of the start of chr in BP.  Unknown chromosomes are placed after the last one.
+     */
+    public long getCumulativeOffset(String chr) {
+        int idx = getChromosomeIndex(chr);
+        return cumulativeOffsets[idx < 0 ? cumulativeOffsets.length - 1 : idx];
     }
 
     /**
@@ -284,16 +318,27 @@ public class Genome {
      */
     public ChromosomeCoordinate getChromosomeCoordinate(int genomeKBP) {
 
-        long cumOffset = 0;
-        for (String c : chromosomeNames) {
-            int chrLen = getChromosome(c).getLength();
-            if ((cumOffset + chrLen) / 1000 > genomeKBP) {
-                int bp = (int) (genomeKBP * 1000 - cumOffset);
-                return new ChromosomeCoordinate(c, bp);
+        createOffsetTable();
+
+        // Find the first chromosome whose end,  in KBP,  is past genomeKBP
+        long endBP = (genomeKBP + 1) * 1000L;
+        int low = 1;
+        int high = cumulativeOffsets.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeOffsets[mid] < endBP) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
-            cumOffset += chrLen;
         }
 
+        if (low < cumulativeOffsets.length) {
+            int bp = (int) (genomeKBP * 1000L - cumulativeOffsets[low - 1]);
+            return new ChromosomeCoordinate(chromosomeNames.get(low - 1), bp);
+        }
+
+        long cumOffset = cumulativeOffsets[cumulativeOffsets.length - 1];
         String c = chromosomeNames.get(chromosomeNames.size() - 1);
         int bp = (int) (genomeKBP - cumOffset) * 1000;
         return new ChromosomeCoordinate(c, bp);
@@ -310,22 +355,19 @@ public class Genome {
 
     public String getNextChrName(String chr) {
         List<String> chrList = getChromosomeNames();
-        for (int i = 0; i < chrList.size() - 1; i++) {
-            if (chrList.get(i).equals(chr)) {
-                return chrList.get(i + 1);
-            }
-        }
-        return null;
+        Integer idx = getChromosomeIndexes().get(chr);
+        return idx == null || idx >= chrList.size() - 1 ? null : chrList.get(idx + 1);
     }
 
     public String getPrevChrName(String chr) {
         List<String> chrList = getChromosomeNames();
-        for (int i = chrList.size() - 1; i > 0; i--) {
-            if (chrList.get(i).equals(chr)) {
-                return chrList.get(i - 1);
-            }
-        }
-        return null;
+        Integer idx = getChromosomeIndexes().get(chr);
+        return idx == null || idx == 0 ? null : chrList.get(idx - 1);
+    }
+
+    private Map<String, Integer> getChromosomeIndexes() {
+        createOffsetTable();
+        return chromosomeIndexes;
     }
 
     public byte[] getSequence(String chr, int start, int end) {
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.feature.genome;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.util.collections.IntArrayList;
+
+/**
+ * The sequence of one chromosome packed 2 bits per base.  Bases other than A, C, G, and T (e.g. N) are kept as runs
+ * in a side table,  as are runs of lower case (soft masked) bases,  so the original sequence is reproduced exactly.
+ * A 1 Gb chromosome takes about 250 MB.
+ * <p/>
+ * Instances are immutable once loaded,  and safe to read from any thread.
+ */
+public class PackedSequence {
+
+    private static Logger log = Logger.getLogger(PackedSequence.class);
+
+    static final int CHUNK_SIZE = 1 << 20;
+    static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final String chr;
+    private final int length;
+    private final long[] packed;          // 32 bases per long,  first base in the low bits
+    private int[] lowerCaseStarts;        // Runs of lower case bases,  in position order
+    private int[] lowerCaseEnds;
+    private int[] otherStarts;            // Runs of one base other than A, C, G, or T,  in position order
+    private int[] otherEnds;
+    private byte[] otherBases;
+
+    private PackedSequence(String chr, int length) {
+        this.chr = chr;
+        this.length = length;
+        this.packed = new long[(length + 31) / 32];
+    }
+
+    /**
+     * Read and pack a whole chromosome.  Returns null if the sequence could not be read,  or the calling thread
+     * was interrupted.
+     */
+    public static PackedSequence load(Sequence sequence, String chr, int length) {
+
+        long t0 = System.currentTimeMillis();
+        PackedSequence packedSequence = new PackedSequence(chr, length);
+        IntArrayList lowerCaseStarts = new IntArrayList();
+        IntArrayList lowerCaseEnds = new IntArrayList();
+        IntArrayList otherStarts = new IntArrayList();
+        IntArrayList otherEnds = new IntArrayList();
+        IntArrayList otherBases = new IntArrayList();
+        int lowerCaseStart = -1;          // The open runs,  added to the lists when they end
+        int lowerCaseEnd = -1;
+        int otherStart = -1;
+        int otherEnd = -1;
+        byte otherBase = 0;
+
+        for (int chunkStart = 0; chunkStart < length; chunkStart += CHUNK_SIZE) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            int chunkEnd = Math.min(length, chunkStart + CHUNK_SIZE);
+            byte[] bases = sequence.readSequence(chr, chunkStart, chunkEnd);
+            if (bases == null || bases.length != chunkEnd - chunkStart) {
+                log.info("Could not read sequence " + chr + ":" + chunkStart + "-" + chunkEnd + " to pack");
+                return null;
+            }
+
+            for (int i = 0; i < bases.length; i++) {
+                int pos = chunkStart + i;
+                byte b = bases[i];
+                boolean lowerCase = b >= 'a' && b <= 'z';
+                int code;
+                switch (lowerCase ? b - 32 : b) {
+                    case 'A':
+                        code = 0;
+                        break;
+                    case 'C':
+                        code = 1;
+                        break;
+                    case 'G':
+                        code = 2;
+                        break;
+                    case 'T':
+                        code = 3;
+                        break;
+                    default:
+                        code = -1;
+                }
+                if (code < 0) {
+                    if (otherEnd != pos || otherBase != b) {
+                        if (otherStart >= 0) {
+                            otherStarts.add(otherStart);
+                            otherEnds.add(otherEnd);
+                            otherBases.add(otherBase);
+                        }
+                        otherStart = pos;
+                        otherBase = b;
+                    }
+                    otherEnd = pos + 1;
+                } else {
+                    packedSequence.packed[pos >>> 5] |= ((long) code) << ((pos & 31) << 1);
+                    if (lowerCase) {
+                        if (lowerCaseEnd != pos) {
+                            if (lowerCaseStart >= 0) {
+                                lowerCaseStarts.add(lowerCaseStart);
+                                lowerCaseEnds.add(lowerCaseEnd);
+                            }
+                            lowerCaseStart = pos;
+                        }
+                        lowerCaseEnd = pos + 1;
+                    }
+                }
+            }
+        }
+
+        if (lowerCaseStart >= 0) {
+            lowerCaseStarts.add(lowerCaseStart);
+            lowerCaseEnds.add(lowerCaseEnd);
+        }
+        if (otherStart >= 0) {
+            otherStarts.add(otherStart);
+            otherEnds.add(otherEnd);
+            otherBases.add(otherBase);
+        }
+
+        packedSequence.lowerCaseStarts = lowerCaseStarts.toArray();
+        packedSequence.lowerCaseEnds = lowerCaseEnds.toArray();
+        packedSequence.otherStarts = otherStarts.toArray();
+        packedSequence.otherEnds = otherEnds.toArray();
+        packedSequence.otherBases = new byte[otherBases.size()];
+        for (int i = 0; i < packedSequence.otherBases.length; i++) {
+            packedSequence.otherBases[i] = (byte) otherBases.get(i);
+        }
+
+        log.info("Packed sequence " + chr + " (" + length + " bp) in " + (System.currentTimeMillis() - t0) +
+                " ms,  " + packedSequence.lowerCaseStarts.length + " lower case runs,  " +
+                packedSequence.otherStarts.length + " other base runs");
+        return packedSequence;
+    }
+
+    public String getChr() {
+        return chr;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Return the bases in [start, end).  Positions outside the chromosome are left 0.
+     */
+    public byte[] getSequence(int start, int end) {
+        byte[] dest = new byte[end - start];
+        getSequence(start, end, dest, 0);
+        return dest;
+    }
+
+    /**
+     * Copy the bases in [start, end) to dest,  starting at destPos.  Positions outside the chromosome are skipped.
+     */
+    public void getSequence(int start, int end, byte[] dest, int destPos) {
+
+        int s = Math.max(0, start);
+        int e = Math.min(length, end);
+        int offset = destPos - start;
+
+        for (int pos = s; pos < e; pos++) {
+            dest[offset + pos] = BASES[(int) (packed[pos >>> 5] >>> ((pos & 31) << 1)) & 3];
+        }
+
+        for (int r = firstRun(lowerCaseEnds, s); r < lowerCaseStarts.length && lowerCaseStarts[r] < e; r++) {
+            int runEnd = Math.min(e, lowerCaseEnds[r]);
+            for (int pos = Math.max(s, lowerCaseStarts[r]); pos < runEnd; pos++) {
+                dest[offset + pos] += 32;
+            }
+        }
+
+        for (int r = firstRun(otherEnds, s); r < otherStarts.length && otherStarts[r] < e; r++) {
+            Arrays.fill(dest, offset + Math.max(s, otherStarts[r]), offset + Math.min(e, otherEnds[r]), otherBases[r]);
+        }
+    }
+
+    /**
+     * Return the index of the first run ending after position.
+     */
+    private static int firstRun(int[] runEnds, int position) {
+        int idx = Arrays.binarySearch(runEnds, position + 1);
+        return idx < 0 ? -idx - 1 : idx;
+    }
+
+    /**
+     * Estimated heap size in bytes.
+     */
+    public long getEstimatedSize() {
+        return 8L * packed.length + 8L * lowerCaseStarts.length + 9L * otherStarts.length;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.feature.genome;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PackedSequenceTest {
+
+    static final int LENGTH = PackedSequence.CHUNK_SIZE + 1000;
+
+    /**
+     * A sequence held in memory
+     */
+    static class ByteSequence implements Sequence {
+        final byte[] bases;
+
+        ByteSequence(byte[] bases) {
+            this.bases = bases;
+        }
+
+        public byte[] readSequence(String chr, int start, int end) {
+            return Arrays.copyOfRange(bases, start, end);
+        }
+    }
+
+    /**
+     * Random upper case ACGT with N and IUPAC runs,  adjacent runs of different other bases,  and lower case runs
+     * crossing the 32 base word and the chunk boundaries.
+     */
+    static byte[] createBases() {
+        Random random = new Random(7);
+        byte[] bases = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bases[i] = PackedSequence.BASES[random.nextInt(4)];
+        }
+
+        // Other bases at the start,  adjacent runs of different bases,  and single IUPAC codes
+        Arrays.fill(bases, 0, 10, (byte) 'N');
+        Arrays.fill(bases, 100, 150, (byte) 'N');
+        Arrays.fill(bases, 150, 155, (byte) 'R');
+        Arrays.fill(bases, 155, 160, (byte) 'n');
+        bases[200] = 'Y';
+        bases[201] = 'K';
+        bases[202] = 'y';
+        for (int i = 1000; i < 5000; i += 97) {
+            bases[i] = (byte) "MSWBDHV".charAt(i % 7);
+        }
+
+        // Lower case runs crossing the 32 base words
+        lowerCase(bases, 30, 34);
+        lowerCase(bases, 60, 130);
+        lowerCase(bases, 320, 384);
+        lowerCase(bases, 2000, 2001);
+
+        // Runs crossing the chunk boundary,  and running to the end
+        int chunk = PackedSequence.CHUNK_SIZE;
+        lowerCase(bases, chunk - 40, chunk + 40);
+        Arrays.fill(bases, chunk - 5, chunk + 5, (byte) 'N');
+        lowerCase(bases, LENGTH - 50, LENGTH);
+        return bases;
+    }
+
+    static void lowerCase(byte[] bases, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bases[i] >= 'A' && bases[i] <= 'Z') {
+                bases[i] += 32;
+            }
+        }
+    }
+
+    static PackedSequence load(byte[] bases) {
+        PackedSequence packed = PackedSequence.load(new ByteSequence(bases), "chr1", bases.length);
+        assertNotNull(packed);
+        return packed;
+    }
+
+    @Test
+    public void testWholeSequence() {
+        byte[] bases = createBases();
+        PackedSequence packed = load(bases);
+
+        assertEquals(LENGTH, packed.getLength());
+        assertArrayEquals(bases, packed.getSequence(0, LENGTH));
+    }
+
+    @Test
+    public void testRanges() {
+        byte[] bases = createBases();
+        PackedSequence packed = load(bases);
+
+        // Ranges starting and ending inside runs,  word and chunk boundaries
+        int chunk = PackedSequence.CHUNK_SIZE;
+        int[][] ranges = {{0, 1}, {5, 12}, {31, 33}, {32, 64}, {33, 129}, {120, 158}, {152, 153}, {155, 201},
+                {201, 202}, {383, 385}, {chunk - 35, chunk + 1}, {chunk, chunk + 32}, {LENGTH - 1, LENGTH}};
+        for (int[] range : ranges) {
+            assertArrayEquals(range[0] + "-" + range[1], Arrays.copyOfRange(bases, range[0], range[1]),
+                    packed.getSequence(range[0], range[1]));
+        }
+
+        Random random = new Random(11);
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(LENGTH);
+            int end = Math.min(LENGTH, start + 1 + random.nextInt(200));
+            assertArrayEquals(start + "-" + end, Arrays.copyOfRange(bases, start, end), packed.getSequence(start, end));
+        }
+    }
+
+    @Test
+    public void testClippedRanges() {
+        byte[] bases = createBases();
+        PackedSequence packed = load(bases);
+
+        // Positions outside the chromosome are left 0
+        byte[] expected = new byte[30];
+        System.arraycopy(bases, 0, expected, 10, 20);
+        assertArrayEquals(expected, packed.getSequence(-10, 20));
+
+        expected = new byte[100];
+        System.arraycopy(bases, LENGTH - 60, expected, 0, 60);
+        assertArrayEquals(expected, packed.getSequence(LENGTH - 60, LENGTH + 40));
+
+        // Copy into an offset in a larger array
+        byte[] dest = new byte[50];
+        packed.getSequence(LENGTH - 10, LENGTH + 10, dest, 5);
+        expected = new byte[50];
+        System.arraycopy(bases, LENGTH - 10, expected, 5, 10);
+        assertArrayEquals(expected, dest);
+    }
+
+    @Test
+    public void testNoOtherBases() {
+        byte[] bases = "ACGTacgtTTTTggggCCCCAAAAaaaaCCCCGGGGtttt".getBytes();
+        PackedSequence packed = load(bases);
+        assertArrayEquals(bases, packed.getSequence(0, bases.length));
+        assertArrayEquals("Tacg".getBytes(), packed.getSequence(3, 7));
+    }
+}
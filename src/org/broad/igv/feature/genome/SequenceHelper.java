@@ -22,9 +22,15 @@
 package org.broad.igv.feature.genome;
 
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipFile;
 
 import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.util.ObjectCache;
 
 /**
@@ -36,10 +42,26 @@ public class SequenceHelper {
     private static boolean cacheSequences = true;
     private static int tileSize = 30000;
 
+    /**
+     * Loads packed chromosomes in the background,  one at a time.
+     */
+    private static ExecutorService packingExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SequencePacker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
 
     Sequence sequence;
     private ObjectCache<String, SequenceTile> sequenceCache = new ObjectCache(50);
 
+    // The current chromosome packed 2 bits per base (see SEQUENCE_PACKED_CHROMOSOME),  and the load in progress
+    private volatile PackedSequence packedSequence;
+    private String packingChr;
+    private Future<PackedSequence> packingTask;
+
 
     public SequenceHelper(String seqpath, ZipFile genomeFile) {
 
@@ -117,6 +139,12 @@ public class SequenceHelper {
      */
     public byte[] getSequence(String chr, int start, int end, int max) {
         if (cacheSequences) {
+
+            PackedSequence packed = getPackedSequence(chr, max);
+            if (packed != null) {
+                return start >= max ? null : packed.getSequence(start, end);
+            }
+
             byte[] seqbytes = new byte[end - start];
             int startTile = start / tileSize;
             int endTile = end / tileSize;
@@ -169,6 +197,60 @@ public class SequenceHelper {
     }
 
 
+    /**
+     * Return the packed sequence for chr,  or null if it is not loaded yet.  If packing is enabled and chr is not the
+     * packed chromosome,  the packed sequence is dropped and chr is loaded in the background,  meanwhile callers
+     * fall back to tiles.
+     */
+    private PackedSequence getPackedSequence(final String chr, final int length) {
+
+        PackedSequence packed = packedSequence;
+        if (packed != null && packed.getChr().equals(chr)) {
+            return packed;
+        }
+        if (sequence == null || length <= 0 ||
+                !PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SEQUENCE_PACKED_CHROMOSOME)) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (chr.equals(packingChr)) {
+                // Loaded,  loading,  or failed.  A failed chromosome is not retried until another one is viewed.
+                if (packingTask != null) {
+                    if (!packingTask.isDone()) {
+                        return null;
+                    }
+                    try {
+                        packedSequence = packingTask.get();
+                    } catch (Exception e) {
+                        log.error("Error packing sequence " + chr, e);
+                    }
+                    packingTask = null;
+                }
+                return packedSequence;
+            }
+
+            // A new chromosome.  Release the old one before loading,  and skip chromosomes that would not fit
+            // comfortably in the heap.
+            if (packingTask != null) {
+                packingTask.cancel(true);
+                packingTask = null;
+            }
+            packedSequence = null;
+            packingChr = chr;
+            if (length / 4 > Runtime.getRuntime().maxMemory() / 4) {
+                log.info("Not packing sequence " + chr + ",  " + length + " bp is too large for the heap");
+                return null;
+            }
+            packingTask = packingExecutor.submit(new Callable<PackedSequence>() {
+                public PackedSequence call() throws Exception {
+                    return PackedSequence.load(sequence, chr, length);
+                }
+            });
+            return null;
+        }
+    }
+
     private SequenceTile getSequenceTile(String chr, int tileNo, int maxEnd) {
         String key = getKey(chr, tileNo);
         SequenceTile tile = sequenceCache.get(key);
@@ -212,8 +294,14 @@ public class SequenceHelper {
         cacheSequences = aCacheSequences;
     }
 
-    public void clearCache() {
+    public synchronized void clearCache() {
         sequenceCache.clear();
+        if (packingTask != null) {
+            packingTask.cancel(true);
+            packingTask = null;
+        }
+        packingChr = null;
+        packedSequence = null;
     }
 
     static class SequenceTile {
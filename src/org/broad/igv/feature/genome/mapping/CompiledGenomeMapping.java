@@ -0,0 +1,308 @@
+package org.broad.igv.feature.genome.mapping;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A genome mapping read from the compiled binary format written by {@link CompiledGenomeMappingWriter}
+ * (igvtools compileMapping).
+ * <p/>
+ * The file holds a chromosome dictionary and two sections of fixed width records,  one sorted by the 'from' side
+ * and one by the 'to' side,  so both directions are a binary search without any text parsing.  Each section has a
+ * block index,  kept in memory,  of the first key of every BLOCK_SIZE records.  Records are memory mapped in
+ * segments,  so files larger than 2 GB are supported.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * header:      int MAGIC, int VERSION, int blockSize, int dictionarySize, long recordCount
+ * dictionary:  int chromosomeCount, UTF name * chromosomeCount
+ * index:       (int chrId, int start) * blockCount              forward section,  then reverse section
+ * records:     (int keyChrId, int keyStart, int keyEnd, int valueChrId, int valueStart, int valueEnd) * recordCount
+ *                                                                forward section,  then reverse section
+ * </pre>
+ */
+public class CompiledGenomeMapping implements IGenomeMapper {
+
+    private static Logger 			log = Logger.getLogger(CompiledGenomeMapping.class);
+
+    public static final int			MAGIC = 0x49474D50;					// "IGMP"
+    public static final int			VERSION = 1;
+    public static final String		EXTENSION = ".gmap";
+
+    static final int				HEADER_SIZE = 24;
+    static final int				RECORD_SIZE = 24;
+    static final int				BLOCK_SIZE = 1024;
+    static final int				SEGMENT_RECORDS = (1 << 30) / RECORD_SIZE;
+
+	private File					file;
+	private String					fromGenome;
+	private String					toGenome;
+	private boolean					forwardMapping;
+
+	private String[]				chromosomes;
+	private Map<String, Integer>	chromosomeIds;
+	private Section					forward;
+	private Section					reverse;
+
+	/**
+	 * One direction of the mapping:  a block index and the records sorted by key.
+	 */
+	static class Section
+	{
+		long						recordCount;
+		int[]						blockChrIds;
+		int[]						blockStarts;
+		MappedByteBuffer[]			segments;
+
+		int getInt(long record, int field)
+		{
+			return segments[(int)(record / SEGMENT_RECORDS)].getInt((int)(record % SEGMENT_RECORDS) * RECORD_SIZE + field * 4);
+		}
+
+		/**
+		 * Return the index of the last record whose key is <= (chrId, loc),  or -1 if there is none
+		 */
+		long findRecord(int chrId, int loc)
+		{
+			// last block starting at or before the key
+			int			low = 0;
+			int			high = blockStarts.length - 1;
+			while ( low <= high )
+			{
+				int		mid = (low + high) >>> 1;
+				if ( compare(blockChrIds[mid], blockStarts[mid], chrId, loc) <= 0 )
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			if ( high < 0 )
+				return -1;
+
+			// last record within the block
+			long		recordLow = (long)high * BLOCK_SIZE;
+			long		recordHigh = Math.min(recordCount, recordLow + BLOCK_SIZE) - 1;
+			while ( recordLow <= recordHigh )
+			{
+				long	mid = (recordLow + recordHigh) >>> 1;
+				if ( compare(getInt(mid, 0), getInt(mid, 1), chrId, loc) <= 0 )
+					recordLow = mid + 1;
+				else
+					recordHigh = mid - 1;
+			}
+			return recordHigh;
+		}
+
+		static int compare(int chrId1, int start1, int chrId2, int start2)
+		{
+			if ( chrId1 != chrId2 )
+				return chrId1 < chrId2 ? -1 : 1;
+			return start1 < start2 ? -1 : (start1 == start2 ? 0 : 1);
+		}
+	}
+
+	public CompiledGenomeMapping(File file, String fromGenome, String toGenome) throws IOException
+	{
+		log.info("compiled mapping file: " + file);
+
+		// store
+		this.file = file;
+		this.fromGenome = fromGenome;
+		this.toGenome = toGenome;
+		this.forwardMapping = true;
+
+		RandomAccessFile		raf = new RandomAccessFile(file, "r");
+		try
+		{
+			// header
+			if ( raf.readInt() != MAGIC )
+				throw new IOException("not a compiled genome mapping file: " + file);
+			int					version = raf.readInt();
+			if ( version != VERSION )
+				throw new IOException("unsupported compiled genome mapping version " + version + ": " + file);
+			int					blockSize = raf.readInt();
+			if ( blockSize != BLOCK_SIZE )
+				throw new IOException("unsupported block size " + blockSize + ": " + file);
+			int					dictionarySize = raf.readInt();
+			long				recordCount = raf.readLong();
+
+			// chromosome dictionary
+			byte[]				bytes = new byte[dictionarySize];
+			raf.readFully(bytes);
+			DataInputStream		dis = new DataInputStream(new ByteArrayInputStream(bytes));
+			chromosomes = new String[dis.readInt()];
+			chromosomeIds = new HashMap<String, Integer>(chromosomes.length * 2);
+			for ( int i = 0 ; i < chromosomes.length ; i++ )
+			{
+				chromosomes[i] = dis.readUTF();
+				chromosomeIds.put(chromosomes[i], i);
+			}
+
+			// block indexes, then records
+			int					blockCount = (int)((recordCount + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			long				indexOffset = HEADER_SIZE + dictionarySize;
+			long				recordsOffset = indexOffset + 2L * blockCount * 8;
+			FileChannel			chan = raf.getChannel();
+			forward = readSection(raf, chan, recordCount, blockCount, indexOffset, recordsOffset);
+			reverse = readSection(raf, chan, recordCount, blockCount, indexOffset + blockCount * 8L,
+										recordsOffset + recordCount * RECORD_SIZE);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		log.info("mappings: " + recordCount() + ", chromosomes: " + chromosomes.length);
+	}
+
+	private CompiledGenomeMapping(CompiledGenomeMapping other)
+	{
+		this.file = other.file;
+		this.fromGenome = other.toGenome;
+		this.toGenome = other.fromGenome;
+		this.forwardMapping = !other.forwardMapping;
+		this.chromosomes = other.chromosomes;
+		this.chromosomeIds = other.chromosomeIds;
+		this.forward = other.reverse;
+		this.reverse = other.forward;
+	}
+
+	private static Section readSection(RandomAccessFile raf, FileChannel chan, long recordCount, int blockCount,
+												long indexOffset, long recordsOffset) throws IOException
+	{
+		Section			section = new Section();
+		section.recordCount = recordCount;
+
+		// block index
+		byte[]			bytes = new byte[blockCount * 8];
+		raf.seek(indexOffset);
+		raf.readFully(bytes);
+		ByteBuffer		index = ByteBuffer.wrap(bytes);
+		section.blockChrIds = new int[blockCount];
+		section.blockStarts = new int[blockCount];
+		for ( int i = 0 ; i < blockCount ; i++ )
+		{
+			section.blockChrIds[i] = index.getInt();
+			section.blockStarts[i] = index.getInt();
+		}
+
+		// records, mapped in segments of whole records
+		int				segmentCount = (int)((recordCount + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS);
+		section.segments = new MappedByteBuffer[segmentCount];
+		for ( int i = 0 ; i < segmentCount ; i++ )
+		{
+			long		first = (long)i * SEGMENT_RECORDS;
+			long		count = Math.min(SEGMENT_RECORDS, recordCount - first);
+			section.segments[i] = chan.map(FileChannel.MapMode.READ_ONLY, recordsOffset + first * RECORD_SIZE, count * RECORD_SIZE);
+		}
+
+		return section;
+	}
+
+	@Override
+	public GenomeLocus mapLocus(GenomeLocus locus) throws GenomeMapperException
+	{
+		// map start and end. optimize for same
+		GenomeLocus			startMapping = map(locus.getChr(), locus.getStart());
+		GenomeLocus			endMapping;
+		if ( locus.getStart() == locus.getEnd() )
+			endMapping = startMapping;
+		else
+			endMapping = map(locus.getChr(), locus.getEnd());
+
+		// must be on the same chromosome
+		if ( !startMapping.getChr().equals(endMapping.getChr()) )
+			throw new GenomeMapperException(locus, "start and end must map to same chromosome");
+
+		// integrate and return
+		return new GenomeLocus(startMapping.getChr(), startMapping.getStart(), endMapping.getStart());
+	}
+
+	public IGenomeMapper getReverseGenomeMapper()
+	{
+		return new CompiledGenomeMapping(this);
+	}
+
+	private GenomeLocus map(String chr, int loc) throws GenomeMapperException
+	{
+		// find last entry starting at or before the location
+		Integer		chrId = chromosomeIds.get(chr);
+		long		record = (chrId == null) ? -1 : forward.findRecord(chrId, loc);
+		if ( record < 0 || forward.getInt(record, 0) != chrId || loc > forward.getInt(record, 2) )
+			throw new GenomeMapperException(new GenomeLocus(chr, loc, 0), "no mapping found");
+
+		// found!, calculate relative position with the from range
+		int			fromStart = forward.getInt(record, 1);
+		int			fromEnd = forward.getInt(record, 2);
+		double		pos = (double)(loc - fromStart) / (fromEnd - fromStart);
+
+		// generate 'to' location
+		int			toStart = forward.getInt(record, 4);
+		int			toEnd = forward.getInt(record, 5);
+		int			toLoc = toStart + (int)Math.round(pos * (toEnd - toStart));
+
+		// return (using only start field)
+		return new GenomeLocus(chromosomes[forward.getInt(record, 3)], toLoc, 0);
+	}
+
+	private long recordCount()
+	{
+		return forward.recordCount;
+	}
+
+	/**
+	 * Returns true if the file starts with the compiled mapping magic number
+	 */
+	public static boolean isCompiled(File file)
+	{
+		if ( !file.isFile() || file.length() < HEADER_SIZE )
+			return false;
+
+		try
+		{
+			RandomAccessFile		raf = new RandomAccessFile(file, "r");
+			try
+			{
+				return raf.readInt() == MAGIC;
+			}
+			finally
+			{
+				raf.close();
+			}
+		} catch (IOException e) {
+			log.warn("", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the compiled form of a local mapping file:  the file itself if it is compiled,  or an up to date
+	 * compiled file next to it (same name plus EXTENSION),  or null if there is none
+	 */
+	public static File getCompiledFileFor(File localFile)
+	{
+		if ( isCompiled(localFile) )
+			return localFile;
+
+		File		compiledFile = new File(localFile.getPath() + EXTENSION);
+		if ( compiledFile.lastModified() >= localFile.lastModified() && isCompiled(compiledFile) )
+			return compiledFile;
+
+		return null;
+	}
+
+	@Override
+	public String getMappingInfo()
+	{
+		return String.format("%s: %d mappings", getClass().getSimpleName(), recordCount());
+	}
+}
@@ -0,0 +1,92 @@
+package org.broad.igv.feature.genome.mapping;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class CompiledGenomeMappingTest {
+
+	static final String			TEST_RESOURCE = LocalFileGenomeMappingTest.TEST_RESOURCE;
+	static final String			TEST_FROM_GENOME = "genome1";
+	static final String			TEST_TO_GENOME = "genome2";
+
+	@Test
+	public void testExactEntries() throws IOException
+	{
+		// create mapper
+		IGenomeMapper		mapper = buildMapper();
+
+		// check for exact mappings
+		Assert.assertTrue(checkMap(mapper, "1:100-1198", "1:100-1837"));
+		Assert.assertTrue(checkMap(mapper, "1:1198-1200", "1:1837-1839"));
+		Assert.assertTrue(checkMap(mapper, "1:1300-1711", "1:1939-2467"));
+	}
+
+	@Test
+	public void testMissingEntries() throws IOException
+	{
+		// create mapper
+		IGenomeMapper		mapper = buildMapper();
+
+		// before
+		Assert.assertTrue(checkMap(mapper, "1:1-99", null));
+
+		// middle
+		Assert.assertTrue(checkMap(mapper, "1:1210-1:1220", null));
+
+		// after
+		Assert.assertTrue(checkMap(mapper, "2:1-2", null));
+	}
+
+	@Test
+	public void testReverseEntries() throws IOException
+	{
+		// create reverse mapper
+		IGenomeMapper		mapper = buildMapper().getReverseGenomeMapper();
+
+		Assert.assertTrue(checkMap(mapper, "1:100-1837", "1:100-1198"));
+		Assert.assertTrue(checkMap(mapper, "1:1939-2467", "1:1300-1711"));
+		Assert.assertTrue(checkMap(mapper, "1:1-99", null));
+	}
+
+
+	private CompiledGenomeMapping buildMapper() throws IOException
+	{
+		String			path = getClass().getClassLoader().getResource(TEST_RESOURCE).getFile();
+		File			compiledFile = File.createTempFile("mapping", CompiledGenomeMapping.EXTENSION);
+		compiledFile.deleteOnExit();
+
+		CompiledGenomeMappingWriter.compile(new File(path), compiledFile);
+		Assert.assertTrue(CompiledGenomeMapping.isCompiled(compiledFile));
+
+		return new CompiledGenomeMapping(compiledFile, TEST_FROM_GENOME, TEST_TO_GENOME);
+	}
+
+	private boolean checkMap(IGenomeMapper mapper, String from, String to)
+	{
+		GenomeLocus			result = map(mapper, new GenomeLocus(from));
+
+		if ( result == null )
+			return (to == null);
+		else if ( to == null )
+			return false;
+		else
+			return result.equals(new GenomeLocus(to));
+	}
+
+	private GenomeLocus map(IGenomeMapper mapper, GenomeLocus from)
+	{
+		try
+		{
+			return mapper.mapLocus(from);
+
+		} catch (GenomeMapperException e) {
+
+			return null;
+		}
+	}
+}
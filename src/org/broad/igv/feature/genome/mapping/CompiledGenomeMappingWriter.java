@@ -0,0 +1,201 @@
+package org.broad.igv.feature.genome.mapping;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.broad.igv.util.collections.IntArrayList;
+
+/**
+ * Compiles a text genome mapping file (pairs of from and to loci,  one pair per line) into the binary format read by
+ * {@link CompiledGenomeMapping}.  Comment lines,  including MAP and ASSERT instructions,  are not compiled;  they
+ * are still read from the text file.
+ * <p/>
+ * All mappings are held in memory while compiling,  about 50 bytes per mapping.
+ */
+public class CompiledGenomeMappingWriter {
+
+    private static Logger 			log = Logger.getLogger(CompiledGenomeMappingWriter.class);
+
+	private Map<String, Integer>	chromosomeIds = new LinkedHashMap<String, Integer>();
+	private IntArrayList[]			fields = new IntArrayList[6];			// from chr, start, end, to chr, start, end
+
+	public static void compile(File textFile, File outputFile) throws IOException
+	{
+		CompiledGenomeMappingWriter		writer = new CompiledGenomeMappingWriter();
+		writer.read(textFile);
+		writer.write(outputFile);
+	}
+
+	private CompiledGenomeMappingWriter()
+	{
+		for ( int i = 0 ; i < fields.length ; i++ )
+			fields[i] = new IntArrayList(100000);
+	}
+
+	private void read(File textFile) throws IOException
+	{
+		BufferedReader		reader = new BufferedReader(new FileReader(textFile));
+		try
+		{
+			String			line;
+			while ( (line = reader.readLine()) != null )
+			{
+				// skip empty lines and comments
+				line = line.trim();
+				if ( line.length() == 0 || line.charAt(0) == '#' )
+					continue;
+
+				String[]		toks = StringUtils.split(line, "\t ");
+				if ( toks.length < 2 )
+					continue;
+				GenomeLocus		from = new GenomeLocus(toks[0]);
+				GenomeLocus		to = new GenomeLocus(toks[1]);
+				if ( from.isChromosomeOnly() || to.isChromosomeOnly() )
+					continue;
+
+				fields[0].add(getChromosomeId(from.getChr()));
+				fields[1].add(from.getStart());
+				fields[2].add(from.getEnd());
+				fields[3].add(getChromosomeId(to.getChr()));
+				fields[4].add(to.getStart());
+				fields[5].add(to.getEnd());
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		log.info("read " + fields[0].size() + " mappings on " + chromosomeIds.size() + " chromosomes from " + textFile);
+	}
+
+	private int getChromosomeId(String chr)
+	{
+		Integer		id = chromosomeIds.get(chr);
+		if ( id == null )
+		{
+			id = chromosomeIds.size();
+			chromosomeIds.put(chr, id);
+		}
+		return id;
+	}
+
+	private void write(File outputFile) throws IOException
+	{
+		int[][]					values = new int[fields.length][];
+		for ( int i = 0 ; i < fields.length ; i++ )
+		{
+			values[i] = fields[i].toArray();
+			fields[i] = null;
+		}
+		int						recordCount = values[0].length;
+		int						blockSize = CompiledGenomeMapping.BLOCK_SIZE;
+
+		// chromosome dictionary
+		ByteArrayOutputStream	dictionary = new ByteArrayOutputStream();
+		DataOutputStream		dos = new DataOutputStream(dictionary);
+		dos.writeInt(chromosomeIds.size());
+		for ( String chr : chromosomeIds.keySet() )
+			dos.writeUTF(chr);
+		dos.close();
+
+		// sort both directions
+		int[]					forwardOrder = sortedOrder(values[0], values[1]);
+		int[]					reverseOrder = sortedOrder(values[3], values[4]);
+
+		dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16));
+		try
+		{
+			// header
+			dos.writeInt(CompiledGenomeMapping.MAGIC);
+			dos.writeInt(CompiledGenomeMapping.VERSION);
+			dos.writeInt(blockSize);
+			dos.writeInt(dictionary.size());
+			dos.writeLong(recordCount);
+			dictionary.writeTo(dos);
+
+			// block indexes: first key of each block
+			for ( int[] order : new int[][] {forwardOrder, reverseOrder} )
+			{
+				int			keyField = (order == forwardOrder) ? 0 : 3;
+				for ( int i = 0 ; i < recordCount ; i += blockSize )
+				{
+					dos.writeInt(values[keyField][order[i]]);
+					dos.writeInt(values[keyField + 1][order[i]]);
+				}
+			}
+
+			// records: key side first
+			for ( int[] order : new int[][] {forwardOrder, reverseOrder} )
+			{
+				int			keyField = (order == forwardOrder) ? 0 : 3;
+				int			valueField = 3 - keyField;
+				for ( int i = 0 ; i < recordCount ; i++ )
+				{
+					int		r = order[i];
+					dos.writeInt(values[keyField][r]);
+					dos.writeInt(values[keyField + 1][r]);
+					dos.writeInt(values[keyField + 2][r]);
+					dos.writeInt(values[valueField][r]);
+					dos.writeInt(values[valueField + 1][r]);
+					dos.writeInt(values[valueField + 2][r]);
+				}
+			}
+		}
+		finally
+		{
+			dos.close();
+		}
+
+		log.info("wrote " + recordCount + " mappings to " + outputFile + " (" + outputFile.length() + " bytes)");
+	}
+
+	/**
+	 * Returns the record indexes sorted by (chrId, start),  using a merge sort on primitive keys
+	 */
+	static int[] sortedOrder(int[] chrIds, int[] starts)
+	{
+		int				n = chrIds.length;
+		long[]			keys = new long[n];
+		int[]			order = new int[n];
+		int[]			tmp = new int[n];
+		for ( int i = 0 ; i < n ; i++ )
+		{
+			keys[i] = ((long)chrIds[i] << 32) | ((long)starts[i] - Integer.MIN_VALUE);
+			order[i] = i;
+		}
+
+		for ( long width = 1 ; width < n ; width *= 2 )
+		{
+			for ( long lo = 0 ; lo < n ; lo += 2 * width )
+			{
+				int		mid = (int)Math.min(lo + width, n);
+				int		hi = (int)Math.min(lo + 2 * width, n);
+				int		i = (int)lo;
+				int		j = mid;
+				int		k = (int)lo;
+				while ( i < mid && j < hi )
+					tmp[k++] = (keys[order[j]] < keys[order[i]]) ? order[j++] : order[i++];
+				while ( i < mid )
+					tmp[k++] = order[i++];
+				while ( j < hi )
+					tmp[k++] = order[j++];
+			}
+			int[]		swap = order;
+			order = tmp;
+			tmp = swap;
+		}
+
+		return order;
+	}
+}
@@ -2,8 +2,10 @@ package org.broad.igv.feature.genome.mapping;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.broad.igv.feature.Chromosome;
@@ -15,6 +17,9 @@ public class GenomeMapping implements IGenomeMapper {
 	private GenomeLocusPair[]		startIndex;
 	private GenomeLocusPair[]		defaultMappings;
 	
+	// [first, end) range of each chromosome's pairs in startIndex. null if a chromosome's pairs are not contiguous
+	private Map<String, int[]>		chromosomeRanges;
+	
 	private MyComparator			startComp = new MyComparator();
 	
 	private String					fromGenomeId;
@@ -24,6 +29,16 @@ public class GenomeMapping implements IGenomeMapper {
 	
 	private GenomeMappingManager	gmm;
 	
+	/**
+	 * The result of a previous search, used to narrow the next one on the same chromosome at or after the same start
+	 */
+	static class SearchHint
+	{
+		int[]		range;
+		int			entry;
+		int			start;
+	}
+	
 	class MyComparator implements Comparator<GenomeLocusPair> {
 
 
@@ -72,10 +87,67 @@ public class GenomeMapping implements IGenomeMapper {
 
 		// sort
 		Arrays.sort(startIndex, startComp);
+		
+		// index chromosome ranges
+		chromosomeRanges = new HashMap<String, int[]>();
+		for ( int entry = 0 ; entry < startIndex.length ; )
+		{
+			String		chr = startIndex[entry].left.getChr();
+			int			first = entry;
+			while ( entry < startIndex.length && startIndex[entry].left.getChr().equals(chr) )
+				entry++;
+			if ( chromosomeRanges.put(chr, new int[] {first, entry}) != null )
+			{
+				// names which compare equal (e.g. chr1, chr01) are interleaved. search the whole index
+				chromosomeRanges = null;
+				break;
+			}
+		}
 	}
 
 	@Override
 	public GenomeLocus mapLocus(GenomeLocus locus) throws GenomeMapperException 
+	{
+		return mapLocus(locus, new SearchHint());
+	}
+	
+	/**
+	 * Map many loci at once. The loci are visited in chromosome and start order, so that each search continues from
+	 * where the previous one ended. Loci which can not be mapped have a null result.
+	 */
+	public GenomeLocus[] mapLoci(final List<GenomeLocus> loci)
+	{
+		Integer[]			order = new Integer[loci.size()];
+		for ( int i = 0 ; i < order.length ; i++ )
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2)
+			{
+				GenomeLocus		l1 = loci.get(i1);
+				GenomeLocus		l2 = loci.get(i2);
+				int				diff = hybridCompare(String.valueOf(l1.getChr()), String.valueOf(l2.getChr()));
+				return diff != 0 ? diff : l1.getStart() - l2.getStart();
+			}
+		});
+		
+		GenomeLocus[]		results = new GenomeLocus[order.length];
+		SearchHint			hint = new SearchHint();
+		for ( int i : order )
+		{
+			try
+			{
+				results[i] = mapLocus(loci.get(i), hint);
+			}
+			catch (GenomeMapperException e)
+			{
+				results[i] = null;
+			}
+		}
+		
+		return results;
+	}
+	
+	private GenomeLocus mapLocus(GenomeLocus locus, SearchHint hint) throws GenomeMapperException 
 	{
 		if ( isEmptyLocus(locus) )
 			return locus;
@@ -84,10 +156,15 @@ public class GenomeMapping implements IGenomeMapper {
 			return mapLocusUsingDefault(locus);
 		
 		GenomeLocusPair		key = new GenomeLocusPair(translateFromGenome(locus, fromGenomeId), null);
+		GenomeLocusPair		keyEnd = new GenomeLocusPair(translateFromGenome(locus.flipStartEnd(), fromGenomeId), null);
+		int[]				range = (chromosomeRanges != null) ? chromosomeRanges.get(key.left.getChr()) : null;
 		
 		// find start/end
-		int					entry = Arrays.binarySearch(startIndex, key, startComp);
-		int					entryEnd = Arrays.binarySearch(startIndex, new GenomeLocusPair(translateFromGenome(locus.flipStartEnd(), fromGenomeId), null), startComp);
+		int					entry = search(key, range, hint);
+		hint.range = range;
+		hint.entry = (entry >= 0) ? entry : -(entry + 1);
+		hint.start = key.left.getStart();
+		int					entryEnd = search(keyEnd, (chromosomeRanges != null) ? chromosomeRanges.get(keyEnd.left.getChr()) : null, hint);
 		int					minStart = Integer.MAX_VALUE;
 		int					maxEnd = Integer.MIN_VALUE;
 		
@@ -124,7 +201,10 @@ public class GenomeMapping implements IGenomeMapper {
 					minStart = startIndex[entry].right.getStart();
 			}
 			
-			// insertion point must be on the same chromosome
+			// insertion point must be on the same chromosome. the chromosome's pairs are contiguous, so when ranges
+			// are indexed the insertion point is either within them or no pair will be found walking forward
+			if ( chromosomeRanges != null && (range == null || entry >= range[1]) )
+				throw new GenomeMapperException(key.left, "could not align start on same chromosome");
 			while ( !startIndex[entry].left.getChr().equals(key.left.getChr()) )
 			{
 				if ( entry < startIndex.length - 1 )
@@ -196,6 +276,23 @@ public class GenomeMapping implements IGenomeMapper {
 		
 	}
 	
+	/**
+	 * Binary search for key. Searches only the chromosome's range, if known, and only after the hint's entry if
+	 * the key is at or after the hint on the same chromosome. Returns an index into the whole startIndex, as
+	 * Arrays.binarySearch does.
+	 */
+	private int search(GenomeLocusPair key, int[] range, SearchHint hint)
+	{
+		if ( range == null )
+			return Arrays.binarySearch(startIndex, key, startComp);
+		
+		int			from = range[0];
+		if ( hint.range == range && key.left.getStart() >= hint.start )
+			from = Math.max(from, Math.min(hint.entry, range[1]));
+		
+		return Arrays.binarySearch(startIndex, from, range[1], key, startComp);
+	}
+	
 	private int getChromosomeLength(String genomeId, String chromosome) 
 	{
 		// debugging hack
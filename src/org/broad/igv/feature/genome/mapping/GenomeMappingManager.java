@@ -6,7 +6,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -92,10 +94,15 @@ public class GenomeMappingManager {
 	}
 	
     private static Logger log = Logger.getLogger(GenomeMappingManager.class);
+    
+    private static final int					RECENT_RESULTS_SIZE = 64;
 	
 	private Map<MappingPair, IGenomeMapper>		mappers = new LinkedHashMap<MappingPair, IGenomeMapper>();
 	private Map<String, GenomeLocus>		mappingOriginAdvices = new LinkedHashMap<String, GenomeLocus>();
 	
+	// recently mapped loci, per mapping pair. cleared when mappers change, and per locus when origin advices change
+	private Map<MappingPair, Map<String, GenomeLocus>>	recentResults = new HashMap<MappingPair, Map<String, GenomeLocus>>();
+	
 	public IGenomeMapper getMapper(String fromGenome, String toGenome)
 	{
 		// try a direct mapping
@@ -127,6 +134,113 @@ public class GenomeMappingManager {
 		
 	}
 	
+	/**
+	 * Map a locus, using a recent result if the same locus was mapped between the same genomes before
+	 */
+	public GenomeLocus mapLocus(String fromGenome, String toGenome, GenomeLocus locus) throws GenomeMapperException
+	{
+		String				key = locus.toString();
+		GenomeLocus			result = getRecentResult(fromGenome, toGenome, key);
+		if ( result != null )
+			return result;
+		
+		IGenomeMapper		mapper = getMapper(fromGenome, toGenome);
+		if ( mapper == null )
+			throw new GenomeMapperException(locus, "no mapping from " + fromGenome + " to " + toGenome);
+		
+		result = mapper.mapLocus(locus);
+		if ( result != null )
+			putRecentResult(fromGenome, toGenome, key, result);
+		
+		return result;
+	}
+	
+	/**
+	 * Map many loci between the same genomes. Recent results are reused, and the rest are mapped in one batch when
+	 * the mapper supports it. Loci which can not be mapped have a null result.
+	 */
+	public GenomeLocus[] mapLoci(String fromGenome, String toGenome, List<GenomeLocus> loci)
+	{
+		GenomeLocus[]			results = new GenomeLocus[loci.size()];
+		IGenomeMapper			mapper = getMapper(fromGenome, toGenome);
+		if ( mapper == null )
+			return results;
+		
+		// collect loci not mapped recently
+		List<Integer>			missing = new ArrayList<Integer>();
+		List<GenomeLocus>		missingLoci = new ArrayList<GenomeLocus>();
+		for ( int i = 0 ; i < results.length ; i++ )
+		{
+			results[i] = getRecentResult(fromGenome, toGenome, loci.get(i).toString());
+			if ( results[i] == null )
+			{
+				missing.add(i);
+				missingLoci.add(loci.get(i));
+			}
+		}
+		if ( missing.isEmpty() )
+			return results;
+		
+		// map them
+		GenomeLocus[]			mapped;
+		if ( mapper instanceof GenomeMapping )
+			mapped = ((GenomeMapping)mapper).mapLoci(missingLoci);
+		else
+		{
+			mapped = new GenomeLocus[missingLoci.size()];
+			for ( int i = 0 ; i < mapped.length ; i++ )
+			{
+				try
+				{
+					mapped[i] = mapper.mapLocus(missingLoci.get(i));
+				}
+				catch (GenomeMapperException e)
+				{
+					mapped[i] = null;
+				}
+			}
+		}
+		
+		for ( int i = 0 ; i < mapped.length ; i++ )
+		{
+			results[missing.get(i)] = mapped[i];
+			if ( mapped[i] != null )
+				putRecentResult(fromGenome, toGenome, missingLoci.get(i).toString(), mapped[i]);
+		}
+		
+		return results;
+	}
+	
+	private synchronized GenomeLocus getRecentResult(String fromGenome, String toGenome, String key)
+	{
+		Map<String, GenomeLocus>	results = recentResults.get(new MappingPair(fromGenome, toGenome));
+		
+		return (results != null) ? results.get(key) : null;
+	}
+	
+	@SuppressWarnings("serial")
+	private synchronized void putRecentResult(String fromGenome, String toGenome, String key, GenomeLocus result)
+	{
+		MappingPair					mappingPair = new MappingPair(fromGenome, toGenome);
+		Map<String, GenomeLocus>	results = recentResults.get(mappingPair);
+		if ( results == null )
+		{
+			results = new LinkedHashMap<String, GenomeLocus>(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<String, GenomeLocus> eldest)
+				{
+					return size() > RECENT_RESULTS_SIZE;
+				}
+			};
+			recentResults.put(mappingPair, results);
+		}
+		results.put(key, result);
+	}
+	
+	private synchronized void clearRecentResults()
+	{
+		recentResults.clear();
+	}
+	
 	public void addMapping(String fromGenome, String toGenome, List<GenomeLocusPair> pairs)
 	{
 		GenomeMapping		mapping = new GenomeMapping(pairs, fromGenome, toGenome, this);
@@ -139,6 +253,17 @@ public class GenomeMappingManager {
 	
 	public void addMapping(String fromGenome, String toGenome, File localFile) throws IOException
 	{
+		// prefer the compiled binary form, if there is one
+		File							compiledFile = CompiledGenomeMapping.getCompiledFileFor(localFile);
+		if ( compiledFile != null )
+		{
+			CompiledGenomeMapping		mapping = new CompiledGenomeMapping(compiledFile, fromGenome, toGenome);
+			
+			mappersPut(new MappingPair(fromGenome, toGenome), mapping);
+			mappersPut(new MappingPair(toGenome, fromGenome), mapping.getReverseGenomeMapper());
+			return;
+		}
+		
 		LocalFileGenomeMapping			mapping = new LocalFileGenomeMapping(localFile, fromGenome, toGenome, this);
 		
 		mappersPut(new MappingPair(fromGenome, toGenome), mapping);
@@ -147,6 +272,8 @@ public class GenomeMappingManager {
 	
 	private void mappersPut(MappingPair mappingPair, IGenomeMapper mapper) 
 	{
+		clearRecentResults();
+		
 		IGenomeMapper		existingMapper = mappers.get(mappingPair);
 		
 		// new?
@@ -345,7 +472,28 @@ public class GenomeMappingManager {
 
 	public void addTranslationOriginAdvice(String genomeId, GenomeLocus fromLocus, GenomeLocus toLocus) 
 	{
-		mappingOriginAdvices.put(genomeId + "/" + toLocus.toString(), fromLocus);
+		// a new advice may change how a recently mapped locus is translated
+		GenomeLocus		previous = mappingOriginAdvices.put(genomeId + "/" + toLocus.toString(), fromLocus);
+		if ( previous == null || !previous.equals(fromLocus) )
+			clearRecentResults(genomeId, toLocus.toString());
+	}
+	
+	/**
+	 * Forget the recent results an origin advice for a locus of a genome can change: those mapping the same locus 
+	 * from the genome, and all those of chained mappings passing through the genome
+	 */
+	private synchronized void clearRecentResults(String genomeId, String key)
+	{
+		for ( Map.Entry<MappingPair, Map<String, GenomeLocus>> entry : recentResults.entrySet() )
+		{
+			MappingPair		mappingPair = entry.getKey();
+			if ( mappingPair.fromGenome.equals(genomeId) )
+				entry.getValue().remove(key);
+			else if ( !mappers.containsKey(mappingPair) 
+						&& mappers.containsKey(new MappingPair(mappingPair.fromGenome, genomeId))
+						&& mappers.containsKey(new MappingPair(genomeId, mappingPair.toGenome)) )
+				entry.getValue().clear();
+		}
 	}
 
 	public GenomeLocus getTranslationOriginAdvice(String genomeId, GenomeLocus locus) {
@@ -0,0 +1,116 @@
+package org.broad.igv.feature.genome.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class GenomeMappingManagerTest {
+
+	// genome ids ending with '*' are not translated. b* is, as an identity, so it takes origin advices
+	static final String			TEST_FROM_GENOME = "genome1*";
+	static final String			TEST_TO_GENOME = "b*";
+	static final String			TEST_OTHER_GENOME = "genome3*";
+	
+	@Test
+	public void testRecentResultsAreReused() throws GenomeMapperException
+	{
+		GenomeMappingManager	gmm = buildManager();
+		GenomeLocus				locus = new GenomeLocus("1:100-1198");
+		
+		// a recent result is returned as is, a new search would build a new locus
+		GenomeLocus				result = gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, locus);
+		Assert.assertEquals(new GenomeLocus("1:100-1837"), result);
+		Assert.assertSame(result, gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:100-1198")));
+		
+		// batches use recent results, and add to them
+		GenomeLocus[]			results = gmm.mapLoci(TEST_FROM_GENOME, TEST_TO_GENOME, 
+												Arrays.asList(locus, new GenomeLocus("1:1300-1711"), new GenomeLocus("1:1-99")));
+		Assert.assertSame(result, results[0]);
+		Assert.assertEquals(new GenomeLocus("1:1939-2467"), results[1]);
+		Assert.assertNull(results[2]);
+		Assert.assertSame(results[1], gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:1300-1711")));
+	}
+	
+	@Test
+	public void testResultsSurviveOtherMappings() throws GenomeMapperException
+	{
+		GenomeMappingManager	gmm = buildManager();
+		GenomeLocus				result = gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:100-1198"));
+		GenomeLocus				reverseResult = gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, new GenomeLocus("1:1939-2467"));
+		
+		// new loci on the same pair, the reverse pair and another pair each add an origin advice
+		gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:1198-1200"));
+		gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, new GenomeLocus("1:1837-1839"));
+		gmm.mapLocus(TEST_OTHER_GENOME, TEST_TO_GENOME, new GenomeLocus("1:5000-6000"));
+		
+		Assert.assertSame(result, gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:100-1198")));
+		Assert.assertSame(reverseResult, gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, new GenomeLocus("1:1939-2467")));
+	}
+	
+	@Test
+	public void testAdviceInvalidatesResult() throws GenomeMapperException
+	{
+		GenomeMappingManager	gmm = buildManager();
+		GenomeLocus				locus = new GenomeLocus("1:1939-2467");
+		GenomeLocus				otherLocus = new GenomeLocus("1:100-1837");
+		
+		// mapping forward advises the origin of the result, 1:1939-2467
+		GenomeLocus				forwardResult = gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:1300-1711"));
+		GenomeLocus				result = gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, locus);
+		GenomeLocus				otherResult = gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, otherLocus);
+		Assert.assertEquals(new GenomeLocus("1:1300-1711"), result);
+		
+		// the same advice again changes nothing
+		gmm.addTranslationOriginAdvice(TEST_TO_GENOME, locus, locus);
+		Assert.assertSame(result, gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, locus));
+		
+		// a changed advice for the locus: it is translated from the advised origin
+		gmm.addTranslationOriginAdvice(TEST_TO_GENOME, new GenomeLocus("1:1837-1839"), locus);
+		Assert.assertEquals(new GenomeLocus("1:1198-1200"), gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, locus));
+		
+		// other results are kept
+		Assert.assertSame(otherResult, gmm.mapLocus(TEST_TO_GENOME, TEST_FROM_GENOME, otherLocus));
+		Assert.assertSame(forwardResult, gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:1300-1711")));
+	}
+	
+	@Test
+	public void testAddMappingClearsResults() throws GenomeMapperException
+	{
+		GenomeMappingManager	gmm = buildManager();
+		GenomeLocus				result = gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:100-1198"));
+		
+		gmm.addMapping(TEST_FROM_GENOME, TEST_TO_GENOME, pairs("1:100-1198	1:5100-6837"));
+		
+		GenomeLocus				newResult = gmm.mapLocus(TEST_FROM_GENOME, TEST_TO_GENOME, new GenomeLocus("1:100-1198"));
+		Assert.assertNotSame(result, newResult);
+		Assert.assertEquals(new GenomeLocus("1:5100-6837"), newResult);
+	}
+	
+	
+	private GenomeMappingManager buildManager()
+	{
+		GenomeMappingManager	gmm = new GenomeMappingManager();
+		
+		gmm.addMapping(TEST_FROM_GENOME, TEST_TO_GENOME, pairs("1:100-1198	1:100-1837", "1:1198-1200	1:1837-1839", 
+																"1:1300-1711	1:1939-2467"));
+		gmm.addMapping(TEST_OTHER_GENOME, TEST_TO_GENOME, pairs("1:5000-6000	1:7000-8000"));
+		
+		return gmm;
+	}
+	
+	private List<GenomeLocusPair> pairs(String... lines)
+	{
+		List<GenomeLocusPair>	pairs = new ArrayList<GenomeLocusPair>();
+		for ( String line : lines )
+		{
+			String[]		toks = line.split("\t");
+			pairs.add(new GenomeLocusPair(new GenomeLocus(toks[0]), new GenomeLocus(toks[1])));
+		}
+		return pairs;
+	}
+}
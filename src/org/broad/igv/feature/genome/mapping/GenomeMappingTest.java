@@ -0,0 +1,212 @@
+package org.broad.igv.feature.genome.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+public class GenomeMappingTest {
+
+	// genome ids ending with '*' are not translated, so no genome needs to be loaded
+	static final String			TEST_FROM_GENOME = "genome1*";
+	static final String			TEST_TO_GENOME = "genome2*";
+	static final String[]		TEST_CHROMOSOMES = {"1", "2", "3", "10"};
+	static final int			TEST_PAIRS_PER_CHROMOSOME = 200;
+	static final int			TEST_LOCI = 5000;
+
+	@Test
+	public void testExactEntries() throws GenomeMapperException
+	{
+		// create mapper
+		GenomeMapping		mapper = buildMapper(pairs("1:100-1198	1:100-1837", "1:1198-1200	1:1837-1839", 
+														"1:1300-1711	1:1939-2467", "2	X"));
+		
+		// check for exact mappings, in reverse order
+		List<GenomeLocus>	loci = loci("2", "1:1300-1711", "1:1198-1200", "1:100-1198", "1:1-99", "5:1-2");
+		GenomeLocus[]		results = mapper.mapLoci(loci);
+		
+		Assert.assertEquals(new GenomeLocus("X"), results[0]);
+		Assert.assertEquals(new GenomeLocus("1:1939-2467"), results[1]);
+		Assert.assertEquals(new GenomeLocus("1:1837-1839"), results[2]);
+		Assert.assertEquals(new GenomeLocus("1:100-1837"), results[3]);
+		Assert.assertNull(results[4]);
+		Assert.assertNull(results[5]);
+	}
+	
+	@Test
+	public void testMapLociMatchesMapLocus() throws GenomeMapperException
+	{
+		Random				random = new Random(1);
+		GenomeMapping		mapper = buildMapper(simulatePairs(TEST_CHROMOSOMES, random));
+		
+		checkMapLoci(mapper, simulateLoci(random));
+	}
+	
+	@Test
+	public void testMapLociMatchesMapLocusSorted() throws GenomeMapperException
+	{
+		Random				random = new Random(2);
+		GenomeMapping		mapper = buildMapper(simulatePairs(TEST_CHROMOSOMES, random));
+		List<GenomeLocus>	loci = simulateLoci(random);
+		
+		// sorted input, each search continues from the previous one
+		Collections.sort(loci, new Comparator<GenomeLocus>() {
+			public int compare(GenomeLocus l1, GenomeLocus l2)
+			{
+				int		diff = GenomeMapping.hybridCompare(l1.getChr(), l2.getChr());
+				return diff != 0 ? diff : l1.getStart() - l2.getStart();
+			}
+		});
+		
+		checkMapLoci(mapper, loci);
+	}
+	
+	@Test
+	public void testMapLociMatchesMapLocusReverse() throws GenomeMapperException
+	{
+		Random				random = new Random(3);
+		GenomeMapping		mapper = (GenomeMapping)buildMapper(simulatePairs(TEST_CHROMOSOMES, random)).getReverseGenomeMapper();
+		List<GenomeLocus>	loci = simulateLoci(random);
+		
+		// the 'to' side chromosomes
+		for ( int i = 0 ; i < loci.size() ; i++ )
+		{
+			GenomeLocus		locus = loci.get(i);
+			loci.set(i, new GenomeLocus("t" + locus.getChr(), locus.getStart(), locus.getEnd()));
+		}
+		
+		checkMapLoci(mapper, loci);
+	}
+	
+	@Test
+	public void testMapLociMatchesMapLocusInterleaved() throws GenomeMapperException
+	{
+		// 1 and 01 compare equal, so their pairs interleave and chromosome ranges are not indexed
+		Random				random = new Random(4);
+		GenomeMapping		mapper = buildMapper(simulatePairs(new String[] {"1", "01", "2"}, random));
+		List<GenomeLocus>	loci = simulateLoci(random);
+		for ( int i = 0 ; i < loci.size() ; i += 2 )
+		{
+			GenomeLocus		locus = loci.get(i);
+			if ( "1".equals(locus.getChr()) )
+				loci.set(i, new GenomeLocus("01", locus.getStart(), locus.getEnd()));
+		}
+		
+		checkMapLoci(mapper, loci);
+	}
+	
+	
+	private GenomeMapping buildMapper(List<GenomeLocusPair> pairs)
+	{
+		return new GenomeMapping(pairs, TEST_FROM_GENOME, TEST_TO_GENOME, null);
+	}
+	
+	private void checkMapLoci(GenomeMapping mapper, List<GenomeLocus> loci)
+	{
+		GenomeLocus[]		results = mapper.mapLoci(loci);
+		int					mapped = 0;
+		
+		Assert.assertEquals(loci.size(), results.length);
+		for ( int i = 0 ; i < results.length ; i++ )
+		{
+			GenomeLocus		expected = map(mapper, loci.get(i));
+			Assert.assertEquals(loci.get(i).toString(), expected, results[i]);
+			if ( expected != null )
+				mapped++;
+		}
+		
+		// both mapped and unmapped loci were checked
+		Assert.assertTrue(mapped > 0);
+		Assert.assertTrue(mapped < results.length);
+	}
+	
+	private GenomeLocus map(IGenomeMapper mapper, GenomeLocus from)
+	{
+		try
+		{
+			return mapper.mapLocus(from);
+			
+		} catch (GenomeMapperException e) {
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Pairs of ascending, non overlapping ranges with gaps on each chromosome, plus a default mapping for chromosome 4
+	 */
+	private List<GenomeLocusPair> simulatePairs(String[] chromosomes, Random random)
+	{
+		List<GenomeLocusPair>	pairs = new ArrayList<GenomeLocusPair>();
+		for ( String chr : chromosomes )
+		{
+			int				from = 100;
+			int				to = 100;
+			for ( int i = 0 ; i < TEST_PAIRS_PER_CHROMOSOME ; i++ )
+			{
+				int			fromLength = 10 + random.nextInt(1000);
+				int			toLength = 10 + random.nextInt(1000);
+				pairs.add(new GenomeLocusPair(new GenomeLocus(chr, from, from + fromLength), new GenomeLocus("t" + chr, to, to + toLength)));
+				from += fromLength + random.nextInt(3) * 100;
+				to += toLength + random.nextInt(3) * 100;
+			}
+		}
+		pairs.add(new GenomeLocusPair(new GenomeLocus("4", 0, 0), new GenomeLocus("t4", 0, 0)));
+		
+		Collections.shuffle(pairs, random);
+		return pairs;
+	}
+	
+	/**
+	 * Random loci on the mapped chromosomes, the default mapped chromosome and an unknown chromosome
+	 */
+	private List<GenomeLocus> simulateLoci(Random random)
+	{
+		List<GenomeLocus>	loci = new ArrayList<GenomeLocus>();
+		String[]			chromosomes = Arrays.copyOf(TEST_CHROMOSOMES, TEST_CHROMOSOMES.length + 2);
+		chromosomes[TEST_CHROMOSOMES.length] = "4";
+		chromosomes[TEST_CHROMOSOMES.length + 1] = "5";
+		int					maxStart = TEST_PAIRS_PER_CHROMOSOME * 1200;
+		
+		for ( int i = 0 ; i < TEST_LOCI ; i++ )
+		{
+			String			chr = chromosomes[random.nextInt(chromosomes.length)];
+			if ( chr.equals("4") )
+			{
+				loci.add(new GenomeLocus(chr, 0, 0));
+				continue;
+			}
+			int				start = random.nextInt(maxStart);
+			int				end = start + random.nextInt(random.nextBoolean() ? 100 : 5000);
+			loci.add(new GenomeLocus(chr, start, end));
+		}
+		
+		return loci;
+	}
+	
+	private List<GenomeLocusPair> pairs(String... lines)
+	{
+		List<GenomeLocusPair>	pairs = new ArrayList<GenomeLocusPair>();
+		for ( String line : lines )
+		{
+			String[]		toks = line.split("\t");
+			pairs.add(new GenomeLocusPair(new GenomeLocus(toks[0]), new GenomeLocus(toks[1])));
+		}
+		return pairs;
+	}
+	
+	private List<GenomeLocus> loci(String... loci)
+	{
+		List<GenomeLocus>	result = new ArrayList<GenomeLocus>();
+		for ( String locus : loci )
+			result.add(new GenomeLocus(locus));
+		return result;
+	}
+}
@@ -56,9 +56,9 @@ public class LocalFileGenomeMapping implements IGenomeMapper {
 		FileChannel				chan = is.getChannel();
 		
 		mappingSize = localFile.length() - offset;
-		mapping = chan.map(FileChannel.MapMode.READ_ONLY, offset, mappingSize);
 		if ( mappingSize > Integer.MAX_VALUE)
-			throw new RuntimeException("mapping file too large. using ints for array access");
+			throw new RuntimeException("mapping file too large. using ints for array access. compile it with: igvtools compileMapping " + localFile);
+		mapping = chan.map(FileChannel.MapMode.READ_ONLY, offset, mappingSize);
 		
 		log.info("mappingSize: " + mappingSize);
 	}
@@ -30,11 +30,13 @@ import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.text.DecimalFormat;
+import java.util.Iterator;
 import java.util.List;
 
 import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
 import org.broad.igv.data.BasicScore;
+import org.broad.igv.data.SummaryScores;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.track.RenderContext;
 import org.broad.igv.track.Track;
@@ -109,8 +111,29 @@ public abstract class XYPlotRenderer extends DataRenderer {
             baseY = adjustedRect.y + adjustedRect.height;
         }
 
+        // Columnar scores are read directly,  without creating a score object per bin
+        SummaryScores summaryScores = locusScores instanceof SummaryScores ? (SummaryScores) locusScores : null;
+        Iterator<LocusScore> iter = summaryScores == null ? locusScores.iterator() : null;
+        int nScores = locusScores.size();
+
         int lastPx = 0;
-        for (LocusScore score : locusScores) {
+        for (int i = 0; i < nScores; i++) {
+
+            LocusScore score;
+            int start;
+            int end;
+            float dataY;
+            if (summaryScores != null) {
+                score = summaryScores.getDetail(i);
+                start = summaryScores.getStart(i);
+                end = summaryScores.getEnd(i);
+                dataY = summaryScores.getValue(i);
+            } else {
+                score = iter.next();
+                start = score.getStart();
+                end = score.getEnd();
+                dataY = score.getScore();
+            }
 
         	double		startFraction = 0;
         	double		endFraction = 0;
@@ -122,8 +145,8 @@ public abstract class XYPlotRenderer extends DataRenderer {
         	
             // Note -- don't cast these to an int until the range is checked.
             // could get an overflow.
-            double pX = ((score.getStart() + startFraction - origin) / locScale);
-            double dx1 = score.getEnd() + endFraction - (score.getStart() + startFraction);
+            double pX = ((start + startFraction - origin) / locScale);
+            double dx1 = end + endFraction - (start + startFraction);
             double dx = Math.ceil((dx1 <= 0 ? 1 : dx1) / locScale) + 1;
             
             //System.out.println("dx: " + dx + ", pX: " + pX);
@@ -134,7 +157,6 @@ public abstract class XYPlotRenderer extends DataRenderer {
                 break;
             }
 
-            float dataY = score.getScore();
             if (isLog && dataY <= 0) {
                 continue;
             }
@@ -121,7 +121,7 @@ public abstract class AbstractAlignment  extends LocusScoreBase implements Align
         for (AlignmentBlock block : this.alignmentBlocks) {
             if (block.contains(basePosition)) {
                 int offset = basePosition - block.getStart();
-                byte base = block.getBases()[offset];
+                byte base = block.getBase(offset);
                 return base;
             }
         }
@@ -134,7 +134,7 @@ public abstract class AbstractAlignment  extends LocusScoreBase implements Align
         for (AlignmentBlock block : this.alignmentBlocks) {
             if (block.contains(basePosition)) {
                 int offset = basePosition - block.getStart();
-                byte qual = block.qualities[offset];
+                byte qual = block.getQuality(offset);
                 return qual;
             }
         }
@@ -177,7 +177,7 @@ public abstract class AbstractAlignment  extends LocusScoreBase implements Align
         for (AlignmentBlock block : this.alignmentBlocks) {
             if (block.contains(basePosition)) {
                 int offset = basePosition - block.getStart();
-                byte base = block.getBases()[offset];
+                byte base = block.getBase(offset);
                 byte quality = block.getQuality(offset);
                 buf.append("Base = " + (char) base + "<br>");
                 buf.append("Base phred quality = " + quality + "<br>");
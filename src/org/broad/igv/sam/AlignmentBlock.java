@@ -24,31 +24,76 @@ package org.broad.igv.sam;
 
 import java.util.Arrays;
 
+/**
+ * A gapless block of an alignment.  The bases and qualities are either owned by the block,  or the block is a view
+ * of [offset, offset + length) of the read's packed bases and quality array,  which are shared by all blocks of the
+ * alignment.
+ */
 public class AlignmentBlock {
 
+    static final byte DEFAULT_QUALITY = 126;
+
     private int start;
+    private int length;
     private byte[] bases;
-    public byte[] qualities;
+    private byte[] qualities;
+    private PackedBases packedBases;
+    private int offset;
     private boolean softClipped = false;
 
     public AlignmentBlock(int start, byte[] bases, byte[] qualities) {
         this.start = start;
+        this.length = bases.length;
         this.bases = bases;
         if (qualities == null || qualities.length < bases.length) {
             this.qualities = new byte[bases.length];
-            Arrays.fill(qualities, (byte) 126);
+            Arrays.fill(this.qualities, DEFAULT_QUALITY);
         } else {
             this.qualities = qualities;
         }
     }
 
+    /**
+     * Create a block backed by part of a read.
+     *
+     * @param start     genomic start of the block
+     * @param readBases bases of the whole read
+     * @param readQualities qualities of the whole read,  or null if absent
+     * @param offset    offset of the block's first base in the read
+     * @param length    number of bases in the block
+     */
+    public AlignmentBlock(int start, PackedBases readBases, byte[] readQualities, int offset, int length) {
+        this.start = start;
+        this.packedBases = readBases;
+        this.qualities = readQualities;
+        this.offset = offset;
+        this.length = length;
+    }
+
     public boolean contains(int position) {
         int offset = position - start;
-        return offset >= 0 && offset < bases.length;
+        return offset >= 0 && offset < length;
+    }
+
+    public int getLength() {
+        return length;
     }
 
+    public byte getBase(int offset) {
+        return bases != null ? bases[offset] : packedBases.get(this.offset + offset);
+    }
+
+    /**
+     * Return the bases of this block.  For a block backed by packed bases this is a new array on each call, 
+     * loops over the bases should use {@link #getBase(int)}.
+     */
     public byte[] getBases() {
-        return bases;
+        if (bases != null) {
+            return bases;
+        }
+        byte[] b = new byte[length];
+        packedBases.get(offset, b, 0, length);
+        return b;
     }
 
     public int getStart() {
@@ -56,19 +101,27 @@ public class AlignmentBlock {
     }
 
     public byte getQuality(int offset) {
-        return qualities[offset];
-
+        return qualities == null ? DEFAULT_QUALITY : qualities[this.offset + offset];
     }
 
     public byte[] getQualities() {
-        return qualities;
+        if (bases != null) {
+            return qualities;
+        }
+        byte[] q = new byte[length];
+        if (qualities == null) {
+            Arrays.fill(q, DEFAULT_QUALITY);
+        } else {
+            System.arraycopy(qualities, offset, q, 0, length);
+        }
+        return q;
     }
 
     /**
      * Convenience method
      */
     public int getEnd() {
-        return start + bases.length;
+        return start + length;
     }
 
     public boolean isSoftClipped() {
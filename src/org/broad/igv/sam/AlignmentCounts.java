@@ -23,119 +23,142 @@ import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.ui.IGV;
 
 /**
-* @author jrobinso
-* @date Feb 23, 2011
-*/
+ * Base counts and quality sums per position of an alignment tile.
+ * <p/>
+ * Each position ("column") holds 12 counts (per strand A,T,C,G,N and strand totals) and 6 quality sums (per
+ * nucleotide and total).  Counts start as unsigned bytes and quality sums as unsigned shorts,  which is enough
+ * for typical depths.  A column that would overflow either is widened to ints on its own,  the rest of the tile
+ * stays narrow.
+ *
+ * @author jrobinso
+ * @date Feb 23, 2011
+ */
 public class AlignmentCounts {
 
     private static Logger log = Logger.getLogger(AlignmentCounts.class);
-    
+
+    // Count fields,  stored as unsigned bytes
+    private static final int POS = 0;
+    private static final int NEG = 5;
+    private static final int POS_TOTAL = 10;
+    private static final int NEG_TOTAL = 11;
+    private static final int N_COUNTS = 12;
+
+    // Quality fields,  stored as unsigned shorts.  Per nucleotide sums are indexed by the nucleotide index.
+    private static final int Q_TOTAL = 5;
+    private static final int N_QUALITIES = 6;
+
+    private static final int MAX_NARROW_COUNT = 0xFF;
+    private static final int MAX_NARROW_QUALITY = 0xFFFF;
+
     String genomeId;
     //String chr;
     int start;
     int end;
     byte[] reference;
-    // counts
-    int[] posA;
-    int[] posT;
-    int[] posC;
-    int[] posG;
-    int[] posN;
-    int[] negA;
-    int[] negT;
-    int[] negC;
-    int[] negG;
-    int[] negN;
-    int[] qA;
-    int[] qT;
-    int[] qC;
-    int[] qG;
-    int[] qN;
-    int[] posTotal;
-    int[] negTotal;
-    private int[] totalQ;
+    private int nPts;
+    private byte[] counts;
+    private short[] qualities;
+    // Columns that overflowed the narrow arrays,  null until the first overflow
+    private int[][] wideColumns;
+    private int wideColumnCount = 0;
     private int maxCount = 0;
+    // Reads counted here but not kept after downsampling
+    private int downsampledCount = 0;
 
     public AlignmentCounts(String chr, int start, int end) {
-
+        this(start, end, getReferenceSequence(chr, start, end));
         Genome genome = IGV.getInstance().getGenomeManager().getCurrentGenome();
         this.genomeId = genome.getId();
-        String chrAlias = genome.getChromosomeAlias(chr);
+    }
+
+    AlignmentCounts(int start, int end, byte[] reference) {
         this.start = start;
         this.end = end;
-        reference = genome.getSequence(chrAlias, start, end);
-
-        int nPts = end - start;
-        posA = new int[nPts];
-        posT = new int[nPts];
-        posC = new int[nPts];
-        posG = new int[nPts];
-        posN = new int[nPts];
-        posTotal = new int[nPts];
-        negA = new int[nPts];
-        negT = new int[nPts];
-        negC = new int[nPts];
-        negG = new int[nPts];
-        negN = new int[nPts];
-        negTotal = new int[nPts];
-        qA = new int[nPts];
-        qT = new int[nPts];
-        qC = new int[nPts];
-        qG = new int[nPts];
-        qN = new int[nPts];
-        totalQ = new int[nPts];
+        this.reference = reference;
+        nPts = end - start;
+        counts = new byte[nPts * N_COUNTS];
+        qualities = new short[nPts * N_QUALITIES];
     }
 
-    public int getTotalCount(int pos) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            return posTotal[offset] + negTotal[offset];
+    private static byte[] getReferenceSequence(String chr, int start, int end) {
+        Genome genome = IGV.getInstance().getGenomeManager().getCurrentGenome();
+        String chrAlias = genome.getChromosomeAlias(chr);
+        return genome.getSequence(chrAlias, start, end);
+    }
 
+    /**
+     * @return the index of nucleotide b in the count and quality fields,  or -1 if b is not a nucleotide
+     */
+    private static int nucleotideIndex(byte b) {
+        switch (b) {
+            case 'a':
+            case 'A':
+                return 0;
+            case 't':
+            case 'T':
+                return 1;
+            case 'c':
+            case 'C':
+                return 2;
+            case 'g':
+            case 'G':
+                return 3;
+            case 'n':
+            case 'N':
+                return 4;
         }
+        return -1;
     }
 
-    public int getNegTotal(int pos) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
+    private int count(int offset, int field) {
+        if (wideColumns != null) {
+            int[] wide = wideColumns[offset];
+            if (wide != null) {
+                return wide[field];
             }
-            return 0;
-        } else {
-            return negTotal[offset];
+        }
+        return counts[offset * N_COUNTS + field] & 0xFF;
+    }
 
+    private int quality(int offset, int field) {
+        if (wideColumns != null) {
+            int[] wide = wideColumns[offset];
+            if (wide != null) {
+                return wide[N_COUNTS + field];
+            }
         }
+        return qualities[offset * N_QUALITIES + field] & 0xFFFF;
     }
 
-    public int getPosTotal(int pos) {
-        int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
+    private boolean inRange(int offset, int pos) {
+        if (offset < 0 || offset >= nPts) {
             if (log.isDebugEnabled()) {
                 log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
             }
-            return 0;
-        } else {
-            return posTotal[offset];
-
+            return false;
         }
+        return true;
     }
 
-    public int getTotalQuality(int pos) {
+    public int getTotalCount(int pos) {
         int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            return totalQ[offset];
+        return inRange(offset, pos) ? count(offset, POS_TOTAL) + count(offset, NEG_TOTAL) : 0;
+    }
 
-        }
+    public int getNegTotal(int pos) {
+        int offset = pos - start;
+        return inRange(offset, pos) ? count(offset, NEG_TOTAL) : 0;
+    }
+
+    public int getPosTotal(int pos) {
+        int offset = pos - start;
+        return inRange(offset, pos) ? count(offset, POS_TOTAL) : 0;
+    }
+
+    public int getTotalQuality(int pos) {
+        int offset = pos - start;
+        return inRange(offset, pos) ? quality(offset, Q_TOTAL) : 0;
     }
 
     public int getAvgQuality(int pos) {
@@ -160,120 +183,55 @@ public class AlignmentCounts {
 
     public int getCount(int pos, byte b) {
         int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
+        if (!inRange(offset, pos)) {
             return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return posA[offset] + negA[offset];
-                case 't':
-                case 'T':
-                    return posT[offset] + negT[offset];
-                case 'c':
-                case 'C':
-                    return posC[offset] + negC[offset];
-                case 'g':
-                case 'G':
-                    return posG[offset] + negG[offset];
-                case 'n':
-                case 'N':
-                    return posN[offset] + negN[offset];
-            }
+        }
+        int n = nucleotideIndex(b);
+        if (n < 0) {
             log.debug("Unknown nucleotide: " + b);
             return 0;
         }
+        return count(offset, POS + n) + count(offset, NEG + n);
     }
 
     public int getNegCount(int pos, byte b) {
         int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
+        if (!inRange(offset, pos)) {
             return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return negA[offset];
-                case 't':
-                case 'T':
-                    return negT[offset];
-                case 'c':
-                case 'C':
-                    return negC[offset];
-                case 'g':
-                case 'G':
-                    return negG[offset];
-                case 'n':
-                case 'N':
-                    return negN[offset];
-            }
+        }
+        int n = nucleotideIndex(b);
+        if (n < 0) {
             log.error("Unknown nucleotide: " + b);
             return 0;
         }
+        return count(offset, NEG + n);
     }
 
     public int getPosCount(int pos, byte b) {
         int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
+        if (!inRange(offset, pos)) {
             return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return posA[offset];
-                case 't':
-                case 'T':
-                    return posT[offset];
-                case 'c':
-                case 'C':
-                    return posC[offset];
-                case 'g':
-                case 'G':
-                    return posG[offset];
-                case 'n':
-                case 'N':
-                    return posN[offset];
-            }
+        }
+        int n = nucleotideIndex(b);
+        if (n < 0) {
             log.error("Unknown nucleotide: " + b);
             return 0;
         }
+        return count(offset, POS + n);
     }
 
     public int getQuality(int pos, byte b) {
         int offset = pos - start;
-        if (offset < 0 || offset >= posA.length) {
+        if (offset < 0 || offset >= nPts) {
             log.error("Position out of range: " + pos + " (valid range - " + start + "-" + end);
             return 0;
-        } else {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return qA[offset];
-                case 't':
-                case 'T':
-                    return qT[offset];
-                case 'c':
-                case 'C':
-                    return qC[offset];
-                case 'g':
-                case 'G':
-                    return qG[offset];
-                case 'n':
-                case 'N':
-                    return qN[offset];
-            }
-            log.error("Unknown nucleotide: " + posN);
+        }
+        int n = nucleotideIndex(b);
+        if (n < 0) {
+            log.error("Unknown nucleotide: " + b);
             return 0;
         }
+        return quality(offset, n);
     }
 
     public int getAvgQuality(int pos, byte b) {
@@ -306,79 +264,70 @@ public class AlignmentCounts {
 
     private void incCounts(AlignmentBlock block, boolean isNegativeStrand) {
         int start = block.getStart();
-        byte[] bases = block.getBases();
-        if (bases != null) {
-            for (int i = 0; i < bases.length; i++) {
-                int pos = start + i;
-                // NOTE:  the direct access block.qualities is intentional,  profiling reveals this to be a critical bottleneck
-                byte q = block.qualities[i];
-                // TODO -- handle "="
-                byte n = bases[i];
-                incCount(pos, n, q, isNegativeStrand);
-            }
+        int length = block.getLength();
+        for (int i = 0; i < length; i++) {
+            int pos = start + i;
+            byte q = block.getQuality(i);
+            // TODO -- handle "="
+            byte n = block.getBase(i);
+            incCount(pos, n, q, isNegativeStrand);
         }
     }
 
-    private void incCount(int pos, byte b, byte q, boolean isNegativeStrand) {
+    void incCount(int pos, byte b, byte q, boolean isNegativeStrand) {
 
         int offset = pos - start;
-        if (offset >= 0 && offset < posA.length) {
-            switch (b) {
-                case 'a':
-                case 'A':
-                    if (isNegativeStrand) {
-                        negA[offset] = negA[offset] + 1;
-                    } else {
-                        posA[offset] = posA[offset] + 1;
-                    }
-                    qA[offset] = qA[offset] + q;
-                    break;
-                case 't':
-                case 'T':
-                    if (isNegativeStrand) {
-                        negT[offset] = negT[offset] + 1;
-                    } else {
-                        posT[offset] = posT[offset] + 1;
-                    }
-                    qT[offset] = qT[offset] + q;
-                    break;
-                case 'c':
-                case 'C':
-                    if (isNegativeStrand) {
-                        negC[offset] = negC[offset] + 1;
-                    } else {
-                        posC[offset] = posC[offset] + 1;
-                    }
-                    qC[offset] = qC[offset] + q;
-                    break;
-                case 'g':
-                case 'G':
-                    if (isNegativeStrand) {
-                        negG[offset] = negG[offset] + 1;
-                    } else {
-                        posG[offset] = posG[offset] + 1;
+        if (offset >= 0 && offset < nPts) {
+            int n = nucleotideIndex(b);
+            int strand = isNegativeStrand ? NEG : POS;
+            int totalField = isNegativeStrand ? NEG_TOTAL : POS_TOTAL;
+
+            int[] wide = wideColumns == null ? null : wideColumns[offset];
+            if (wide == null) {
+                // The strand total bounds the nucleotide count,  and the total quality bounds the nucleotide
+                // quality,  so only the totals need checking for overflow.
+                int countIdx = offset * N_COUNTS;
+                int qualityIdx = offset * N_QUALITIES;
+                if (q < 0 || (counts[countIdx + totalField] & 0xFF) == MAX_NARROW_COUNT ||
+                        (qualities[qualityIdx + Q_TOTAL] & 0xFFFF) + q > MAX_NARROW_QUALITY) {
+                    wide = widenColumn(offset);
+                } else {
+                    if (n >= 0) {
+                        counts[countIdx + strand + n]++;
+                        qualities[qualityIdx + n] += q;
                     }
-                    qG[offset] = qG[offset] + q;
-                    break;
-                case 'n':
-                case 'N':
-                    if (isNegativeStrand) {
-                        negN[offset] = negN[offset] + 1;
-                    } else {
-                        posN[offset] = posN[offset] + 1;
-                    }
-                    qN[offset] = qN[offset] + q;
-
+                    counts[countIdx + totalField]++;
+                    qualities[qualityIdx + Q_TOTAL] += q;
+                    int total = (counts[countIdx + POS_TOTAL] & 0xFF) + (counts[countIdx + NEG_TOTAL] & 0xFF);
+                    maxCount = Math.max(total, maxCount);
+                    return;
+                }
             }
-            if (isNegativeStrand) {
-                negTotal[offset] = negTotal[offset] + 1;
-            } else {
-                posTotal[offset] = posTotal[offset] + 1;
+
+            if (n >= 0) {
+                wide[strand + n]++;
+                wide[N_COUNTS + n] += q;
             }
-            totalQ[offset] = totalQ[offset] + q;
+            wide[totalField]++;
+            wide[N_COUNTS + Q_TOTAL] += q;
+            maxCount = Math.max(wide[POS_TOTAL] + wide[NEG_TOTAL], maxCount);
+        }
+    }
 
-            maxCount = Math.max(posTotal[offset] + negTotal[offset], maxCount);
+    private int[] widenColumn(int offset) {
+        if (wideColumns == null) {
+            wideColumns = new int[nPts][];
+        }
+        int[] wide = new int[N_COUNTS + N_QUALITIES];
+        for (int i = 0; i < N_COUNTS; i++) {
+            wide[i] = counts[offset * N_COUNTS + i] & 0xFF;
         }
+        for (int i = 0; i < N_QUALITIES; i++) {
+            wide[N_COUNTS + i] = qualities[offset * N_QUALITIES + i] & 0xFFFF;
+        }
+        wideColumns[offset] = wide;
+        wideColumnCount++;
+        return wide;
     }
 
     /**
@@ -396,16 +345,34 @@ public class AlignmentCounts {
     }
 
     /**
-     * @return the totalQ
+     * @return the maxCount
      */
-    public int[] getTotalQ() {
-        return totalQ;
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    void incDownsampled(int n) {
+        downsampledCount += n;
     }
 
     /**
-     * @return the maxCount
+     * @return the number of reads included in the counts but discarded by downsampling
      */
-    public int getMaxCount() {
-        return maxCount;
+    public int getDownsampledCount() {
+        return downsampledCount;
+    }
+
+    /**
+     * @return the approximate heap size of the counts and reference sequence,  in bytes
+     */
+    public long getEstimatedSize() {
+        long size = counts.length + 2L * qualities.length;
+        if (wideColumns != null) {
+            size += 8L * nPts + wideColumnCount * (16L + 4 * (N_COUNTS + N_QUALITIES));
+        }
+        if (reference != null) {
+            size += reference.length;
+        }
+        return size;
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.sam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AlignmentCountsTest {
+
+    static final int TILE_SIZE = 16000;
+    static final int READ_LENGTH = 100;
+    static final int COVERAGE = 30;
+    static final byte[] NUCLEOTIDES = {'A', 'T', 'C', 'G'};
+
+    // The previous layout:  18 int arrays,  one int per field per base
+    static final int UNPACKED_BYTES_PER_BASE = 18 * 4;
+
+    /**
+     * The unpacked layout the packed counts must agree with:  one int per field per base.
+     */
+    static class IntArrayCounts {
+        int[][] fields = new int[18][];
+
+        IntArrayCounts(int nPts) {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new int[nPts];
+            }
+        }
+
+        void incCount(int offset, int n, byte q, boolean negativeStrand) {
+            fields[(negativeStrand ? 5 : 0) + n][offset]++;
+            fields[10 + n][offset] += q;
+            fields[negativeStrand ? 16 : 15][offset]++;
+            fields[17][offset] += q;
+        }
+    }
+
+    @Test
+    public void testCountsMatchUnpackedCounts() {
+        byte[] reference = simulateReference(TILE_SIZE);
+        AlignmentCounts packed = new AlignmentCounts(0, TILE_SIZE, reference);
+        IntArrayCounts ints = new IntArrayCounts(TILE_SIZE);
+
+        Random random = new Random(2);
+        int nReads = COVERAGE * TILE_SIZE / READ_LENGTH;
+        for (int r = 0; r < nReads; r++) {
+            int readStart = random.nextInt(TILE_SIZE - READ_LENGTH);
+            boolean negativeStrand = random.nextBoolean();
+            for (int pos = readStart; pos < readStart + READ_LENGTH; pos++) {
+                int n = random.nextInt(100) == 0 ? random.nextInt(4) : indexOf(reference[pos]);
+                byte q = (byte) (2 + random.nextInt(39));
+                packed.incCount(pos, NUCLEOTIDES[n], q, negativeStrand);
+                ints.incCount(pos, n, q, negativeStrand);
+            }
+        }
+
+        verify(packed, ints);
+
+        // 12 count bytes,  6 quality shorts,  and the reference base,  no column is widened at 30x
+        double bytesPerBase = (double) packed.getEstimatedSize() / TILE_SIZE;
+        assertEquals(25, bytesPerBase, 0.01);
+        assertTrue(bytesPerBase * 2.5 < UNPACKED_BYTES_PER_BASE);
+    }
+
+    @Test
+    public void testDeepColumnWidens() {
+        byte[] reference = simulateReference(1000);
+        AlignmentCounts packed = new AlignmentCounts(0, 1000, reference);
+        IntArrayCounts ints = new IntArrayCounts(1000);
+        long narrowSize = packed.getEstimatedSize();
+
+        // Deeper than a byte count,  and a quality sum larger than a short
+        for (int i = 0; i < 5000; i++) {
+            byte q = (byte) 40;
+            packed.incCount(100, (byte) 'A', q, i % 2 == 0);
+            ints.incCount(100, 0, q, i % 2 == 0);
+            packed.incCount(101, (byte) 'g', q, false);
+            ints.incCount(101, 3, q, false);
+        }
+
+        verify(packed, ints);
+        assertEquals(5000, packed.getTotalCount(100));
+        assertEquals(2500, packed.getPosCount(100, (byte) 'A'));
+        assertEquals(5000 * 40, packed.getTotalQuality(100));
+        assertEquals(5000, packed.getMaxCount());
+        assertTrue(packed.getEstimatedSize() > narrowSize);
+    }
+
+    @Test
+    public void testPositionsOutOfRangeAreIgnored() {
+        AlignmentCounts packed = new AlignmentCounts(1000, 2000, null);
+        packed.incCount(999, (byte) 'A', (byte) 30, false);
+        packed.incCount(2000, (byte) 'A', (byte) 30, false);
+        packed.incCount(1000, (byte) 'A', (byte) 30, false);
+
+        assertEquals(1, packed.getTotalCount(1000));
+        assertEquals(0, packed.getTotalCount(1999));
+        assertEquals(1, packed.getMaxCount());
+    }
+
+    static byte[] simulateReference(int length) {
+        byte[] reference = new byte[length];
+        Random random = new Random(1);
+        for (int i = 0; i < reference.length; i++) {
+            reference[i] = NUCLEOTIDES[random.nextInt(4)];
+        }
+        return reference;
+    }
+
+    static int indexOf(byte base) {
+        for (int n = 0; n < NUCLEOTIDES.length; n++) {
+            if (NUCLEOTIDES[n] == base) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    static void verify(AlignmentCounts packed, IntArrayCounts ints) {
+        int nPts = ints.fields[0].length;
+        for (int pos = 0; pos < nPts; pos++) {
+            for (int n = 0; n < NUCLEOTIDES.length; n++) {
+                byte b = NUCLEOTIDES[n];
+                assertEquals("+ count at " + pos, ints.fields[n][pos], packed.getPosCount(pos, b));
+                assertEquals("- count at " + pos, ints.fields[5 + n][pos], packed.getNegCount(pos, b));
+                assertEquals("quality at " + pos, ints.fields[10 + n][pos], packed.getQuality(pos, b));
+            }
+            assertEquals("+ total at " + pos, ints.fields[15][pos], packed.getPosTotal(pos));
+            assertEquals("- total at " + pos, ints.fields[16][pos], packed.getNegTotal(pos));
+            assertEquals("total quality at " + pos, ints.fields[17][pos], packed.getTotalQuality(pos));
+        }
+    }
+}
@@ -27,6 +27,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JOptionPane;
 
@@ -55,14 +60,31 @@ public class AlignmentDataManager {
 
     private static final int DEFAULT_DEPTH = 10;
 
+    /**
+     * Packs the rows of loaded intervals,  so the loading thread is free once the counts are published.
+     */
+    private static ExecutorService packingExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AlignmentPacker");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     /**
      * Map of reference frame -> alignment interval
      */
     //TODO -- this is a  potential memory leak, this map needs cleared when the gene list changes
-    private HashMap<String, AlignmentInterval> loadedIntervalMap = new HashMap(50);
+    private ConcurrentHashMap<String, AlignmentInterval> loadedIntervalMap = new ConcurrentHashMap(50);
+
+    /**
+     * Map of reference frame -> the load in progress or waiting to run for that frame.  At most one load per frame
+     * is outstanding,  a newer request replaces it.
+     */
+    private final Map<String, LoadRequest> pendingLoads = new HashMap();
 
     HashMap<String, String> chrMappings = new HashMap();
-    private boolean isLoading = false;
     private CachingQueryReader reader;
     private CoverageTrack coverageTrack;
     private int maxLevels;
@@ -306,14 +328,36 @@ public class AlignmentDataManager {
         loadedIntervalMap.clear();
     }
 
+    /**
+     * Load alignments for the frame of the render context.  Loads for different frames run independently.  For a
+     * given frame the latest request wins:  a request covered by the load already outstanding is dropped,  one
+     * that is not replaces the interval of a load still waiting to run,  or cancels a load in progress.
+     */
     public void loadAlignments(final String chr, final int start, final int end, final RenderContext context) {
 
-        if (isLoading || chr.equals(Globals.CHR_ALL)) {
+        if (chr.equals(Globals.CHR_ALL)) {
             return;
         }
 
-        log.debug("Load alignments.  isLoading=" + isLoading);
-        isLoading = true;
+        final String frameName = context.getReferenceFrame().getName();
+        final LoadRequest request;
+        synchronized (pendingLoads) {
+            LoadRequest pending = pendingLoads.get(frameName);
+            if (pending != null) {
+                if (pending.covers(chr, start, end)) {
+                    return;
+                }
+                if (pending.update(chr, start, end, context)) {
+                    log.debug("Merged alignment load: " + chr + ":" + start + "-" + end);
+                    return;
+                }
+                pending.cancel();
+            }
+            request = new LoadRequest(chr, start, end, context);
+            pendingLoads.put(frameName, request);
+        }
+
+        log.debug("Load alignments: " + chr + ":" + start + "-" + end);
         NamedRunnable runnable = new NamedRunnable() {
 
             public String getName() {
@@ -322,44 +366,50 @@ public class AlignmentDataManager {
 
             public void run() {
 
+                // Take the interval as of now,  it might have been updated while this load was queued
+                request.start();
+                if (request.isCanceled()) {
+                    return;
+                }
+                final String chr = request.chr;
+                final RenderContext context = request.context;
+
                 // Expand start and end to facilitate panning, but by no more than
                 // 1 screen or 8kb, whichever is less
                 // DON'T expand mitochondria
 
                 int expandLength = reader.getTileSize(chr) / 2;
-                int intervalStart = start - expandLength;
-                int intervalEnd = end + expandLength;
+                int intervalStart = request.start - expandLength;
+                int intervalEnd = request.end + expandLength;
 
                 CloseableIterator<Alignment> iter = null;
+                AlignmentInterval loadedInterval = null;
+                boolean packing = false;
                 try {
 
                     String sequence = chrMappings.containsKey(chr) ? chrMappings.get(chr) : chr;
 
                     List<AlignmentCounts> counts = new ArrayList();
+                    List<SpliceJunctionHelper> spliceJunctionHelpers = new ArrayList();
 
-                    iter = reader.query(sequence, intervalStart, intervalEnd, counts, maxLevels, peStats);
-
-                    final AlignmentPacker alignmentPacker = new AlignmentPacker();
-
-                    List<AlignmentInterval.Row> alignmentRows = alignmentPacker.packAlignments(iter,
-                            intervalEnd, loadAsPairs, null, maxLevels);
-
-                    AlignmentInterval loadedInterval = new AlignmentInterval(chr, intervalStart, intervalEnd,
-                            alignmentRows, counts);
-                    loadedIntervalMap.put(context.getReferenceFrame().getName(), loadedInterval);
-
+                    iter = reader.query(sequence, intervalStart, intervalEnd, counts, spliceJunctionHelpers,
+                            maxLevels, peStats, request.canceled);
+                    if (request.isCanceled()) {
+                        return;
+                    }
 
+                    // The counts are complete once the query returns.  Publish them so the coverage track can
+                    // paint while the alignments are packed.
+                    loadedInterval = new AlignmentInterval(chr, intervalStart, intervalEnd, counts,
+                            spliceJunctionHelpers);
+                    loadedIntervalMap.put(frameName, loadedInterval);
                     if (coverageTrack != null) {
                         coverageTrack.rescale(context.getReferenceFrame());
                     }
-
-                    // TODO --- we need to force a repaint of the coverageTrack, which might not be in the same panel
                     if (context.getPanel() != null) context.getPanel().repaint();
 
-                    //TODO -- this has to be done after every load in every panel.  Centralize this somewhere?  Have
-                    //TODO --  a "DataLoadRunnable"?
-                    IGV.getInstance().layoutMainPanel();
-
+                    packAlignments(frameName, request, loadedInterval, iter, intervalEnd);
+                    packing = true;
 
                 } catch (Exception exception) {
                     if ( reader.showExceptionMessage(exception.getMessage()) )
@@ -369,10 +419,16 @@ public class AlignmentDataManager {
                     }
                 } finally {
 
-                    if (iter != null) {
-                        iter.close();
+                    // Once packing is queued the packing stage finishes the load
+                    if (!packing) {
+                        if (iter != null) {
+                            iter.close();
+                        }
+                        if (loadedInterval != null) {
+                            loadedIntervalMap.remove(frameName, loadedInterval);
+                        }
+                        loadFinished(frameName, request);
                     }
-                    isLoading = false;
                 }
             }
         };
@@ -382,6 +438,112 @@ public class AlignmentDataManager {
 
     }
 
+    /**
+     * The packing stage of a load.  Packs the alignments into the rows of an interval whose counts are already
+     * published.  If the load is canceled,  or packing fails,  the interval is withdrawn so that the next paint
+     * loads it again rather than showing coverage without reads.
+     */
+    private void packAlignments(final String frameName, final LoadRequest request,
+                                final AlignmentInterval loadedInterval, final CloseableIterator<Alignment> iter,
+                                final int intervalEnd) {
+
+        packingExecutor.execute(new Runnable() {
+            public void run() {
+                boolean packed = false;
+                try {
+                    if (request.isCanceled()) {
+                        return;
+                    }
+                    List<AlignmentInterval.Row> alignmentRows = (new AlignmentPacker()).packAlignments(iter,
+                            intervalEnd, loadAsPairs, null, maxLevels);
+                    if (request.isCanceled()) {
+                        return;
+                    }
+                    loadedInterval.setPackedRows(alignmentRows);
+                    packed = true;
+
+                    // TODO --- we need to force a repaint of the coverageTrack, which might not be in the same panel
+                    RenderContext context = request.context;
+                    if (context.getPanel() != null) context.getPanel().repaint();
+
+                    //TODO -- this has to be done after every load in every panel.  Centralize this somewhere?  Have
+                    //TODO --  a "DataLoadRunnable"?
+                    IGV.getInstance().layoutMainPanel();
+
+                } catch (Exception exception) {
+                    log.error("Error packing alignments", exception);
+                } finally {
+                    iter.close();
+                    if (!packed) {
+                        loadedIntervalMap.remove(frameName, loadedInterval);
+                    }
+                    loadFinished(frameName, request);
+                }
+            }
+        });
+    }
+
+    private void loadFinished(String frameName, LoadRequest request) {
+        synchronized (pendingLoads) {
+            if (pendingLoads.get(frameName) == request) {
+                pendingLoads.remove(frameName);
+            }
+        }
+    }
+
+    /**
+     * An alignment load for one reference frame.  Until the load starts its interval can be replaced by a newer
+     * request,  after that a newer request has to cancel it.
+     */
+    private static class LoadRequest {
+
+        String chr;
+        int start;
+        int end;
+        RenderContext context;
+        final AtomicBoolean canceled = new AtomicBoolean(false);
+        private boolean started = false;
+
+        LoadRequest(String chr, int start, int end, RenderContext context) {
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+            this.context = context;
+        }
+
+        synchronized boolean covers(String chr, int start, int end) {
+            return !canceled.get() && this.chr.equals(chr) && start >= this.start && end <= this.end;
+        }
+
+        /**
+         * Replace the interval of a load that hasn't started.
+         *
+         * @return true if replaced,  false if the load is already running
+         */
+        synchronized boolean update(String chr, int start, int end, RenderContext context) {
+            if (started) {
+                return false;
+            }
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+            this.context = context;
+            return true;
+        }
+
+        synchronized void start() {
+            started = true;
+        }
+
+        void cancel() {
+            canceled.set(true);
+        }
+
+        boolean isCanceled() {
+            return canceled.get();
+        }
+    }
+
 
     private boolean isMitochondria(String chr) {
         return chr.equals("M") || chr.equals("chrM") ||
@@ -424,7 +586,9 @@ public class AlignmentDataManager {
     }
 
     public boolean isLoading() {
-        return isLoading;
+        synchronized (pendingLoads) {
+            return !pendingLoads.isEmpty();
+        }
     }
 
     public void updatePEStats(AlignmentTrack.RenderOptions renderOptions) {
@@ -49,18 +49,38 @@ public class AlignmentInterval extends Locus {
     private byte[] reference;
     private int maxCount = 0;
     private List<AlignmentCounts> counts;
-    private List<AlignmentInterval.Row> alignmentRows;
+    private volatile List<AlignmentInterval.Row> alignmentRows;
     private List<SpliceJunctionFeature> spliceJunctions = null;
+    private List<SpliceJunctionHelper> spliceJunctionHelpers = null;
 
-    public AlignmentInterval(String chr, int start, int end, List<Row> rows, List<AlignmentCounts> counts) {
+    /**
+     * Create an interval with coverage counts only,  the rows are set by {@link #setPackedRows(List)} when packing
+     * completes.  Until then the interval has no rows.
+     *
+     * @param spliceJunctionHelpers junctions of the tiles of this interval,  or null to compute the junctions from
+     *                              the packed alignments
+     */
+    public AlignmentInterval(String chr, int start, int end, List<AlignmentCounts> counts,
+                             List<SpliceJunctionHelper> spliceJunctionHelpers) {
         super(chr, start, end);
-        this.alignmentRows = rows;
+        this.spliceJunctionHelpers = spliceJunctionHelpers;
+        this.alignmentRows = new ArrayList<Row>();
         Genome genome = IGV.getInstance().getGenomeManager().getCurrentGenome();
         reference = genome.getSequence(chr, start, end);
         this.counts = counts;
         for (AlignmentCounts c : counts) {
             maxCount = Math.max(maxCount, c.getMaxCount());
         }
+    }
+
+    /**
+     * Set the rows from the initial packing of the alignments.
+     */
+    public synchronized void setPackedRows(List<Row> rows) {
+        this.alignmentRows = rows;
+        if (spliceJunctionHelpers == null) {
+            this.spliceJunctions = null;
+        }
 
         // Force caclulation of splice junctions
         boolean showSpliceJunctionTrack = PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_SHOW_JUNCTION_TRACK);
@@ -206,6 +226,18 @@ public class AlignmentInterval extends Locus {
         return 0;
     }
 
+    /**
+     * @return the number of reads discarded by downsampling in the tile containing pos
+     */
+    public int getDownsampledCount(int pos) {
+        for (AlignmentCounts c : counts) {
+            if (pos >= c.getStart() && pos < c.getEnd()) {
+                return c.getDownsampledCount();
+            }
+        }
+        return 0;
+    }
+
     public int getNegCount(int pos, byte b) {
         for (AlignmentCounts c : counts) {
             if (pos >= c.getStart() && pos < c.getEnd()) {
@@ -228,9 +260,13 @@ public class AlignmentInterval extends Locus {
         return new AlignmentIterator();
     }
 
-    public List<SpliceJunctionFeature> getSpliceJunctions() throws IOException {
+    public synchronized List<SpliceJunctionFeature> getSpliceJunctions() throws IOException {
         if (spliceJunctions == null) {
-            spliceJunctions = SpliceJunctionHelper.computeFeatures(getAlignmentIterator());
+            if (spliceJunctionHelpers != null) {
+                spliceJunctions = SpliceJunctionHelper.combineFeatures(spliceJunctionHelpers, getStart(), getEnd());
+            } else {
+                spliceJunctions = SpliceJunctionHelper.computeFeatures(getAlignmentIterator());
+            }
         }
         return spliceJunctions;
     }
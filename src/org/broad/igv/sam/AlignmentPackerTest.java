@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.sam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AlignmentPackerTest {
+
+    static final int READ_LENGTH = 100;
+
+    @Test
+    public void testRowsDoNotOverlap() {
+        int nReads = 100000;
+        int intervalLength = 100000;
+        List<Alignment> alignments = simulate(nReads, intervalLength);
+
+        List<AlignmentInterval.Row> rows = (new AlignmentPacker()).packAlignments(alignments.iterator(),
+                intervalLength, false, null, Integer.MAX_VALUE);
+
+        assertEquals(nReads, verify(rows));
+    }
+
+    @Test
+    public void testRowCountIsMaximumDepth() {
+        int nReads = 20000;
+        int intervalLength = 1000000;
+        List<Alignment> alignments = simulate(nReads, intervalLength);
+
+        // Interval scheduling is optimal,  it uses as many rows as the deepest point needs
+        int[] depth = new int[intervalLength + AlignmentPacker.MIN_ALIGNMENT_SPACING];
+        for (Alignment a : alignments) {
+            for (int i = a.getStart(); i < a.getEnd() + AlignmentPacker.MIN_ALIGNMENT_SPACING; i++) {
+                depth[i]++;
+            }
+        }
+        int maxDepth = 0;
+        for (int d : depth) {
+            maxDepth = Math.max(maxDepth, d);
+        }
+
+        List<AlignmentInterval.Row> rows = (new AlignmentPacker()).packAlignments(alignments.iterator(),
+                intervalLength, false, null, Integer.MAX_VALUE);
+
+        assertEquals(nReads, verify(rows));
+        assertEquals(maxDepth, rows.size());
+    }
+
+    @Test
+    public void testGroupByStrand() {
+        int nReads = 10000;
+        int intervalLength = 50000;
+        List<Alignment> alignments = simulate(nReads, intervalLength);
+
+        List<AlignmentInterval.Row> rows = (new AlignmentPacker()).packAlignments(alignments.iterator(),
+                intervalLength, false, AlignmentTrack.SortOption.STRAND, Integer.MAX_VALUE);
+
+        assertEquals(nReads, verify(rows));
+        for (AlignmentInterval.Row row : rows) {
+            boolean negative = row.alignments.get(0).isNegativeStrand();
+            for (Alignment a : row.alignments) {
+                assertEquals(negative, a.isNegativeStrand());
+            }
+        }
+    }
+
+    @Test
+    public void testAlignmentsPastEndAreDropped() {
+        List<Alignment> alignments = new ArrayList();
+        alignments.add(new DotAlignedAlignment("chr1", 100, 200, false, "a"));
+        alignments.add(new DotAlignedAlignment("chr1", 150, 250, false, "b"));
+        alignments.add(new DotAlignedAlignment("chr1", 1500, 1600, false, "c"));
+
+        List<AlignmentInterval.Row> rows = (new AlignmentPacker()).packAlignments(alignments.iterator(),
+                1000, false, null, Integer.MAX_VALUE);
+
+        assertEquals(2, verify(rows));
+        assertEquals(2, rows.size());
+    }
+
+    static List<Alignment> simulate(int nReads, int intervalLength) {
+        Random random = new Random(1);
+        int[] starts = new int[nReads];
+        for (int i = 0; i < nReads; i++) {
+            starts[i] = random.nextInt(intervalLength - READ_LENGTH);
+        }
+        Arrays.sort(starts);
+        List<Alignment> alignments = new ArrayList(nReads);
+        for (int i = 0; i < nReads; i++) {
+            int length = READ_LENGTH - random.nextInt(20);
+            alignments.add(new DotAlignedAlignment("chr1", starts[i], starts[i] + length, random.nextBoolean(),
+                    "read" + i));
+        }
+        return alignments;
+    }
+
+    /**
+     * Check that no row has overlapping alignments,  and return the number of alignments packed
+     */
+    static int verify(List<AlignmentInterval.Row> rows) {
+        int count = 0;
+        for (AlignmentInterval.Row row : rows) {
+            int lastEnd = Integer.MIN_VALUE;
+            for (Alignment a : row.alignments) {
+                assertTrue("Overlapping alignments in row at " + a.getStart(),
+                        a.getStart() >= lastEnd + AlignmentPacker.MIN_ALIGNMENT_SPACING);
+                lastEnd = a.getEnd();
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -390,7 +390,7 @@ public class AlignmentRenderer implements FeatureRenderer {
         for (AlignmentBlock aBlock : alignment.getAlignmentBlocks()) {
             blockNumber++;
             int x = (int) ((aBlock.getStart() - origin) / locScale);
-            int w = (int) Math.ceil(aBlock.getBases().length / locScale);
+            int w = (int) Math.ceil(aBlock.getLength() / locScale);
             int h = (int) Math.max(1, rect.getHeight() - (leaveMargin ? 2 : 0));
             int y = (int) (rect.getY()); // + (rect.getHeight() - h) / 2);
 
@@ -546,10 +546,10 @@ public class AlignmentRenderer implements FeatureRenderer {
         //String genomeId = context.getGenomeId();
         Genome genome = IGV.getInstance().getGenomeManager().getCurrentGenome();
 
-        byte[] read = block.getBases();
+        int length = block.getLength();
         boolean isSoftClipped = block.isSoftClipped();
 
-        if ((read != null) && (read.length > 0)) {
+        if (length > 0) {
 
             // Compute bounds, get posA graphics to use,  and compute posA font
             int pY = (int) rect.getY();
@@ -564,7 +564,7 @@ public class AlignmentRenderer implements FeatureRenderer {
             // Get the base qualities, start/end,  and reference sequence
 
             int start = block.getStart();
-            int end = start + read.length;
+            int end = start + length;
             byte[] reference = isSoftClipped ? null : genome.getSequence(chr, start, end);
 
 
@@ -583,7 +583,7 @@ public class AlignmentRenderer implements FeatureRenderer {
                     misMatch = true;  // <= by definition, any matches are coincidence
                 } else {
                     final byte refbase = reference[idx];
-                    final byte readbase = read[idx];
+                    final byte readbase = block.getBase(idx);
                     misMatch = readbase != '=' &&
                             reference != null &&
                             idx < reference.length &&
@@ -592,7 +592,7 @@ public class AlignmentRenderer implements FeatureRenderer {
                 }
 
                 if (misMatch || showAllBases) {
-                    char c = (char) read[loc - start];
+                    char c = (char) block.getBase(loc - start);
 
 
                     Color color = nucleotideColors.get(c);
@@ -601,7 +601,7 @@ public class AlignmentRenderer implements FeatureRenderer {
                     }
 
                     if (shadeBases) {
-                        byte qual = block.qualities[loc - start];
+                        byte qual = block.getQuality(loc - start);
                         color = getShadedColor(qual, color, prefs);
                     }
 
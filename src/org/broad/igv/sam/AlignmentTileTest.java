@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.sam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.broad.igv.Globals;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AlignmentTileTest {
+
+    static final String CHR = "chr1";
+    static final int READ_LENGTH = 100;
+    static final int TILE_START = 0;
+    static final int TILE_END = 100000;
+
+    @BeforeClass
+    public static void setUp() {
+        Globals.setHeadless(true);
+    }
+
+    @Test
+    public void testReservoirHoldsMaxDepth() {
+        int maxDepth = 50;
+        int nReads = 5000;
+        CachingQueryReader.AlignmentTile tile = newTile(maxDepth);
+
+        // All reads start at the same position,  a single bucket
+        for (int r = 0; r < nReads; r++) {
+            tile.addRecord(new DotAlignedAlignment(CHR, 1000, 1000 + READ_LENGTH, r % 2 == 0, "read" + r));
+        }
+        tile.setLoaded(true);
+
+        assertEquals(maxDepth, tile.getContainedRecords().size());
+        assertEquals(nReads - maxDepth, tile.getCounts().getDownsampledCount());
+        assertEquals(nReads, tile.getCounts().getTotalCount(1050));
+    }
+
+    @Test
+    public void testEveryReadIsCounted() {
+        int maxDepth = 20;
+        CachingQueryReader.AlignmentTile tile = newTile(maxDepth);
+        List<Alignment> alignments = simulate(20000, new Random(1));
+
+        int[] depth = new int[TILE_END - TILE_START];
+        for (Alignment a : alignments) {
+            tile.addRecord(a);
+            for (int pos = a.getStart(); pos < a.getEnd(); pos++) {
+                depth[pos - TILE_START]++;
+            }
+        }
+        tile.setLoaded(true);
+
+        List<Alignment> kept = tile.getContainedRecords();
+        assertTrue(kept.size() < alignments.size());
+        assertEquals(alignments.size(), kept.size() + tile.getCounts().getDownsampledCount());
+        for (int pos = TILE_START; pos < TILE_END; pos++) {
+            assertEquals("count at " + pos, depth[pos - TILE_START], tile.getCounts().getTotalCount(pos));
+        }
+    }
+
+    @Test
+    public void testKeptRecordsAreSortedByStart() {
+        CachingQueryReader.AlignmentTile tile = newTile(10);
+        for (Alignment a : simulate(20000, new Random(2))) {
+            tile.addRecord(a);
+        }
+        tile.setLoaded(true);
+
+        List<Alignment> kept = tile.getContainedRecords();
+        for (int i = 1; i < kept.size(); i++) {
+            assertTrue(kept.get(i - 1).getStart() <= kept.get(i).getStart());
+        }
+    }
+
+    @Test
+    public void testSamplingDependsOnReadName() {
+        List<Alignment> alignments = simulate(20000, new Random(3));
+        CachingQueryReader.AlignmentTile tile1 = newTile(10);
+        CachingQueryReader.AlignmentTile tile2 = newTile(10);
+        for (Alignment a : alignments) {
+            tile1.addRecord(a);
+            tile2.addRecord(a);
+        }
+        tile1.setLoaded(true);
+        tile2.setLoaded(true);
+
+        assertEquals(tile1.getContainedRecords(), tile2.getContainedRecords());
+    }
+
+    @Test
+    public void testMatesAreKeptTogether() {
+        int maxDepth = 10;
+        int nPairs = 5000;
+        int insertSize = 300;
+        Random random = new Random(4);
+        CachingQueryReader.AlignmentTile tile = newTile(maxDepth);
+
+        // Even pairs overlap,  their mates are in the same bucket.  Odd pairs are apart,  the second mate
+        // turns up in a later bucket.
+        List<Alignment> alignments = new ArrayList();
+        for (int p = 0; p < nPairs; p++) {
+            String name = "pair" + p;
+            int start = random.nextInt(TILE_END - insertSize - 2 * READ_LENGTH);
+            int mateStart = start + (p % 2 == 0 ? READ_LENGTH / 2 : insertSize + READ_LENGTH);
+            alignments.add(new PairedRead(start, false, name, mateStart));
+            alignments.add(new PairedRead(mateStart, true, name, start));
+        }
+        sortByStart(alignments);
+        for (Alignment a : alignments) {
+            tile.addRecord(a);
+        }
+        tile.setLoaded(true);
+
+        Map<String, Integer> keptByName = new HashMap();
+        for (Alignment a : tile.getContainedRecords()) {
+            Integer n = keptByName.get(a.getReadName());
+            keptByName.put(a.getReadName(), n == null ? 1 : n + 1);
+        }
+        assertTrue(keptByName.size() < nPairs);
+
+        int keptPairs = 0;
+        for (Alignment a : tile.getContainedRecords()) {
+            // A kept first mate always has its mate kept
+            if (!a.isNegativeStrand()) {
+                assertEquals(a.getReadName(), 2, (int) keptByName.get(a.getReadName()));
+                keptPairs++;
+            }
+        }
+        assertTrue(keptPairs > 0);
+    }
+
+    static CachingQueryReader.AlignmentTile newTile(int maxDepth) {
+        AlignmentCounts counts = new AlignmentCounts(TILE_START, TILE_END, null);
+        return new CachingQueryReader.AlignmentTile(0, TILE_START, TILE_END, maxDepth, counts);
+    }
+
+    /**
+     * Unpaired reads with random starts,  sorted by start as a reader returns them
+     */
+    static List<Alignment> simulate(int nReads, Random random) {
+        List<Alignment> alignments = new ArrayList(nReads);
+        for (int r = 0; r < nReads; r++) {
+            int start = TILE_START + random.nextInt(TILE_END - TILE_START - READ_LENGTH);
+            alignments.add(new DotAlignedAlignment(CHR, start, start + READ_LENGTH, random.nextBoolean(), "read" + r));
+        }
+        sortByStart(alignments);
+        return alignments;
+    }
+
+    static void sortByStart(List<Alignment> alignments) {
+        Collections.sort(alignments, new Comparator<Alignment>() {
+            public int compare(Alignment a1, Alignment a2) {
+                return a1.getStart() - a2.getStart();
+            }
+        });
+    }
+
+    /**
+     * A read of a pair,  the first mate on the forward strand and the second on the negative strand
+     */
+    static class PairedRead extends DotAlignedAlignment {
+
+        ReadMate mate;
+
+        PairedRead(int start, boolean negativeStrand, String name, int mateStart) {
+            super(CHR, start, start + READ_LENGTH, negativeStrand, name);
+            mate = new ReadMate(CHR, mateStart, !negativeStrand, false);
+        }
+
+        @Override
+        public boolean isPaired() {
+            return true;
+        }
+
+        @Override
+        public ReadMate getMate() {
+            return mate;
+        }
+    }
+}
@@ -24,6 +24,7 @@ package org.broad.igv.sam;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -31,11 +32,20 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.util.CloseableIterator;
@@ -43,15 +53,26 @@ import net.sf.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broad.igv.PreferenceManager;
 import org.broad.igv.exceptions.DataLoadException;
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.sam.reader.AlignmentQueryReader;
+import org.broad.igv.sam.reader.PartialResultIterator;
 import org.broad.igv.sam.reader.ReadGroupFilter;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.util.LRUCache;
 import org.broad.igv.util.RuntimeUtils;
+import org.broad.igv.util.WeightedLRUCache;
 
 /**
  * A wrapper for an AlignmentQueryReader that caches query results
+ * <p/>
+ * Tiles of all readers share one cache,  bounded by a memory budget (SAM.TILE_CACHE_MB).  If SAM.PREFETCH_TILES is set the tiles on either
+ * side of the last query are loaded in the background so that panning finds them already cached.  The wrapped
+ * reader supports one open iterator at a time,  so foreground and prefetch loads are serialized through readerLock.
+ * <p/>
+ * A load is pipelined:  the loading thread decodes and filters records and hands them in batches to a coverage
+ * stage on another thread,  which accumulates the counts and downsamples into the tiles.
  *
  * @author jrobinso
  */
@@ -63,9 +84,78 @@ public class CachingQueryReader {
     private static final int KB = 1000;
     private static final int MITOCHONDRIA_TILE_SIZE = 1000;
     private static int DEFAULT_TILE_SIZE = 16 * KB;
-    private static int MAX_TILE_COUNT = 2;
+    private static final int PREFETCH_TILE_COUNT = 1;
     private static Set<WeakReference<CachingQueryReader>> activeReaders = Collections.synchronizedSet(new HashSet());
 
+    // Single low priority thread shared by all readers,  prefetching should never compete with foreground loads
+    private static ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AlignmentTilePrefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    // Coverage stages of loads in progress,  one thread per load
+    private static ExecutorService coverageExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AlignmentCoverage");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final int COVERAGE_BATCH_SIZE = 1000;
+
+    /**
+     * Tiles of all open readers,  bounded by estimated heap size (SAM.TILE_CACHE_MB) however many alignment files
+     * are loaded.
+     */
+    private static WeightedLRUCache<TileKey, AlignmentTile> tileCache;
+
+    static synchronized WeightedLRUCache<TileKey, AlignmentTile> getTileCache() {
+        long maxBytes = (long) PreferenceManager.getInstance().getAsInt(PreferenceManager.SAM_TILE_CACHE_MB) * RuntimeUtils.MB;
+        if (tileCache == null) {
+            tileCache = new WeightedLRUCache(CachingQueryReader.class, maxBytes,
+                    new WeightedLRUCache.Weigher<AlignmentTile>() {
+                        public long getWeight(AlignmentTile tile) {
+                            return tile.getEstimatedSize();
+                        }
+                    });
+        } else if (tileCache.getMaxWeight() != maxBytes) {
+            tileCache.setMaxWeight(maxBytes);
+        }
+        return tileCache;
+    }
+
+    /**
+     * Key of a tile in the shared cache
+     */
+    static class TileKey {
+        final CachingQueryReader reader;
+        final int tileNumber;
+
+        TileKey(CachingQueryReader reader, int tileNumber) {
+            this.reader = reader;
+            this.tileNumber = tileNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey key = (TileKey) o;
+            return reader == key.reader && tileNumber == key.tileNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(reader) + tileNumber;
+        }
+    }
+    private static final int COVERAGE_QUEUE_CAPACITY = 8;
+
     // DK
     static boolean hack1 = Boolean.parseBoolean(System.getProperty("hack1", "false"));
     
@@ -92,14 +182,23 @@ public class CachingQueryReader {
     private int tileSize = DEFAULT_TILE_SIZE;
     private AlignmentQueryReader reader;
     private boolean cancel = false;
-    private LRUCache<Integer, AlignmentTile> cache;
     private boolean pairedEnd = false;
 
+    private final ReentrantLock readerLock = new ReentrantLock();
+    private boolean prefetch;
+    private volatile boolean cancelPrefetch = false;
+    private Future prefetchFuture;
+    private Set<Integer> prefetchingTiles = Collections.synchronizedSet(new HashSet<Integer>());
+
+    // Incremented whenever the cache is cleared,  a load started before a clear must not populate the cache
+    private volatile int cacheVersion = 0;
+
 
     public CachingQueryReader(AlignmentQueryReader reader) {
         this.reader = reader;
-        cache = new LRUCache(this, MAX_TILE_COUNT);
-        float fvw = PreferenceManager.getInstance().getAsFloat(PreferenceManager.SAM_MAX_VISIBLE_RANGE);
+        PreferenceManager prefs = PreferenceManager.getInstance();
+        prefetch = prefs.getAsBoolean(PreferenceManager.SAM_PREFETCH_TILES);
+        float fvw = prefs.getAsFloat(PreferenceManager.SAM_MAX_VISIBLE_RANGE);
         tileSize = Math.min(DEFAULT_TILE_SIZE, (int) (fvw * KB));
     }
 
@@ -108,6 +207,7 @@ public class CachingQueryReader {
     }
 
     public void close() throws IOException {
+        clearCache();
         reader.close();
     }
 
@@ -129,6 +229,18 @@ public class CachingQueryReader {
 
     public CloseableIterator<Alignment> query(String sequence, int start, int end, List<AlignmentCounts> counts,
                                               int maxReadDepth, Map<String, PEStats> peStats) {
+        return query(sequence, start, end, counts, null, maxReadDepth, peStats, null);
+    }
+
+    /**
+     * @param spliceJunctionHelpers if not null,  receives the splice junctions of each tile
+     * @param canceled if not null,  setting this flag abandons the query.  Tiles are only cached if completely
+     *                 loaded,  so the iterator returned for a canceled query may be incomplete.
+     */
+    public CloseableIterator<Alignment> query(String sequence, int start, int end, List<AlignmentCounts> counts,
+                                              List<SpliceJunctionHelper> spliceJunctionHelpers,
+                                              int maxReadDepth, Map<String, PEStats> peStats,
+                                              AtomicBoolean canceled) {
 
         // Get the tiles covering this interval
         int startTile = (start + 1) / getTileSize(sequence);
@@ -137,7 +249,7 @@ public class CachingQueryReader {
         // Be a bit conservative with maxReadDepth (get a few more reads than we think neccessary)
         int readDepthPlus = (int) (1.1 * maxReadDepth);
 
-        List<AlignmentTile> tiles = getTiles(sequence, startTile, endTile, readDepthPlus, peStats);
+        List<AlignmentTile> tiles = getTiles(sequence, startTile, endTile, readDepthPlus, peStats, canceled);
         if (tiles.size() == 0) {
             return EmptyAlignmentIterator.getInstance();
         }
@@ -153,15 +265,46 @@ public class CachingQueryReader {
         for (AlignmentTile t : tiles) {
             alignments.addAll(t.getContainedRecords());
             counts.add(t.getCounts());
+            if (spliceJunctionHelpers != null) {
+                spliceJunctionHelpers.add(t.getSpliceJunctionHelper());
+            }
         }
 
         return new TiledIterator(start, end, alignments);
     }
 
     public List<AlignmentTile> getTiles(String seq, int startTile, int endTile, int maxReadDepth, Map<String, PEStats> peStats) {
+        return getTiles(seq, startTile, endTile, maxReadDepth, peStats, null);
+    }
+
+    public List<AlignmentTile> getTiles(String seq, int startTile, int endTile, int maxReadDepth,
+                                        Map<String, PEStats> peStats, AtomicBoolean canceled) {
+
+        // A prefetch in progress is only worth waiting for if it is loading one of the tiles we need
+        if (!isPrefetching(seq, startTile, endTile)) {
+            cancelPrefetch = true;
+        }
+
+        List<AlignmentTile> tiles;
+        readerLock.lock();
+        try {
+            tiles = loadOrGetTiles(seq, startTile, endTile, maxReadDepth, peStats, canceled);
+        } finally {
+            cancelPrefetch = false;
+            readerLock.unlock();
+        }
+
+        if (prefetch) {
+            schedulePrefetch(seq, startTile, endTile, maxReadDepth);
+        }
+        return tiles;
+    }
+
+    private List<AlignmentTile> loadOrGetTiles(String seq, int startTile, int endTile, int maxReadDepth,
+                                               Map<String, PEStats> peStats, AtomicBoolean canceled) {
 
         if (!seq.equals(cachedChr)) {
-            cache.clear();
+            clearCache();
             cachedChr = seq;
         }
 
@@ -170,7 +313,7 @@ public class CachingQueryReader {
 
         int tileSize = getTileSize(seq);
         for (int t = startTile; t <= endTile; t++) {
-            AlignmentTile tile = cache.get(t);
+            AlignmentTile tile = getTileCache().get(new TileKey(this, t));
 
             if (tile == null) {
                 int start = t * tileSize;
@@ -184,7 +327,7 @@ public class CachingQueryReader {
             // The current tile is loaded,  load any preceding tiles we have pending and clear "to load" list
             if (tile.isLoaded()) {
                 if (tilesToLoad.size() > 0) {
-                    boolean success = loadTiles(seq, tilesToLoad, peStats);
+                    boolean success = loadTiles(seq, tilesToLoad, peStats, false, canceled);
                     if (!success) {
                         // Loading was canceled, return what we have
                         return tiles;
@@ -197,20 +340,103 @@ public class CachingQueryReader {
         }
 
         if (tilesToLoad.size() > 0) {
-            loadTiles(seq, tilesToLoad, peStats);
+            loadTiles(seq, tilesToLoad, peStats, false, canceled);
         }
 
         return tiles;
     }
 
+    private boolean isPrefetching(String seq, int startTile, int endTile) {
+        if (!seq.equals(cachedChr)) {
+            return false;
+        }
+        for (int t = startTile; t <= endTile; t++) {
+            if (prefetchingTiles.contains(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queue a background load of the tiles flanking startTile - endTile.  Only the most recent request matters,
+     * so a request still waiting in the queue is replaced.
+     */
+    private synchronized void schedulePrefetch(final String seq, final int startTile, final int endTile,
+                                               final int maxReadDepth) {
+        if (prefetchFuture != null) {
+            prefetchFuture.cancel(false);
+        }
+        prefetchFuture = prefetchExecutor.submit(new Runnable() {
+            public void run() {
+                prefetchTiles(seq, startTile, endTile, maxReadDepth);
+            }
+        });
+    }
+
+    private void prefetchTiles(String seq, int startTile, int endTile, int maxReadDepth) {
+
+        // If a foreground load holds the reader it will schedule a new prefetch when it completes
+        if (!readerLock.tryLock()) {
+            return;
+        }
+        try {
+            if (!seq.equals(cachedChr)) {
+                return;
+            }
+
+            int tileSize = getTileSize(seq);
+            int lastTile = Integer.MAX_VALUE;
+            Genome genome = IGV.getInstance().getGenomeManager().getCurrentGenome();
+            Chromosome chromosome = genome == null ? null : genome.getChromosome(genome.getChromosomeAlias(seq));
+            if (chromosome != null) {
+                lastTile = chromosome.getLength() / tileSize;
+            }
+
+            List<AlignmentTile> before = new ArrayList(PREFETCH_TILE_COUNT);
+            for (int t = Math.max(0, startTile - PREFETCH_TILE_COUNT); t < startTile; t++) {
+                if (!getTileCache().containsKey(new TileKey(this, t))) {
+                    before.add(new AlignmentTile(seq, t, t * tileSize, (t + 1) * tileSize, maxReadDepth));
+                }
+            }
+            List<AlignmentTile> after = new ArrayList(PREFETCH_TILE_COUNT);
+            for (int t = endTile + 1; t <= Math.min(lastTile, endTile + PREFETCH_TILE_COUNT); t++) {
+                if (!getTileCache().containsKey(new TileKey(this, t))) {
+                    after.add(new AlignmentTile(seq, t, t * tileSize, (t + 1) * tileSize, maxReadDepth));
+                }
+            }
+
+            for (AlignmentTile t : before) prefetchingTiles.add(t.getTileNumber());
+            for (AlignmentTile t : after) prefetchingTiles.add(t.getTileNumber());
+
+            // Tiles ahead of the query first,  the direction of travel is more often forward
+            if (after.size() > 0 && !loadTiles(seq, after, null, true, null)) {
+                return;
+            }
+            if (before.size() > 0) {
+                loadTiles(seq, before, null, true, null);
+            }
+
+        } catch (Exception e) {
+            log.debug("Error prefetching alignments", e);
+        } finally {
+            prefetchingTiles.clear();
+            readerLock.unlock();
+        }
+    }
+
     /**
      * Load alignments for the list of tiles
      *
      * @param chr
      * @param tiles
+     * @param background true if this is a prefetch,  which can be canceled by a foreground load and does not
+     *                   update the status bar
+     * @param canceled   cancel flag of the request this load is for,  or null
      * @return true if successful,  false if canceled.
      */
-    private boolean loadTiles(String chr, List<AlignmentTile> tiles, Map<String, PEStats> peStats) {
+    private boolean loadTiles(String chr, List<AlignmentTile> tiles, Map<String, PEStats> peStats, boolean background,
+                              AtomicBoolean canceled) {
 
     	// DK
     	long			startedAt = System.currentTimeMillis();
@@ -235,9 +461,11 @@ public class CachingQueryReader {
 
 
         CloseableIterator<Alignment> iter = null;
+        CoverageStage coverageStage = null;
 
         //log.debug("Loading : " + start + " - " + end);
         int alignmentCount = 0;
+        int version = cacheVersion;
         WeakReference<CachingQueryReader> ref = new WeakReference(this);
         try {
             Map<String, Alignment> mappedMates = new HashMap(1000);
@@ -245,12 +473,16 @@ public class CachingQueryReader {
 
 
             activeReaders.add(ref);
+            if (isCanceled(background, canceled)) {
+                return false;
+            }
             iter = reader.query(chr, start, end, false);
 
-            int tileSize = getTileSize(chr);
+            coverageStage = new CoverageStage(tiles, start, getTileSize(chr));
+            coverageExecutor.execute(coverageStage);
             while (iter != null && iter.hasNext()) {
 
-                if (cancel) {
+                if (isCanceled(background, canceled)) {
                     return false;
                 }
 
@@ -294,22 +526,14 @@ public class CachingQueryReader {
                     continue;
                 }
 
-                // Range of tile indeces that this alignment contributes to.
-                int aStart = record.getAlignmentStart();
-                int aEnd = record.getEnd();
-                int idx0 = Math.max(0, (aStart - start) / tileSize);
-                int idx1 = Math.min(tiles.size() - 1, (aEnd - start) / tileSize);
-
-                // Loop over tiles this read overlaps
-                for (int i = idx0; i <= idx1; i++) {
-                    AlignmentTile t = tiles.get(i);
-                    t.addRecord(record);
-                }
+                coverageStage.add(record);
 
                 alignmentCount++;
                 if (alignmentCount % 1000 == 0) {
-                    if (cancel) return false;
-                    IGV.getInstance().setStatusBarMessage("Reads loaded: " + alignmentCount);
+                    if (isCanceled(background, canceled)) return false;
+                    if (!background) {
+                        IGV.getInstance().setStatusBarMessage("Reads loaded: " + alignmentCount);
+                    }
                     if (checkMemory() == false) {
                         cancelReaders();
                         return false;        // <=  TODO need to cancel all readers
@@ -349,14 +573,25 @@ public class CachingQueryReader {
             mappedMates = null;
             unmappedMates = null;
 
+            coverageStage.finish();
+            coverageStage = null;
+
+            // A merged query that dropped one of its files is shown,  but not cached,  so the next query retries it
+            boolean complete = !(iter instanceof PartialResultIterator) || ((PartialResultIterator) iter).isComplete();
+            if (!complete) {
+                log.warn("Alignments for " + chr + ":" + start + "-" + end + " are incomplete and will not be cached");
+            }
+
             for (AlignmentTile t : tiles) {
                 t.setLoaded(true);
-                cache.put(t.getTileNumber(), t);
+                if (complete && version == cacheVersion) {
+                    getTileCache().put(new TileKey(this, t.getTileNumber()), t);
+                }
             }
 
             // DK
             long	finishedAt = System.currentTimeMillis();
-            log.info("loaded in " + (finishedAt - startedAt) + " ms");
+            log.info((background ? "prefetched in " : "loaded in ") + (finishedAt - startedAt) + " ms");
             
             return true;
 
@@ -372,13 +607,123 @@ public class CachingQueryReader {
             // for the next time
             cancel = false;
             activeReaders.remove(ref);
+            if (coverageStage != null) {
+                coverageStage.abort();
+            }
             if (iter != null) {
                 iter.close();
             }
-            IGV.getInstance().resetStatusMessage();
+            if (!background) {
+                IGV.getInstance().resetStatusMessage();
+            }
+        }
+    }
+
+
+    /**
+     * The consumer half of a tile load.  Batches of filtered alignments are added to the tiles they overlap,  which
+     * accumulates the coverage counts and downsamples.  Only this stage touches the tiles until finish() returns.
+     */
+    private static class CoverageStage implements Runnable {
+
+        private static final Alignment[] END = new Alignment[0];
+
+        private final List<AlignmentTile> tiles;
+        private final int start;
+        private final int tileSize;
+        private final BlockingQueue<Alignment[]> queue = new ArrayBlockingQueue(COVERAGE_QUEUE_CAPACITY);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Alignment[] batch = new Alignment[COVERAGE_BATCH_SIZE];
+        private int batchSize = 0;
+        private volatile boolean aborted = false;
+        private volatile Throwable error;
+
+        CoverageStage(List<AlignmentTile> tiles, int start, int tileSize) {
+            this.tiles = tiles;
+            this.start = start;
+            this.tileSize = tileSize;
+        }
+
+        void add(Alignment record) throws Exception {
+            batch[batchSize++] = record;
+            if (batchSize == batch.length) {
+                put(batch);
+                batch = new Alignment[COVERAGE_BATCH_SIZE];
+                batchSize = 0;
+            }
+        }
+
+        /**
+         * Hand over the last batch and wait for the stage to complete.
+         */
+        void finish() throws Exception {
+            if (batchSize > 0) {
+                put(Arrays.copyOf(batch, batchSize));
+            }
+            put(END);
+            done.await();
+            checkError();
+        }
+
+        /**
+         * Stop the stage after the batch in progress,  the tiles are left incomplete.
+         */
+        void abort() {
+            aborted = true;
+            queue.clear();
+            queue.offer(END);
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void put(Alignment[] alignments) throws Exception {
+            while (!queue.offer(alignments, 100, TimeUnit.MILLISECONDS)) {
+                checkError();
+            }
+        }
+
+        private void checkError() throws Exception {
+            if (error instanceof Exception) {
+                throw (Exception) error;
+            } else if (error != null) {
+                throw new RuntimeException(error);
+            }
+        }
+
+        public void run() {
+            try {
+                Alignment[] alignments;
+                while ((alignments = queue.take()) != END && !aborted) {
+                    for (Alignment record : alignments) {
+
+                        // Range of tile indeces that this alignment contributes to.
+                        int aStart = record.getAlignmentStart();
+                        int aEnd = record.getEnd();
+                        int idx0 = Math.max(0, (aStart - start) / tileSize);
+                        int idx1 = Math.min(tiles.size() - 1, (aEnd - start) / tileSize);
+
+                        // Loop over tiles this read overlaps
+                        for (int i = idx0; i <= idx1; i++) {
+                            tiles.get(i).addRecord(record);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                error = t;
+                queue.clear();
+            } finally {
+                done.countDown();
+            }
         }
     }
 
+    private boolean isCanceled(boolean background, AtomicBoolean canceled) {
+        return cancel || (background && cancelPrefetch) || (canceled != null && canceled.get());
+    }
+
 
     private static synchronized boolean checkMemory() {
         if (RuntimeUtils.getAvailableMemoryFraction() < 0.2) {
@@ -406,7 +751,14 @@ public class CachingQueryReader {
     }
 
     public void clearCache() {
-        if (cache != null) cache.clear();
+        cacheVersion++;
+        cancelPrefetch = true;
+        WeightedLRUCache<TileKey, AlignmentTile> cache = getTileCache();
+        for (TileKey key : cache.getKeys()) {
+            if (key.reader == this) {
+                cache.remove(key);
+            }
+        }
     }
 
     /**
@@ -482,10 +834,16 @@ public class CachingQueryReader {
      * Caches alignments and counts for the coverage plot.
      * <p/>
      * Notes:
-     * A "bucket" is a virtual container holding all the alignments with identical start position.  The concept
-     * is introduced to control the # of alignments we hold in memory for deep coverage regions.  In practice,
-     * little or no information is added by displaying more than ~50X coverage.  For an average alignment length L
-     * and coverage deptgh D we do not need to store more than D/L alignments at any given start position.
+     * A "bucket" is a window of alignments with overlapping starts,  it is closed when an alignment starts past the
+     * end of the shortest alignment in it.  The concept is introduced to control the # of alignments we hold in
+     * memory for deep coverage regions.  In practice, little or no information is added by displaying more than
+     * ~50X coverage.
+     * <p/>
+     * Records are downsampled as they are added:  each bucket is a reservoir holding at most maxDepth reads,  so
+     * memory depends on the display depth rather than the depth of the data.  Reads are sampled by a hash of the
+     * read name (bottom-k sampling),  which keeps mates in the same bucket together without remembering discarded
+     * names.  Mates of reads kept from earlier buckets are always kept.  Every record is counted for coverage
+     * whether or not it is kept,  discarded records are counted in AlignmentCounts.
      */
 
     //
@@ -499,32 +857,49 @@ public class CachingQueryReader {
         private int start;
         private int tileNumber;
         private AlignmentCounts counts;
+        private SpliceJunctionHelper spliceJunctionHelper;
 
         int maxDepth;
         int e1;
         //int depthCount;
+        private long estimatedSize;
 
-        private Map<String, Alignment> currentBucket;
-        private Map<String, Alignment> currentMates;
-        private List<Alignment> overflows;   // "Overflows"
+        // The reservoir of the current bucket,  highest priority (first to be evicted) at the head
+        private PriorityQueue<SampledRead> reservoir;
+        private Map<String, SampledRead> sampledReads;
+        private List<Alignment> keptMates;
         private Set<String> pairedReadNames;
+        private int reservoirSize;
 
-        private static final Random RAND = new Random(System.currentTimeMillis());
+        private static final int ALIGNMENT_OVERHEAD_BYTES = 400;
+        private static final int BYTES_PER_ALIGNED_BASE = 2;
 
         AlignmentTile(String chr, int tileNumber, int start, int end, int maxDepth) {
+            this(tileNumber, start, end, maxDepth, new AlignmentCounts(chr, start, end));
+        }
+
+        AlignmentTile(int tileNumber, int start, int end, int maxDepth, AlignmentCounts counts) {
             this.tileNumber = tileNumber;
             this.start = start;
             this.end = end;
             containedRecords = new ArrayList(16000);
             overlappingRecords = new ArrayList();
-            this.counts = new AlignmentCounts(chr, start, end);
+            this.counts = counts;
+            this.spliceJunctionHelper = new SpliceJunctionHelper(start, end);
 
             this.maxDepth = maxDepth;
             e1 = -1;
-            currentBucket = new HashMap((int) (3 * maxDepth));
-            currentMates = new HashMap((int) (3 * maxDepth));
+
+            // DK - reservoir larger than maxDepth,  so not to trim on each iteration
+            reservoirSize = !hack1 ? maxDepth : (maxDepth * 3);
+            reservoir = new PriorityQueue<SampledRead>(Math.max(1, reservoirSize), new Comparator<SampledRead>() {
+                public int compare(SampledRead r1, SampledRead r2) {
+                    return r1.priority < r2.priority ? 1 : (r1.priority > r2.priority ? -1 : 0);
+                }
+            });
+            sampledReads = new HashMap((int) (3 * maxDepth));
+            keptMates = new ArrayList();
             pairedReadNames = new HashSet(5 * maxDepth);
-            overflows = new LinkedList<Alignment>();
         }
 
         public int getTileNumber() {
@@ -554,17 +929,57 @@ public class CachingQueryReader {
             } else {
                 e1 = Math.min(e1, record.getEnd());
             }
+            counts.incCounts(record);
+            spliceJunctionHelper.addAlignment(record);
 
             final String readName = record.getReadName();
-            if (!currentBucket.containsKey(readName)) {
-                currentBucket.put(readName, record);
-            } else if (!currentMates.containsKey(readName)) {
-                currentMates.put(readName, record);
+
+            // Mate of a read kept from a previous bucket
+            if (pairedReadNames.remove(readName)) {
+                keptMates.add(record);
+                return;
+            }
+
+            // Mate of a read already in the reservoir
+            SampledRead sampled = sampledReads.get(readName);
+            if (sampled != null) {
+                sampled.alignments.add(record);
+                return;
+            }
+
+            int priority = priority(readName);
+            if (reservoir.size() < reservoirSize) {
+                addToReservoir(readName, priority, record);
+            } else if (reservoirSize > 0 && priority < reservoir.peek().priority) {
+                SampledRead evicted = reservoir.poll();
+                sampledReads.remove(evicted.readName);
+                counts.incDownsampled(evicted.alignments.size());
+                addToReservoir(readName, priority, record);
             } else {
-                overflows.add(record);
+                // A mate arriving later in this bucket has the same priority,  and the reservoir threshold only
+                // decreases,  so it will be discarded as well.
+                counts.incDownsampled(1);
             }
-            counts.incCounts(record);
+        }
 
+        private void addToReservoir(String readName, int priority, Alignment record) {
+            SampledRead sampled = new SampledRead(readName, priority, record);
+            reservoir.add(sampled);
+            sampledReads.put(readName, sampled);
+        }
+
+        /**
+         * Pseudo random sampling priority derived from the read name,  so that both mates of a pair get the same
+         * priority.  The hash is mixed to spread similar names.
+         */
+        private static int priority(String readName) {
+            int h = readName.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
         }
 
 
@@ -573,8 +988,27 @@ public class CachingQueryReader {
         	// DK
         	if ( log.isDebugEnabled() )
         		log.debug(String.format("emptyBucket: %s IN contained:%d", this, containedRecords.size()));
-        	
-            List<Alignment> sampledRecords = sampleCurrentBucket();
+
+            List<Alignment> sampledRecords = new ArrayList(reservoir.size() + keptMates.size());
+            sampledRecords.addAll(keptMates);
+            for (SampledRead sampled : reservoir) {
+                sampledRecords.addAll(sampled.alignments);
+
+                // If this alignment is paired and its mate has not been seen record the read name,  the mate
+                // is kept when it turns up in a later bucket.
+                Alignment a = sampled.alignments.get(0);
+                if (sampled.alignments.size() == 1 && a.isPaired() && a.getMate() != null && a.getMate().isMapped()) {
+                    pairedReadNames.add(sampled.readName);
+                }
+            }
+
+            // The reservoir is not in start order
+            Collections.sort(sampledRecords, new Comparator<Alignment>() {
+                public int compare(Alignment alignment, Alignment alignment1) {
+                    return alignment.getStart() - alignment1.getStart();
+                }
+            });
+
             for (Alignment alignment : sampledRecords) {
                 int aStart = alignment.getAlignmentStart();
                 int aEnd = alignment.getEnd();
@@ -584,81 +1018,16 @@ public class CachingQueryReader {
                     overlappingRecords.add(alignment);
                 }
             }
-            currentBucket.clear();
-            currentMates.clear();
-            overflows.clear();
-            
+            reservoir.clear();
+            sampledReads.clear();
+            keptMates.clear();
+
         	// DK
         	if ( log.isDebugEnabled() )
         		log.debug(String.format("emptyBucket: %s OUT contained:%d", this, containedRecords.size()));
         }
 
 
-        /**
-         * Sample the current bucket of alignments to achieve the desired depth.
-         *
-         * @return
-         */
-        private List<Alignment> sampleCurrentBucket() {
-
-        	// DK - set maxDepth to use for a threshold to be a bit far from the use used for trimming - so not to trim on each iteration
-        	int			maxDepthThreshold = !hack1 ? maxDepth : (maxDepth * 3);
-        	
-            List<Alignment> sampledList = new ArrayList(maxDepth);
-            if (currentBucket.size() + currentMates.size() + overflows.size() < maxDepthThreshold) {
-                sampledList.addAll(currentBucket.values());
-                sampledList.addAll(currentMates.values());
-                sampledList.addAll(overflows);
-            } else {
-
-                // First pull out any mates of reads sampled from previous buckets
-                List<String> added = new ArrayList(pairedReadNames.size());
-                for (String readName : pairedReadNames) {
-                    if (currentBucket.containsKey(readName)) {
-                        sampledList.add(currentBucket.get(readName));
-                        currentBucket.remove(readName);
-                        added.add(readName);
-                    }
-                }
-                pairedReadNames.removeAll(added);
-
-                List<String> keys = new LinkedList(currentBucket.keySet());
-                while (sampledList.size() < maxDepth && keys.size() > 0) {
-
-                    // Remove a random alignment from the bucket.
-                    String key = keys.remove(RAND.nextInt(keys.size()));
-                    Alignment a = currentBucket.remove(key);
-                    sampledList.add(a);
-
-                    // If this alignment is paired,  add its mate to the list, or if its mate is not present
-                    // in this bucket record the read name.
-                    if (a.isPaired() && a.getMate() != null && a.getMate().isMapped()) {
-                        Alignment m = currentMates.remove(key);
-                        if (m != null) {
-                            sampledList.add(m);
-                        } else {
-                            pairedReadNames.add(key);
-                        }
-                    }
-                }
-
-                //If there's still room,  sample the "overflows"
-                while (sampledList.size() < maxDepth && (overflows.size() > 0)) {
-                    sampledList.add(overflows.remove(RAND.nextInt(overflows.size())));
-                }
-
-
-                // Since we added in 2 passes we need to sort
-                Collections.sort(sampledList, new Comparator<Alignment>() {
-                    public int compare(Alignment alignment, Alignment alignment1) {
-                        return alignment.getStart() - alignment1.getStart();
-                    }
-                });
-            }
-            return sampledList;
-        }
-
-
         public List<Alignment> getContainedRecords() {
             return containedRecords;
         }
@@ -678,16 +1047,66 @@ public class CachingQueryReader {
             if (loaded) {
                 // Empty any remaining alignments in the current bucket
                 emptyBucket();
-                currentBucket = null;
-                currentMates = null;
+                reservoir = null;
+                sampledReads = null;
+                keptMates = null;
                 pairedReadNames = null;
-                overflows = null;
+                computeEstimatedSize();
             }
         }
 
+        /**
+         * @return the splice junctions starting in this tile,  counted from all reads before downsampling
+         */
+        public SpliceJunctionHelper getSpliceJunctionHelper() {
+            return spliceJunctionHelper;
+        }
+
         public AlignmentCounts getCounts() {
             return counts;
         }
+
+        /**
+         * @return a rough estimate of the heap used by this tile,  in bytes.  Only valid after loading.
+         */
+        public long getEstimatedSize() {
+            return estimatedSize;
+        }
+
+        private void computeEstimatedSize() {
+            long size = counts.getEstimatedSize();
+            for (Alignment a : containedRecords) {
+                size += estimateSize(a);
+            }
+            for (Alignment a : overlappingRecords) {
+                size += estimateSize(a);
+            }
+            estimatedSize = size;
+        }
+
+        /**
+         * A read sampled into the reservoir together with its mate(s) from the same bucket
+         */
+        private static class SampledRead {
+            String readName;
+            int priority;
+            List<Alignment> alignments;
+
+            SampledRead(String readName, int priority, Alignment alignment) {
+                this.readName = readName;
+                this.priority = priority;
+                alignments = new ArrayList(2);
+                alignments.add(alignment);
+            }
+        }
+
+        /**
+         * A SamAlignment holds ~1.25 bytes per read base (packed bases and one byte qualities) plus a few hundred
+         * bytes of fields,  the aligned length is a cheap proxy for the read length.
+         */
+        private static long estimateSize(Alignment a) {
+            return ALIGNMENT_OVERHEAD_BYTES + BYTES_PER_ALIGNED_BASE * (a.getEnd() - a.getStart());
+        }
     }
 
 	public boolean showExceptionMessage(String key) 
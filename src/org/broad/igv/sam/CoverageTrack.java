@@ -282,6 +282,10 @@ public class CoverageTrack extends AbstractTrack {
                         buf.append("  (" + percent + "%,     " + posCount + "+,   " + negCount + "- )<br>");
                     }
                 }
+                int downsampled = interval.getDownsampledCount(pos);
+                if (downsampled > 0) {
+                    buf.append("<br>Downsampled reads in region: " + downsampled);
+                }
                 return buf.toString();
             }
         } else {
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.sam;
+
+import java.util.Arrays;
+
+/**
+ * Read bases stored at 2 bits per base.  Bases other than upper case A, C, G and T (e.g. N) are kept as sparse
+ * exceptions,  and a read with many of them is stored unpacked at one byte per base.  A read whose sequence is
+ * missing ("*" in the SAM record) has no storage at all and returns '=' for every base.
+ */
+public class PackedBases {
+
+    static final byte MISSING_BASE = '=';
+    private static final byte[] NUCLEOTIDES = {'A', 'C', 'G', 'T'};
+    private static final byte[] CODES = new byte[256];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int i = 0; i < NUCLEOTIDES.length; i++) {
+            CODES[NUCLEOTIDES[i]] = (byte) i;
+        }
+    }
+
+    private final int length;
+    private byte[] packed;                // 4 bases per byte,  or null
+    private int[] exceptionPositions;     // sorted positions of bases which cannot be packed,  or null
+    private byte[] exceptionBases;
+    private byte[] raw;                   // unpacked bases,  used when exceptions are common
+
+    /**
+     * @param bases the read bases,  or null / empty if the sequence is missing
+     */
+    public PackedBases(byte[] bases) {
+        if (bases == null || bases.length == 0) {
+            length = 0;
+            return;
+        }
+        length = bases.length;
+
+        int nExceptions = 0;
+        for (byte b : bases) {
+            if (CODES[b & 0xFF] < 0) {
+                nExceptions++;
+            }
+        }
+
+        // An exception costs 5 bytes,  a packed base a quarter byte,  so beyond ~1 in 8 storing raw is smaller
+        if (nExceptions * 8 > length) {
+            raw = bases.clone();
+            return;
+        }
+
+        packed = new byte[(length + 3) / 4];
+        if (nExceptions > 0) {
+            exceptionPositions = new int[nExceptions];
+            exceptionBases = new byte[nExceptions];
+        }
+        int e = 0;
+        for (int i = 0; i < length; i++) {
+            int code = CODES[bases[i] & 0xFF];
+            if (code < 0) {
+                exceptionPositions[e] = i;
+                exceptionBases[e++] = bases[i];
+                code = 0;
+            }
+            packed[i >> 2] |= code << ((i & 3) << 1);
+        }
+    }
+
+    /**
+     * @return the number of bases,  zero if the sequence is missing
+     */
+    public int length() {
+        return length;
+    }
+
+    public boolean isMissing() {
+        return length == 0;
+    }
+
+    public byte get(int i) {
+        if (raw != null) {
+            return raw[i];
+        }
+        if (packed == null) {
+            return MISSING_BASE;
+        }
+        if (exceptionPositions != null) {
+            int e = Arrays.binarySearch(exceptionPositions, i);
+            if (e >= 0) {
+                return exceptionBases[e];
+            }
+        }
+        return NUCLEOTIDES[(packed[i >> 2] >> ((i & 3) << 1)) & 3];
+    }
+
+    /**
+     * Copy bases [from, from + n) into dest.
+     */
+    public void get(int from, byte[] dest, int destOffset, int n) {
+        if (raw != null) {
+            System.arraycopy(raw, from, dest, destOffset, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                dest[destOffset + i] = get(from + i);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (length == 0) {
+            return "*";
+        }
+        byte[] bases = new byte[length];
+        get(0, bases, 0, length);
+        return new String(bases);
+    }
+}
@@ -22,6 +22,7 @@ package org.broad.igv.sam;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import net.sf.samtools.SAMFileHeader;
@@ -38,8 +39,13 @@ import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.util.ColorUtilities;
+import org.broad.igv.util.Interner;
 
 /**
+ * An alignment decoded from a SAMRecord.  The record is not retained:  the flags are kept as the SAM flag word,
+ * the bases are 2-bit packed and shared, with the qualities, by all alignment blocks,  and strings repeated
+ * across records (read group, library, sample, cigar, tag names) are interned through a dictionary.
+ *
  * @author jrobinso
  */
 public class SamAlignment extends AbstractAlignment implements Alignment {
@@ -58,31 +64,40 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
     public static final char HARD_CLIP = 'H';
     public static final char PADDING = 'P';
     public static final char ZERO_GAP = 'O';
+
+    // SAM flag bits
+    static final int READ_PAIRED = 0x1;
+    static final int PROPER_PAIR = 0x2;
+    static final int READ_UNMAPPED = 0x4;
+    static final int MATE_UNMAPPED = 0x8;
+    static final int READ_NEGATIVE_STRAND = 0x10;
+    static final int MATE_NEGATIVE_STRAND = 0x20;
+    static final int FIRST_OF_PAIR = 0x40;
+    static final int SECOND_OF_PAIR = 0x80;
+    static final int NOT_PRIMARY = 0x100;
+    static final int FAILS_VENDOR_QUALITY_CHECK = 0x200;
+    static final int DUPLICATE = 0x400;
+
+    /**
+     * Dictionary for read groups, libraries, samples, cigars, pair orientations and tag name lists.
+     */
+    static final Interner<Object> dictionary = new Interner<Object>(100000);
+
     private int start;  // <= Might differ from alignment start if soft clipping is considered
     private int end;    // ditto
     private int alignmentStart;
     private int alignmentEnd;
-    boolean negativeStrand;
-    boolean readNegativeStrandFlag;
-    boolean duplicateReadFlag;
-    boolean readUnmappedFlag;
-    boolean readPairedFlag;
-    boolean properPairFlag;
-    SAMRecord record;
+    private int flags;
     String cigarString;
-    String readSequence;
-    private boolean softClippedStart = false;
-    private boolean softClippedEnd = false;
-    private Strand firstReadStrand = Strand.NONE;
-    private Strand secondReadStrand = Strand.NONE;
-    boolean firstRead = false;
-    boolean secondRead = false;
+    PackedBases readBases;
     private String mateSequence = null;
     private String pairOrientation = "";
     private Color defaultColor = AlignmentRenderer.grey1;
     private String readGroup;
     private String library;
     private String sample;
+    private List<String> attributeTags = Collections.emptyList();
+    private Object[] attributeValues;
 
     static final int attributeTrimSize = PreferenceManager.getInstance().getAsInt(PreferenceManager.ATTRIBUTE_TRIM_SIZE);
     
@@ -94,9 +109,6 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
      */
     public SamAlignment(SAMRecord record) {
 
-        this.record = record;
-
-
         String refName = record.getReferenceName();
 
         Genome genome = Globals.isHeadless() ? null : IGV.getInstance().getGenomeManager().getCurrentGenome();
@@ -108,32 +120,26 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
         this.start = this.alignmentStart;   // might be modified later for soft clipping
         this.alignmentEnd = Math.max(alignmentStart, record.getAlignmentEnd());
         this.end = alignmentEnd;   // might be modified later for soft clipping
-        this.negativeStrand = record.getReadNegativeStrandFlag();
-        this.cigarString = record.getCigarString();
+        this.flags = record.getFlags();
+        this.cigarString = (String) dictionary.intern(record.getCigarString());
         this.setMappingQuality(record.getMappingQuality());
         this.readName = record.getReadName().trim();
-        this.readNegativeStrandFlag = record.getReadNegativeStrandFlag();
-        this.duplicateReadFlag = record.getDuplicateReadFlag();
-        this.readUnmappedFlag = record.getReadUnmappedFlag();
-        this.readPairedFlag = record.getReadPairedFlag();
         this.setInferredInsertSize(record.getInferredInsertSize());
-        this.readSequence = record.getReadString();
+        this.readBases = new PackedBases(record.getReadBases());
 
         setMatePair(record, genome);
         setPairOrientation(record);
-        setFirstReadStrand(record);
-        createAlignmentBlocks(record.getCigarString(), record.getReadBases(), record.getBaseQualities());
+        createAlignmentBlocks(cigarString, readBases, record.getBaseQualities());
+        setAttributes(record);
 
         SAMFileHeader header = record.getHeader();
         if (header != null) {
-            readGroup = (String) record.getAttribute("RG");
+            readGroup = (String) dictionary.intern(record.getAttribute("RG"));
             if (readGroup != null) {
                 SAMReadGroupRecord rgRec = header.getReadGroup(readGroup);
                 if (rgRec != null) {
-                    String platform = rgRec.getPlatform();
-                    sample = rgRec.getSample();
-                    library = rgRec.getLibrary();
-
+                    sample = (String) dictionary.intern(rgRec.getSample());
+                    library = (String) dictionary.intern(rgRec.getLibrary());
                 }
             }
         }
@@ -149,44 +155,72 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
         }
     }
 
-    private void setFirstReadStrand(SAMRecord record) {
-        if (!record.getReadPairedFlag()) {
-            firstReadStrand = (record.getReadNegativeStrandFlag() ? Strand.NEGATIVE : Strand.POSITIVE);
-        } else if (record.getProperPairFlag()) {
-            if (record.getFirstOfPairFlag()) {
-                firstReadStrand = (record.getReadNegativeStrandFlag() ? Strand.NEGATIVE : Strand.POSITIVE);
-                if (!record.getMateUnmappedFlag()) {
-                    secondReadStrand = (record.getMateNegativeStrandFlag() ? Strand.NEGATIVE : Strand.POSITIVE);
-                }
-            } else {
-                if (!record.getMateUnmappedFlag()) {
-                    firstReadStrand = (record.getMateNegativeStrandFlag() ? Strand.NEGATIVE : Strand.POSITIVE);
-                }
-                secondReadStrand = (record.getReadNegativeStrandFlag() ? Strand.NEGATIVE : Strand.POSITIVE);
+    private boolean getFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    private static Strand strand(boolean negative) {
+        return negative ? Strand.NEGATIVE : Strand.POSITIVE;
+    }
+
+    private Strand getFirstReadStrand() {
+        if (!getFlag(READ_PAIRED)) {
+            return strand(getFlag(READ_NEGATIVE_STRAND));
+        } else if (getFlag(PROPER_PAIR)) {
+            if (getFlag(FIRST_OF_PAIR)) {
+                return strand(getFlag(READ_NEGATIVE_STRAND));
+            } else if (!getFlag(MATE_UNMAPPED)) {
+                return strand(getFlag(MATE_NEGATIVE_STRAND));
+            }
+        }
+        return Strand.NONE;
+    }
+
+    private Strand getSecondReadStrand() {
+        if (getFlag(READ_PAIRED) && getFlag(PROPER_PAIR)) {
+            if (!getFlag(FIRST_OF_PAIR)) {
+                return strand(getFlag(READ_NEGATIVE_STRAND));
+            } else if (!getFlag(MATE_UNMAPPED)) {
+                return strand(getFlag(MATE_NEGATIVE_STRAND));
             }
         }
+        return Strand.NONE;
     }
 
     private void setMatePair(SAMRecord record, Genome genome) {
         if (record.getReadPairedFlag()) {
             String mateReferenceName = record.getMateReferenceName();
             String mateChr = genome == null ? mateReferenceName : genome.getChromosomeAlias(mateReferenceName);
-            this.properPairFlag = record.getProperPairFlag();
             this.setMate(new ReadMate(mateChr,
                     record.getMateAlignmentStart(),
                     record.getMateNegativeStrandFlag(),
                     record.getMateUnmappedFlag()));
-            this.firstRead = record.getFirstOfPairFlag();
-            this.secondRead = record.getSecondOfPairFlag();
         }
 
     }
 
-    private char[] tmp = new char[4];
+    /**
+     * Copy the optional fields.  The list of tag names is usually the same for every record of a file and is
+     * shared through the dictionary.
+     */
+    private void setAttributes(SAMRecord record) {
+        List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
+        if (attributes == null || attributes.isEmpty()) {
+            return;
+        }
+        String[] tags = new String[attributes.size()];
+        attributeValues = new Object[attributes.size()];
+        for (int i = 0; i < tags.length; i++) {
+            SAMRecord.SAMTagAndValue tag = attributes.get(i);
+            tags[i] = tag.tag;
+            attributeValues[i] = tag.value;
+        }
+        attributeTags = (List<String>) dictionary.intern(Arrays.asList(tags));
+    }
 
     private void setPairOrientation(SAMRecord record) {
         if (record.getReadPairedFlag() &&
-                !readUnmappedFlag &&
+                !record.getReadUnmappedFlag() &&
                 !record.getMateUnmappedFlag() &&
                 record.getReferenceName().equals(record.getMateReferenceName())) {
 
@@ -194,6 +228,7 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
             char s2 = record.getMateNegativeStrandFlag() ? 'R' : 'F';
             char o1 = ' ';
             char o2 = ' ';
+            char[] tmp = new char[4];
             if (record.getFirstOfPairFlag()) {
                 o1 = '1';
                 o2 = '2';
@@ -213,7 +248,7 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
                 tmp[0] = s2;
                 tmp[1] = o2;
             }
-            pairOrientation = new String(tmp);
+            pairOrientation = (String) dictionary.intern(new String(tmp));
         }
     }
 
@@ -225,38 +260,27 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
         this.alignmentStart = alignment.alignmentStart;
         this.alignmentEnd = alignment.alignmentEnd;
         this.end = alignment.end;
-        this.negativeStrand = alignment.negativeStrand;
+        this.flags = alignment.flags;
         this.mate = alignment.mate;
         this.alignmentBlocks = alignment.alignmentBlocks;
         this.insertions = alignment.insertions;
         this.cigarString = alignment.cigarString;
+        this.readBases = alignment.readBases;
+        this.attributeTags = alignment.attributeTags;
+        this.attributeValues = alignment.attributeValues;
         this.mappingQuality = alignment.mappingQuality;
         this.readName = alignment.readName;
-        this.readNegativeStrandFlag = alignment.readNegativeStrandFlag;
-        this.duplicateReadFlag = alignment.duplicateReadFlag;
-        this.readUnmappedFlag = alignment.readUnmappedFlag;
-        this.readPairedFlag = alignment.readPairedFlag;
         this.inferredInsertSize = alignment.inferredInsertSize;
-        this.properPairFlag = alignment.properPairFlag;
     }
     /**
      * Create the alignment blocks from the read bases and alignment information in the CIGAR
      * string.  The CIGAR string encodes insertions, deletions, skipped regions, and padding.
      *
      * @param cigarString
-     * @param readBases
-     * @param readBaseQualities
-     */
-    /**
-     * Create the alignment blocks from the read bases and alignment information in the CIGAR
-     * string.  The CIGAR string encodes insertions, deletions, skipped regions, and padding.
-     *
-     * @param cigarString
-     * @param readBases
-     * @param readBaseQualities
+     * @param readBases         packed bases of the whole read
+     * @param readBaseQualities qualities of the whole read,  shared by the blocks
      */
-
-    void createAlignmentBlocks(String cigarString, byte[] readBases, byte[] readBaseQualities) {
+    void createAlignmentBlocks(String cigarString, PackedBases readBases, byte[] readBaseQualities) {
 
         boolean showSoftClipped = PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_SHOW_SOFT_CLIPPED);
 
@@ -267,9 +291,14 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
         List<CigarOperator> operators = new ArrayList();
         StringBuffer buffer = new StringBuffer(4);
 
+        int readLength = readBases.length();
+        if (readBaseQualities != null && readBaseQualities.length < readLength) {
+            readBaseQualities = null;     // Missing ("*") or malformed,  blocks use the default quality
+        }
+
         if (cigarString.equals("*")) {
             alignmentBlocks = new AlignmentBlock[1];
-            alignmentBlocks[0] = new AlignmentBlock(getStart(), readBases, readBaseQualities);
+            alignmentBlocks[0] = new AlignmentBlock(getStart(), readBases, readBaseQualities, 0, readLength);
             return;
         }
 
@@ -341,33 +370,8 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
                 }
                 if (operatorIsMatch(showSoftClipped, op.operator)) {
 
-                    byte[] blockBases = new byte[op.nBases];
-                    byte[] blockQualities = new byte[op.nBases];
-
-
-                    //Default value
-                    Arrays.fill(blockQualities, (byte) 126);
-
-                    int nBasesAvailable = readBases.length - fromIdx;
-
-                    // TODO -- represent missing sequence ("*") explicitly for efficiency.
-                    if (readBases == null || readBases.length == 0) {
-                        Arrays.fill(blockBases, (byte) '=');
-                    } else if (nBasesAvailable < op.nBases) {
-                        Arrays.fill(blockBases, (byte) '?');
-                    } else {
-                        System.arraycopy(readBases, fromIdx, blockBases, 0, op.nBases);
-
-                    }
-
-                    nBasesAvailable = readBaseQualities.length - fromIdx;
-                    if (readBaseQualities == null || readBaseQualities.length == 0 || nBasesAvailable < op.nBases) {
-                        Arrays.fill(blockQualities, (byte) 126);
-                    } else {
-                        System.arraycopy(readBaseQualities, fromIdx, blockQualities, 0, op.nBases);
-                    }
-
-                    AlignmentBlock block = new AlignmentBlock(blockStart, blockBases, blockQualities);
+                    AlignmentBlock block = createBlock(blockStart, readBases, readBaseQualities, fromIdx, op.nBases,
+                            (byte) '?');
                     if (op.operator == SOFT_CLIP) {
                         block.setSoftClipped(true);
                     }
@@ -389,22 +393,8 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
                     // length gap but must be accounted for.
                     gapTypes[gapIdx++] = ZERO_GAP;
 
-                    byte[] blockBases = new byte[op.nBases];
-                    byte[] blockQualities = new byte[op.nBases];
-
-                    if (readBases == null || readBases.length == 0) {
-                        Arrays.fill(blockBases, (byte) '=');
-                    } else {
-                        System.arraycopy(readBases, fromIdx, blockBases, 0, op.nBases);
-                    }
-
-                    if (readBaseQualities == null || readBaseQualities.length == 0) {
-                        Arrays.fill(blockQualities, (byte) 126);
-                    } else {
-                        System.arraycopy(readBaseQualities, fromIdx, blockQualities, 0, op.nBases);
-                    }
-
-                    insertions[insertionIdx++] = new AlignmentBlock(blockStart, blockBases, blockQualities);
+                    insertions[insertionIdx++] = createBlock(blockStart, readBases, readBaseQualities, fromIdx,
+                            op.nBases, (byte) '?');
 
 
                     fromIdx += op.nBases;
@@ -427,6 +417,20 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
 
     }
 
+    /**
+     * Create a block viewing nBases of the read from fromIdx.  If the read is shorter than its cigar,  the
+     * block gets its own bases,  set to fillBase.
+     */
+    private static AlignmentBlock createBlock(int blockStart, PackedBases readBases, byte[] readBaseQualities,
+                                              int fromIdx, int nBases, byte fillBase) {
+        if (readBases.isMissing() || fromIdx + nBases <= readBases.length()) {
+            return new AlignmentBlock(blockStart, readBases, readBaseQualities, fromIdx, nBases);
+        }
+        byte[] blockBases = new byte[nBases];
+        Arrays.fill(blockBases, fillBase);
+        return new AlignmentBlock(blockStart, blockBases, null);
+    }
+
     private boolean operatorIsMatch(boolean showSoftClipped, char operator) {
         return operator == MATCH || operator == PERFECT_MATCH || operator == MISMATCH
                 || (showSoftClipped && operator == SOFT_CLIP);
@@ -438,23 +442,29 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
     }
 
     public boolean isNegativeStrand() {
-        return readNegativeStrandFlag;
+        return getFlag(READ_NEGATIVE_STRAND);
     }
 
     public boolean isDuplicate() {
-        return duplicateReadFlag;
+        return getFlag(DUPLICATE);
     }
 
     public boolean isMapped() {
-        return !readUnmappedFlag;
+        return !getFlag(READ_UNMAPPED);
     }
 
     public boolean isPaired() {
-        return readPairedFlag;
+        return getFlag(READ_PAIRED);
     }
 
     public boolean isProperPair() {
-        return properPairFlag;
+        return isPaired() && getFlag(PROPER_PAIR);
+    }
+
+    @Override
+    public boolean isSmallInsert() {
+        int absISize = Math.abs(getInferredInsertSize());
+        return absISize > 0 && absISize <= readBases.length();
     }
 
 
@@ -487,7 +497,7 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
     }
 
     public String getReadSequence() {
-        return readSequence;
+        return readBases.toString();
     }
 
     /**
@@ -515,20 +525,6 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
         this.alignmentEnd = end;
     }
 
-    /**
-     * @return the softClippedStart
-     */
-    public boolean isSoftClippedStart() {
-        return softClippedStart;
-    }
-
-    /**
-     * @return the softClippedEnd
-     */
-    public boolean isSoftClippedEnd() {
-        return softClippedEnd;
-    }
-
     public String getSample() {
         return sample;
     }
@@ -541,9 +537,13 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
         return library;
     }
 
+    /**
+     * @return the leading fields of the SAM record
+     */
     @Override
     public String toString() {
-        return record.format();
+        return readName + "\t" + flags + "\t" + chr + "\t" + (alignmentStart + 1) + "\t" + mappingQuality + "\t" +
+                cigarString;
     }
 
     @Override
@@ -552,11 +552,12 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
     }
 
     public Strand getFragmentStrand(int strand) {
-        return strand == 1 ? firstReadStrand : secondReadStrand;
+        return strand == 1 ? getFirstReadStrand() : getSecondReadStrand();
     }
 
     public Object getAttribute(String key) {
-        return record.getAttribute(key);
+        int idx = attributeTags.indexOf(key);
+        return idx < 0 ? null : attributeValues[idx];
     }
 
 
@@ -580,31 +581,30 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
         StringBuffer buf = new StringBuffer(super.getValueString(position, null));
 
         if (isPaired()) {
-            if (record.getFirstOfPairFlag()) {
+            if (getFlag(FIRST_OF_PAIR)) {
                 buf.append("<br>First in pair");
             }
-            if (record.getSecondOfPairFlag()) {
+            if (getFlag(SECOND_OF_PAIR)) {
                 buf.append("<br>Second in pair");
             }
-            if (record.getNotPrimaryAlignmentFlag()) {
+            if (getFlag(NOT_PRIMARY)) {
                 buf.append("<br>Alignment NOT primary");
             }
-            if (record.getReadFailsVendorQualityCheckFlag()) {
+            if (getFlag(FAILS_VENDOR_QUALITY_CHECK)) {
                 buf.append("<br>FAILED Vendor Quality Check");
             }
             buf.append("<br>-------------------");
         }
 
-        List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
-        if (attributes != null && !attributes.isEmpty()) {
+        if (!attributeTags.isEmpty()) {
 
-            for (SAMRecord.SAMTagAndValue tag : attributes) {
-                String tagValue = tag.value.toString();
+            for (int i = 0; i < attributeTags.size(); i++) {
+                String tagValue = attributeValues[i].toString();
                 if(tagValue.length() > attributeTrimSize && truncate) {
                    tagValue = tagValue.substring(0, attributeTrimSize) + "...";
                 }
 
-                buf.append("<br>" + tag.tag + " = " + tagValue);
+                buf.append("<br>" + attributeTags.get(i) + " = " + tagValue);
             }
             buf.append("<br>-------------------");
         }
@@ -617,7 +617,7 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
     }
 
     public boolean isFirstInPair() {
-        return record.getFirstOfPairFlag();
+        return isPaired() && getFlag(FIRST_OF_PAIR);
     }
 
     @Override
@@ -634,7 +634,7 @@ public class SamAlignment extends AbstractAlignment implements Alignment {
     }
 
     public boolean isVendorFailedRead() {
-        return record.getReadFailsVendorQualityCheckFlag();
+        return getFlag(FAILS_VENDOR_QUALITY_CHECK);
     }
 
     public Color getDefaultColor() {
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.sam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMReadGroupRecord;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Strand;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SamAlignmentTest {
+
+    static final int READ_LENGTH = 100;
+    static final byte[] NUCLEOTIDES = {'A', 'C', 'G', 'T'};
+
+    @BeforeClass
+    public static void setUp() {
+        Globals.setHeadless(true);
+    }
+
+    @Test
+    public void testDecodedAlignmentsMatchRecords() {
+        SAMFileHeader header = createHeader();
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            SAMRecord record = simulate(header, random, i);
+            verify(record, new SamAlignment(record));
+        }
+    }
+
+    @Test
+    public void testInsertionIsNotAligned() {
+        SAMFileHeader header = createHeader();
+        SAMRecord record = simulate(header, new Random(2), 0);
+        record.setAlignmentStart(1001);
+        record.setCigarString("50M2I48M");
+
+        SamAlignment alignment = new SamAlignment(record);
+        AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+        assertEquals(2, blocks.length);
+        assertEquals(1000, blocks[0].getStart());
+        assertEquals(50, blocks[0].getLength());
+        assertEquals(1050, blocks[1].getStart());
+        assertEquals(48, blocks[1].getLength());
+        assertEquals(1098, alignment.getAlignmentEnd());
+        verify(record, alignment);
+    }
+
+    static SAMFileHeader createHeader() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 100000000));
+        for (int i = 0; i < 4; i++) {
+            SAMReadGroupRecord rg = new SAMReadGroupRecord("rg" + i);
+            rg.setSample("sample" + i);
+            rg.setLibrary("library" + i);
+            header.addReadGroup(rg);
+        }
+        return header;
+    }
+
+    /**
+     * A 100 bp paired read with typical optional fields,  every tenth read soft clipped and with an insertion
+     */
+    static SAMRecord simulate(SAMFileHeader header, Random random, int i) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName("SIM:1:" + i);
+        record.setReferenceName("chr1");
+        record.setAlignmentStart(1 + random.nextInt(10000000));
+        record.setReadPairedFlag(true);
+        record.setProperPairFlag(true);
+        record.setFirstOfPairFlag(i % 2 == 0);
+        record.setSecondOfPairFlag(i % 2 != 0);
+        record.setReadNegativeStrandFlag(random.nextBoolean());
+        record.setMateReferenceName("chr1");
+        record.setMateAlignmentStart(record.getAlignmentStart() + 300);
+        record.setInferredInsertSize(400);
+        record.setMappingQuality(60);
+
+        byte[] bases = new byte[READ_LENGTH];
+        byte[] qualities = new byte[READ_LENGTH];
+        for (int j = 0; j < READ_LENGTH; j++) {
+            bases[j] = random.nextInt(200) == 0 ? (byte) 'N' : NUCLEOTIDES[random.nextInt(4)];
+            qualities[j] = (byte) (2 + random.nextInt(39));
+        }
+        record.setReadBases(bases);
+        record.setBaseQualities(qualities);
+        record.setCigarString(i % 10 == 0 ? "5S45M2I48M" : "100M");
+        record.setAttribute("RG", "rg" + (i % 4));
+        record.setAttribute("NM", 1);
+        record.setAttribute("MD", "" + random.nextInt(100) + "A" + random.nextInt(100));
+        return record;
+    }
+
+    static void verify(SAMRecord record, SamAlignment alignment) {
+        String name = record.getReadName();
+        assertEquals(name, record.getReadString(), alignment.getReadSequence());
+        assertEquals(name, record.getAlignmentStart() - 1, alignment.getAlignmentStart());
+        assertEquals(name, record.getReadNegativeStrandFlag(), alignment.isNegativeStrand());
+        assertEquals(name, record.getMappingQuality(), alignment.getMappingQuality());
+
+        // Compare each block with the matching block of the record,  the blocks are in the same order
+        AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+        int blockIdx = 0;
+        for (net.sf.samtools.AlignmentBlock expected : record.getAlignmentBlocks()) {
+            AlignmentBlock block = blocks[blockIdx++];
+            assertEquals(name, expected.getReferenceStart() - 1, block.getStart());
+            assertEquals(name, expected.getLength(), block.getLength());
+            for (int i = 0; i < block.getLength(); i++) {
+                int readIdx = expected.getReadStart() - 1 + i;
+                assertEquals(name + " base " + readIdx, record.getReadBases()[readIdx], block.getBase(i));
+                assertEquals(name + " quality " + readIdx, record.getBaseQualities()[readIdx], block.getQuality(i));
+            }
+        }
+
+        String rg = (String) record.getAttribute("RG");
+        assertEquals(name, record.getAttribute("MD"), alignment.getAttribute("MD"));
+        assertEquals(name, rg, alignment.getReadGroup());
+        assertEquals(name, record.getHeader().getReadGroup(rg).getSample(), alignment.getSample());
+        assertEquals(name, record.getHeader().getReadGroup(rg).getLibrary(), alignment.getLibrary());
+        assertTrue(name, alignment.getFragmentStrand(1) != Strand.NONE);
+    }
+}
@@ -24,10 +24,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.PreferenceManager;
@@ -37,6 +35,10 @@ import org.broad.igv.feature.Strand;
 
 /**
  * A helper class for computing splice junctions from alignments.
+ * <p/>
+ * An instance accumulates the junctions of the alignments added to it.  CachingQueryReader keeps one per tile,
+ * counting the junctions that start in the tile,  so each junction is owned by exactly one tile and the junctions of
+ * an interval are the union of those of its tiles.
  *
  * dhmay 20111014 moving min junction coverage and min alignment flanking width references to preferences
  *
@@ -47,100 +49,53 @@ public class SpliceJunctionHelper {
 
     static Logger log = Logger.getLogger(SpliceJunctionHelper.class);
 
+    private final int start;
+    private final int end;
+    private final int minReadFlankingWidth;
 
-    public static List<SpliceJunctionFeature> computeFeatures(Iterator<Alignment> iterator) throws IOException {
-
-        List<SpliceJunctionFeature> spliceJunctionFeatures = new ArrayList<SpliceJunctionFeature>();
+    //we need to keep the positive and negative strand junctions separate, since
+    //they don't represent the same thing and are rendered separately
+    private final JunctionMap posJunctions = new JunctionMap();
+    private final JunctionMap negJunctions = new JunctionMap();
 
+    public SpliceJunctionHelper() {
+        this(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
 
-        //we need to keep the positive and negative strand junctions separate, since
-        //they don't represent the same thing and are rendered separately
-        Map<Integer, Map<Integer, SpliceJunctionFeature>> posStartEndJunctionsMap =
-                new HashMap<Integer, Map<Integer, SpliceJunctionFeature>>();
-        Map<Integer, Map<Integer, SpliceJunctionFeature>> negStartEndJunctionsMap =
-                new HashMap<Integer, Map<Integer, SpliceJunctionFeature>>();
-
+    /**
+     * @param start start of the range of junction starts counted
+     * @param end   end (exclusive) of the range of junction starts counted
+     */
+    public SpliceJunctionHelper(int start, int end) {
+        this.start = start;
+        this.end = end;
         //dhmay adding after this was moved from track level to global
-        PreferenceManager prefs = PreferenceManager.getInstance();
-        int minJunctionCoverage = prefs.getAsInt(PreferenceManager.SAM_JUNCTION_MIN_COVERAGE);
-        int minReadFlankingWidth = prefs.getAsInt(PreferenceManager.SAM_JUNCTION_MIN_FLANKING_WIDTH);
+        minReadFlankingWidth = PreferenceManager.getInstance().getAsInt(PreferenceManager.SAM_JUNCTION_MIN_FLANKING_WIDTH);
+    }
 
 
+    public static List<SpliceJunctionFeature> computeFeatures(Iterator<Alignment> iterator) throws IOException {
+        SpliceJunctionHelper helper = new SpliceJunctionHelper();
         while (iterator.hasNext()) {
-            //Any alignment with 2 or more blocks is considered to be a splice junction
-            Alignment alignmentFromIterator = iterator.next();
-
-            //This is an odd bit of code.  If alignmentFromIterator is a paired alignment, then we actually need
-            //to do the processing separately on each of the paired alignments.  Otherwise, we need to process
-            //alignmentFromIterator, itself.
-            List<Alignment> alignmentsRepresentedByThisAlignment = new ArrayList<Alignment>();
-            if (alignmentFromIterator instanceof PairedAlignment) {
-                PairedAlignment alAsPair = (PairedAlignment) alignmentFromIterator;
-                if (alAsPair.getFirstAlignment() != null)
-                    alignmentsRepresentedByThisAlignment.add(alAsPair.getFirstAlignment());
-                if (alAsPair.getSecondAlignment() != null)
-                    alignmentsRepresentedByThisAlignment.add(alAsPair.getSecondAlignment());
-            }
-            else alignmentsRepresentedByThisAlignment.add(alignmentFromIterator);
-
-            for (Alignment alignment : alignmentsRepresentedByThisAlignment) {
-                AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
-                if (blocks.length < 2)
-                    continue;
-
-                //there may be other ways in which this is indicated. May have to code for them later
-                boolean isNegativeStrand = false;
-                Object strandAttr = alignment.getAttribute("XS");
-                if (strandAttr != null)
-                    isNegativeStrand = strandAttr.toString().charAt(0) == '-';
-
-                Map<Integer, Map<Integer, SpliceJunctionFeature>> startEndJunctionsMapThisStrand =
-                        isNegativeStrand ? negStartEndJunctionsMap : posStartEndJunctionsMap;
-
-                int flankingStart = -1;
-                int junctionStart = -1;
-                int gapCount = -1;
-                char[] gapTypes = alignment.getGapTypes();
-                //for each pair of blocks, create or add evidence to a splice junction
-                for (AlignmentBlock block : blocks) {
-                    int flankingEnd = block.getEnd();
-                    int junctionEnd = block.getStart();
-                    if (junctionStart != -1 && gapCount < gapTypes.length && gapTypes[gapCount] == SamAlignment.SKIPPED_REGION) {
-                        //only proceed if the flanking regions are both bigger than the minimum
-                        if (minReadFlankingWidth == 0 ||
-                                ((junctionStart - flankingStart >= minReadFlankingWidth) &&
-                                        (flankingEnd - junctionEnd >= minReadFlankingWidth))) {
-                            Map<Integer, SpliceJunctionFeature> endJunctionsMap =
-                                    startEndJunctionsMapThisStrand.get(junctionStart);
-                            if (endJunctionsMap == null) {
-                                endJunctionsMap = new HashMap<Integer, SpliceJunctionFeature>();
-                                startEndJunctionsMapThisStrand.put(junctionStart, endJunctionsMap);
-                            }
-                            SpliceJunctionFeature junction = endJunctionsMap.get(junctionEnd);
-                            if (junction == null) {
-                                junction = new SpliceJunctionFeature(alignment.getChr(), junctionStart, junctionEnd,
-                                        isNegativeStrand ? Strand.NEGATIVE : Strand.POSITIVE);
-                                endJunctionsMap.put(junctionEnd, junction);
-                                spliceJunctionFeatures.add(junction);
-                            }
-                            junction.addRead(flankingStart, flankingEnd);
-                        }
-                    }
-                    flankingStart = junctionEnd;
-                    junctionStart = flankingEnd;
-                    gapCount += 1;
-                }
-            }
+            helper.addAlignment(iterator.next());
         }
+        return combineFeatures(Collections.singletonList(helper), Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
 
-        //get rid of any features without enough coverage
-        if (minJunctionCoverage > 1) {
-            List<SpliceJunctionFeature> coveredFeatures =
-                    new ArrayList<SpliceJunctionFeature>(spliceJunctionFeatures.size());
-            for (SpliceJunctionFeature feature : spliceJunctionFeatures)
-                if (feature.getJunctionDepth() >= minJunctionCoverage)
-                    coveredFeatures.add(feature);
-            spliceJunctionFeatures = coveredFeatures;
+    /**
+     * Combine the junctions of several helpers,  e.g. of the tiles of an interval,  dropping junctions without
+     * enough coverage or outside [start, end).
+     *
+     * @return the junctions sorted by increasing start of the start flanking region
+     */
+    public static List<SpliceJunctionFeature> combineFeatures(List<SpliceJunctionHelper> helpers, int start, int end) {
+
+        int minJunctionCoverage = PreferenceManager.getInstance().getAsInt(PreferenceManager.SAM_JUNCTION_MIN_COVERAGE);
+
+        List<SpliceJunctionFeature> spliceJunctionFeatures = new ArrayList<SpliceJunctionFeature>();
+        for (SpliceJunctionHelper helper : helpers) {
+            helper.addFeatures(helper.posJunctions, minJunctionCoverage, start, end, spliceJunctionFeatures);
+            helper.addFeatures(helper.negJunctions, minJunctionCoverage, start, end, spliceJunctionFeatures);
         }
 
         //Sort by increasing beginning of start flanking region, as required by the renderer
@@ -150,9 +105,143 @@ public class SpliceJunctionHelper {
             }
         });
 
-
         return spliceJunctionFeatures;
+    }
+
+    private synchronized void addFeatures(JunctionMap junctions, int minJunctionCoverage, int start, int end,
+                                          List<SpliceJunctionFeature> features) {
+        for (SpliceJunctionFeature junction : junctions.values) {
+            if (junction != null && junction.getJunctionDepth() >= minJunctionCoverage &&
+                    junction.getJunctionEnd() > start && junction.getJunctionStart() < end) {
+                features.add(junction);
+            }
+        }
+    }
 
+    /**
+     * Add the junctions of an alignment,  or of both alignments of a pair.
+     */
+    public synchronized void addAlignment(Alignment alignment) {
+
+        //This is an odd bit of code.  If alignment is a paired alignment, then we actually need
+        //to do the processing separately on each of the paired alignments.
+        if (alignment instanceof PairedAlignment) {
+            PairedAlignment alAsPair = (PairedAlignment) alignment;
+            if (alAsPair.getFirstAlignment() != null)
+                addAlignment(alAsPair.getFirstAlignment());
+            if (alAsPair.getSecondAlignment() != null)
+                addAlignment(alAsPair.getSecondAlignment());
+            return;
+        }
+
+        //Any alignment with 2 or more blocks is considered to be a splice junction
+        AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+        if (blocks == null || blocks.length < 2)
+            return;
+
+        char[] gapTypes = alignment.getGapTypes();
+        if (gapTypes == null)
+            return;
+
+        //there may be other ways in which this is indicated. May have to code for them later
+        boolean isNegativeStrand = false;
+        Object strandAttr = alignment.getAttribute("XS");
+        if (strandAttr != null)
+            isNegativeStrand = strandAttr.toString().charAt(0) == '-';
+        JunctionMap junctions = isNegativeStrand ? negJunctions : posJunctions;
+
+        int flankingStart = -1;
+        int junctionStart = -1;
+        int gapCount = -1;
+        //for each pair of blocks, create or add evidence to a splice junction
+        for (AlignmentBlock block : blocks) {
+            int flankingEnd = block.getEnd();
+            int junctionEnd = block.getStart();
+            if (junctionStart != -1 && gapCount < gapTypes.length && gapTypes[gapCount] == SamAlignment.SKIPPED_REGION &&
+                    junctionStart >= start && junctionStart < end) {
+                //only proceed if the flanking regions are both bigger than the minimum
+                if (minReadFlankingWidth == 0 ||
+                        ((junctionStart - flankingStart >= minReadFlankingWidth) &&
+                                (flankingEnd - junctionEnd >= minReadFlankingWidth))) {
+
+                    SpliceJunctionFeature junction = junctions.get(junctionStart, junctionEnd);
+                    if (junction == null) {
+                        junction = new SpliceJunctionFeature(alignment.getChr(), junctionStart, junctionEnd,
+                                isNegativeStrand ? Strand.NEGATIVE : Strand.POSITIVE);
+                        junctions.put(junctionStart, junctionEnd, junction);
+                    }
+                    junction.addRead(flankingStart, flankingEnd);
+                }
+            }
+            flankingStart = junctionEnd;
+            junctionStart = flankingEnd;
+            gapCount += 1;
+        }
+    }
+
+    /**
+     * Open addressing map from a (junction start, junction end) pair,  packed in a long,  to the junction.
+     */
+    static class JunctionMap {
+
+        private long[] keys = new long[16];
+        SpliceJunctionFeature[] values = new SpliceJunctionFeature[16];
+        private int size = 0;
+
+        SpliceJunctionFeature get(int junctionStart, int junctionEnd) {
+            long key = key(junctionStart, junctionEnd);
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(int junctionStart, int junctionEnd, SpliceJunctionFeature junction) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            insert(key(junctionStart, junctionEnd), junction);
+        }
+
+        private void insert(long key, SpliceJunctionFeature junction) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    values[i] = junction;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = junction;
+            size++;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            SpliceJunctionFeature[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new SpliceJunctionFeature[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static long key(int junctionStart, int junctionEnd) {
+            return ((long) junctionStart << 32) | (junctionEnd & 0xFFFFFFFFL);
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
     }
 
 }
@@ -47,6 +47,8 @@ import org.broad.igv.sam.Alignment;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.util.HttpUtils;
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.stream.RemoteFileCache;
+import org.broad.igv.util.stream.SeekableCachedStream;
 import org.broad.igv.util.stream.SeekablePicardFtpStream;
 import org.broad.igv.util.stream.SeekablePicardHTTPStream;
 
@@ -56,6 +58,9 @@ import org.broad.igv.util.stream.SeekablePicardHTTPStream;
  * Date: Sep 22, 2009
  * Time: 2:21:04 PM
  * To change this template use File | Settings | File Templates.
+ * <p/>
+ * If the disk cache is enabled (SAM.DISK_CACHE) the index and the pages of the file read over http(s) are kept in
+ * the {@link RemoteFileCache},  keyed by the url and the file's ETag or length.
  */
 public class BAMHttpQueryReader implements AlignmentQueryReader {
 
@@ -67,10 +72,14 @@ public class BAMHttpQueryReader implements AlignmentQueryReader {
     SAMFileHeader header;
     File indexFile;
     SAMFileReader reader;
+    RemoteFileCache diskCache;
+    String cacheKey;
+    long contentLength;
 
     public BAMHttpQueryReader(ResourceLocator locator, boolean requireIndex) throws IOException {
         this.url = new URL(locator.getPath());
         if (requireIndex) {
+            initDiskCache();
             indexFile = getIndexFile(url, locator.getIndexPath());
             if(indexFile == null) {
                 throw new RuntimeException("Could not load index file for file: " + url.getPath());
@@ -88,6 +97,31 @@ public class BAMHttpQueryReader implements AlignmentQueryReader {
         if (reader != null) {
             reader.close();
         }
+        if (diskCache != null) {
+            log.info(diskCache.getStatistics());
+        }
+    }
+
+    /**
+     * Use the disk cache if it is enabled and the file has a validator,  an ETag or at least a length,  which
+     * changes when the file is replaced.
+     */
+    private void initDiskCache() {
+        RemoteFileCache cache = RemoteFileCache.getInstance();
+        String protocol = url.getProtocol().toLowerCase();
+        if (cache == null || !(protocol.equals("http") || protocol.equals("https"))) {
+            return;
+        }
+        try {
+            contentLength = HttpUtils.getInstance().getContentLength(url);
+            String etag = HttpUtils.getInstance().getETag(url);
+            if (contentLength > 0) {
+                cacheKey = RemoteFileCache.getKey(url.toString(), etag != null ? etag : String.valueOf(contentLength));
+                diskCache = cache;
+            }
+        } catch (IOException e) {
+            log.error("Error checking " + url + ",  disk cache not used", e);
+        }
     }
 
     public SAMFileHeader getHeader() {
@@ -162,6 +196,9 @@ public class BAMHttpQueryReader implements AlignmentQueryReader {
         } else {
             throw new RuntimeException("Unknown protocol: " + protocol);
         }
+        if (diskCache != null) {
+            is = new SeekableCachedStream(is, diskCache, cacheKey, contentLength);
+        }
         return is;
     }
 
@@ -172,6 +209,25 @@ public class BAMHttpQueryReader implements AlignmentQueryReader {
 
         String urlString = url.toString();
 
+        if (diskCache != null) {
+            File cachedIndex = diskCache.getFile(cacheKey, "index.bai");
+            if (cachedIndex == null) {
+                File tmpFile = diskCache.createTempFile();
+                boolean loaded = false;
+                try {
+                    loadIndexFile(urlString, indexPath, tmpFile);
+                    loaded = true;
+                } finally {
+                    if (!loaded) {
+                        tmpFile.delete();
+                    }
+                }
+                cachedIndex = diskCache.putFile(cacheKey, "index.bai", tmpFile);
+            }
+            indexFile = cachedIndex;
+            return indexFile;
+        }
+
         // Create a filename unique for this url;
         String idxFilename = getTmpIndexFilename(urlString);
 
@@ -22,6 +22,8 @@
  */
 package org.broad.igv.sam.reader;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -44,8 +46,15 @@ import org.broad.igv.sam.Alignment;
 import org.broad.igv.sam.SamAlignment;
 import org.broad.igv.util.HttpUtils;
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.stream.RemoteFileCache;
 
 /**
+ * Reader for alignments served by the IGV server query API.
+ * <p/>
+ * If the disk cache is enabled (SAM.DISK_CACHE) query responses are kept in the {@link RemoteFileCache}.  The
+ * service has no validator for the underlying file,  so the key is derived from the header text.  A rewritten
+ * file almost always has a new header (e.g. the @PG lines),  and its stale entries age out of the cache.
+ *
  * @author jrobinso
  */
 public class BAMRemoteQueryReader implements AlignmentQueryReader {
@@ -54,15 +63,20 @@ public class BAMRemoteQueryReader implements AlignmentQueryReader {
     String serverURL;
     String file;
     SAMFileHeader header;
+    RemoteFileCache diskCache;
+    String cacheKey;
 
     public BAMRemoteQueryReader(ResourceLocator locator) {
         this.serverURL = locator.getServerURL();
         this.file = locator.getPath();
+        diskCache = RemoteFileCache.getInstance();
         loadHeader();
     }
 
     public void close() throws IOException {
-        // Nothing to do
+        if (diskCache != null) {
+            log.info(diskCache.getStatistics());
+        }
     }
 
     public boolean hasIndex() {
@@ -74,7 +88,22 @@ public class BAMRemoteQueryReader implements AlignmentQueryReader {
         try {
             URL url = new URL(serverURL + "?method=samQuery&samFile=" + file + "&chr=" +
                     chr + "&start=" + start + "&end=" + end + "&contained=" + contained);
-            InputStream is = HttpUtils.getInstance().openConnectionStream(url);
+            InputStream is;
+            if (diskCache != null) {
+                if (cacheKey == null) {
+                    // The key is derived from the header
+                    getHeader();
+                }
+                String name = RemoteFileCache.getKey(chr + ":" + start + "-" + end, String.valueOf(contained));
+                byte[] response = diskCache.get(cacheKey, name);
+                if (response == null) {
+                    response = readResponse(url);
+                    diskCache.put(cacheKey, name, response);
+                }
+                is = new ByteArrayInputStream(response);
+            } else {
+                is = HttpUtils.getInstance().openConnectionStream(url);
+            }
             return new RemoteQueryIterator(new GZIPInputStream(is, 8192));
 
         } catch (IOException ex) {
@@ -83,6 +112,24 @@ public class BAMRemoteQueryReader implements AlignmentQueryReader {
         }
     }
 
+    /**
+     * Read a complete (compressed) query response.
+     */
+    private byte[] readResponse(URL url) throws IOException {
+        InputStream is = HttpUtils.getInstance().openConnectionStream(url);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[64000];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            return bytes.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
     public SAMFileHeader getHeader() {
         if (header == null) {
             loadHeader();
@@ -109,26 +156,22 @@ public class BAMRemoteQueryReader implements AlignmentQueryReader {
     }
 
     private void loadHeader() {
-        InputStream is = null;
         try {
             URL url = new URL(serverURL + "?method=samHeader&samFile=" + file);
-            is = HttpUtils.getInstance().openConnectionStream(url);
+            byte[] headerBytes = readResponse(url);
 
-            LineReader reader =  new BufferedLineReader(is);
+            LineReader reader =  new BufferedLineReader(new ByteArrayInputStream(headerBytes));
             SAMTextHeaderCodec codec = new SAMTextHeaderCodec();
             header = codec.decode(reader, null);
 
+            if (diskCache != null) {
+                String validator = RemoteFileCache.getKey(new String(headerBytes, "UTF-8"), "");
+                cacheKey = RemoteFileCache.getKey(serverURL + "?samFile=" + file, validator);
+            }
+
         } catch (IOException ex) {
             log.error("Error opening file", ex);
             throw new RuntimeException(ex);
-        } finally {
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException ex) {
-                    log.error("Error closing url stream", ex);
-                }
-            }
         }
     }
 
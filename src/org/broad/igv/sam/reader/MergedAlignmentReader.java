@@ -25,24 +25,69 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.util.CloseableIterator;
 
+import org.apache.log4j.Logger;
 import org.broad.igv.sam.Alignment;
 
 
 /**
  * Performs a logical merge of bam files
+ * <p/>
+ * Queries are issued to all readers concurrently,  at most MAX_THREADS reading at once,  each reader feeding the
+ * merge through a buffer of at most two chunks of records.  A reader that takes longer than QUERY_TIMEOUT_SECONDS
+ * to deliver a chunk,  counted from when its read actually starts,  is dropped from the merge with a warning rather
+ * than stalling it.  A query that dropped a reader reports itself incomplete,  see ConcurrentQueryIterator.isComplete().
+ * Batch tools,  which must not lose data,  construct the reader without a timeout.
  * User: jrobinso
  * Date: Apr 25, 2010
  */
 public class MergedAlignmentReader implements AlignmentQueryReader {
 
+    private static Logger log = Logger.getLogger(MergedAlignmentReader.class);
+
+    private static final int MAX_THREADS = 8;
+    private static final int CHUNK_SIZE = 1000;
+    private static final int QUERY_TIMEOUT_SECONDS = 60;
+
+    // Reads hold a permit,  queued fetches wait for one on their own thread.  The permit of a read that timed out is
+    // handed back when it is abandoned,  so a reader that never returns does not use up the pool.
+    private static final Semaphore queryPermits = new Semaphore(MAX_THREADS);
+
+    private static ExecutorService queryExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "MergedAlignmentQuery");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     Collection<AlignmentQueryReader> readers;
+    int queryTimeoutSeconds;
 
     public MergedAlignmentReader(Collection<AlignmentQueryReader> readers) {
+        this(readers, QUERY_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @param queryTimeoutSeconds how long a reader may take to deliver a chunk before it is dropped from the merge,
+     *                            0 to wait as long as it takes
+     */
+    public MergedAlignmentReader(Collection<AlignmentQueryReader> readers, int queryTimeoutSeconds) {
         this.readers = readers;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
     }
 
     public CloseableIterator<Alignment> iterator() {
@@ -50,7 +95,7 @@ public class MergedAlignmentReader implements AlignmentQueryReader {
     }
 
     public CloseableIterator<Alignment> query(String chr, int start, int end, boolean contained) throws IOException {
-        return new MergedFileIterator(chr, start, end, contained);
+        return new ConcurrentQueryIterator(chr, start, end, contained);
     }
 
     public void close() throws IOException {
@@ -96,17 +141,6 @@ public class MergedAlignmentReader implements AlignmentQueryReader {
             }
         }
 
-        public MergedFileIterator(String chr, int start, int end, boolean contained) throws IOException {
-            iteratorQueue = new PriorityQueue(readers.size(), new FooComparator());
-            for (AlignmentQueryReader reader : readers) {
-                CloseableIterator<Alignment> iter = reader.query(chr, start, end, contained);
-                allIterators.add(iter);
-                if (iter.hasNext()) {
-                    iteratorQueue.add(new RecordIterWrapper(iter));
-                 }
-            }
-        }
-
         public boolean hasNext() {
             return iteratorQueue.size() > 0;
         }
@@ -161,11 +195,248 @@ public class MergedAlignmentReader implements AlignmentQueryReader {
                 }
             }
         }
+    }
+
+
+    /**
+     * Merges the results of concurrent queries,  ordered by alignment start.
+     */
+    public class ConcurrentQueryIterator implements PartialResultIterator {
+
+        List<QuerySource> sources = new ArrayList();
+        PriorityQueue<QuerySource> sourceQueue;
+        boolean complete = true;
+
+        public ConcurrentQueryIterator(String chr, int start, int end, boolean contained) {
+
+            // Fan out.  All queries start before we wait on any of them.
+            for (AlignmentQueryReader reader : readers) {
+                QuerySource source = new QuerySource(reader, chr, start, end, contained, queryTimeoutSeconds);
+                sources.add(source);
+                source.fetchNextChunk();
+            }
+
+            sourceQueue = new PriorityQueue(Math.max(1, sources.size()), new Comparator<QuerySource>() {
+                public int compare(QuerySource source, QuerySource source1) {
+                    return source.nextRecord.getAlignmentStart() - source1.nextRecord.getAlignmentStart();
+                }
+            });
+
+            for (QuerySource source : sources) {
+                source.advance();
+                if (source.nextRecord != null) {
+                    sourceQueue.add(source);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return sourceQueue.size() > 0;
+        }
+
+        public Alignment next() {
+            QuerySource source = sourceQueue.poll();
+            Alignment next = source.nextRecord;
+            source.advance();
+            if (source.nextRecord != null) {
+                sourceQueue.add(source);
+            }
+            return next;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Remove not implemented");
+        }
+
+        /**
+         * Return false if any reader was dropped from the merge because it timed out or failed,  in which case the
+         * records returned are missing that reader's alignments and should not be cached.
+         */
+        public boolean isComplete() {
+            if (!complete) {
+                return false;
+            }
+            for (QuerySource source : sources) {
+                if (source.failed) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void close() {
+            for (QuerySource source : sources) {
+                source.close();
+            }
+            complete = isComplete();
+            sources.clear();
+            sourceQueue.clear();
+        }
+    }
+
+    /**
+     * One reader's contribution to a concurrent query.  Records are read on the query executor a chunk at a time,
+     * the next chunk is requested as soon as the consumer starts on the current one.  At most one fetch is in
+     * flight per source,  so the underlying iterator is never used by two threads at once,  and no pool thread
+     * blocks waiting on the consumer.
+     */
+    static class QuerySource {
+
+        final AlignmentQueryReader reader;
+        final String chr;
+        final int start;
+        final int end;
+        final boolean contained;
+        final int timeoutSeconds;
+
+        private CloseableIterator<Alignment> iterator;
+        private boolean exhausted = false;
+        private volatile boolean closed = false;
+        private boolean fetching = false;     // guarded by this
+
+        private Future<List<Alignment>> pendingChunk;
+        private AtomicBoolean pendingPermit;          // true while the pending fetch holds a query permit
+        private volatile long fetchStartedAt;        // 0 while the pending fetch is waiting for a permit
+        private List<Alignment> chunk;
+        private int chunkIndex;
+        Alignment nextRecord;
+        boolean failed = false;
+
+        QuerySource(AlignmentQueryReader reader, String chr, int start, int end, boolean contained,
+                    int timeoutSeconds) {
+            this.reader = reader;
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+            this.contained = contained;
+            this.timeoutSeconds = timeoutSeconds;
+        }
+
+        void fetchNextChunk() {
+            synchronized (this) {
+                fetching = true;
+            }
+            final AtomicBoolean permit = new AtomicBoolean(false);
+            pendingPermit = permit;
+            fetchStartedAt = 0;
+            pendingChunk = queryExecutor.submit(new Callable<List<Alignment>>() {
+                public List<Alignment> call() throws Exception {
+                    try {
+                        if (closed) {
+                            return null;
+                        }
+                        queryPermits.acquire();
+                        permit.set(true);
+                        fetchStartedAt = System.currentTimeMillis();
+                        if (iterator == null) {
+                            iterator = reader.query(chr, start, end, contained);
+                        }
+                        List<Alignment> records = new ArrayList(CHUNK_SIZE);
+                        while (records.size() < CHUNK_SIZE && !closed && iterator.hasNext()) {
+                            records.add(iterator.next());
+                        }
+                        exhausted = !iterator.hasNext();
+                        return records;
+                    } finally {
+                        releasePermit(permit);
+                        synchronized (QuerySource.this) {
+                            fetching = false;
+                            if (closed) {
+                                closeIterator();
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Advance nextRecord,  waiting if the next chunk is still being read.  If the read of the chunk takes
+         * longer than timeoutSeconds,  or fails,  the source is closed,  marked failed,  and nextRecord is null.
+         */
+        void advance() {
+            if (chunk != null && chunkIndex < chunk.size()) {
+                nextRecord = chunk.get(chunkIndex++);
+                return;
+            }
+            nextRecord = null;
+            if (pendingChunk == null || closed) {
+                return;
+            }
+            try {
+                chunk = waitForChunk();
+                chunkIndex = 0;
+                pendingChunk = null;
+                if (chunk == null) {
+                    return;
+                }
+                if (!exhausted) {
+                    fetchNextChunk();
+                }
+                if (chunk.size() > 0) {
+                    nextRecord = chunk.get(chunkIndex++);
+                }
+            } catch (TimeoutException e) {
+                log.warn("Alignment query timed out after " + timeoutSeconds + " seconds,  skipping " +
+                        reader + " for " + chr + ":" + start + "-" + end);
+                failed = true;
+                pendingChunk.cancel(true);
+                releasePermit(pendingPermit);
+                close();
+            } catch (ExecutionException e) {
+                log.error("Error querying " + reader + " for " + chr + ":" + start + "-" + end, e.getCause());
+                failed = true;
+                close();
+            } catch (InterruptedException e) {
+                failed = true;
+                close();
+            }
+        }
+
+        /**
+         * Wait for the pending chunk.  The timeout runs from when the fetch got a permit and started reading,  time
+         * spent queued behind other readers does not count against it.  Without a timeout wait as long as it takes.
+         */
+        private List<Alignment> waitForChunk() throws InterruptedException, ExecutionException, TimeoutException {
+            if (timeoutSeconds <= 0) {
+                return pendingChunk.get();
+            }
+            long timeout = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+            while (true) {
+                long startedAt = fetchStartedAt;
+                long wait = (startedAt == 0) ? timeout : startedAt + timeout - System.currentTimeMillis();
+                try {
+                    return pendingChunk.get(Math.max(1, wait), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (startedAt != 0) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private static void releasePermit(AtomicBoolean permit) {
+            if (permit != null && permit.compareAndSet(true, false)) {
+                queryPermits.release();
+            }
+        }
 
-        class FooComparator implements Comparator<RecordIterWrapper> {
+        void close() {
+            chunk = null;
+            nextRecord = null;
+            synchronized (this) {
+                closed = true;
+                // A fetch still queued or running closes the iterator itself when it finishes
+                if (!fetching) {
+                    closeIterator();
+                }
+            }
+        }
 
-            public int compare(RecordIterWrapper wrapper, RecordIterWrapper foo1) {
-                return wrapper.nextRecord.getAlignmentStart() - foo1.nextRecord.getAlignmentStart();
+        private void closeIterator() {
+            if (iterator != null) {
+                iterator.close();
+                iterator = null;
             }
         }
     }
@@ -169,4 +169,20 @@ public class TDFBedTile implements TDFTile {
     public String[] getNames() {
         return names;
     }
+
+    public long getEstimatedSize() {
+        long size = 48 + 2 * (16 + 4 * start.length);
+        for (float[] row : data) {
+            size += 16 + 4 * row.length;
+        }
+        if (names != null) {
+            size += 16 + 4 * names.length;
+            for (String name : names) {
+                if (name != null) {
+                    size += 40 + 2 * name.length();
+                }
+            }
+        }
+        return size;
+    }
 }
@@ -22,7 +22,6 @@
  */
 package org.broad.igv.tdf;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,10 +32,10 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
-import org.broad.igv.data.BasicScore;
 import org.broad.igv.data.CompositeScore;
 import org.broad.igv.data.CoverageDataSource;
 import org.broad.igv.data.NamedScore;
+import org.broad.igv.data.SummaryScores;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
@@ -55,6 +54,7 @@ public class TDFDataSource implements CoverageDataSource {
 
     int maxPrecomputedZoom = 6;
     TDFReader reader;
+    TDFMultiTrackSource multiTrackSource;
     private int trackNumber = 0;
     String trackName;
     LRUCache<String, List<LocusScore>> summaryScoreCache = new LRUCache(this, 20);
@@ -72,8 +72,22 @@ public class TDFDataSource implements CoverageDataSource {
 
 
     public TDFDataSource(TDFReader reader, int trackNumber, String trackName, Genome genome) {
+        this(reader, null, trackNumber, trackName, genome);
+    }
+
+    /**
+     * Create a source for one track of a multi-track file,  sharing the summary scores of the precomputed zoom
+     * levels with the other tracks' sources.
+     */
+    public TDFDataSource(TDFMultiTrackSource multiTrackSource, int trackNumber, String trackName, Genome genome) {
+        this(multiTrackSource.getReader(), multiTrackSource, trackNumber, trackName, genome);
+    }
+
+    private TDFDataSource(TDFReader reader, TDFMultiTrackSource multiTrackSource, int trackNumber, String trackName,
+                          Genome genome) {
 
         this.genome = genome;
+        this.multiTrackSource = multiTrackSource;
 
         // TODO -- a single reader will be shared across data sources
         this.trackNumber = trackNumber;
@@ -222,7 +236,22 @@ public class TDFDataSource implements CoverageDataSource {
             // Window function == none => no windowing, so its not clear what to do.  For now use mean
             WindowFunction wf = (windowFunction == WindowFunction.none ? WindowFunction.mean : windowFunction);
 
-            scores = new ArrayList(1000);
+            if (multiTrackSource != null) {
+                SummaryScores sharedScores = multiTrackSource.getSummaryScores(trackNumber, querySeq, zoom, wf,
+                        startLocation, endLocation);
+                if (normalizationFactor == 1) {
+                    return sharedScores.subList(0, sharedScores.size());
+                }
+                SummaryScores normalizedScores = new SummaryScores(sharedScores.size());
+                for (int i = 0; i < sharedScores.size(); i++) {
+                    normalizedScores.add(sharedScores.getStart(i), sharedScores.getEnd(i),
+                            sharedScores.getValue(i) * normalizationFactor);
+                }
+                return normalizedScores;
+            }
+
+            SummaryScores summaryScores = new SummaryScores(1000);
+            scores = summaryScores;
             TDFDataset ds = reader.getDataset(querySeq, zoom, wf);
             if (ds != null) {
                 List<TDFTile> tiles = ds.getTiles(startLocation, endLocation);
@@ -234,7 +263,7 @@ public class TDFDataSource implements CoverageDataSource {
                                 float v = tile.getValue(trackNumber, i);
                                 if (!Float.isNaN(v)) {
                                     v *= normalizationFactor;
-                                    scores.add(new BasicScore(tile.getStartPosition(i), tile.getEndPosition(i), v));
+                                    summaryScores.add(tile.getStartPosition(i), tile.getEndPosition(i), v);
                                 }
                             }
                         }
@@ -273,7 +302,7 @@ public class TDFDataSource implements CoverageDataSource {
 
     private List<LocusScore> computeSummaryScores(String chr, int startLocation, int endLocation, double scale) {
 
-        List<LocusScore> scores = new ArrayList(1000);
+        SummaryScores scores = new SummaryScores(1000);
 
         String dsName = "/" + chr + "/raw";
 
@@ -300,7 +329,7 @@ public class TDFDataSource implements CoverageDataSource {
                                 if (!Float.isNaN(v)) {
                                     v *= normalizationFactor;
                                 }
-                                scores.add(new BasicScore(s, e, v));
+                                scores.add(s, e, v);
                             }
                         }
                     }
@@ -414,7 +443,7 @@ public class TDFDataSource implements CoverageDataSource {
 
         } else {
 
-            ArrayList scores = new ArrayList();
+            SummaryScores scores = new SummaryScores();
 
             // TODO -- this whole section could be computed once and stored,  it is only a function of the genome, chr, and zoom level.
             double tileWidth = 0;
@@ -435,13 +464,16 @@ public class TDFDataSource implements CoverageDataSource {
             for (int t = startTile; t <= endTile; t++) {
                 List<LocusScore> cachedScores = getCachedSummaryScores(querySeq, zoom, t, tileWidth);
                 if (cachedScores != null) {
-                    for (LocusScore s : cachedScores) {
-                        if (s.getEnd() >= startLocation) {
-                            scores.add(s);
-                        } else if (s.getStart() > endLocation) {
-                            break;
-                        }
+                    // Scores are in position order,  skip those that end before the range
+                    int first = 0;
+                    int n = cachedScores.size();
+                    if (cachedScores instanceof SummaryScores) {
+                        SummaryScores summaryScores = (SummaryScores) cachedScores;
+                        while (first < n && summaryScores.getEnd(first) < startLocation) first++;
+                    } else {
+                        while (first < n && cachedScores.get(first).getEnd() < startLocation) first++;
                     }
+                    scores.addAll(cachedScores, first, n);
                 }
 
             }
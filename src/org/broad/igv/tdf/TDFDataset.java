@@ -28,7 +28,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.broad.igv.util.LRUCache;
 import org.broad.igv.util.StringUtils;
 
 /**
@@ -49,7 +48,6 @@ public class TDFDataset extends TDFEntity {
     long[] tilePositions;
     int[] tileSizes;
     int nTiles;
-    LRUCache<String, TDFTile> cache = new LRUCache(this, 20);
     // TODO -- refactor this dependency out
     TDFReader reader;
 
@@ -130,17 +128,9 @@ public class TDFDataset extends TDFEntity {
     }
 
     // TDFTile computeTile(TDFDataset ds, int t, List<LocusScore> scores, String chr)
-    synchronized TDFTile getTile(int t) {
-        String key = getName() + "_" + t;
-
-        TDFTile tile = null;
-        if (!cache.containsKey(key)) {
-            tile = reader.readTile(this, t);
-            cache.put(key, tile);
-        } else {
-            tile = cache.get(key);
-        }
-        return tile;
+    // Decoded tiles are cached by the reader
+    TDFTile getTile(int t) {
+        return reader.readTile(this, t);
     }
 
 }
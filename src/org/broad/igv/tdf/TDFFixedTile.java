@@ -139,4 +139,14 @@ public class TDFFixedTile implements TDFTile {
         return null;
     }
 
+    public long getEstimatedSize() {
+        long size = 48;
+        if (data != null) {
+            for (float[] row : data) {
+                size += 16 + 4 * row.length;
+            }
+        }
+        return size;
+    }
+
 }
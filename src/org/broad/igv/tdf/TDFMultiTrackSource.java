@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.tdf;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.data.SummaryScores;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.WeightedLRUCache;
+
+/**
+ * Summary scores for all tracks of a multi-track TDF file.  Each tile holds the values of every track,  so the
+ * scores of all tracks are extracted in one pass over the tiles of a query and shared by the sibling
+ * {@link TDFDataSource}s,  rather than each source reading the same tiles for its own column.
+ * <p/>
+ * Scores are for precomputed zoom levels only,  and are not normalized.
+ */
+public class TDFMultiTrackSource {
+
+    private static Logger log = Logger.getLogger(TDFMultiTrackSource.class);
+
+    static final long MAX_CACHED_BYTES = 32000000;
+
+    TDFReader reader;
+    int nTracks;
+    WeightedLRUCache<String, SummaryScores[]> scoreCache;
+
+    public TDFMultiTrackSource(TDFReader reader) {
+        this.reader = reader;
+        this.nTracks = reader.getTrackNames().length;
+        this.scoreCache = new WeightedLRUCache(this, MAX_CACHED_BYTES, new WeightedLRUCache.Weigher<SummaryScores[]>() {
+            public long getWeight(SummaryScores[] scores) {
+                long weight = 16 + 8 * scores.length;
+                for (SummaryScores s : scores) {
+                    weight += 64 + 12 * s.size();
+                }
+                return weight;
+            }
+        });
+    }
+
+    public TDFReader getReader() {
+        return reader;
+    }
+
+    /**
+     * Return the scores of one track over a range of a precomputed zoom level.  The returned list is shared by all
+     * tracks' sources and must not be modified.
+     */
+    public SummaryScores getSummaryScores(int trackNumber, String querySeq, int zoom, WindowFunction wf,
+                                          int startLocation, int endLocation) {
+        return getSummaryScores(querySeq, zoom, wf, startLocation, endLocation)[trackNumber];
+    }
+
+    /**
+     * Return the scores of every track over a range of a precomputed zoom level,  indexed by track number.
+     */
+    public synchronized SummaryScores[] getSummaryScores(String querySeq, int zoom, WindowFunction wf,
+                                                         int startLocation, int endLocation) {
+
+        String key = querySeq + "_" + zoom + "_" + startLocation + "_" + endLocation + "_" + wf;
+        SummaryScores[] scores = scoreCache.get(key);
+        if (scores == null) {
+            TDFDataset ds = reader.getDataset(querySeq, zoom, wf);
+            List<TDFTile> tiles = ds == null ? null : ds.getTiles(startLocation, endLocation);
+
+            // Size the columns from the record count,  the cache is weighed by the number of scores
+            int recordCount = 0;
+            if (tiles != null) {
+                for (TDFTile tile : tiles) {
+                    recordCount += tile.getSize();
+                }
+            }
+            scores = new SummaryScores[nTracks];
+            for (int t = 0; t < nTracks; t++) {
+                scores[t] = new SummaryScores(recordCount);
+            }
+
+            if (tiles != null) {
+                for (TDFTile tile : tiles) {
+                    int size = tile.getSize();
+                    for (int i = 0; i < size; i++) {
+                        int start = tile.getStartPosition(i);
+                        int end = tile.getEndPosition(i);
+                        for (int t = 0; t < nTracks; t++) {
+                            float v = tile.getValue(t, i);
+                            if (!Float.isNaN(v)) {
+                                scores[t].add(start, end, v);
+                            }
+                        }
+                    }
+                }
+            }
+            for (SummaryScores s : scores) {
+                s.trimToSize();
+            }
+            scoreCache.put(key, scores);
+            if (log.isDebugEnabled()) {
+                log.debug("Summary scores for " + nTracks + " tracks " + key + ".  " + scoreCache.getStatistics());
+            }
+        }
+        return scores;
+    }
+}
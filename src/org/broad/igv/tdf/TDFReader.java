@@ -22,10 +22,16 @@
  */
 package org.broad.igv.tdf;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -37,18 +43,28 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.exceptions.DataLoadException;
 import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.CompressionUtils;
+import org.broad.igv.util.HttpUtils;
 import org.broad.igv.util.LRUCache;
+import org.broad.igv.util.MappedFile;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.RuntimeUtils;
 import org.broad.igv.util.StringUtils;
+import org.broad.igv.util.WeightedLRUCache;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.IGVUrlHelper;
 import org.broad.tribble.util.SeekableStream;
 
 /**
+ * Reads are positional and safe to issue from several threads at once.  Local files are memory mapped and tiles
+ * are decoded directly from a slice of the mapping;  http(s) files are read with an independent byte-range request
+ * per read.  Other sources (ftp, the range web service, split files) share one stream and are read one at a time.
+ *
  * @author jrobinso
  */
 public class TDFReader {
@@ -56,7 +72,31 @@ public class TDFReader {
     static final Logger log = Logger.getLogger(TDFReader.class);
     public static final int GZIP_FLAG = 0x1;
 
+    /**
+     * Decoded tiles of all open TDF files,  keyed by file, dataset, and tile number,  bounded by estimated heap size
+     * (TDF.TILE_CACHE_MB).  The budget is read on each access,  so a preference change resizes the cache.
+     */
+    static WeightedLRUCache<String, TDFTile> tileCache;
+
+    static synchronized WeightedLRUCache<String, TDFTile> getTileCache() {
+        long maxBytes = (long) PreferenceManager.getInstance().getAsInt(PreferenceManager.TDF_TILE_CACHE_MB) *
+                RuntimeUtils.MB;
+        if (tileCache == null) {
+            tileCache = new WeightedLRUCache(TDFReader.class, maxBytes, new WeightedLRUCache.Weigher<TDFTile>() {
+                public long getWeight(TDFTile tile) {
+                    return tile.getEstimatedSize();
+                }
+            });
+        } else if (tileCache.getMaxWeight() != maxBytes) {
+            tileCache.setMaxWeight(maxBytes);
+        }
+        return tileCache;
+    }
+
     private SeekableStream seekableStream = null;
+    private FileChannel channel = null;
+    private MappedFile mappedFile = null;
+    private IGVUrlHelper rangeHelper = null;
     private int version;
     private Map<String, IndexEntry> datasetIndex;
     private Map<String, IndexEntry> groupIndex;
@@ -72,6 +112,10 @@ public class TDFReader {
 
     boolean compressed = false;
 
+    // Prefix of this file's tile cache keys.  Includes the modification time of local files so a rewritten file
+    // does not see stale tiles.
+    private String tileKeyPrefix;
+
     Set<String> chrNames;
 
     //private String path;
@@ -88,7 +132,9 @@ public class TDFReader {
         //this.path = path;
         this.locator = locator;
         try {
-            seekableStream = IGVSeekableStreamFactory.getStreamFor(locator.getPath());
+            openSource(locator.getPath());
+            String path = locator.getPath();
+            tileKeyPrefix = path + (channel == null ? "" : "@" + new File(path).lastModified());
             readHeader();
 
         } catch (IOException ex) {
@@ -97,9 +143,39 @@ public class TDFReader {
         }
     }
 
+    private void openSource(String path) throws IOException {
+        String lcPath = path.toLowerCase();
+        if (lcPath.startsWith("http:") || lcPath.startsWith("https:")) {
+            URL url = new URL(path);
+            if (HttpUtils.getInstance().useByteRange(url)) {
+                rangeHelper = new IGVUrlHelper(url);
+                return;
+            }
+        } else if (!lcPath.startsWith("ftp:") && !lcPath.endsWith(".list")) {
+            channel = new RandomAccessFile(new File(path), "r").getChannel();
+            try {
+                mappedFile = MappedFile.map(channel);
+            } catch (IOException e) {
+                // Most likely out of address space (32-bit VM).  Positional channel reads still work.
+                log.info("Could not memory map " + path + ",  using file reads: " + e.getMessage());
+            }
+            return;
+        }
+        seekableStream = IGVSeekableStreamFactory.getStreamFor(path);
+    }
+
     public void close() {
+        if (log.isDebugEnabled()) {
+            log.debug("TDF tile cache: " + getTileCache().getStatistics());
+        }
         try {
-            seekableStream.close();
+            mappedFile = null;
+            if (channel != null) {
+                channel.close();
+            }
+            if (seekableStream != null) {
+                seekableStream.close();
+            }
         } catch (IOException e) {
             log.error("Error closing reader for: " + getPath(), e);
         }
@@ -307,33 +383,42 @@ public class TDFReader {
 
     // TODO -- move to dataset class
 
-    public  TDFTile readTile(TDFDataset ds, int tileNumber) {
+    /**
+     * Return the decoded tile,  from the shared tile cache if possible.
+     */
+    public TDFTile readTile(TDFDataset ds, int tileNumber) {
 
-        try {
-            if (tileNumber >= ds.tilePositions.length) {
-                // TODO - return empty tile
-                return null;
+        if (tileNumber >= ds.tilePositions.length || ds.tilePositions[tileNumber] < 0) {
+            // Empty tile
+            // TODO -- return an empty tile?
+            return null;
+        }
+
+        WeightedLRUCache<String, TDFTile> cache = getTileCache();
+        String key = tileKeyPrefix + ds.getName() + "/" + tileNumber;
+        TDFTile tile = cache.get(key);
+        if (tile == null) {
+            // Not read under a lock,  two threads missing the same tile at once both read it,  which is harmless
+            tile = decodeTile(ds, tileNumber);
+            if (tile != null) {
+                cache.put(key, tile);
             }
+        }
+        return tile;
+    }
 
-            long position = ds.tilePositions[tileNumber];
-            if (position < 0) {
+    private TDFTile decodeTile(TDFDataset ds, int tileNumber) {
 
-                // Indicates empty tile
-                // TODO -- return an empty tile?
-                return null;
-            }
+        try {
+            long position = ds.tilePositions[tileNumber];
 
             int nBytes = ds.tileSizes[tileNumber];
-            //fis.seek(position);
-            //byte[] buffer = new byte[nBytes];
-            //readFully(buffer);
-            byte[] buffer = readBytes(position, nBytes);
             if (compressed) {
-                buffer = CompressionUtils.decompress(buffer);
-
+                byte[] buffer = CompressionUtils.decompress(readBytes(position, nBytes));
+                return TileFactory.createTile(buffer, trackNames.length);
+            } else {
+                return TileFactory.createTile(readBuffer(position, nBytes), trackNames.length);
             }
-
-            return TileFactory.createTile(buffer, trackNames.length);
         } catch (IOException ex) {
             String tileName = ds.getName() + "[" + tileNumber + "]";
             log.error("Error reading data tile: " + tileName, ex);
@@ -415,13 +500,59 @@ public class TDFReader {
     }
 
 
+    /**
+     * Return the bytes in [position, position + nBytes) as a little-endian buffer.  For a mapped file this is a
+     * slice of the mapping,  no copy is made.
+     */
+    ByteBuffer readBuffer(long position, int nBytes) throws IOException {
+        MappedFile mappedFile = this.mappedFile;
+        ByteBuffer buffer = mappedFile == null ? null : mappedFile.slice(position, nBytes);
+        if (buffer == null) {
+            buffer = ByteBuffer.wrap(readBytes(position, nBytes));
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
     public byte[] readBytes(long position, int nBytes) throws IOException {
-        seekableStream.seek(position);
         byte[] buffer = new byte[nBytes];
-        seekableStream.read(buffer, 0, nBytes);
+        MappedFile mappedFile = this.mappedFile;
+        if (mappedFile != null) {
+            mappedFile.get(position, buffer, 0, nBytes);
+        } else if (channel != null) {
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, position + bb.position()) < 0) {
+                    throw new EOFException("Unexpected end of file reading " + getPath());
+                }
+            }
+        } else if (rangeHelper != null) {
+            InputStream is = rangeHelper.openInputStreamForRange(position, position + nBytes - 1, false);
+            try {
+                readFully(is, buffer);
+            } finally {
+                is.close();
+            }
+        } else {
+            synchronized (seekableStream) {
+                seekableStream.seek(position);
+                readFully(seekableStream, buffer);
+            }
+        }
         return buffer;
     }
 
+    private void readFully(InputStream is, byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int count = is.read(buffer, n, buffer.length - n);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of file reading " + getPath());
+            }
+            n += count;
+        }
+    }
+
     /**
      * @return the windowFunctions
      */
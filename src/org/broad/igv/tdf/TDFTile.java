@@ -57,4 +57,9 @@ public interface TDFTile {
 
     public void writeTo(BufferedByteWriter fos) throws IOException;
 
+    /**
+     * Return an estimate of the heap used by this tile,  in bytes.
+     */
+    public long getEstimatedSize();
+
 }
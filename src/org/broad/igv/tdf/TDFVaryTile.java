@@ -141,5 +141,13 @@ public class TDFVaryTile implements TDFTile {
         return null;  //To change body of implemented methods use File | Settings | File Templates.
     }
 
+    public long getEstimatedSize() {
+        long size = 48 + 16 + 4 * start.length;
+        for (float[] row : data) {
+            size += 16 + 4 * row.length;
+        }
+        return size;
+    }
+
 
 }
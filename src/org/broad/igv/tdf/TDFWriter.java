@@ -230,29 +230,42 @@ public class TDFWriter {
             throw new java.lang.NoSuchFieldError("Dataset: " + dsId + " doese not exist.  " +
                     "Call createDataset first");
         }
-        long pos = bytesWritten;
 
         if (tileNumber < dataset.tilePositions.length) {
-            dataset.tilePositions[tileNumber] = pos;
-
-            // Write the tile contents to a byte buffer first,  so we can optionally gzip it
+            writeEncodedTile(dataset, tileNumber, encodeTile(tile));
+        } else {
+            writeEncodedTile(dataset, tileNumber, null);
+        }
 
+    }
 
-            BufferedByteWriter buffer = new BufferedByteWriter();
-            tile.writeTo(buffer);
+    /**
+     * Serialize a tile,  and gzip it if this file is compressed.  This does not touch the output file and may be
+     * called from any thread.
+     */
+    public byte[] encodeTile(TDFTile tile) throws IOException {
 
-            byte[] bytes = buffer.getBytes();
-            if (compressed) {
-                bytes = CompressionUtils.compress(bytes);
-            }
+        // Write the tile contents to a byte buffer first,  so we can optionally gzip it
+        BufferedByteWriter buffer = new BufferedByteWriter();
+        tile.writeTo(buffer);
 
-            write(bytes);
-            int nBytes = bytes.length;
+        byte[] bytes = buffer.getBytes();
+        if (compressed) {
+            bytes = CompressionUtils.compress(bytes);
+        }
+        return bytes;
+    }
 
-            //tile.writeTo(fos);
-            //int nBytes = (int) (fos.bytesWritten() - pos); // bytes.length;
+    /**
+     * Append a tile encoded by {@link #encodeTile(TDFTile)} to the file and record its position in the dataset
+     * index.  Tiles must be written from one thread at a time.
+     */
+    public void writeEncodedTile(TDFDataset dataset, int tileNumber, byte[] bytes) throws IOException {
 
-            dataset.tileSizes[tileNumber] = nBytes;
+        if (tileNumber < dataset.tilePositions.length) {
+            dataset.tilePositions[tileNumber] = bytesWritten;
+            write(bytes);
+            dataset.tileSizes[tileNumber] = bytes.length;
         } else {
             // The occasional tile number == tile array size is expected, but tile
             // numbers larger than that are not
@@ -38,6 +38,13 @@ public class TileFactory {
 
         ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        return createTile(byteBuffer, nSamples);
+    }
+
+    /**
+     * Decode a tile from a little-endian buffer,  starting at its current position.
+     */
+    public static TDFTile createTile(ByteBuffer byteBuffer, int nSamples) throws IOException {
 
         String typeString = StringUtils.readString(byteBuffer);
         TDFTile.Type type = TDFTile.Type.valueOf(typeString);
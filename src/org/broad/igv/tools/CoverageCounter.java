@@ -31,7 +31,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMSequenceRecord;
 import net.sf.samtools.util.CloseableIterator;
 
 import org.broad.igv.feature.Chromosome;
@@ -43,6 +50,7 @@ import org.broad.igv.sam.ReadMate;
 import org.broad.igv.sam.reader.AlignmentQueryReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.sam.reader.MergedAlignmentReader;
+import org.broad.igv.sam.reader.PartialResultIterator;
 import org.broad.igv.tools.parsers.DataConsumer;
 import org.broad.igv.ui.filefilters.AlignmentFileFilter;
 import org.broad.igv.util.FileUtils;
@@ -58,10 +66,20 @@ import org.broad.igv.util.stats.Distribution;
  */
 
 /**
- *
+ * Counts alignment coverage in windows of windowSize bp and passes the windows, in file order, to a DataConsumer
+ * and optional wig writers.
+ * <p/>
+ * An indexed BAM file is counted with {@link #setNThreads(int)} workers,  each with its own reader,  through index
+ * queries.  Workers take a chromosome at a time,  or a run of consecutive small sequences (scaffolds) totalling up
+ * to GROUP_LENGTH bp.  The results are merged in the order of the BAM header,  which is the order a sorted file is
+ * streamed in,  so the output is the same as a single threaded count.
  */
 public class CoverageCounter {
 
+    static final int WINDOW_BATCH_SIZE = 4096;
+    static final int WINDOW_QUEUE_CAPACITY = 16;
+    static final int GROUP_LENGTH = 10000000;
+
     private int countThreshold = 0;
 
     private int upperExpectedInsertSize = 600;
@@ -96,6 +114,8 @@ public class CoverageCounter {
     private boolean computeTDF = true;
 
     private Distribution coverageHistogram;
+    private int nThreads = 1;
+    private Event[] events;
     private static final double LOG_1__1 = 0.09531018;
 
     //private String interval = null;
@@ -200,6 +220,15 @@ public class CoverageCounter {
     }
 
 
+    public int getNThreads() {
+        return nThreads;
+    }
+
+    public void setNThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+
     private String getFilenameBase() {
         String tmp = tdfFile.getAbsolutePath();
         tmp = tmp.substring(0, tmp.length() - 4);
@@ -230,7 +259,7 @@ public class CoverageCounter {
 
         String lastChr = "";
         ReadCounter counter = null;
-
+        boolean failed = false;
 
         try {
 
@@ -239,7 +268,12 @@ public class CoverageCounter {
             }
 
 
-            if (interval == null) {
+            events = writers.keySet().toArray(new Event[writers.size()]);
+
+            List<SAMSequenceRecord> sequences = (interval == null && nThreads > 1) ? getIndexedSequences() : null;
+            if (sequences != null) {
+                countInParallel(sequences, tolerance);
+            } else if (interval == null) {
                 reader = getReader(alignmentFile, false);
                 iter = reader.iterator();
             } else {
@@ -264,184 +298,475 @@ public class CoverageCounter {
                         if (counter != null) {
                             counter.closeBucketsBefore(Integer.MAX_VALUE);
                         }
-                        counter = new ReadCounter(alignmentChr);
+                        counter = new ReadCounter(alignmentChr, null);
                         lastChr = alignmentChr;
                     }
 
-                    if (alignment.getMappingQuality() == 0) {
-                        // TODO -- mq zero event
-                    } else if (alignment.isPaired()) {
+                    countAlignment(alignment, counter);
+                }
 
-                        final int start = alignment.getStart();
-                        final int end = alignment.getEnd();
+            }
+            checkComplete(iter, interval == null ? alignmentFile : interval.toString());
+        }
 
-                        counter.incrementPairedCount(start, end);
+        catch (PreprocessingException e) {
+            // The counts are incomplete,  don't complete the output as if they were not
+            failed = true;
+            throw e;
+        }
 
-                        ReadMate mate = alignment.getMate();
-                        boolean mateMapped = mate != null && mate.isMapped();
-                        boolean sameChromosome = mateMapped && mate.getChr().equals(alignment.getChr());
+        catch (Exception e) {
+            e.printStackTrace();
+        }
 
-                        if (mateMapped) {
-                            if (sameChromosome) {
+        finally {
 
-                                // Pair orientation
-                                String oStr = alignment.getPairOrientation();
-                                if (oStr.equals("R1F2") || oStr.equals("R2F1")) {
-                                    counter.incrementPairedEvent(start, end, Event.duplication);
-                                } else if (oStr.equals("F1F2") || oStr.equals("F2F1") ||
-                                        oStr.equals("R1R2") || oStr.equals("R2R1")) {
-                                    counter.incrementPairedEvent(start, end, Event.inversion);
-                                }
+            if (!failed) {
+                if (counter != null) {
+                    counter.closeBucketsBefore(Integer.MAX_VALUE);
+                }
 
-                                // Insert size
-                                int isize = Math.abs(alignment.getInferredInsertSize());
-                                if (isize > upperExpectedInsertSize) {
-                                    counter.incrementPairedEvent(start, end, Event.largeISize);
+                consumer.setAttribute("totalCount", String.valueOf(totalCount));
+                consumer.parsingComplete();
+            }
 
-                                }
-                                if (isize < lowerExpectedInsertSize) {
-                                    counter.incrementPairedEvent(start, end, Event.smallISize);
-                                }
+            if (iter != null) {
+                iter.close();
+            }
 
-                            } else {
-                                counter.incrementPairedEvent(start, end, Event.inter);
-                            }
-                        } else {  // unmapped mate
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+                }
+            }
 
-                            counter.incrementPairedEvent(start, end, Event.unmappedMate);
-                        }
 
+            if (wigWriter != null) {
+                wigWriter.close();
+            }
 
-                    }
+            for (WigWriter writer : writers.values()) {
+                writer.close();
+            }
 
 
-                    AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
-                    if (blocks != null) {
-                        int lastBlockEnd = -1;
-                        for (AlignmentBlock block : blocks) {
+            if (coverageHistogram != null) {
+                try {
+                    PrintWriter pw = new PrintWriter(new FileWriter(getFilenameBase() + ".hist.txt"));
+                    coverageHistogram.print(pw);
+                    pw.close();
+                } catch (IOException e) {
+                    e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+                }
+            }
+        }
+    }
 
-                            if (!block.isSoftClipped()) {
-                                if (lastBlockEnd >= 0) {
-                                    String c = alignment.getCigarString();
-                                    int s = block.getStart();
-                                    if (s > lastBlockEnd) {
-                                        counter.incrementEvent(lastBlockEnd, Event.indel);
-                                    }
-                                }
+    /**
+     * Return the reference sequences of the alignment file if it is a single indexed BAM file,  otherwise null.
+     */
+    private List<SAMSequenceRecord> getIndexedSequences() throws IOException {
+        if (!alignmentFile.toLowerCase().endsWith(".bam") || alignmentFile.indexOf(",") > 0) {
+            return null;
+        }
+        AlignmentQueryReader reader = getReader(alignmentFile, false);
+        try {
+            SAMFileHeader header = reader.getHeader();
+            if (header == null || !reader.hasIndex()) {
+                return null;
+            }
+            return header.getSequenceDictionary().getSequences();
+        } finally {
+            reader.close();
+        }
+    }
 
-                                byte[] bases = block.getBases();
-                                int blockStart = block.getStart();
-                                int adjustedStart = block.getStart();
-                                int adjustedEnd = block.getEnd();
+    /**
+     * Count the sequences with nThreads workers,  passing the windows to the consumer in sequence order.  Each
+     * worker opens one reader and claims groups of sequences in order until none are left.  A worker ahead of the
+     * group being merged blocks once its queue is full,  so at most nThreads groups are counted at a time.
+     */
+    private void countInParallel(List<SAMSequenceRecord> sequences, int tolerance) {
 
-                                if (alignment.isNegativeStrand()) {
-                                    adjustedStart = Math.max(0, adjustedStart - extFactor);
-                                } else {
-                                    adjustedEnd += extFactor;
-                                }
+        List<List<SAMSequenceRecord>> groups = groupSequences(sequences);
+        System.out.println("Counting " + sequences.size() + " sequences in " + groups.size() + " groups with " +
+                nThreads + " threads");
 
-                                if (interval != null) {
-                                    adjustedStart = Math.max(interval.getStart() - 1, adjustedStart);
-                                    adjustedEnd = Math.min(interval.getEnd(), adjustedEnd);
-                                }
+        List<SequenceCounts> results = new ArrayList(groups.size());
+        for (List<SAMSequenceRecord> group : groups) {
+            results.add(new SequenceCounts(group));
+        }
 
-                                for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                                    byte base = 0;
-                                    int baseIdx = pos - blockStart;
-                                    if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
-                                        base = bases[baseIdx];
-                                    }
-                                    int idx = pos - blockStart;
-                                    byte quality = (idx >= 0 && idx < block.qualities.length) ?
-                                            block.qualities[pos - blockStart] : (byte) 0;
-                                    counter.incrementCount(pos, base, quality);
-                                }
+        int nWorkers = Math.min(nThreads, groups.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nWorkers), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CoverageCounter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
-                                lastBlockEnd = block.getEnd();
-                            }
-                        }
-                    } else {
-                        int adjustedStart = alignment.getAlignmentStart();
-                        int adjustedEnd = alignment.getAlignmentEnd();
+        try {
+            AtomicInteger nextGroup = new AtomicInteger(0);
+            for (int i = 0; i < nWorkers; i++) {
+                executor.execute(new CountWorker(results, nextGroup, tolerance));
+            }
 
-                        if (alignment.isNegativeStrand()) {
-                            adjustedStart = Math.max(0, adjustedStart - extFactor);
-                        } else {
-                            adjustedEnd += extFactor;
-                        }
+            float[] eventScores = new float[events.length];
+            for (SequenceCounts counts : results) {
+                WindowBatch batch;
+                while ((batch = counts.batches.take()) != END_OF_WINDOWS) {
+                    for (int i = 0; i < batch.size; i++) {
+                        System.arraycopy(batch.eventScores, i * events.length, eventScores, 0, events.length);
+                        addWindow(batch.chrs[i], batch.starts[i], batch.ends[i], batch.values[i], eventScores);
+                    }
+                }
+                if (counts.error != null) {
+                    throw new PreprocessingException("Error counting " + counts.getName() + ": " +
+                            counts.error.getMessage(), counts.error);
+                }
+                totalCount += counts.totalCount;
+            }
+        } catch (InterruptedException e) {
+            throw new PreprocessingException("Coverage count halted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                        if (interval != null) {
-                            adjustedStart = Math.max(interval.getStart() - 1, adjustedStart);
-                            adjustedEnd = Math.min(interval.getEnd(), adjustedEnd);
-                        }
+    /**
+     * Split the sequences,  in order,  into groups counted as one unit of work.  Sequences of GROUP_LENGTH or more
+     * are a group of their own,  consecutive smaller sequences are grouped up to GROUP_LENGTH bp.
+     */
+    static List<List<SAMSequenceRecord>> groupSequences(List<SAMSequenceRecord> sequences) {
+        List<List<SAMSequenceRecord>> groups = new ArrayList();
+        List<SAMSequenceRecord> group = null;
+        long groupLength = 0;
+        for (SAMSequenceRecord sequence : sequences) {
+            if (group == null || groupLength + sequence.getSequenceLength() > GROUP_LENGTH) {
+                group = new ArrayList();
+                groups.add(group);
+                groupLength = 0;
+            }
+            group.add(sequence);
+            groupLength += sequence.getSequenceLength();
+        }
+        return groups;
+    }
+
+    /**
+     * Pass a closed window to the consumer and the wig writers.
+     */
+    private void addWindow(String chr, int start, int end, float value, float[] eventScores) {
+
+        buffer[0] = value;
+        if (strandOption > 0) {
+            buffer[1] = value;
+        }
 
+        consumer.addData(chr, start, end, buffer, null);
 
-                        for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                            counter.incrementCount(pos, (byte) 0, (byte) 0);
+        for (int i = 0; i < events.length; i++) {
+            writers.get(events[i]).addData(chr, start, end, eventScores[i]);
+        }
+
+        if (wigWriter != null) {
+            wigWriter.addData(chr, start, end, value);
+        }
+    }
+
+    /**
+     * Counts groups of sequences through index queries,  claiming the next group until all are taken.  The reader
+     * is opened once and used for every group this worker counts.
+     */
+    class CountWorker implements Runnable {
+
+        List<SequenceCounts> results;
+        AtomicInteger nextGroup;
+        int tolerance;
+
+        CountWorker(List<SequenceCounts> results, AtomicInteger nextGroup, int tolerance) {
+            this.results = results;
+            this.nextGroup = nextGroup;
+            this.tolerance = tolerance;
+        }
+
+        public void run() {
+            AlignmentQueryReader reader = null;
+            try {
+                int g;
+                while ((g = nextGroup.getAndIncrement()) < results.size()) {
+                    SequenceCounts counts = results.get(g);
+                    try {
+                        if (reader == null) {
+                            reader = getReader(alignmentFile, true);
+                        }
+                        for (SAMSequenceRecord sequence : counts.sequences) {
+                            count(reader, sequence, counts);
                         }
+                    } catch (Throwable e) {
+                        counts.error = e;
+                    } finally {
+                        counts.finish();
+                    }
+                }
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
                     }
+                }
+            }
+        }
 
-                    if (writers.containsKey(Event.indel)) {
-                        for (AlignmentBlock block : alignment.getInsertions()) {
-                            if (interval == null || (block.getStart() >= interval.getStart() - 1 &&
-                                    block.getStart() <= interval.getEnd())) {
-                                counter.incrementEvent(block.getStart(), Event.indel);
-                            }
+        private void count(AlignmentQueryReader reader, SAMSequenceRecord sequence, SequenceCounts counts)
+                throws IOException {
+            CloseableIterator<Alignment> iter = null;
+            ReadCounter counter = null;
+            try {
+                iter = reader.query(sequence.getSequenceName(), 0, sequence.getSequenceLength(), false);
+                while (iter != null && iter.hasNext()) {
+                    Alignment alignment = iter.next();
+                    if (passFilter(alignment)) {
+                        counts.totalCount++;
+                        if (counter == null) {
+                            counter = new ReadCounter(alignment.getChr(), counts);
+                        } else {
+                            counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance);
                         }
-
+                        countAlignment(alignment, counter);
                     }
                 }
-
+                if (counter != null) {
+                    counter.closeBucketsBefore(Integer.MAX_VALUE);
+                }
+                checkComplete(iter, sequence.getSequenceName());
+            } finally {
+                if (iter != null) {
+                    iter.close();
+                }
             }
         }
+    }
 
-        catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * The windows of a group of sequences,  handed from its worker to the merging thread in batches.
+     */
+    class SequenceCounts {
+
+        List<SAMSequenceRecord> sequences;
+        ArrayBlockingQueue<WindowBatch> batches = new ArrayBlockingQueue(WINDOW_QUEUE_CAPACITY);
+        WindowBatch batch;
+        int totalCount = 0;
+        Throwable error;
+
+        SequenceCounts(List<SAMSequenceRecord> sequences) {
+            this.sequences = sequences;
         }
 
-        finally {
+        String getName() {
+            String first = sequences.get(0).getSequenceName();
+            return sequences.size() == 1 ? first :
+                    first + " - " + sequences.get(sequences.size() - 1).getSequenceName();
+        }
 
-            if (counter != null) {
-                counter.closeBucketsBefore(Integer.MAX_VALUE);
+        void add(String chr, int start, int end, float value, Counter counter) {
+            if (batch == null) {
+                batch = new WindowBatch(events.length);
+            }
+            int n = batch.size;
+            batch.chrs[n] = chr;
+            batch.starts[n] = start;
+            batch.ends[n] = end;
+            batch.values[n] = value;
+            for (int i = 0; i < events.length; i++) {
+                batch.eventScores[n * events.length + i] = counter.getEventScore(events[i]);
             }
+            batch.size++;
+            if (batch.size == WINDOW_BATCH_SIZE) {
+                put(batch);
+                batch = null;
+            }
+        }
 
-            consumer.setAttribute("totalCount", String.valueOf(totalCount));
-            consumer.parsingComplete();
+        void finish() {
+            if (batch != null) {
+                put(batch);
+                batch = null;
+            }
+            put(END_OF_WINDOWS);
+        }
 
-            if (iter != null) {
-                iter.close();
+        private void put(WindowBatch b) {
+            try {
+                batches.put(b);
+            } catch (InterruptedException e) {
+                throw new PreprocessingException("Coverage count halted", e);
             }
+        }
+    }
 
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+    static class WindowBatch {
+
+        String[] chrs = new String[WINDOW_BATCH_SIZE];
+        int size = 0;
+        int[] starts = new int[WINDOW_BATCH_SIZE];
+        int[] ends = new int[WINDOW_BATCH_SIZE];
+        float[] values = new float[WINDOW_BATCH_SIZE];
+        float[] eventScores;
+
+        WindowBatch(int nEvents) {
+            eventScores = new float[WINDOW_BATCH_SIZE * nEvents];
+        }
+    }
+
+    static final WindowBatch END_OF_WINDOWS = new WindowBatch(0);
+
+    /**
+     * Add an alignment, which has passed the filter, to the counts.
+     */
+    private void countAlignment(Alignment alignment, ReadCounter counter) {
+
+        if (alignment.getMappingQuality() == 0) {
+            // TODO -- mq zero event
+        } else if (alignment.isPaired()) {
+
+            final int start = alignment.getStart();
+            final int end = alignment.getEnd();
+
+            counter.incrementPairedCount(start, end);
+
+            ReadMate mate = alignment.getMate();
+            boolean mateMapped = mate != null && mate.isMapped();
+            boolean sameChromosome = mateMapped && mate.getChr().equals(alignment.getChr());
+
+            if (mateMapped) {
+                if (sameChromosome) {
+
+                    // Pair orientation
+                    String oStr = alignment.getPairOrientation();
+                    if (oStr.equals("R1F2") || oStr.equals("R2F1")) {
+                        counter.incrementPairedEvent(start, end, Event.duplication);
+                    } else if (oStr.equals("F1F2") || oStr.equals("F2F1") ||
+                            oStr.equals("R1R2") || oStr.equals("R2R1")) {
+                        counter.incrementPairedEvent(start, end, Event.inversion);
+                    }
+
+                    // Insert size
+                    int isize = Math.abs(alignment.getInferredInsertSize());
+                    if (isize > upperExpectedInsertSize) {
+                        counter.incrementPairedEvent(start, end, Event.largeISize);
+
+                    }
+                    if (isize < lowerExpectedInsertSize) {
+                        counter.incrementPairedEvent(start, end, Event.smallISize);
+                    }
+
+                } else {
+                    counter.incrementPairedEvent(start, end, Event.inter);
                 }
+            } else {  // unmapped mate
+
+                counter.incrementPairedEvent(start, end, Event.unmappedMate);
             }
 
 
-            if (wigWriter != null) {
-                wigWriter.close();
+        }
+
+
+        AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+        if (blocks != null) {
+            int lastBlockEnd = -1;
+            for (AlignmentBlock block : blocks) {
+
+                if (!block.isSoftClipped()) {
+                    if (lastBlockEnd >= 0) {
+                        String c = alignment.getCigarString();
+                        int s = block.getStart();
+                        if (s > lastBlockEnd) {
+                            counter.incrementEvent(lastBlockEnd, Event.indel);
+                        }
+                    }
+
+                    int blockLength = block.getLength();
+                    int blockStart = block.getStart();
+                    int adjustedStart = block.getStart();
+                    int adjustedEnd = block.getEnd();
+
+                    if (alignment.isNegativeStrand()) {
+                        adjustedStart = Math.max(0, adjustedStart - extFactor);
+                    } else {
+                        adjustedEnd += extFactor;
+                    }
+
+                    if (interval != null) {
+                        adjustedStart = Math.max(interval.getStart() - 1, adjustedStart);
+                        adjustedEnd = Math.min(interval.getEnd(), adjustedEnd);
+                    }
+
+                    for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                        byte base = 0;
+                        int baseIdx = pos - blockStart;
+                        byte quality = 0;
+                        if (baseIdx >= 0 && baseIdx < blockLength) {
+                            base = block.getBase(baseIdx);
+                            quality = block.getQuality(baseIdx);
+                        }
+                        counter.incrementCount(pos, base, quality);
+                    }
+
+                    lastBlockEnd = block.getEnd();
+                }
             }
+        } else {
+            int adjustedStart = alignment.getAlignmentStart();
+            int adjustedEnd = alignment.getAlignmentEnd();
 
-            for (WigWriter writer : writers.values()) {
-                writer.close();
+            if (alignment.isNegativeStrand()) {
+                adjustedStart = Math.max(0, adjustedStart - extFactor);
+            } else {
+                adjustedEnd += extFactor;
             }
 
+            if (interval != null) {
+                adjustedStart = Math.max(interval.getStart() - 1, adjustedStart);
+                adjustedEnd = Math.min(interval.getEnd(), adjustedEnd);
+            }
 
-            if (coverageHistogram != null) {
-                try {
-                    PrintWriter pw = new PrintWriter(new FileWriter(getFilenameBase() + ".hist.txt"));
-                    coverageHistogram.print(pw);
-                    pw.close();
-                } catch (IOException e) {
-                    e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+
+            for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                counter.incrementCount(pos, (byte) 0, (byte) 0);
+            }
+        }
+
+        if (writers.containsKey(Event.indel)) {
+            for (AlignmentBlock block : alignment.getInsertions()) {
+                if (interval == null || (block.getStart() >= interval.getStart() - 1 &&
+                        block.getStart() <= interval.getEnd())) {
+                    counter.incrementEvent(block.getStart(), Event.indel);
                 }
             }
+
+        }
+    }
+
+    /**
+     * A merged query drops a file that fails,  the counts would silently leave it out
+     */
+    private static void checkComplete(CloseableIterator<Alignment> iter, String region) {
+        if (iter instanceof PartialResultIterator && !((PartialResultIterator) iter).isComplete()) {
+            throw new PreprocessingException("Alignments are missing for " + region +
+                    ",  one or more files could not be read");
         }
     }
 
+    /**
+     * Lists of files are merged without a query timeout,  a slow file must not be left out of the counts
+     */
     private AlignmentQueryReader getReader(String alignmentFile, boolean b) throws IOException {
 
         boolean isList = alignmentFile.indexOf(",") > 0;
@@ -451,7 +776,7 @@ public class CoverageCounter {
             for (String f : tokens) {
                 readers.add(AlignmentReaderFactory.getReader(f, b));
             }
-            return new MergedAlignmentReader(readers);
+            return new MergedAlignmentReader(readers, 0);
         } else {
             if (!FileUtils.isRemote(alignmentFile)) {
                 File f = new File(alignmentFile);
@@ -460,7 +785,7 @@ public class CoverageCounter {
                     for (File file : f.listFiles(new AlignmentFileFilter())) {
                         readers.add(AlignmentReaderFactory.getReader(file.getAbsolutePath(), b));
                     }
-                    return new MergedAlignmentReader(readers);
+                    return new MergedAlignmentReader(readers, 0);
                 }
             }
             return AlignmentReaderFactory.getReader(alignmentFile, b);
@@ -472,9 +797,15 @@ public class CoverageCounter {
 
         String chr;
         TreeMap<Integer, Counter> counts = new TreeMap();
+        SequenceCounts results;
+        float[] eventScores = new float[events.length];
 
-        ReadCounter(String chr) {
+        /**
+         * @param results if not null closed windows are added to results,  rather than passed to the consumer
+         */
+        ReadCounter(String chr, SequenceCounts results) {
             this.chr = chr;
+            this.results = results;
         }
 
         void incrementCount(int position, byte base, byte quality) {
@@ -579,24 +910,15 @@ public class CoverageCounter {
                             }
                         }
                         int bucketSize = bucketEndPosition - bucketStartPosition;
+                        float value = ((float) totalCount) / bucketSize;
 
-                        buffer[0] = ((float) totalCount) / bucketSize;
-
-                        if (strandOption > 0) {
-                            buffer[1] = ((float) counter.getCount()) / bucketSize;
-                        }
-
-                        consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
-
-                        for (Map.Entry<Event, WigWriter> entries : writers.entrySet()) {
-                            Event evt = entries.getKey();
-                            WigWriter writer = entries.getValue();
-                            float score = counter.getEventScore(evt);
-                            writer.addData(chr, bucketStartPosition, bucketEndPosition, score);
-                        }
-
-                        if (wigWriter != null) {
-                            wigWriter.addData(chr, bucketStartPosition, bucketEndPosition, buffer[0]);
+                        if (results != null) {
+                            results.add(chr, bucketStartPosition, bucketEndPosition, value, counter);
+                        } else {
+                            for (int i = 0; i < events.length; i++) {
+                                eventScores[i] = counter.getEventScore(events[i]);
+                            }
+                            addWindow(chr, bucketStartPosition, bucketEndPosition, value, eventScores);
                         }
 
                         /*
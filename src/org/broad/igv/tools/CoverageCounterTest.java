@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import org.apache.commons.io.FileUtils;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.track.WindowFunction;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CoverageCounterTest {
+
+    static final String[] CHROMOSOMES = {"chr1", "chr2", "chr3", "chr4"};
+    // Long enough for 4 groups of sequences,  reads are only on the start of each
+    static final int[] CHROMOSOME_LENGTHS = {12000000, 10000000, 3000000, 8000000};
+    static final int[] READ_EXTENTS = {300000, 100000, 200000, 50000};
+    static final int READ_LENGTH = 50;
+
+    static File dir;
+    static Genome genome;
+    static File bamFile;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Globals.setHeadless(true);
+        dir = File.createTempFile("coverage", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        genome = createGenome();
+        bamFile = createBam(new Random(3));
+    }
+
+    @Test
+    public void testParallelOutputEqualsSerial() throws IOException {
+        // Each sequence is a group of its own,  so they are counted at the same time
+        SAMFileReader reader = new SAMFileReader(bamFile);
+        List<SAMSequenceRecord> sequences = reader.getFileHeader().getSequenceDictionary().getSequences();
+        reader.close();
+        assertEquals(4, CoverageCounter.groupSequences(sequences).size());
+
+        File serialWig = new File(dir, "test_1.wig");
+        File parallelWig = new File(dir, "test_4.wig");
+        byte[] serial = FileUtils.readFileToByteArray(count(1, serialWig));
+        byte[] parallel = FileUtils.readFileToByteArray(count(4, parallelWig));
+
+        assertTrue(serial.length > 0);
+        assertArrayEquals(serial, parallel);
+        assertTrue(serialWig.length() > 0);
+        assertArrayEquals(FileUtils.readFileToByteArray(serialWig), FileUtils.readFileToByteArray(parallelWig));
+    }
+
+    private File count(int nThreads, File wigFile) throws IOException {
+        File tdfFile = new File(dir, "test_" + nThreads + ".tdf");
+        tdfFile.deleteOnExit();
+        wigFile.deleteOnExit();
+
+        Preprocessor p = new Preprocessor(tdfFile, genome, Arrays.asList(WindowFunction.mean), -1, null);
+        p.setNThreads(nThreads);
+        p.count(bamFile.getAbsolutePath(), 25, 0, 7, wigFile, null, null);
+        p.finish();
+        return tdfFile;
+    }
+
+    /**
+     * A genome defined by a fasta index,  only the index is read
+     */
+    private static Genome createGenome() throws IOException {
+        File fasta = new File(dir, "test.fa");
+        fasta.deleteOnExit();
+        FileUtils.writeStringToFile(fasta, ">chr1\nACGT\n");
+
+        File index = new File(dir, "test.fa.fai");
+        index.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(index));
+        for (int i = 0; i < CHROMOSOMES.length; i++) {
+            pw.println(CHROMOSOMES[i] + "\t" + CHROMOSOME_LENGTHS[i] + "\t6\t60\t61");
+        }
+        pw.close();
+
+        return new Genome("test", "test", fasta.getAbsolutePath(), true, null);
+    }
+
+    /**
+     * Random reads on both strands,  some duplicates and low quality,  dense and sparse regions alternating.  The
+     * bam is indexed so chromosomes can be counted in parallel.
+     */
+    private static File createBam(Random random) throws IOException {
+        SAMFileHeader header = new SAMFileHeader();
+        SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        for (int i = 0; i < CHROMOSOMES.length; i++) {
+            dictionary.addSequence(new SAMSequenceRecord(CHROMOSOMES[i], CHROMOSOME_LENGTHS[i]));
+        }
+        header.setSequenceDictionary(dictionary);
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        File file = new File(dir, "test.bam");
+        file.deleteOnExit();
+        SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, false, file);
+        int n = 0;
+        for (int i = 0; i < CHROMOSOMES.length; i++) {
+            int pos = 1;
+            while (true) {
+                boolean dense = (pos / 20000) % 2 == 0;
+                pos += dense ? random.nextInt(10) : random.nextInt(500);
+                if (pos + READ_LENGTH >= READ_EXTENTS[i]) {
+                    break;
+                }
+                SAMRecord record = new SAMRecord(header);
+                record.setReadName("read" + n++);
+                record.setReferenceName(CHROMOSOMES[i]);
+                record.setAlignmentStart(pos);
+                record.setCigarString(READ_LENGTH + "M");
+                record.setReadNegativeStrandFlag(random.nextBoolean());
+                record.setDuplicateReadFlag(random.nextInt(20) == 0);
+                record.setMappingQuality(random.nextInt(60));
+                record.setReadString(createBases(random));
+                record.setBaseQualityString(createBases(random).replaceAll(".", "I"));
+                writer.addAlignment(record);
+            }
+        }
+        writer.close();
+
+        // The writer names the index test.bai
+        File index = new File(dir, "test.bai");
+        File bamIndex = new File(dir, "test.bam.bai");
+        bamIndex.deleteOnExit();
+        if (index.exists()) {
+            index.renameTo(bamIndex);
+        }
+        assertTrue(bamIndex.exists());
+        return file;
+    }
+
+    private static String createBases(Random random) {
+        StringBuffer buffer = new StringBuffer(READ_LENGTH);
+        for (int i = 0; i < READ_LENGTH; i++) {
+            buffer.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return buffer.toString();
+    }
+}
@@ -42,6 +42,8 @@ import org.broad.igv.Globals;
 import org.broad.igv.feature.GFFParser;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.feature.genome.mapping.CompiledGenomeMapping;
+import org.broad.igv.feature.genome.mapping.CompiledGenomeMappingWriter;
 import org.broad.igv.feature.tribble.CodecFactory;
 import org.broad.igv.sam.reader.AlignmentIndexer;
 import org.broad.igv.tdf.TDFUtils;
@@ -75,7 +77,8 @@ public class IgvTools {
             "sort    sort an alignment file by start position",
             "index   index an alignment file",
             "toTDF    convert an input file (cn, gct, wig) to tiled data format (tdf)",
-            "count   compute coverage density for an alignment file"
+            "count   compute coverage density for an alignment file",
+            "compileMapping compile a genome mapping file to binary format"
     };
     public static final int MAX_RECORDS_IN_RAM = 500000;
     public static final int MAX_ZOOM = 7;
@@ -87,6 +90,16 @@ public class IgvTools {
     public static final int LINEAR_INDEX = 1;
     public static final int INTERVAL_INDEX = 2;
 
+    /**
+     * Number of worker threads for count and toTDF.  Set with --threads
+     */
+    int nThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Tile in bounded-memory streaming mode.  Set with --streaming
+     */
+    boolean streaming = false;
+
 
     /**
      * The general usage string
@@ -145,6 +158,8 @@ public class IgvTools {
         CmdLineParser.Option windowFunctions = parser.addStringOption('f', "windowFunctions");
         CmdLineParser.Option tmpDirOption = parser.addStringOption('t', "tmpDir");
         CmdLineParser.Option maxZoomOption = parser.addIntegerOption('z', "maxZoom");
+        CmdLineParser.Option threadsOption = parser.addIntegerOption("threads");
+        CmdLineParser.Option streamingOption = parser.addBooleanOption("streaming");
 
         // options for sort
         CmdLineParser.Option maxRecordsOption = parser.addIntegerOption('m', "maxRecords");
@@ -225,6 +240,8 @@ public class IgvTools {
                 validateArgsLength(nonOptionArgs, 4);
                 int windowSizeValue = (Integer) parser.getOptionValue(windowSizeOption, WINDOW_SIZE);
                 int maxZoomValue = (Integer) parser.getOptionValue(maxZoomOption, MAX_ZOOM);
+                nThreads = (Integer) parser.getOptionValue(threadsOption, nThreads);
+                streaming = (Boolean) parser.getOptionValue(streamingOption, false);
                 String ofile = nonOptionArgs[2];
                 String genomeId = nonOptionArgs[3];
                 boolean isGCT = Preprocessor.getExtension(ifile).endsWith("gct");
@@ -319,6 +336,9 @@ public class IgvTools {
                 LaneCounter.run(genome, bamFileList, queryInterval);
             } else if (command.equals("sumwigs")) {
                 sumWigs(nonOptionArgs[1], nonOptionArgs[2]);
+            } else if (command.equals("compilemapping")) {
+                String ofile = nonOptionArgs.length > 2 ? nonOptionArgs[2] : ifile + CompiledGenomeMapping.EXTENSION;
+                doCompileMapping(ifile, ofile);
             } else if(command.equals("densitytobedgraph")) {
                 DensitiesToBedGraph.main(argv);
             }
@@ -415,6 +435,8 @@ public class IgvTools {
         File outputFile = new File(ofile);
         try {
             Preprocessor p = new Preprocessor(outputFile, genome, windowFunctions, nLines, null);
+            p.setNThreads(nThreads);
+            p.setStreaming(streaming);
             if (tmp.isDirectory()) {
                 for (File f : tmp.listFiles()) {
                     p.preprocess(f, maxZoomValue);
@@ -501,6 +523,7 @@ public class IgvTools {
         }
 
         Preprocessor p = new Preprocessor(tdfFile, genome, windowFunctions, -1, null);
+        p.setNThreads(nThreads);
         p.count(ifile, windowSizeValue, extFactorValue, maxZoomValue, wigFile, coverageOpt, trackLine);
         p.finish();
 
@@ -625,6 +648,24 @@ public class IgvTools {
     }
 
 
+    public void doCompileMapping(String ifile, String ofile) throws IOException {
+
+        System.out.println("Compiling " + ifile + "  -> " + ofile);
+        File outputFile = new File(ofile);
+        try {
+            CompiledGenomeMappingWriter.compile(new File(ifile), outputFile);
+        } catch (IOException e) {
+            // Delete output file as its probably corrupt
+            if (outputFile.exists()) {
+                outputFile.delete();
+            }
+            throw e;
+        }
+        System.out.println("Done");
+        System.out.flush();
+    }
+
+
     public void doSort(String ifile, String ofile, String tmpDirName, int maxRecords) {
 
         System.out.println("Sorting " + ifile + "  -> " + ofile);
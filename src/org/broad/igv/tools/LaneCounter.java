@@ -103,7 +103,7 @@ public class LaneCounter {
 
                                 if (!block.isSoftClipped()) {
 
-                                    byte[] bases = block.getBases();
+                                    int blockLength = block.getLength();
                                     int blockStart = block.getStart();
                                     int adjustedStart = block.getStart();
                                     int adjustedEnd = block.getEnd();
@@ -118,7 +118,7 @@ public class LaneCounter {
                                             break;
                                         }
                                         int baseIdx = pos - blockStart;
-                                        if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
+                                        if (baseIdx >= 0 && baseIdx < blockLength) {
                                             String rg = alignment.getReadGroup();
 
                                             ReadGroupCount rgc = counts.get(rg);
@@ -128,7 +128,7 @@ public class LaneCounter {
                                             }
                                             rgc.totalBases++;
 
-                                            byte base = bases[baseIdx];
+                                            byte base = block.getBase(baseIdx);
                                             byte refBase = ref[pos - intervalStart];
                                             if (base != refBase) {
                                                 rgc.mismatches++;
@@ -25,16 +25,30 @@ package org.broad.igv.tools;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
@@ -57,11 +71,25 @@ import org.broad.igv.util.collections.FloatArrayList;
 import org.broad.igv.util.collections.IntArrayList;
 
 /**
+ * Records are collected in batches on the parsing thread and handed to one worker thread for the raw data and one
+ * per zoom level,  so the zoom accumulators run in parallel.  Closed tiles are compressed in a pool of
+ * {@link #setNThreads(int)} threads and appended to the file by a single writer,  in a fixed order -- for each
+ * chromosome by the batch of records that closed them,  the raw tile before the zoom levels,  and the whole genome
+ * tiles last -- so the output does not depend on thread scheduling.  Each stream of tiles has a bounded number of
+ * tiles being encoded or waiting to be written,  so the tiles are written about as fast as they are closed.
+ *
  * @author jrobinso
  */
 public class Preprocessor implements DataConsumer {
 
     private static Logger log = Logger.getLogger(Preprocessor.class);
+
+    static final int BATCH_SIZE = 4096;
+    static final int STAGE_QUEUE_CAPACITY = 8;
+    static final int RAW_TILE_WIDTH = 100000;
+    static final int MIN_STREAMING_RAW_TILE_WIDTH = 1000;
+    static final int TILE_STREAM_CAPACITY = 16;
+    static final int STREAMING_TILE_STREAM_CAPACITY = 4;
     boolean compressed = true;
     private boolean skipZeroes = false;
     private int nZoom = 7;
@@ -87,6 +115,17 @@ public class Preprocessor implements DataConsumer {
     Set<String> visitedChromosomes = new HashSet();
     Map<String, String> attributes = new HashMap();
     PrintStream out = System.out;
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    private boolean streaming = false;
+    Batch batch;
+    Stage rawStage;
+    Stage[] zoomStages;
+    ExecutorService encoder;
+    TileWriter tileWriter;
+    final Object tileLock = new Object();
+    // Sequence number of the last task dispatched to the stages
+    long taskSeq = 0;
+    volatile boolean aborted = false;
 
 
     List<WindowFunction> allDataFunctions = Arrays.asList(
@@ -136,14 +175,31 @@ public class Preprocessor implements DataConsumer {
             // Convert genome coordinates from bp to kbp
             int genomeLength = (int) (genome.getLength() / 1000);
             genomeZoom = new Zoom(Globals.CHR_ALL, 0, genomeLength);
+            // The whole genome tiles are written after all chromosomes,  closing them must not wait on the writer
+            genomeZoom.stream = new TileStream(0);
 
             TDFGroup rootGroup = writer.getRootGroup();
             rootGroup.setAttribute("genome", genome.getId());
             rootGroup.setAttribute("maxZoom", String.valueOf(nZoom));
 
+            startPipeline();
         }
     }
 
+    private void startPipeline() {
+        encoder = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TDFTileEncoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        resetPeakMemory();
+        tileWriter = new TileWriter();
+        rawStage = new Stage("TDFRawData");
+        batch = new Batch();
+    }
+
 
     /**
      * Add an array of data for the given interval.  The array contains a value for each sample/track in this
@@ -170,6 +226,7 @@ public class Preprocessor implements DataConsumer {
 
         // Check for stop signal
         if (statusMonitor != null && statusMonitor.isInterrupted()) {
+            abortPipeline();
             throw new PreprocessingException("Preprocessing Halted.");
         }
 
@@ -183,6 +240,7 @@ public class Preprocessor implements DataConsumer {
                         "  (last position = " + lastStartPosition +
                         "   max ext factor = " + maxExtFactor + ")";
                 out.println(msg);
+                abortPipeline();
                 throw new UnsortedException(msg);
             }
         } else {
@@ -202,12 +260,10 @@ public class Preprocessor implements DataConsumer {
         }
 
 
-        // Add to raw data
-        rawData.addData(start, end, data, name);
-
-        // Zoom levels
-        for (Zoom zl : zoomLevels) {
-            zl.addData(start, end, data);
+        // Raw data and zoom levels are computed by the stages,  a batch at a time
+        batch.add(start, end, data, name);
+        if (batch.isFull()) {
+            dispatchBatch();
         }
 
         // Whole genome
@@ -218,7 +274,7 @@ public class Preprocessor implements DataConsumer {
 
         // Don't include "chrM" in the whole genome view or stats
         if (!(chr.equals("chrM") || chr.equals("M") || chr.equals("MT"))) {
-            genomeZoom.addData(gStart, gEnd, data);
+            genomeZoom.addData(gStart, gEnd, data, 0);
             for (int i = 0; i < data.length; i++) {
                 allDataStats.add(gEnd-gStart, data[i]);
             }
@@ -226,6 +282,150 @@ public class Preprocessor implements DataConsumer {
 
         lastStartPosition = start;
 
+        // Update progress -- assume uniform distribution
+        if (statusMonitor != null && sizeEstimate > 0) {
+            int p = (int) ((100.0 * nPtsProcessed) / (1.5 * sizeEstimate));
+            if (p > percentComplete) {
+                percentComplete = p;
+                statusMonitor.setPercentComplete(percentComplete);
+            }
+        }
+        nPtsProcessed++;
+    }
+
+    /**
+     * Hand the current batch to the raw data and zoom level stages.
+     */
+    private void dispatchBatch() {
+        if (batch.size == 0) {
+            return;
+        }
+        final Batch b = batch;
+        final Raw raw = rawData;
+        long seq = ++taskSeq;
+        submit(rawStage, raw.stream, seq, new Runnable() {
+            public void run() {
+                for (int i = 0; i < b.size; i++) {
+                    raw.addData(b.starts[i], b.ends[i], b.data, i * nTracks, b.names == null ? null : b.names[i]);
+                }
+            }
+        });
+        for (int z = 0; z < zoomLevels.length; z++) {
+            final Zoom zl = zoomLevels[z];
+            submit(zoomStages[z], zl.stream, seq, new Runnable() {
+                public void run() {
+                    for (int i = 0; i < b.size; i++) {
+                        zl.addData(b.starts[i], b.ends[i], b.data, i * nTracks);
+                    }
+                }
+            });
+        }
+        batch = new Batch();
+    }
+
+    /**
+     * Submit the task of a stream to its stage.  Tiles the task closes are tagged with its sequence number,  and
+     * the stream records the task complete when it is done.
+     */
+    private void submit(Stage stage, final TileStream stream, final long seq, final Runnable task) {
+        stage.submit(new Runnable() {
+            public void run() {
+                stream.begin(seq);
+                task.run();
+                stream.complete(seq);
+            }
+        });
+    }
+
+    /**
+     * Close the remaining tiles of the current chromosome,  after the stages have processed its last records.
+     */
+    private void closeChromosome() {
+        dispatchBatch();
+        final Raw raw = rawData;
+        long seq = ++taskSeq;
+        submit(rawStage, raw.stream, seq, new Runnable() {
+            public void run() {
+                raw.close();
+                raw.stream.end();
+            }
+        });
+        for (int z = 0; z < zoomLevels.length; z++) {
+            final Zoom zl = zoomLevels[z];
+            submit(zoomStages[z], zl.stream, seq, new Runnable() {
+                public void run() {
+                    zl.close();
+                    zl.stream.end();
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait for the stages to close their last tiles and for the writer to write them.
+     */
+    private void finishPipeline() {
+        try {
+            rawStage.finish();
+            if (zoomStages != null) {
+                for (Stage stage : zoomStages) {
+                    stage.finish();
+                }
+            }
+            tileWriter.finish();
+        } catch (InterruptedException e) {
+            abortPipeline();
+            throw new PreprocessingException("Preprocessing Halted.", e);
+        }
+        encoder.shutdown();
+    }
+
+    /**
+     * Stop all pipeline threads,  discarding pending tiles.  Called when preprocessing is halted or fails.
+     */
+    void abortPipeline() {
+        aborted = true;
+        if (encoder != null) {
+            encoder.shutdownNow();
+        }
+        if (rawStage != null) {
+            rawStage.thread.interrupt();
+        }
+        if (zoomStages != null) {
+            for (Stage stage : zoomStages) {
+                stage.thread.interrupt();
+            }
+        }
+        if (tileWriter != null) {
+            tileWriter.thread.interrupt();
+        }
+    }
+
+    /**
+     * Rethrow an error caught on a pipeline thread on the calling thread.
+     */
+    private void rethrow(Throwable error) {
+        abortPipeline();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else {
+            throw new PreprocessingException("Error writing tiles: " + error.getMessage(), error);
+        }
+    }
+
+    /**
+     * Compress a closed tile in the encoder pool and queue it on its stream for the writer.  Blocks while the stream
+     * has as many tiles pending as it may.
+     */
+    void writeTile(TileStream stream, final TDFDataset dataset, final int tileNumber, final TDFTile tile) {
+        stream.acquire();
+        stream.add(encoder.submit(new Callable<EncodedTile>() {
+            public EncodedTile call() throws IOException {
+                return new EncodedTile(dataset, tileNumber, writer.encodeTile(tile));
+            }
+        }));
     }
 
 
@@ -238,6 +438,7 @@ public class Preprocessor implements DataConsumer {
             String msg = "Error: Data is not ordered by start position. Chromosome " + chr +
                     " appears in multiple blocks";
             out.println(msg);
+            abortPipeline();
             throw new PreprocessingException(msg);
 
         }
@@ -254,13 +455,8 @@ public class Preprocessor implements DataConsumer {
 
             out.println();
             out.println("Processing chromosome " + chr);
-            if (zoomLevels != null) {
-                for (Zoom zl : zoomLevels) {
-                    zl.close();
-                }
-            }
             if (rawData != null) {
-                rawData.close();
+                closeChromosome();
             }
 
             currentChr = chr;
@@ -269,8 +465,22 @@ public class Preprocessor implements DataConsumer {
             for (int z = 0; z <= getNZoom(); z++) {
                 zoomLevels[z] = new Zoom(chr, z, currentChrLength);
             }
+            if (zoomStages == null) {
+                zoomStages = new Stage[zoomLevels.length];
+                for (int z = 0; z < zoomStages.length; z++) {
+                    zoomStages[z] = new Stage("TDFZoom" + z);
+                }
+            }
+
+            rawData = new Raw(chr, currentChrLength, getRawTileWidth());
 
-            rawData = new Raw(chr, currentChrLength, 100000);
+            // Ties between tiles closed by the same batch are written raw data first,  then zoom levels in order
+            List<TileStream> streams = new ArrayList<TileStream>(zoomLevels.length + 1);
+            streams.add(rawData.stream);
+            for (Zoom zl : zoomLevels) {
+                streams.add(zl.stream);
+            }
+            tileWriter.add(streams);
         }
         lastStartPosition = 0;
 
@@ -304,20 +514,19 @@ public class Preprocessor implements DataConsumer {
             writer.getRootGroup().setAttribute(entry.getKey(), entry.getValue());
         }
 
-        if (zoomLevels != null) {
-            for (Zoom zl : zoomLevels) {
-                zl.close();
-            }
+        if (rawData != null) {
+            closeChromosome();
         }
         genomeZoom.close();
+        genomeZoom.stream.end();
+        tileWriter.add(Collections.singletonList(genomeZoom.stream));
+        finishPipeline();
 
         if (rawData == null) {
             // TODO -- delete .tdf file?
             out.println("No features were found that matched chromosomes in genome: " + genome.getId());
 
         } else {
-            rawData.close();
-
             // Record max/min
             allDataStats.finish();
             TDFGroup group = writer.getGroup("/");
@@ -328,6 +537,9 @@ public class Preprocessor implements DataConsumer {
             writer.closeFile();
         }
 
+        out.println();
+        out.println("Peak heap memory: " + (getPeakMemory() / 1000000) + " MB");
+
         if (statusMonitor != null) {
             statusMonitor.setPercentComplete(100);
         } else {
@@ -335,6 +547,40 @@ public class Preprocessor implements DataConsumer {
         }
     }
 
+    /**
+     * Reset the peak usage of the heap memory pools,  so {@link #getPeakMemory()} measures from now.
+     */
+    static void resetPeakMemory() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Return the sum of the peak usage of the heap memory pools.  The pools may peak at different times,  so this is
+     * an upper bound of the peak heap size.
+     */
+    static long getPeakMemory() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Raw tiles hold every record in their span.  When streaming they are narrowed as the number of tracks grows,
+     * so a tile of 1 bp records holds a bounded number of values.
+     */
+    int getRawTileWidth() {
+        return streaming ? Math.max(MIN_STREAMING_RAW_TILE_WIDTH, RAW_TILE_WIDTH / Math.max(1, nTracks)) :
+                RAW_TILE_WIDTH;
+    }
+
 
     public void setType(String type) {
         //this.type = type;
@@ -367,12 +613,324 @@ public class Preprocessor implements DataConsumer {
         this.nZoom = nZoom;
     }
 
+    public int getNThreads() {
+        return nThreads;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Set bounded-memory streaming mode,  for very dense inputs with many tracks.  Zoom tiles keep only the
+     * summarized values of finished bins,  raw tiles are narrowed for many tracks,  and fewer closed tiles wait
+     * to be compressed.  Must be called before {@link #setTrackParameters}.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Set the number of tile compression threads,  and of coverage counting threads for {@link #count}.  Must be
+     * called before {@link #setTrackParameters}.
+     */
+    public void setNThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * A run of consecutive records on one chromosome.  Values are copied,  as parsers may reuse their data
+     * arrays.  A dispatched batch is shared,  read only,  by all stages.
+     */
+    class Batch {
+        int size = 0;
+        int[] starts = new int[BATCH_SIZE];
+        int[] ends = new int[BATCH_SIZE];
+        float[] data = new float[BATCH_SIZE * nTracks];
+        String[] names;
+
+        void add(int start, int end, float[] values, String name) {
+            starts[size] = start;
+            ends[size] = end;
+            System.arraycopy(values, 0, data, size * nTracks, nTracks);
+            if (name != null) {
+                if (names == null) {
+                    names = new String[BATCH_SIZE];
+                }
+                names[size] = name;
+            }
+            size++;
+        }
+
+        boolean isFull() {
+            return size == BATCH_SIZE;
+        }
+    }
+
+    /**
+     * Runs submitted tasks in order on its own thread.  Submitting blocks while STAGE_QUEUE_CAPACITY tasks are
+     * pending.  After a task fails the remaining tasks are skipped,  and the error is rethrown to the submitter.
+     */
+    class Stage implements Runnable {
+        private final ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(STAGE_QUEUE_CAPACITY);
+        private final Thread thread;
+        private volatile Throwable error;
+
+        Stage(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Runnable task) {
+            if (error != null) {
+                rethrow(error);
+            }
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                abortPipeline();
+                throw new PreprocessingException("Preprocessing Halted.", e);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            queue.put(END_OF_TASKS);
+            thread.join();
+            if (error != null) {
+                rethrow(error);
+            }
+        }
+
+        public void run() {
+            try {
+                Runnable task;
+                while ((task = queue.take()) != END_OF_TASKS) {
+                    if (error == null && !aborted) {
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            log.error("Error in " + thread.getName(), t);
+                            error = t;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Aborted
+            }
+        }
+    }
+
+    static final Runnable END_OF_TASKS = new Runnable() {
+        public void run() {
+        }
+    };
+
+    static class EncodedTile {
+        TDFDataset dataset;
+        int tileNumber;
+        byte[] bytes;
+
+        EncodedTile(TDFDataset dataset, int tileNumber, byte[] bytes) {
+            this.dataset = dataset;
+            this.tileNumber = tileNumber;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A closed tile,  tagged with the sequence number of the task that closed it.
+     */
+    static class PendingTile {
+        long seq;
+        Future<EncodedTile> tile;
+
+        PendingTile(long seq, Future<EncodedTile> tile) {
+            this.seq = seq;
+            this.tile = tile;
+        }
+    }
+
+    /**
+     * The tiles of the raw data or of one zoom level of a chromosome,  in the order they were closed.  A tile holds a
+     * permit from when it is closed until it is written.
+     */
+    class TileStream {
+        final LinkedList<PendingTile> tiles = new LinkedList<PendingTile>();     // guarded by tileLock
+        final Semaphore permits;
+        long currentSeq = 0;            // the task in progress,  stage thread only
+        long completedSeq = 0;          // guarded by tileLock
+        boolean ended = false;          // guarded by tileLock
+
+        /**
+         * @param capacity the number of tiles that may be pending,  0 for no limit
+         */
+        TileStream(int capacity) {
+            permits = capacity > 0 ? new Semaphore(capacity) : null;
+        }
+
+        TileStream() {
+            this(streaming ? STREAMING_TILE_STREAM_CAPACITY : TILE_STREAM_CAPACITY);
+        }
+
+        void acquire() {
+            if (permits != null) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    throw new PreprocessingException("Preprocessing Halted.", e);
+                }
+            }
+        }
+
+        void release() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+
+        void begin(long seq) {
+            currentSeq = seq;
+        }
+
+        void add(Future<EncodedTile> tile) {
+            synchronized (tileLock) {
+                tiles.add(new PendingTile(currentSeq, tile));
+                tileLock.notifyAll();
+            }
+        }
+
+        void complete(long seq) {
+            synchronized (tileLock) {
+                completedSeq = seq;
+                tileLock.notifyAll();
+            }
+        }
+
+        void end() {
+            synchronized (tileLock) {
+                ended = true;
+                tileLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes groups of tile streams,  the streams of a chromosome and then the whole genome stream,  one group after
+     * the other.  Within a group tiles are written in the order of the task that closed them,  ties in the order of
+     * the streams,  so the layout of the file is deterministic.
+     */
+    class TileWriter implements Runnable {
+        private final LinkedBlockingQueue<List<TileStream>> groups = new LinkedBlockingQueue<List<TileStream>>();
+        private final List<TileStream> endOfGroups = new ArrayList<TileStream>();
+        private final Thread thread;
+        private volatile Throwable error;
+
+        TileWriter() {
+            thread = new Thread(this, "TDFTileWriter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void add(List<TileStream> streams) {
+            if (error != null) {
+                rethrow(error);
+            }
+            groups.add(streams);
+        }
+
+        void finish() throws InterruptedException {
+            groups.add(endOfGroups);
+            thread.join();
+            if (error != null) {
+                rethrow(error);
+            }
+        }
+
+        public void run() {
+            try {
+                List<TileStream> group;
+                while ((group = groups.take()) != endOfGroups) {
+                    TileStream stream;
+                    while ((stream = takeNext(group)) != null) {
+                        PendingTile pending;
+                        synchronized (tileLock) {
+                            pending = stream.tiles.removeFirst();
+                        }
+                        if (error == null && !aborted) {
+                            try {
+                                EncodedTile tile = pending.tile.get();
+                                writer.writeEncodedTile(tile.dataset, tile.tileNumber, tile.bytes);
+                            } catch (ExecutionException e) {
+                                log.error("Error encoding tile", e.getCause());
+                                error = e.getCause();
+                            } catch (IOException e) {
+                                log.error("Error writing tile", e);
+                                error = e;
+                            }
+                        }
+                        stream.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Aborted
+            }
+        }
+
+        /**
+         * Wait until the next tile of the group can be written and return its stream,  or null once every stream
+         * of the group has ended and been written.  The first pending tile is next when no stream without pending
+         * tiles can still close a tile before it,  i.e. each such stream has completed the task before,  or the
+         * task itself if it comes first in the group.
+         */
+        private TileStream takeNext(List<TileStream> group) throws InterruptedException {
+            synchronized (tileLock) {
+                while (true) {
+                    TileStream next = null;
+                    int nextIndex = -1;
+                    boolean done = true;
+                    for (int i = 0; i < group.size(); i++) {
+                        TileStream stream = group.get(i);
+                        if (!stream.tiles.isEmpty() &&
+                                (next == null || stream.tiles.getFirst().seq < next.tiles.getFirst().seq)) {
+                            next = stream;
+                            nextIndex = i;
+                        }
+                        done &= stream.ended && stream.tiles.isEmpty();
+                    }
+                    if (done) {
+                        return null;
+                    }
+                    if (next != null && isNext(group, next, nextIndex)) {
+                        return next;
+                    }
+                    tileLock.wait();
+                }
+            }
+        }
+
+        private boolean isNext(List<TileStream> group, TileStream next, int nextIndex) {
+            long seq = next.tiles.getFirst().seq;
+            for (int i = 0; i < group.size(); i++) {
+                TileStream stream = group.get(i);
+                if (stream == next || stream.ended || !stream.tiles.isEmpty()) {
+                    continue;
+                }
+                if (stream.completedSeq < (i < nextIndex ? seq : seq - 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
 
     /**
      * Class representing a tile of raw (as opposed to summarized) data.
      */
     class RawTile {
-        String dsName;
+        TDFDataset dataset;
+        TileStream stream;
         int tileNumber;
         int tileStart;
         int tileEnd;
@@ -381,8 +939,9 @@ public class Preprocessor implements DataConsumer {
         ArrayList<String> nameList;
         FloatArrayList[] dataArray;
 
-        RawTile(String dsName, int tileNumber, int start, int end) {
-            this.dsName = dsName;
+        RawTile(TDFDataset dataset, TileStream stream, int tileNumber, int start, int end) {
+            this.dataset = dataset;
+            this.stream = stream;
             this.tileNumber = tileNumber;
             this.tileStart = start;
             this.tileEnd = end;
@@ -394,7 +953,7 @@ public class Preprocessor implements DataConsumer {
             }
         }
 
-        void addData(int start, int end, float[] data, String name) {
+        void addData(int start, int end, float[] data, int offset, String name) {
 
 
             if (start > tileEnd) {
@@ -416,8 +975,8 @@ public class Preprocessor implements DataConsumer {
             int dataEnd = Math.min(tileEnd, end);
             startArray.add(dataStart);
             endArray.add(dataEnd);
-            for (int i = 0; i < data.length; i++) {
-                dataArray[i].add(data[i]);
+            for (int i = 0; i < nTracks; i++) {
+                dataArray[i].add(data[offset + i]);
             }
             if (name != null) {
                 nameList.add(name);
@@ -425,27 +984,23 @@ public class Preprocessor implements DataConsumer {
         }
 
         void close() {
-            try {
-                if (startArray.size() > 0) {
-                    int[] s = startArray.toArray();
-                    int[] e = endArray.toArray();
-                    float[][] d = new float[dataArray.length][dataArray[0].size()];
-                    for (int i = 0; i < dataArray.length; i++) {
-                        d[i] = dataArray[i].toArray();
-                    }
+            if (startArray.size() > 0) {
+                int[] s = startArray.toArray();
+                int[] e = endArray.toArray();
+                float[][] d = new float[dataArray.length][dataArray[0].size()];
+                for (int i = 0; i < dataArray.length; i++) {
+                    d[i] = dataArray[i].toArray();
+                }
 
 
-                    String[] n = nameList == null ? null : nameList.toArray(new String[]{});
-                    TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
-                    writer.writeTile(dsName, tileNumber, tile);
-                    startArray.clear();
-                    endArray.clear();
-                    for (int i = 0; i < dataArray.length; i++) {
-                        dataArray[i].clear();
-                    }
+                String[] n = nameList == null ? null : nameList.toArray(new String[]{});
+                TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
+                writeTile(stream, dataset, tileNumber, tile);
+                startArray.clear();
+                endArray.clear();
+                for (int i = 0; i < dataArray.length; i++) {
+                    dataArray[i].clear();
                 }
-            } catch (IOException ex) {
-                ex.printStackTrace();
             }
         }
     }
@@ -460,8 +1015,9 @@ public class Preprocessor implements DataConsumer {
         String chr;
         String dsName;
         TDFDataset dataset;
+        TileStream stream = new TileStream();
         int tileWidth;
-        Map<Integer, RawTile> activeTiles = new HashMap();
+        LinkedHashMap<Integer, RawTile> activeTiles = new LinkedHashMap();
 
         Raw(String chr, int chrLength, int tileWidth) {
 
@@ -477,7 +1033,7 @@ public class Preprocessor implements DataConsumer {
          * @param end
          * @param data
          */
-        public void addData(int start, int end, float[] data, String name) {
+        public void addData(int start, int end, float[] data, int offset, String name) {
 
             int startTileNumber = (int) (start / tileWidth);
             int endTileNumber = (int) (end / tileWidth);
@@ -500,21 +1056,11 @@ public class Preprocessor implements DataConsumer {
             for (int t = startTileNumber; t <= endTileNumber; t++) {
                 RawTile tile = activeTiles.get(t);
                 if (tile == null) {
-                    tile = new RawTile(dsName, t, t * tileWidth, (t + 1) * tileWidth);
+                    tile = new RawTile(dataset, stream, t, t * tileWidth, (t + 1) * tileWidth);
                     activeTiles.put(t, tile);
                 }
-                tile.addData(start, end, data, name);
+                tile.addData(start, end, data, offset, name);
             }
-
-            // Update progress -- assume uniform distribution
-            if (statusMonitor != null && sizeEstimate > 0) {
-                int p = (int) ((100.0 * nPtsProcessed) / (1.5 * sizeEstimate));
-                if (p > percentComplete) {
-                    percentComplete = p;
-                    statusMonitor.setPercentComplete(percentComplete);
-                }
-            }
-            nPtsProcessed++;
         }
 
         void close() {
@@ -535,7 +1081,8 @@ public class Preprocessor implements DataConsumer {
         int level;
         int tileWidth;
         LinkedHashMap<Integer, Tile> activeTiles = new LinkedHashMap();
-        Map<WindowFunction, TDFDataset> datasets = new HashMap();
+        Map<WindowFunction, TDFDataset> datasets = new LinkedHashMap();
+        TileStream stream = new TileStream();
 
 
         Zoom(String chr, int level, int chrLength) {
@@ -550,7 +1097,7 @@ public class Preprocessor implements DataConsumer {
             }
         }
 
-        public void addData(int start, int end, float[] data) {
+        public void addData(int start, int end, float[] data, int offset) {
 
             int startTile = start / tileWidth;
             int endTile = end / tileWidth;
@@ -572,10 +1119,10 @@ public class Preprocessor implements DataConsumer {
             for (int i = startTile; i <= endTile; i++) {
                 Tile t = activeTiles.get(i);
                 if (t == null) {
-                    t = new Tile(datasets, level, i, 700, tileWidth);
+                    t = new Tile(datasets, stream, level, i, 700, tileWidth);
                     activeTiles.put(i, t);
                 }
-                t.addData(start, end, data);
+                t.addData(start, end, data, offset);
             }
         }
 
@@ -602,16 +1149,27 @@ public class Preprocessor implements DataConsumer {
         int nonEmptyBins;
         ListAccumulator[][] accumulators;
         Map<WindowFunction, TDFDataset> datasets;
+        TileStream stream;
 
-        Tile(Map<WindowFunction, TDFDataset> datasets, int zoomLevel, int tileNumber, int nBins, int tileWidth) {
+        // When streaming,  the accumulators of finished bins are released,  keeping their values by window function
+        boolean[][] releasedBins;
+        float[][][] releasedValues;
+
+        Tile(Map<WindowFunction, TDFDataset> datasets, TileStream stream, int zoomLevel, int tileNumber, int nBins,
+             int tileWidth) {
             this.totalCount = 0;
             this.datasets = datasets;
+            this.stream = stream;
             this.zoomLevel = zoomLevel;
             this.tileNumber = tileNumber;
             this.tileStart = tileNumber * tileWidth;
             this.nBins = nBins;
             this.binWidth = ((double) tileWidth) / nBins;
             this.accumulators = new ListAccumulator[nTracks][nBins];
+            if (streaming) {
+                releasedBins = new boolean[nTracks][nBins];
+                releasedValues = new float[datasets.size()][nTracks][nBins];
+            }
         }
 
         /**
@@ -620,8 +1178,9 @@ public class Preprocessor implements DataConsumer {
          * @param start
          * @param end
          * @param data  array of values at this position,  1 value per track
+         * @param offset index in data of the value of the first track
          */
-        void addData(int start, int end, float[] data) {
+        void addData(int start, int end, float[] data, int offset) {
             totalCount++;
 
             int startBin = Math.max(0, (int) ((start - tileStart) / binWidth));
@@ -634,19 +1193,48 @@ public class Preprocessor implements DataConsumer {
                 for (int b = lastFinishedBin; b < tmp; b++) {
                     if (accumulators[t][b] != null) {
                         accumulators[t][b].finish();
+                        if (streaming) {
+                            release(t, b);
+                        }
                     }
                 }
                 lastFinishedBin = Math.max(0, tmp - 1);
 
                 for (int b = startBin; b <= endBin; b++) {
                     if (accumulators[t][b] == null) {
+                        if (streaming && releasedBins[t][b]) {
+                            continue;   // Late data for a finished bin,  already summarized
+                        }
                         accumulators[t][b] = new ListAccumulator(datasets.keySet());
                     }
-                    accumulators[t][b].add(end-start, data[t]);
+                    accumulators[t][b].add(end-start, data[offset + t]);
                 }
             }
         }
 
+        /**
+         * Keep the values of a finished bin and release its accumulator.
+         */
+        private void release(int t, int b) {
+            int w = 0;
+            for (WindowFunction wf : datasets.keySet()) {
+                releasedValues[w++][t][b] = accumulators[t][b].getValue(wf);
+            }
+            releasedBins[t][b] = true;
+            accumulators[t][b] = null;
+        }
+
+        private boolean hasData(int t, int b) {
+            return accumulators[t][b] != null || (releasedBins != null && releasedBins[t][b]);
+        }
+
+        private float getValue(int w, WindowFunction wf, int t, int b) {
+            if (accumulators[t][b] != null) {
+                return accumulators[t][b].getValue(wf);
+            }
+            return releasedBins != null && releasedBins[t][b] ? releasedValues[w][t][b] : Float.NaN;
+        }
+
 
         /**
          *
@@ -660,15 +1248,16 @@ public class Preprocessor implements DataConsumer {
                 for (int i = 0; i < nBins; i++) {
                     if (accumulators[t][i] != null) {
                         accumulators[t][i].finish();
-                        if (t == 0) {
-                            nonEmptyBins++;
-                        }
+                    }
+                    if (t == 0 && hasData(t, i)) {
+                        nonEmptyBins++;
                     }
                 }
             }
 
             TDFTile tile = null;
 
+            int w = 0;
             for (WindowFunction wf : datasets.keySet()) {
 
 
@@ -679,9 +1268,8 @@ public class Preprocessor implements DataConsumer {
                     int n = 0;
                     for (int i = 0; i < nBins; i++) {
                         for (int t = 0; t < nTracks; t++) {
-                            ListAccumulator acc = accumulators[t][i];
-                            if (acc != null) {
-                                data[t][n] = acc.getValue(wf);
+                            if (hasData(t, i)) {
+                                data[t][n] = getValue(w, wf, t, i);
                                 if (t == nTracks - 1) {
                                     starts[n] = (int) (tileStart + (i * binWidth));
                                     n++;
@@ -695,20 +1283,14 @@ public class Preprocessor implements DataConsumer {
                     float[][] data = new float[nTracks][nBins];
                     for (int t = 0; t < nTracks; t++) {
                         for (int i = 0; i < nBins; i++) {
-                            data[t][i] = accumulators[t][i] == null ? Float.NaN : accumulators[t][i].getValue(wf);
+                            data[t][i] = getValue(w, wf, t, i);
                         }
                     }
                     tile = new TDFFixedTile(tileStart, tileStart, binWidth, data);
                 }
 
-                String dsName = datasets.get(wf).getName();
-                try {
-                    writer.writeTile(dsName, tileNumber, tile);
-                } catch (IOException iOException) {
-                    log.error("Error writing tile: " + dsName + " [" + tileNumber + "]", iOException);
-                    //TODO -- replace with PreprocessorException
-                    throw new RuntimeException(iOException);
-                }
+                writeTile(stream, datasets.get(wf), tileNumber, tile);
+                w++;
             }
         }
     }
@@ -727,6 +1309,7 @@ public class Preprocessor implements DataConsumer {
 
         CoverageCounter aParser = new CoverageCounter(iFile, this, windowSizeValue, extFactorValue, outputFile,
                 wigFile, genome, coverageOpt);
+        aParser.setNThreads(nThreads);
 
         /*if(isize != null) {
            String [] tokens = isize.split(",");
@@ -752,6 +1335,7 @@ public class Preprocessor implements DataConsumer {
         catch (Exception e) {
             // Delete the output file as its probably corrupt
             e.printStackTrace();
+            abortPipeline();
             if(outputFile.exists()) {
                 outputFile.delete();
             }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.tdf.TDFDataset;
+import org.broad.igv.tdf.TDFReader;
+import org.broad.igv.tdf.TDFTile;
+import org.broad.igv.track.WindowFunction;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PreprocessorTest {
+
+    static final String[] CHROMOSOMES = {"chr1", "chr2", "chr3"};
+    static final int[] CHROMOSOME_LENGTHS = {3000000, 1000000, 2000000};
+    static final int SPAN = 25;
+
+    static File dir;
+    static Genome genome;
+    static File wigFile;
+    static int[] recordCounts = new int[CHROMOSOMES.length];
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Globals.setHeadless(true);
+        dir = File.createTempFile("preprocessor", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        genome = createGenome();
+        wigFile = createWig(new Random(1));
+    }
+
+    @Test
+    public void testParallelOutputEqualsSerial() throws IOException {
+        byte[] serial = FileUtils.readFileToByteArray(tile(1, false));
+        byte[] parallel = FileUtils.readFileToByteArray(tile(4, false));
+
+        assertTrue(serial.length > 0);
+        assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void testStreamingParallelOutputEqualsSerial() throws IOException {
+        byte[] serial = FileUtils.readFileToByteArray(tile(1, true));
+        byte[] parallel = FileUtils.readFileToByteArray(tile(4, true));
+
+        assertTrue(serial.length > 0);
+        assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void testRawTilesHoldEveryRecord() throws IOException {
+        TDFReader reader = TDFReader.getReader(tile(4, false).getAbsolutePath());
+        for (int i = 0; i < CHROMOSOMES.length; i++) {
+            TDFDataset dataset = reader.getDataset("/" + CHROMOSOMES[i] + "/raw");
+            List<TDFTile> tiles = dataset.getTiles(0, CHROMOSOME_LENGTHS[i]);
+            int size = 0;
+            for (TDFTile tile : tiles) {
+                size += tile.getSize();
+            }
+
+            // A record spanning two tiles is in both
+            assertTrue(size >= recordCounts[i]);
+            assertTrue(size <= recordCounts[i] + tiles.size());
+        }
+        reader.close();
+    }
+
+    private File tile(int nThreads, boolean streaming) throws IOException {
+        File tdfFile = new File(dir, "test_" + nThreads + (streaming ? "_streaming" : "") + ".tdf");
+        tdfFile.deleteOnExit();
+        List<WindowFunction> windowFunctions = Arrays.asList(WindowFunction.mean, WindowFunction.max);
+
+        Preprocessor p = new Preprocessor(tdfFile, genome, windowFunctions, -1, null);
+        p.setNThreads(nThreads);
+        p.setStreaming(streaming);
+        p.preprocess(wigFile, 7);
+        p.finish();
+
+        return tdfFile;
+    }
+
+    /**
+     * A genome defined by a fasta index,  only the index is read
+     */
+    private static Genome createGenome() throws IOException {
+        File fasta = new File(dir, "test.fa");
+        fasta.deleteOnExit();
+        FileUtils.writeStringToFile(fasta, ">chr1\nACGT\n");
+
+        File index = new File(dir, "test.fa.fai");
+        index.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(index));
+        for (int i = 0; i < CHROMOSOMES.length; i++) {
+            pw.println(CHROMOSOMES[i] + "\t" + CHROMOSOME_LENGTHS[i] + "\t6\t60\t61");
+        }
+        pw.close();
+
+        return new Genome("test", "test", fasta.getAbsolutePath(), true, null);
+    }
+
+    /**
+     * Random values at random intervals,  dense and sparse regions alternating
+     */
+    private static File createWig(Random random) throws IOException {
+        File file = new File(dir, "test.wig");
+        file.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(file));
+        pw.println("track type=wiggle_0 name=test");
+        for (int i = 0; i < CHROMOSOMES.length; i++) {
+            pw.println("variableStep chrom=" + CHROMOSOMES[i] + " span=" + SPAN);
+            int pos = 1;
+            while (true) {
+                boolean dense = (pos / 100000) % 2 == 0;
+                pos += SPAN + (dense ? random.nextInt(SPAN) : random.nextInt(5000));
+                if (pos + SPAN >= CHROMOSOME_LENGTHS[i]) {
+                    break;
+                }
+                pw.println(pos + "\t" + random.nextInt(1000) / 10.0f);
+                recordCounts[i]++;
+            }
+        }
+        pw.close();
+        return file;
+    }
+}
@@ -35,6 +35,7 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.PreferenceManager;
+import org.broad.igv.data.SummaryScores;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.feature.IGVFeature;
@@ -241,6 +242,10 @@ public abstract class DataTrack extends AbstractTrack {
 
         InViewInterval interval = new InViewInterval();
 
+        if (scores instanceof SummaryScores) {
+            return computeScale(origin, end, (SummaryScores) scores);
+        }
+
         if (scores.size() == 1) {
             interval.dataMax = Math.max(0, scores.get(0).getScore());
             interval.dataMin = Math.min(0, scores.get(0).getScore());
@@ -270,6 +275,41 @@ public abstract class DataTrack extends AbstractTrack {
         return interval;
     }
 
+    /**
+     * Same as above,  reading the score columns directly.
+     */
+    private InViewInterval computeScale(double origin, double end, SummaryScores scores) {
+
+        InViewInterval interval = new InViewInterval();
+
+        if (scores.size() == 1) {
+            interval.dataMax = Math.max(0, scores.getValue(0));
+            interval.dataMin = Math.min(0, scores.getValue(0));
+        } else {
+            interval.startIdx = 0;
+            interval.endIdx = scores.size();
+            for (int i = 1; i < scores.size(); i++) {
+                if (scores.getEnd(i) >= origin) {
+                    interval.startIdx = i - 1;
+                    break;
+                }
+            }
+
+            for (int i = interval.startIdx + 1; i < scores.size(); i++) {
+                float value = scores.getValue(i);
+                if (Float.isNaN(value)) value = 0;
+                interval.dataMax = Math.max(interval.dataMax, value);
+                interval.dataMin = Math.min(interval.dataMin, value);
+                if (scores.getStart(i) > end) {
+                    interval.endIdx = i;
+                    break;
+                }
+            }
+        }
+
+        return interval;
+    }
+
     @Override
     public Map<String, String> getPersistentState() {
         Map<String, String> properties = super.getPersistentState();
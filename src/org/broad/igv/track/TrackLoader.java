@@ -88,6 +88,7 @@ import org.broad.igv.sam.reader.IndexNotFoundException;
 import org.broad.igv.synteny.BlastMapping;
 import org.broad.igv.synteny.BlastParser;
 import org.broad.igv.tdf.TDFDataSource;
+import org.broad.igv.tdf.TDFMultiTrackSource;
 import org.broad.igv.tdf.TDFReader;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.TrackFilter;
@@ -795,6 +796,7 @@ public class TrackLoader {
         int trackNumber = 0;
         String path = locator.getPath();
         boolean multiTrack = reader.getTrackNames().length > 1;
+        TDFMultiTrackSource multiTrackSource = multiTrack ? new TDFMultiTrackSource(reader) : null;
 
         for (String heading : reader.getTrackNames()) {
 
@@ -802,7 +804,8 @@ public class TrackLoader {
             String trackName = multiTrack ? heading : name;
             final DataSource dataSource = locator.getPath().endsWith(".counts") ?
                     new GobyCountArchiveDataSource(locator) :
-                    new TDFDataSource(reader, trackNumber, heading, genome);
+                    multiTrack ? new TDFDataSource(multiTrackSource, trackNumber, heading, genome) :
+                            new TDFDataSource(reader, trackNumber, heading, genome);
             DataSourceTrack track = new DataSourceTrack(locator, trackId, trackName,
                     dataSource, genome);
 
@@ -48,7 +48,6 @@ import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.genome.mapping.GenomeLocus;
 import org.broad.igv.feature.genome.mapping.GenomeMapperException;
-import org.broad.igv.feature.genome.mapping.IGenomeMapper;
 import org.broad.igv.nrgene.DraggableTabbedPane;
 import org.broad.igv.nrgene.TabCloseIcon;
 import org.broad.igv.renderer.DataRange;
@@ -730,7 +729,6 @@ public class IGVContentPane extends JPanel {
 					log.info("mapping " + fromLocus + " from " + lastLocusGenome + " to " + genome);
 					
 					GenomeLocus		toLocus = null;
-					IGenomeMapper	mapper = null;
 					
 					String			fromGenomeId = null;
 					String			toGenomeId = null;
@@ -751,11 +749,8 @@ public class IGVContentPane extends JPanel {
 						}
 						else
 						{
-							mapper = IGV.getInstance().getGenomeManager().getGenomeMappingManager().getMapper(fromGenomeId, toGenomeId);
-							if ( mapper == null )
-								throw new GenomeMapperException(fromLocus, "no mapping from " + lastLocusGenome.getId() + " to " + genome.getId());
-						
-							toLocus = mapper.mapLocus(fromLocus);
+							// recent results are cached, so switching between several mapped tabs does not search again
+							toLocus = IGV.getInstance().getGenomeManager().getGenomeMappingManager().mapLocus(fromGenomeId, toGenomeId, fromLocus);
 							
 						}
 						if ( toLocus != null )
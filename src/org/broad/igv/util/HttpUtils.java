@@ -315,6 +315,15 @@ public class HttpUtils {
         }
     }
 
+    /**
+     * @return the ETag of the resource,  or null if the server doesn't provide one
+     */
+    public String getETag(URL url) throws IOException {
+        HttpURLConnection conn = openConnection(url, null, "HEAD");
+        int code = conn.getResponseCode();
+        return code < 300 ? conn.getHeaderField("ETag") : null;
+    }
+
     public void updateProxySettings() {
         boolean useProxy;
         String proxyHost;
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread safe dictionary of canonical instances,  used to share the many equal strings (read groups, samples,
+ * cigars, ...) held by loaded records.  Once the dictionary holds maxSize values new values are returned as is,
+ * so a field with unbounded distinct values cannot grow it without limit.
+ */
+public class Interner<T> {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<T, T> values = new ConcurrentHashMap<T, T>();
+
+    public Interner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the canonical instance equal to value,  or value itself if there is none and the dictionary is full
+     */
+    public T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        T canonical = values.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (values.size() >= maxSize) {
+            return value;
+        }
+        canonical = values.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public void clear() {
+        values.clear();
+    }
+}
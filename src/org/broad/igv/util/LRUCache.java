@@ -42,6 +42,7 @@ public class LRUCache<K, V> {
                 cache.clear();
             }
         }
+        WeightedLRUCache.clearCaches();
     }
 
 
@@ -84,6 +85,10 @@ public class LRUCache<K, V> {
         return getMap().get(key);
     }
 
+    public V remove(Object key) {
+        return getMap().remove(key);
+    }
+
     public boolean containsKey(Object o) {
         return getMap().containsKey(o);
     }
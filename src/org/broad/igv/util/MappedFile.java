@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read only memory mapping of a whole file,  split into segments as a single MappedByteBuffer is limited to 2 GB.
+ * <p/>
+ * The segments' positions are never changed,  reads work on duplicates,  so an instance is safe to read from any
+ * thread.  The mapping remains valid after the channel it was created from is closed.
+ */
+public class MappedFile {
+
+    /**
+     * Size of each mapped segment
+     */
+    static final long SEGMENT_SIZE = 1 << 30;
+
+    private final MappedByteBuffer[] segments;
+    private final long segmentSize;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] segments, long segmentSize, long size) {
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.size = size;
+    }
+
+    /**
+     * Map the whole file.  Mapping can fail for a large file on a 32-bit VM,  callers should fall back to reading
+     * the file.
+     */
+    public static MappedFile map(FileChannel channel) throws IOException {
+        return map(channel, SEGMENT_SIZE);
+    }
+
+    static MappedFile map(FileChannel channel, long segmentSize) throws IOException {
+        long size = channel.size();
+        int nSegments = (int) ((size + segmentSize - 1) / segmentSize);
+        MappedByteBuffer[] segments = new MappedByteBuffer[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            long start = i * segmentSize;
+            long length = Math.min(segmentSize, size - start);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        return new MappedFile(segments, segmentSize, size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Copy the bytes in [position, position + nBytes) to dest,  starting at destPos.
+     */
+    public void get(long position, byte[] dest, int destPos, int nBytes) {
+        int n = 0;
+        while (n < nBytes) {
+            long p = position + n;
+            ByteBuffer segment = segments[(int) (p / segmentSize)].duplicate();
+            segment.position((int) (p % segmentSize));
+            int count = Math.min(nBytes - n, segment.remaining());
+            segment.get(dest, destPos + n, count);
+            n += count;
+        }
+    }
+
+    /**
+     * Return the bytes in [position, position + nBytes) as a slice of the mapping,  no copy is made.  Returns null
+     * if the range crosses a segment boundary.
+     */
+    public ByteBuffer slice(long position, int nBytes) {
+        MappedByteBuffer segment = segments[(int) (position / segmentSize)];
+        int offset = (int) (position % segmentSize);
+        if (offset + nBytes > segment.limit()) {
+            return null;
+        }
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(offset);
+        buffer.limit(offset + nBytes);
+        return buffer.slice();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MappedFileTest {
+
+    static byte[] createBytes(int n) {
+        byte[] bytes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+        return bytes;
+    }
+
+    static MappedFile map(byte[] bytes, long segmentSize) throws IOException {
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(bytes);
+        } finally {
+            fos.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return MappedFile.map(raf.getChannel(), segmentSize);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testGetAcrossSegments() throws IOException {
+        byte[] bytes = createBytes(1000);
+        MappedFile mappedFile = map(bytes, 64);
+        assertEquals(1000, mappedFile.size());
+
+        int[][] ranges = {{0, 1000}, {0, 64}, {63, 65}, {64, 128}, {100, 300}, {960, 1000}, {999, 1000}};
+        for (int[] range : ranges) {
+            byte[] dest = new byte[range[1] - range[0] + 3];
+            mappedFile.get(range[0], dest, 3, range[1] - range[0]);
+            assertArrayEquals(range[0] + "-" + range[1], Arrays.copyOfRange(bytes, range[0], range[1]),
+                    Arrays.copyOfRange(dest, 3, dest.length));
+        }
+    }
+
+    @Test
+    public void testSlice() throws IOException {
+        byte[] bytes = createBytes(1000);
+        MappedFile mappedFile = map(bytes, 64);
+
+        ByteBuffer slice = mappedFile.slice(70, 50);
+        assertEquals(50, slice.remaining());
+        byte[] dest = new byte[50];
+        slice.get(dest);
+        assertArrayEquals(Arrays.copyOfRange(bytes, 70, 120), dest);
+
+        // The partial last segment,  and a range crossing a segment boundary
+        slice = mappedFile.slice(960, 40);
+        assertEquals(40, slice.remaining());
+        assertEquals(bytes[960], slice.get(0));
+        assertNull(mappedFile.slice(60, 10));
+    }
+}
@@ -27,6 +27,11 @@ package org.broad.igv.util;
  */
 public class RuntimeUtils {
 
+    /**
+     * Bytes per megabyte of the memory and cache size preferences
+     */
+    public static final long MB = 1024 * 1024;
+
     public static long getAvailableMemory() {
 
         Runtime runtime = Runtime.getRuntime();
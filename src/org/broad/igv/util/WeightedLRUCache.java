@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An LRU cache bounded by the total estimated size of its values rather than by an entry count.  Entries are
+ * evicted, least recently used first, until the total weight is within the budget.  The most recently added
+ * entry is never evicted, so a single value larger than the budget is still cached until the next put.
+ * <p/>
+ * Like {@link LRUCache} all instances are cleared by {@link LRUCache#clearCaches()} when memory runs low.
+ * <p/>
+ * Hits and misses of {@link #get(Object)},  and evictions,  are counted for diagnostics.
+ */
+public class WeightedLRUCache<K, V> {
+
+    private static Logger log = Logger.getLogger(WeightedLRUCache.class);
+
+    private static Map<Object, WeightedLRUCache> instances =
+            Collections.synchronizedMap(new WeakHashMap<Object, WeightedLRUCache>());
+
+    /**
+     * Computes the estimated size, in bytes, of a cached value.
+     */
+    public interface Weigher<V> {
+        long getWeight(V value);
+    }
+
+    public static void clearCaches() {
+        synchronized (instances) {
+            for (WeightedLRUCache cache : instances.values()) {
+                if (cache != null) {
+                    cache.clear();
+                }
+            }
+        }
+    }
+
+    private final Weigher<V> weigher;
+    private long maxWeight;
+    private long totalWeight = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+    private LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+    public WeightedLRUCache(Object source, long maxWeight, Weigher<V> weigher) {
+        instances.put(source, this);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public synchronized V put(K k, V v) {
+        V old = map.put(k, v);
+        if (old != null) {
+            totalWeight -= weigher.getWeight(old);
+        }
+        totalWeight += weigher.getWeight(v);
+        evict(k);
+        return old;
+    }
+
+    public synchronized V get(Object key) {
+        V v = map.get(key);
+        if (v == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return v;
+    }
+
+    public synchronized boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    public synchronized V remove(Object key) {
+        V v = map.remove(key);
+        if (v != null) {
+            totalWeight -= weigher.getWeight(v);
+        }
+        return v;
+    }
+
+    public synchronized boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        totalWeight = 0;
+    }
+
+    /**
+     * @return a copy of the keys,  least recently used first
+     */
+    public synchronized List<K> getKeys() {
+        return new ArrayList<K>(map.keySet());
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized String getStatistics() {
+        long requests = hitCount + missCount;
+        return hitCount + " hits of " + requests + " requests (" + (requests == 0 ? 0 : 100 * hitCount / requests) +
+                "%),  " + evictionCount + " evictions,  " + map.size() + " entries,  " + (totalWeight / 1000000) +
+                " of " + (maxWeight / 1000000) + " MB";
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict(null);
+    }
+
+    /**
+     * Remove least recently used entries until the cache is within its budget.
+     *
+     * @param keep key of an entry that must not be evicted,  or null
+     */
+    private void evict(K keep) {
+        Iterator<Map.Entry<K, V>> iter = map.entrySet().iterator();
+        while (totalWeight > maxWeight && iter.hasNext()) {
+            Map.Entry<K, V> entry = iter.next();
+            if (keep != null && keep.equals(entry.getKey())) {
+                continue;
+            }
+            totalWeight -= weigher.getWeight(entry.getValue());
+            iter.remove();
+            evictionCount++;
+            if (log.isDebugEnabled()) {
+                log.debug("Evicted " + entry.getKey() + ".  Cache weight = " + totalWeight);
+            }
+        }
+    }
+}
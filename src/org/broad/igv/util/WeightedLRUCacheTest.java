@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WeightedLRUCacheTest {
+
+    static final WeightedLRUCache.Weigher<byte[]> BYTES = new WeightedLRUCache.Weigher<byte[]>() {
+        public long getWeight(byte[] value) {
+            return value.length;
+        }
+    };
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByWeight() {
+        WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache(this, 300, BYTES);
+        cache.put(1, new byte[100]);
+        cache.put(2, new byte[100]);
+        cache.put(3, new byte[100]);
+        assertEquals(300, cache.getTotalWeight());
+
+        // Touch 1,  so 2 is the least recently used
+        cache.get(1);
+        cache.put(4, new byte[150]);
+
+        assertTrue(cache.containsKey(1));
+        assertFalse(cache.containsKey(2));
+        assertFalse(cache.containsKey(3));
+        assertTrue(cache.containsKey(4));
+        assertEquals(250, cache.getTotalWeight());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testOversizedValueIsKeptUntilNextPut() {
+        WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache(this, 100, BYTES);
+        cache.put(1, new byte[50]);
+        cache.put(2, new byte[500]);
+
+        assertFalse(cache.containsKey(1));
+        assertTrue(cache.containsKey(2));
+        assertEquals(500, cache.getTotalWeight());
+
+        cache.put(3, new byte[10]);
+        assertFalse(cache.containsKey(2));
+        assertEquals(10, cache.getTotalWeight());
+    }
+
+    @Test
+    public void testReplaceAndRemoveUpdateWeight() {
+        WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache(this, 1000, BYTES);
+        cache.put(1, new byte[100]);
+        cache.put(1, new byte[200]);
+        assertEquals(1, cache.size());
+        assertEquals(200, cache.getTotalWeight());
+
+        cache.remove(1);
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getTotalWeight());
+        assertNull(cache.remove(1));
+        assertEquals(0, cache.getTotalWeight());
+    }
+
+    @Test
+    public void testSetMaxWeightEvicts() {
+        WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache(this, 1000, BYTES);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, new byte[100]);
+        }
+        cache.setMaxWeight(250);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.containsKey(8));
+        assertTrue(cache.containsKey(9));
+        assertEquals(200, cache.getTotalWeight());
+    }
+
+    @Test
+    public void testHitAndMissCounts() {
+        WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache(this, 1000, BYTES);
+        cache.put(1, new byte[10]);
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testKeysInAccessOrder() {
+        WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache(this, 1000, BYTES);
+        cache.put(1, new byte[10]);
+        cache.put(2, new byte[10]);
+        cache.put(3, new byte[10]);
+        cache.get(1);
+
+        assertEquals(Arrays.asList(2, 3, 1), cache.getKeys());
+
+        // The keys are a copy,  removing while iterating is safe
+        for (Integer key : cache.getKeys()) {
+            cache.remove(key);
+        }
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testClearCaches() {
+        WeightedLRUCache<Integer, byte[]> cache = new WeightedLRUCache(this, 1000, BYTES);
+        cache.put(1, new byte[10]);
+        WeightedLRUCache.clearCaches();
+
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getTotalWeight());
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.util.stream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.util.RuntimeUtils;
+
+/**
+ * A persistent cache of data fetched from remote files,  e.g. BAM indexes and pages of compressed BAM data.
+ * <p/>
+ * Entries are grouped under a key derived from the url and a validator (ETag or length) of the remote file,  so a
+ * modified file gets a new key and its stale entries age out.  Each entry is a file,  and the total size is capped
+ * at SAM.DISK_CACHE_MB by evicting least recently used entries.  Recency is kept in the file modification times so
+ * it survives restarts.  Enabled by SAM.DISK_CACHE.
+ */
+public class RemoteFileCache {
+
+    private static Logger log = Logger.getLogger(RemoteFileCache.class);
+
+    private static final String CACHE_FOLDER_NAME = "remote_cache";
+    private static final long MB = RuntimeUtils.MB;
+
+    private static RemoteFileCache instance;
+
+    private final File directory;
+    private long maxSize;
+    private long totalSize = 0;
+
+    // Relative path -> size,  least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(1000, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong bytesFromCache = new AtomicLong();
+
+    /**
+     * @return the cache,  or null if the disk cache is disabled or its directory can't be created
+     */
+    public static synchronized RemoteFileCache getInstance() {
+        PreferenceManager prefs = PreferenceManager.getInstance();
+        if (!prefs.getAsBoolean(PreferenceManager.SAM_DISK_CACHE)) {
+            return null;
+        }
+        if (instance == null) {
+            File directory = new File(Globals.getIgvDirectory(), CACHE_FOLDER_NAME);
+            if (!directory.exists() && !directory.mkdirs()) {
+                log.error("Could not create cache directory: " + directory.getAbsolutePath());
+                return null;
+            }
+            instance = new RemoteFileCache(directory, prefs.getAsInt(PreferenceManager.SAM_DISK_CACHE_MB) * MB);
+        }
+        instance.setMaxSize(prefs.getAsInt(PreferenceManager.SAM_DISK_CACHE_MB) * MB);
+        return instance;
+    }
+
+    RemoteFileCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        loadEntries();
+    }
+
+    /**
+     * Return the key for a remote file.
+     *
+     * @param url       the file url
+     * @param validator a value which changes when the file changes,  the ETag if the server provides one,
+     *                  otherwise the content length
+     */
+    public static String getKey(String url, String validator) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] digest = md5.digest((url + "\n" + validator).getBytes("UTF-8"));
+            StringBuffer buf = new StringBuffer(digest.length * 2);
+            for (byte b : digest) {
+                buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+                buf.append(Character.forDigit(b & 0xF, 16));
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Return the contents of an entry.
+     *
+     * @return the data,  or null if not cached
+     */
+    public byte[] get(String key, String name) {
+        File file = getFile(key, name);
+        if (file == null) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int n = 0;
+            while (n < data.length) {
+                int read = is.read(data, n, data.length - n);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of cache file " + file.getAbsolutePath());
+                }
+                n += read;
+            }
+            bytesFromCache.addAndGet(data.length);
+            return data;
+        } catch (IOException e) {
+            // Evicted or damaged,  treat as a miss
+            log.error("Error reading cache entry " + file.getAbsolutePath(), e);
+            remove(key + "/" + name);
+            hitCount.decrementAndGet();
+            missCount.incrementAndGet();
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    log.error("Error closing cache file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the file of an entry,  for callers which read it directly (e.g. an index).
+     *
+     * @return the file,  or null if not cached
+     */
+    public File getFile(String key, String name) {
+        String path = key + "/" + name;
+        File file = new File(directory, path);
+        synchronized (this) {
+            if (entries.get(path) == null || !file.exists()) {
+                missCount.incrementAndGet();
+                return null;
+            }
+        }
+        hitCount.incrementAndGet();
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    public void put(String key, String name, byte[] data) {
+        File tmpFile = null;
+        OutputStream os = null;
+        try {
+            tmpFile = File.createTempFile("entry", ".tmp", directory);
+            os = new FileOutputStream(tmpFile);
+            os.write(data);
+            os.close();
+            os = null;
+            putFile(key, name, tmpFile);
+        } catch (IOException e) {
+            log.error("Error writing cache entry", e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    log.error("Error closing cache file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a file to the cache.  The file is moved into the cache directory,  so it should be on the same file
+     * system,  e.g. created by {@link #createTempFile()}.
+     *
+     * @return the cached file
+     */
+    public synchronized File putFile(String key, String name, File file) throws IOException {
+        File keyDirectory = new File(directory, key);
+        if (!keyDirectory.exists() && !keyDirectory.mkdir()) {
+            throw new IOException("Could not create cache directory: " + keyDirectory.getAbsolutePath());
+        }
+        String path = key + "/" + name;
+        File dest = new File(directory, path);
+        remove(path);
+        if (!file.renameTo(dest)) {
+            file.delete();
+            throw new IOException("Could not move " + file.getAbsolutePath() + " to " + dest.getAbsolutePath());
+        }
+        entries.put(path, dest.length());
+        totalSize += dest.length();
+        evict(path);
+        return dest;
+    }
+
+    public File createTempFile() throws IOException {
+        return File.createTempFile("entry", ".tmp", directory);
+    }
+
+    private synchronized void remove(String path) {
+        Long size = entries.remove(path);
+        if (size != null) {
+            totalSize -= size;
+        }
+        new File(directory, path).delete();
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict(null);
+    }
+
+    /**
+     * Delete least recently used entries,  other than keep,  until the cache is within its size cap.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+        while (totalSize > maxSize && iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            File file = new File(directory, entry.getKey());
+            if (!file.delete() && file.exists()) {
+                log.info("Could not evict " + file.getAbsolutePath());
+                continue;
+            }
+            totalSize -= entry.getValue();
+            iter.remove();
+            File keyDirectory = file.getParentFile();
+            String[] remaining = keyDirectory.list();
+            if (remaining != null && remaining.length == 0) {
+                keyDirectory.delete();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the LRU order from the modification times of the cached files,  deleting temporary files left by an
+     * interrupted write.
+     */
+    private void loadEntries() {
+        List<File> files = new ArrayList<File>();
+        File[] keyDirectories = directory.listFiles();
+        if (keyDirectories != null) {
+            for (File keyDirectory : keyDirectories) {
+                if (keyDirectory.isDirectory()) {
+                    File[] entryFiles = keyDirectory.listFiles();
+                    if (entryFiles != null) {
+                        Collections.addAll(files, entryFiles);
+                    }
+                } else if (keyDirectory.getName().endsWith(".tmp")) {
+                    keyDirectory.delete();
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                return f1.lastModified() < f2.lastModified() ? -1 : (f1.lastModified() > f2.lastModified() ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            entries.put(file.getParentFile().getName() + "/" + file.getName(), file.length());
+            totalSize += file.length();
+        }
+        evict(null);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return a one line summary of the cache hit rate and size,  for logging
+     */
+    public String getStatistics() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        int hitPercent = total == 0 ? 0 : (int) (100 * hits / total);
+        return "Remote file cache: " + hits + " hits of " + total + " requests (" + hitPercent + "%),  " +
+                (bytesFromCache.get() / MB) + " MB served from disk,  " + (getTotalSize() / MB) + " MB cached";
+    }
+}
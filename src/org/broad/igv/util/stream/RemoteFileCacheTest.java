@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.util.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteFileCacheTest {
+
+    File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("remotecache", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        RemoteFileCache cache = new RemoteFileCache(dir, 1000);
+        assertNull(cache.get("k", "a"));
+        cache.put("k", "a", new byte[]{1, 2, 3});
+
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("k", "a"));
+        assertNull(cache.get("k2", "a"));
+        assertEquals(3, cache.getTotalSize());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testKeyChangesWithValidator() {
+        String url = "http://www.example.com/test.bam";
+        assertEquals(RemoteFileCache.getKey(url, "\"etag1\""), RemoteFileCache.getKey(url, "\"etag1\""));
+        assertFalse(RemoteFileCache.getKey(url, "\"etag1\"").equals(RemoteFileCache.getKey(url, "\"etag2\"")));
+        assertFalse(RemoteFileCache.getKey(url, "1000").equals(RemoteFileCache.getKey(url + "x", "1000")));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RemoteFileCache cache = new RemoteFileCache(dir, 250);
+        cache.put("k", "a", new byte[100]);
+        cache.put("k", "b", new byte[100]);
+        cache.get("k", "a");
+        cache.put("k", "c", new byte[100]);
+
+        assertNotNull(cache.get("k", "a"));
+        assertNull(cache.get("k", "b"));
+        assertNotNull(cache.get("k", "c"));
+        assertEquals(200, cache.getTotalSize());
+
+        cache.setMaxSize(150);
+        assertEquals(100, cache.getTotalSize());
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() {
+        RemoteFileCache cache = new RemoteFileCache(dir, 1000);
+        cache.put("k", "a", new byte[]{4, 5});
+        cache.put("k2", "b", new byte[]{6});
+
+        cache = new RemoteFileCache(dir, 1000);
+        assertArrayEquals(new byte[]{4, 5}, cache.get("k", "a"));
+        assertArrayEquals(new byte[]{6}, cache.get("k2", "b"));
+        assertEquals(3, cache.getTotalSize());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+
+package org.broad.igv.util.stream;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import net.sf.samtools.util.SeekableStream;
+
+/**
+ * A seekable stream over a remote file which reads through a {@link RemoteFileCache}.  The file is cached in pages
+ * of PAGE_SIZE bytes,  a page not found on disk is fetched from the wrapped stream with one request and stored.
+ */
+public class SeekableCachedStream extends SeekableStream {
+
+    static final int PAGE_SIZE = 64 * 1024;
+
+    private final SeekableStream remoteStream;
+    private final RemoteFileCache cache;
+    private final String key;
+    private final long length;
+    private long position = 0;
+
+    private long pageNumber = -1;
+    private byte[] page;
+
+    /**
+     * @param remoteStream stream to fetch uncached pages from
+     * @param key          cache key of the remote file,  see {@link RemoteFileCache#getKey(String, String)}
+     * @param length       length of the remote file
+     */
+    public SeekableCachedStream(SeekableStream remoteStream, RemoteFileCache cache, String key, long length) {
+        this.remoteStream = remoteStream;
+        this.cache = cache;
+        this.key = key;
+        this.length = length;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        loadPage(position / PAGE_SIZE);
+        int pageOffset = (int) (position % PAGE_SIZE);
+        int n = Math.min(len, page.length - pageOffset);
+        System.arraycopy(page, pageOffset, bytes, offset, n);
+        position += n;
+        return n;
+    }
+
+    private void loadPage(long n) throws IOException {
+        if (n == pageNumber) {
+            return;
+        }
+        String name = "p" + n;
+        byte[] data = cache.get(key, name);
+        if (data == null) {
+            long pageStart = n * PAGE_SIZE;
+            data = new byte[(int) Math.min(PAGE_SIZE, length - pageStart)];
+            remoteStream.seek(pageStart);
+            int read = 0;
+            while (read < data.length) {
+                int count = remoteStream.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new EOFException("Unexpected end of " + remoteStream.getSource() + " at " +
+                            (pageStart + read));
+                }
+                read += count;
+            }
+            cache.put(key, name, data);
+        }
+        page = data;
+        pageNumber = n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        remoteStream.close();
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return position >= length;
+    }
+
+    @Override
+    public String getSource() {
+        return remoteStream.getSource();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2007-2011 by The Broad Institute of MIT and Harvard.  All Rights Reserved.
+ *
+ * This software is licensed under the terms of the GNU Lesser General Public License (LGPL),
+ * Version 2.1 which is available at http://www.opensource.org/licenses/lgpl-2.1.php.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS." THE BROAD AND MIT MAKE NO REPRESENTATIONS OR
+ * WARRANTES OF ANY KIND CONCERNING THE SOFTWARE, EXPRESS OR IMPLIED, INCLUDING,
+ * WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER
+ * OR NOT DISCOVERABLE.  IN NO EVENT SHALL THE BROAD OR MIT, OR THEIR RESPECTIVE
+ * TRUSTEES, DIRECTORS, OFFICERS, EMPLOYEES, AND AFFILIATES BE LIABLE FOR ANY DAMAGES
+ * OF ANY KIND, INCLUDING, WITHOUT LIMITATION, INCIDENTAL OR CONSEQUENTIAL DAMAGES,
+ * ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER
+ * THE BROAD OR MIT SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT
+ * SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+ */
+package org.broad.igv.util.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sf.samtools.util.SeekableFileStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeekableCachedStreamTest {
+
+    static final int PAGE_SIZE = SeekableCachedStream.PAGE_SIZE;
+
+    File dir;
+
+    /**
+     * A local file standing in for the remote one,  counting the bytes fetched
+     */
+    static class CountingStream extends SeekableFileStream {
+        long bytesRead = 0;
+
+        CountingStream(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                bytesRead += n;
+            }
+            return n;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("cachedstream", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testReadsAcrossPageBoundaries() throws IOException {
+        // Two and a half pages,  the last page is partial
+        byte[] data = createData(2 * PAGE_SIZE + PAGE_SIZE / 2, 1);
+        File file = writeFile("remote.bin", data);
+        RemoteFileCache cache = createCache();
+
+        SeekableCachedStream stream = new SeekableCachedStream(new CountingStream(file), cache, "k", data.length);
+        assertArrayEquals(Arrays.copyOfRange(data, PAGE_SIZE - 10, PAGE_SIZE + 10),
+                read(stream, PAGE_SIZE - 10, 20));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 2 * PAGE_SIZE + 100), read(stream, 10, 2 * PAGE_SIZE + 90));
+        assertArrayEquals(data, read(stream, 0, data.length));
+
+        stream.seek(PAGE_SIZE);
+        assertEquals(data[PAGE_SIZE] & 0xFF, stream.read());
+        stream.close();
+    }
+
+    @Test
+    public void testPartialLastPage() throws IOException {
+        byte[] data = createData(PAGE_SIZE + 100, 2);
+        File file = writeFile("remote.bin", data);
+        RemoteFileCache cache = createCache();
+
+        SeekableCachedStream stream = new SeekableCachedStream(new CountingStream(file), cache, "k", data.length);
+        assertArrayEquals(Arrays.copyOfRange(data, PAGE_SIZE + 50, PAGE_SIZE + 100),
+                read(stream, PAGE_SIZE + 50, 50));
+        assertTrue(stream.eof());
+
+        // Reads at the end return -1,  and the cached page has only the bytes of the file
+        byte[] buffer = new byte[10];
+        assertEquals(-1, stream.read(buffer, 0, buffer.length));
+        assertEquals(-1, stream.read());
+        assertEquals(100, cache.get("k", "p1").length);
+        stream.close();
+    }
+
+    @Test
+    public void testCachedPagesAreNotFetchedAgain() throws IOException {
+        byte[] data = createData(3 * PAGE_SIZE, 3);
+        File file = writeFile("remote.bin", data);
+        RemoteFileCache cache = createCache();
+
+        CountingStream remote = new CountingStream(file);
+        SeekableCachedStream stream = new SeekableCachedStream(remote, cache, "k", data.length);
+        read(stream, PAGE_SIZE + 1, 10);
+        assertEquals(PAGE_SIZE, remote.bytesRead);
+        stream.close();
+
+        // A new stream,  e.g. after a restart,  reads the page from disk
+        remote = new CountingStream(file);
+        stream = new SeekableCachedStream(remote, cache, "k", data.length);
+        assertArrayEquals(Arrays.copyOfRange(data, PAGE_SIZE, 2 * PAGE_SIZE), read(stream, PAGE_SIZE, PAGE_SIZE));
+        assertEquals(0, remote.bytesRead);
+
+        read(stream, 0, 10);
+        assertEquals(PAGE_SIZE, remote.bytesRead);
+        stream.close();
+    }
+
+    @Test
+    public void testNewETagInvalidates() throws IOException {
+        String url = "http://www.example.com/test.bam";
+        byte[] data = createData(PAGE_SIZE + 1000, 4);
+        RemoteFileCache cache = createCache();
+
+        String key = RemoteFileCache.getKey(url, "\"etag1\"");
+        SeekableCachedStream stream =
+                new SeekableCachedStream(new CountingStream(writeFile("v1.bin", data)), cache, key, data.length);
+        assertArrayEquals(data, read(stream, 0, data.length));
+        stream.close();
+
+        // The file is replaced,  the server reports a new ETag
+        byte[] newData = createData(data.length, 5);
+        String newKey = RemoteFileCache.getKey(url, "\"etag2\"");
+        assertFalse(newKey.equals(key));
+
+        CountingStream remote = new CountingStream(writeFile("v2.bin", newData));
+        stream = new SeekableCachedStream(remote, cache, newKey, newData.length);
+        assertArrayEquals(newData, read(stream, 0, newData.length));
+        assertEquals(newData.length, remote.bytesRead);
+        stream.close();
+    }
+
+    RemoteFileCache createCache() {
+        File cacheDir = new File(dir, "cache");
+        cacheDir.mkdir();
+        return new RemoteFileCache(cacheDir, 100 * PAGE_SIZE);
+    }
+
+    File writeFile(String name, byte[] data) throws IOException {
+        File file = new File(dir, name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+
+    static byte[] createData(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    static byte[] read(SeekableCachedStream stream, long position, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        stream.seek(position);
+        int n = 0;
+        while (n < length) {
+            int count = stream.read(buffer, n, length - n);
+            assertTrue(count > 0);
+            n += count;
+        }
+        return buffer;
+    }
+}